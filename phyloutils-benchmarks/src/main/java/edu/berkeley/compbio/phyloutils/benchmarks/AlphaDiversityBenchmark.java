@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils.benchmarks;
+
+import com.davidsoergel.trees.NoSuchNodeException;
+import com.davidsoergel.trees.RootedPhylogeny;
+import edu.berkeley.compbio.phyloutils.alphadiversity.AlphaDiversityBatch;
+import edu.berkeley.compbio.phyloutils.alphadiversity.FaithPD;
+import edu.berkeley.compbio.phyloutils.alphadiversity.PhylogeneticShannon;
+import edu.berkeley.compbio.phyloutils.alphadiversity.Shannon;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Times every alpha diversity measure: the Statistics on the first sample's tree, and AlphaDiversityBatch on all the
+ * samples at once.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class AlphaDiversityBenchmark
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	private RootedPhylogeny<Integer> sample;
+	private List<Map<Integer, Double>> counts;
+
+	private final FaithPD<Integer> faithPD = new FaithPD<Integer>();
+	private final Shannon<Integer> shannon = new Shannon<Integer>();
+	private final PhylogeneticShannon<Integer> phylogeneticShannon = new PhylogeneticShannon<Integer>();
+	private AlphaDiversityBatch<Integer> alphaDiversityBatch;
+
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	@Setup(Level.Trial)
+	public void setUp(TaxonomyState taxonomy, SamplesState samples)
+		{
+		sample = samples.getTrees().get(0);
+		counts = samples.getCounts();
+		alphaDiversityBatch = new AlphaDiversityBatch<Integer>(taxonomy.getCompactTree());
+		}
+
+	@Benchmark
+	public double faithPD()
+		{
+		return faithPD.measure(sample);
+		}
+
+	@Benchmark
+	public double shannon()
+		{
+		return shannon.measure(sample);
+		}
+
+	@Benchmark
+	public double phylogeneticShannon()
+		{
+		return phylogeneticShannon.measure(sample);
+		}
+
+	@Benchmark
+	public AlphaDiversityBatch.Result alphaDiversityBatch() throws NoSuchNodeException
+		{
+		return alphaDiversityBatch.compute(counts);
+		}
+	}
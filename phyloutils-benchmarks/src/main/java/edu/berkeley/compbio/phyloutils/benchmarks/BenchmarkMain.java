@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils.benchmarks;
+
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collection;
+
+
+/**
+ * Entry point of the benchmarks jar.  Runs the benchmarks selected by the usual JMH command-line options and writes
+ * their results to a BenchmarkResults file as well as to the console:
+ * <pre>
+ *     java -jar benchmarks.jar [-results file] [JMH options]
+ * </pre>
+ * where the results file defaults to benchmark-results.tsv.  Two such files are compared with
+ * <pre>
+ *     java -jar benchmarks.jar compare old.tsv new.tsv
+ * </pre>
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+public final class BenchmarkMain
+	{
+	private static final Logger logger = Logger.getLogger(BenchmarkMain.class);
+
+	private static final String DEFAULT_RESULTS = "benchmark-results.tsv";
+
+
+	// --------------------------- CONSTRUCTORS ---------------------------
+
+	private BenchmarkMain()
+		{
+		}
+
+	// -------------------------- STATIC METHODS --------------------------
+
+	public static void main(String[] argv) throws IOException, RunnerException, CommandLineOptionException
+		{
+		if (argv.length > 0 && argv[0].equals("compare"))
+			{
+			if (argv.length != 3)
+				{
+				System.err.println("Usage: compare <old results> <new results>");
+				System.exit(1);
+				}
+			BenchmarkResults.read(Paths.get(argv[1])).compareTo(BenchmarkResults.read(Paths.get(argv[2])), System.out);
+			return;
+			}
+
+		Path resultsPath = Paths.get(DEFAULT_RESULTS);
+		String[] jmhArgs = argv;
+		if (argv.length >= 2 && argv[0].equals("-results"))
+			{
+			resultsPath = Paths.get(argv[1]);
+			jmhArgs = Arrays.copyOfRange(argv, 2, argv.length);
+			}
+
+		CommandLineOptions options = new CommandLineOptions(jmhArgs);
+		if (options.shouldHelp() || options.shouldList() || options.shouldListWithParams()
+		    || options.shouldListProfilers() || options.shouldListResultFormats())
+			{
+			// nothing will be run, so let JMH handle it as usual
+			Main.main(jmhArgs);
+			return;
+			}
+
+		Collection<RunResult> results = new Runner(options).run();
+		new BenchmarkResults(results).write(resultsPath);
+		logger.info("Wrote " + results.size() + " results to " + resultsPath.toAbsolutePath());
+		}
+	}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils.benchmarks;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * Reads, writes and compares benchmark results in a stable text format meant to be kept under version control and
+ * diffed: one tab-separated line per benchmark and parameter combination, sorted, with the parameters in alphabetical
+ * order and the scores rounded to four significant digits, so that two runs differ only where the numbers do.
+ * <p/>
+ * The columns are benchmark (the class and method name), params (name=value pairs separated by commas), mode, samples,
+ * score, error (the half-width of the 99.9% confidence interval, as JMH reports it) and unit.  Lines starting with '#'
+ * are comments.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+public final class BenchmarkResults
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final MathContext SIGNIFICANT_DIGITS = new MathContext(4);
+
+	private static final String HEADER = "# benchmark\tparams\tmode\tsamples\tscore\terror\tunit";
+
+	/**
+	 * The rows, keyed by benchmark, params and mode
+	 */
+	private final Map<String, Row> rows = new TreeMap<String, Row>();
+
+
+	// --------------------------- CONSTRUCTORS ---------------------------
+
+	public BenchmarkResults(Collection<RunResult> results)
+		{
+		for (RunResult result : results)
+			{
+			BenchmarkParams params = result.getParams();
+			String benchmark = params.getBenchmark();
+			benchmark = benchmark.substring(benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1);
+
+			StringBuilder sb = new StringBuilder();
+			for (Map.Entry<String, String> param : paramMap(params).entrySet())
+				{
+				if (sb.length() > 0)
+					{
+					sb.append(',');
+					}
+				sb.append(param.getKey()).append('=').append(param.getValue());
+				}
+
+			Result primary = result.getPrimaryResult();
+			add(new Row(benchmark, sb.toString(), params.getMode().shortLabel(), primary.getSampleCount(),
+			            primary.getScore(), primary.getScoreError(), primary.getScoreUnit()));
+			}
+		}
+
+	private BenchmarkResults()
+		{
+		}
+
+	// -------------------------- STATIC METHODS --------------------------
+
+	/**
+	 * @return the benchmark's parameters, sorted by name
+	 */
+	private static Map<String, String> paramMap(BenchmarkParams params)
+		{
+		Map<String, String> result = new TreeMap<String, String>();
+		for (Object key : params.getParamsKeys())
+			{
+			result.put((String) key, params.getParam((String) key));
+			}
+		return result;
+		}
+
+	public static BenchmarkResults read(Path path) throws IOException
+		{
+		BenchmarkResults result = new BenchmarkResults();
+		BufferedReader in = Files.newBufferedReader(path, UTF8);
+		try
+			{
+			String line;
+			while ((line = in.readLine()) != null)
+				{
+				if (line.isEmpty() || line.startsWith("#"))
+					{
+					continue;
+					}
+				String[] sp = line.split("\t", -1);
+				if (sp.length != 7)
+					{
+					throw new IOException("Malformed benchmark result in " + path + ": " + line);
+					}
+				result.add(new Row(sp[0], sp[1], sp[2], Long.parseLong(sp[3]), Double.parseDouble(sp[4]),
+				                   Double.parseDouble(sp[5]), sp[6]));
+				}
+			}
+		finally
+			{
+			in.close();
+			}
+		return result;
+		}
+
+	private static String round(double x)
+		{
+		if (Double.isNaN(x) || Double.isInfinite(x))
+			{
+			return Double.toString(x);
+			}
+		return new BigDecimal(x).round(SIGNIFICANT_DIGITS).stripTrailingZeros().toPlainString();
+		}
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	private void add(Row row)
+		{
+		rows.put(row.getKey(), row);
+		}
+
+	public void write(Path path) throws IOException
+		{
+		Writer out = Files.newBufferedWriter(path, UTF8);
+		try
+			{
+			out.write(HEADER + "\n");
+			for (Row row : rows.values())
+				{
+				out.write(row.toString() + "\n");
+				}
+			}
+		finally
+			{
+			out.close();
+			}
+		}
+
+	/**
+	 * Print the ratio of the new score to the old one for each benchmark present in both sets of results, marking those
+	 * whose difference exceeds the sum of the two errors as faster or slower, and list the benchmarks present in only
+	 * one of them.
+	 */
+	public void compareTo(BenchmarkResults newer, PrintStream out)
+		{
+		out.println("# benchmark\tparams\tmode\told\tnew\tunit\tratio\tchange");
+		List<String> removed = new ArrayList<String>();
+		for (Row old : rows.values())
+			{
+			Row row = newer.rows.get(old.getKey());
+			if (row == null)
+				{
+				removed.add(old.getKey());
+				continue;
+				}
+
+			String change = "";
+			if (Math.abs(row.score - old.score) > row.error + old.error)
+				{
+				// in throughput modes a larger score is better; in the time modes it is worse
+				boolean larger = row.score > old.score;
+				change = larger == old.mode.equals("thrpt") ? "faster" : "slower";
+				}
+			out.println(old.getKey() + "\t" + round(old.score) + "\t" + round(row.score) + "\t" + row.unit + "\t"
+			            + String.format(Locale.US, "%.3f", row.score / old.score) + "\t" + change);
+			}
+		for (String key : removed)
+			{
+			out.println("# only in old results: " + key.replace('\t', ' '));
+			}
+		for (String key : newer.rows.keySet())
+			{
+			if (!rows.containsKey(key))
+				{
+				out.println("# only in new results: " + key.replace('\t', ' '));
+				}
+			}
+		}
+
+	// -------------------------- INNER CLASSES --------------------------
+
+	private static class Row
+		{
+		private final String benchmark;
+		private final String params;
+		private final String mode;
+		private final long samples;
+		private final double score;
+		private final double error;
+		private final String unit;
+
+		Row(String benchmark, String params, String mode, long samples, double score, double error, String unit)
+			{
+			this.benchmark = benchmark;
+			this.params = params;
+			this.mode = mode;
+			this.samples = samples;
+			this.score = score;
+			this.error = error;
+			this.unit = unit;
+			}
+
+		String getKey()
+			{
+			return benchmark + "\t" + params + "\t" + mode;
+			}
+
+		@Override
+		public String toString()
+			{
+			return getKey() + "\t" + samples + "\t" + round(score) + "\t" + round(error) + "\t" + unit;
+			}
+		}
+	}
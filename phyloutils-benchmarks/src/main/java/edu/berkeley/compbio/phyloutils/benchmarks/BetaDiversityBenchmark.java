@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils.benchmarks;
+
+import com.davidsoergel.trees.NoSuchNodeException;
+import com.davidsoergel.trees.RootedPhylogeny;
+import edu.berkeley.compbio.phyloutils.CompactRootedPhylogeny;
+import edu.berkeley.compbio.phyloutils.PhyloUtilsException;
+import edu.berkeley.compbio.phyloutils.betadiversity.FusedPhylogeneticDivergence;
+import edu.berkeley.compbio.phyloutils.betadiversity.IncrementalWeightedUniFrac;
+import edu.berkeley.compbio.phyloutils.betadiversity.JDivergence;
+import edu.berkeley.compbio.phyloutils.betadiversity.KullbackLeibler;
+import edu.berkeley.compbio.phyloutils.betadiversity.NormalizedWeightedUniFrac;
+import edu.berkeley.compbio.phyloutils.betadiversity.PhylogeneticJDivergence;
+import edu.berkeley.compbio.phyloutils.betadiversity.PhylogeneticKullbackLeibler;
+import edu.berkeley.compbio.phyloutils.betadiversity.PresenceAbsenceUniFrac;
+import edu.berkeley.compbio.phyloutils.betadiversity.UniFracMatrix;
+import edu.berkeley.compbio.phyloutils.betadiversity.UnweightedUniFrac;
+import edu.berkeley.compbio.phyloutils.betadiversity.WeightedUniFrac;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Times every beta diversity measure.  The pairwise measures compare the first two samples; the matrix engines take
+ * all of them; and the incremental weighted UniFrac adds up the first sample against the others as references.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class BetaDiversityBenchmark
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	private RootedPhylogeny<Integer> a;
+	private RootedPhylogeny<Integer> b;
+	private List<Map<Integer, Double>> counts;
+	private List<Set<Integer>> leafSets;
+
+	private final WeightedUniFrac<Integer> weightedUniFrac = new WeightedUniFrac<Integer>();
+	private WeightedUniFrac<Integer> weightedUniFracOverVirtualTrees;
+	private final NormalizedWeightedUniFrac<Integer> normalizedWeightedUniFrac =
+			new NormalizedWeightedUniFrac<Integer>();
+	private final UnweightedUniFrac<Integer> unweightedUniFrac = new UnweightedUniFrac<Integer>();
+	private final KullbackLeibler<Integer> kullbackLeibler = new KullbackLeibler<Integer>();
+	private final JDivergence<Integer> jDivergence = new JDivergence<Integer>();
+	private final PhylogeneticKullbackLeibler<Integer> phylogeneticKullbackLeibler =
+			new PhylogeneticKullbackLeibler<Integer>();
+	private final PhylogeneticJDivergence<Integer> phylogeneticJDivergence = new PhylogeneticJDivergence<Integer>();
+	private final FusedPhylogeneticDivergence<Integer> fusedPhylogeneticDivergence =
+			new FusedPhylogeneticDivergence<Integer>();
+	private UniFracMatrix<Integer> uniFracMatrix;
+	private PresenceAbsenceUniFrac<Integer> presenceAbsenceUniFrac;
+	private IncrementalWeightedUniFrac<Integer> incrementalWeightedUniFrac;
+
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	@Setup(Level.Trial)
+	public void setUp(TaxonomyState taxonomy, SamplesState samples) throws NoSuchNodeException
+		{
+		a = samples.getTrees().get(0);
+		b = samples.getTrees().get(1);
+		counts = samples.getCounts();
+		leafSets = samples.getLeafSets();
+
+		CompactRootedPhylogeny<Integer> compactTree = taxonomy.getCompactTree();
+		weightedUniFracOverVirtualTrees = new WeightedUniFrac<Integer>(compactTree);
+		uniFracMatrix = new UniFracMatrix<Integer>(compactTree);
+		presenceAbsenceUniFrac = new PresenceAbsenceUniFrac<Integer>(compactTree);
+		incrementalWeightedUniFrac =
+				new IncrementalWeightedUniFrac<Integer>(compactTree, counts.subList(1, counts.size()));
+		}
+
+	@Benchmark
+	public double weightedUniFrac()
+		{
+		return weightedUniFrac.distanceFromTo(a, b);
+		}
+
+	@Benchmark
+	public double weightedUniFracOverVirtualTrees()
+		{
+		return weightedUniFracOverVirtualTrees.distanceFromTo(a, b);
+		}
+
+	@Benchmark
+	public double normalizedWeightedUniFrac()
+		{
+		return normalizedWeightedUniFrac.distanceFromTo(a, b);
+		}
+
+	@Benchmark
+	public double unweightedUniFrac()
+		{
+		return unweightedUniFrac.distanceFromTo(a, b);
+		}
+
+	@Benchmark
+	public double kullbackLeibler()
+		{
+		return kullbackLeibler.distanceFromTo(a, b);
+		}
+
+	@Benchmark
+	public double jDivergence()
+		{
+		return jDivergence.distanceFromTo(a, b);
+		}
+
+	@Benchmark
+	public double phylogeneticKullbackLeibler()
+		{
+		return phylogeneticKullbackLeibler.distanceFromTo(a, b);
+		}
+
+	@Benchmark
+	public double phylogeneticJDivergence()
+		{
+		return phylogeneticJDivergence.distanceFromTo(a, b);
+		}
+
+	@Benchmark
+	public FusedPhylogeneticDivergence.Result fusedPhylogeneticDivergence()
+			throws PhyloUtilsException, NoSuchNodeException
+		{
+		return fusedPhylogeneticDivergence.evaluate(a, b);
+		}
+
+	@Benchmark
+	public UniFracMatrix.Result uniFracMatrix() throws NoSuchNodeException
+		{
+		return uniFracMatrix.compute(counts);
+		}
+
+	@Benchmark
+	public double[][] presenceAbsenceUniFracMatrix() throws NoSuchNodeException
+		{
+		return presenceAbsenceUniFrac.distanceMatrixOf(leafSets);
+		}
+
+	@Benchmark
+	public double[] incrementalWeightedUniFrac() throws NoSuchNodeException
+		{
+		incrementalWeightedUniFrac.clear();
+		for (Map.Entry<Integer, Double> entry : counts.get(0).entrySet())
+			{
+			incrementalWeightedUniFrac.add(entry.getKey(), entry.getValue());
+			}
+		return incrementalWeightedUniFrac.getDistances();
+		}
+	}
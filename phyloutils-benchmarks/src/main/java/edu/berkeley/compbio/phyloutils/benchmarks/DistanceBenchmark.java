@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils.benchmarks;
+
+import com.davidsoergel.trees.NoSuchNodeException;
+import edu.berkeley.compbio.phyloutils.NewickWithSynonymsAndRanksTaxonomyService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Times minDistanceBetween on random pairs of nodes, leaves and internal nodes alike: one pair at a time through
+ * minDistanceBetweenIds and the boxed Integer signature, and all the pairs at once through the batch signature (reported
+ * per pair).
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class DistanceBenchmark
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	private static final long SEED = 8765;
+
+	private NewickWithSynonymsAndRanksTaxonomyService service;
+	private final int[] a = new int[QueryCursor.QUERIES];
+	private final int[] b = new int[QueryCursor.QUERIES];
+	private final Integer[] boxedA = new Integer[QueryCursor.QUERIES];
+	private final Integer[] boxedB = new Integer[QueryCursor.QUERIES];
+
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	@Setup(Level.Trial)
+	public void setUp(TaxonomyState taxonomy)
+		{
+		service = taxonomy.getService();
+
+		Random random = new Random(SEED);
+		int nodes = SyntheticTaxonomy.nodeCount(taxonomy.leaves);
+		for (int i = 0; i < QueryCursor.QUERIES; i++)
+			{
+			a[i] = 1 + random.nextInt(nodes);
+			b[i] = 1 + random.nextInt(nodes);
+			boxedA[i] = a[i];
+			boxedB[i] = b[i];
+			}
+		}
+
+	@Benchmark
+	public double minDistanceBetween(QueryCursor cursor) throws NoSuchNodeException
+		{
+		int i = cursor.next();
+		return service.minDistanceBetweenIds(a[i], b[i]);
+		}
+
+	@Benchmark
+	public double minDistanceBetweenBoxed(QueryCursor cursor) throws NoSuchNodeException
+		{
+		int i = cursor.next();
+		return service.minDistanceBetween(boxedA[i], boxedB[i]);
+		}
+
+	@Benchmark
+	@OperationsPerInvocation(QueryCursor.QUERIES)
+	public double[] minDistanceBetweenBatch()
+		{
+		double[] out = new double[QueryCursor.QUERIES];
+		service.minDistanceBetween(a, b, out);
+		return out;
+		}
+	}
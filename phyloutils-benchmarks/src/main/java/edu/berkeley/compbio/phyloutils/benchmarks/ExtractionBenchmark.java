@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils.benchmarks;
+
+import com.davidsoergel.trees.BasicRootedPhylogeny;
+import com.davidsoergel.trees.NoSuchNodeException;
+import edu.berkeley.compbio.phyloutils.CompactRootedPhylogeny;
+import edu.berkeley.compbio.phyloutils.CompactSubtreeView;
+import edu.berkeley.compbio.phyloutils.NewickWithSynonymsAndRanksTaxonomyService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Times the extraction of the subtree spanning a random set of leaves: as a copied tree with extractTreeWithLeafIDs,
+ * as a CompactSubtreeView found by walking up from each leaf, and as a CompactSubtreeView built as a virtual tree from
+ * the leaves' common ancestors.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class ExtractionBenchmark
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	private static final long SEED = 2468;
+
+	@Param({"100", "10000"})
+	public int requestedLeaves;
+
+	private NewickWithSynonymsAndRanksTaxonomyService service;
+	private CompactRootedPhylogeny<Integer> compactTree;
+	private final Set<Integer> ids = new HashSet<Integer>();
+
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	@Setup(Level.Trial)
+	public void setUp(TaxonomyState taxonomy)
+		{
+		service = taxonomy.getService();
+		compactTree = taxonomy.getCompactTree();
+
+		ids.clear();
+		for (int leaf : SyntheticTaxonomy.randomLeaves(taxonomy.leaves, requestedLeaves, new Random(SEED)))
+			{
+			ids.add(leaf);
+			}
+		}
+
+	@Benchmark
+	public BasicRootedPhylogeny<Integer> extractTreeWithLeafIDs() throws NoSuchNodeException
+		{
+		return service.extractTreeWithLeafIDs(ids, false, false);
+		}
+
+	@Benchmark
+	public CompactSubtreeView<Integer> extractViewWithLeafIDs() throws NoSuchNodeException
+		{
+		return service.extractViewWithLeafIDs(ids, false, false);
+		}
+
+	@Benchmark
+	public CompactSubtreeView<Integer> virtualTree() throws NoSuchNodeException
+		{
+		return CompactSubtreeView.virtualTree(compactTree, ids, false);
+		}
+	}
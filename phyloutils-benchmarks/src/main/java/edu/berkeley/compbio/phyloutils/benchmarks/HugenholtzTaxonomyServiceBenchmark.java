@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils.benchmarks;
+
+import com.davidsoergel.trees.NoSuchNodeException;
+import edu.berkeley.compbio.phyloutils.HugenholtzTaxonomyService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures the query throughput of HugenholtzTaxonomyService over all threads, both calling the service directly and
+ * through a single monitor (as every query used to be synchronized).  Each query is the mix a classification server
+ * makes per read: a name lookup, a distance, a depth and a descendant test.  Runs on as many threads as there are
+ * processors; to see how throughput scales, run it again with e.g. -t 1, -t 2 and so on.
+ * <p/>
+ * The service is loaded from the synthetic tree through the usual CacheManager, so the cache root should be configured
+ * as for any other use of the service.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+@Threads(Threads.MAX)
+public class HugenholtzTaxonomyServiceBenchmark
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	private static final long SEED = 5678;
+
+	@Param({"10000", "100000", "1000000"})
+	public int leaves;
+
+	private HugenholtzTaxonomyService service;
+	private final int[] a = new int[QueryCursor.QUERIES];
+	private final int[] b = new int[QueryCursor.QUERIES];
+	private final String[] names = new String[QueryCursor.QUERIES];
+
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException
+		{
+		service = new HugenholtzTaxonomyService();
+		service.setHugenholtzFilename(
+				new File(SyntheticTaxonomy.directory(leaves), SyntheticTaxonomy.TREE_FILENAME).getPath());
+		service.init();
+
+		Random random = new Random(SEED);
+		for (int i = 0; i < QueryCursor.QUERIES; i++)
+			{
+			a[i] = 1 + random.nextInt(leaves);
+			b[i] = 1 + random.nextInt(leaves);
+			names[i] = Integer.toString(a[i]);
+			}
+		}
+
+	@Benchmark
+	public double query(QueryCursor cursor) throws NoSuchNodeException
+		{
+		return query(cursor.next());
+		}
+
+	@Benchmark
+	public double querySynchronized(QueryCursor cursor) throws NoSuchNodeException
+		{
+		int i = cursor.next();
+		synchronized (this)
+			{
+			return query(i);
+			}
+		}
+
+	private double query(int i) throws NoSuchNodeException
+		{
+		double result = service.findTaxidByName(names[i]);
+		result += service.minDistanceBetween(a[i], b[i]);
+		result += service.getDepthFromRoot(b[i]);
+		if (service.isDescendant(a[i], b[i]))
+			{
+			result += 1;
+			}
+		return result;
+		}
+	}
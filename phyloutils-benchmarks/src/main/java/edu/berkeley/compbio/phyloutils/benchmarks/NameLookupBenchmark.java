@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils.benchmarks;
+
+import com.davidsoergel.trees.NoSuchNodeException;
+import edu.berkeley.compbio.phyloutils.NewickWithSynonymsAndRanksTaxonomyService;
+import edu.berkeley.compbio.phyloutils.PhyloUtilsException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Times findTaxidByName and findTaxidByNameRelaxed, cycling through a fixed set of queries: exact queries alternate
+ * between scientific names and synonyms, and relaxed queries add a strain designation that has to be stripped.
+ * <p/>
+ * With nameSource "maps" the names are resolved from the name maps on the heap, through the memos, which are warm
+ * after the first pass over the queries; with "dictionary" they are resolved directly against a MappedNameDictionary,
+ * which is never memoized.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class NameLookupBenchmark
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	private static final long SEED = 4321;
+
+	@Param({"maps", "dictionary"})
+	public String nameSource;
+
+	private NewickWithSynonymsAndRanksTaxonomyService service;
+	private final String[] exactNames = new String[QueryCursor.QUERIES];
+	private final String[] relaxedNames = new String[QueryCursor.QUERIES];
+
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	@Setup(Level.Trial)
+	public void setUp(TaxonomyState taxonomy) throws IOException, PhyloUtilsException
+		{
+		service = taxonomy.getService();
+		if (nameSource.equals("dictionary"))
+			{
+			File dictionary = new File(taxonomy.getDirectory(), "names.dictionary");
+			if (!dictionary.exists())
+				{
+				service.saveNameDictionary(dictionary.toPath());
+				}
+			service.useNameDictionary(dictionary.toPath());
+			}
+
+		Random random = new Random(SEED);
+		for (int i = 0; i < QueryCursor.QUERIES; i++)
+			{
+			int leaf = 1 + random.nextInt(taxonomy.leaves);
+			exactNames[i] = i % 2 == 0 ? SyntheticTaxonomy.scientificName(leaf) : SyntheticTaxonomy.synonym(leaf);
+			relaxedNames[i] = SyntheticTaxonomy.scientificName(leaf) + " str. " + random.nextInt(1000);
+			}
+		}
+
+	@Benchmark
+	public Integer findTaxidByName(QueryCursor cursor) throws NoSuchNodeException
+		{
+		return service.findTaxidByName(exactNames[cursor.next()]);
+		}
+
+	@Benchmark
+	public Integer findTaxidByNameRelaxed(QueryCursor cursor) throws NoSuchNodeException
+		{
+		return service.findTaxidByNameRelaxed(relaxedNames[cursor.next()]);
+		}
+	}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils.benchmarks;
+
+import com.davidsoergel.trees.BasicRootedPhylogeny;
+import com.davidsoergel.trees.IntegerNodeNamer;
+import com.davidsoergel.trees.StringNodeNamer;
+import com.davidsoergel.trees.TreeException;
+import edu.berkeley.compbio.phyloutils.NewickParser;
+import edu.berkeley.compbio.phyloutils.NewickTokenizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Times NewickParser.read on the synthetic trees, from bytes already in memory (the tokenizer and tree building alone)
+ * and from the file (adding the memory mapping), and times the NewickTokenizer alone on the same bytes.  Building the
+ * nodes takes most of the time of a parse, so the parse gains much less than the tokenizer from a faster tokenizer.
+ * <p/>
+ * To compare against the StreamTokenizer-based parser, run the read benchmarks on a build from before NewickTokenizer
+ * and compare the two results files with BenchmarkMain.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class NewickParsingBenchmark
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	@Param({"10000", "100000", "1000000"})
+	public int leaves;
+
+	private Path path;
+	private byte[] bytes;
+
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException
+		{
+		path = SyntheticTaxonomy.directory(leaves).toPath().resolve(SyntheticTaxonomy.TREE_FILENAME);
+		bytes = Files.readAllBytes(path);
+		}
+
+	/**
+	 * Read every token, doing what the parser does with it but without building any nodes.
+	 */
+	@Benchmark
+	public int tokenize() throws IOException
+		{
+		NewickTokenizer st = new NewickTokenizer(new ByteArrayInputStream(bytes));
+		int result = 0;
+		while (st.nextToken() != NewickTokenizer.TT_EOF)
+			{
+			if (st.ttype == NewickTokenizer.TT_WORD)
+				{
+				result += st.sval.length();
+				}
+			else if (st.ttype == NewickTokenizer.TT_NUMBER)
+				{
+				result += (int) st.readExponent();
+				}
+			result++;
+			}
+		return result;
+		}
+
+	@Benchmark
+	public BasicRootedPhylogeny<String> readStringIds() throws TreeException
+		{
+		return new NewickParser<String>()
+				.read(new ByteArrayInputStream(bytes), new StringNodeNamer("UNNAMED ", false, false));
+		}
+
+	@Benchmark
+	public BasicRootedPhylogeny<Integer> readIntegerIds() throws TreeException
+		{
+		return new NewickParser<Integer>().read(new ByteArrayInputStream(bytes), new IntegerNodeNamer());
+		}
+
+	@Benchmark
+	public BasicRootedPhylogeny<Integer> readIntegerIdsFromFile() throws TreeException, IOException
+		{
+		return new NewickParser<Integer>().read(path, new IntegerNodeNamer());
+		}
+	}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils.benchmarks;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+
+/**
+ * Each thread's position in a benchmark's fixed, cyclic list of queries, so that successive invocations don't all ask
+ * the same question.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+@State(Scope.Thread)
+public class QueryCursor
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	/**
+	 * The number of queries a benchmark prepares; a power of two
+	 */
+	public static final int QUERIES = 4096;
+
+	private int position;
+
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	public int next()
+		{
+		position = (position + 1) & (QUERIES - 1);
+		return position;
+		}
+	}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils.benchmarks;
+
+import com.davidsoergel.trees.AbstractRootedPhylogeny;
+import com.davidsoergel.trees.NoSuchNodeException;
+import com.davidsoergel.trees.RootedPhylogeny;
+import com.davidsoergel.trees.TreeException;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+
+/**
+ * Random abundance samples over a synthetic taxonomy, for the diversity benchmarks.  Each sample holds sampleSize
+ * distinct leaves drawn uniformly from the whole tree, each with a count between 1 and 20; the samples are provided
+ * as weighted trees extracted from the base tree (for the DissimilarityMeasures and Statistics), as maps from leaf id to
+ * count (for the batch engines) and as bare leaf sets (for presence/absence UniFrac).
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+public class SamplesState
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	private static final long SEED = 5678;
+
+	@Param({"1000"})
+	public int sampleSize;
+
+	@Param({"16"})
+	public int numSamples;
+
+	private final List<RootedPhylogeny<Integer>> trees = new ArrayList<RootedPhylogeny<Integer>>();
+	private final List<Map<Integer, Double>> counts = new ArrayList<Map<Integer, Double>>();
+	private final List<Set<Integer>> leafSets = new ArrayList<Set<Integer>>();
+
+
+	// --------------------------- GETTER/SETTER METHODS ---------------------------
+
+	public List<RootedPhylogeny<Integer>> getTrees()
+		{
+		return trees;
+		}
+
+	public List<Map<Integer, Double>> getCounts()
+		{
+		return counts;
+		}
+
+	public List<Set<Integer>> getLeafSets()
+		{
+		return leafSets;
+		}
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	@Setup(Level.Trial)
+	public void setUp(TaxonomyState taxonomy) throws NoSuchNodeException, TreeException
+		{
+		trees.clear();
+		counts.clear();
+		leafSets.clear();
+
+		Random random = new Random(SEED);
+		for (int s = 0; s < numSamples; s++)
+			{
+			Multiset<Integer> multiset = HashMultiset.create();
+			Map<Integer, Double> map = new HashMap<Integer, Double>();
+			for (int leaf : SyntheticTaxonomy.randomLeaves(taxonomy.leaves, sampleSize, random))
+				{
+				int count = 1 + random.nextInt(20);
+				multiset.add(leaf, count);
+				map.put(leaf, (double) count);
+				}
+
+			RootedPhylogeny<Integer> tree = taxonomy.getTree()
+					.extractTreeWithLeafIDs(multiset.elementSet(), false, false,
+					                        AbstractRootedPhylogeny.MutualExclusionResolutionMode.EXCEPTION);
+			tree.setLeafWeights(multiset);
+
+			trees.add(tree);
+			counts.add(map);
+			leafSets.add(new HashSet<Integer>(multiset.elementSet()));
+			}
+		}
+	}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils.benchmarks;
+
+import edu.berkeley.compbio.phyloutils.RandomNewick;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+
+/**
+ * Generates the random taxonomies that the benchmarks run on, so that they need neither network access nor any real
+ * tree files.  A taxonomy is a random binary tree with the given number of leaves, in the layout that
+ * NewickWithSynonymsAndRanksTaxonomyService reads from a directory: a file "tree.newick" and a file "synonyms".
+ * <p/>
+ * The tree comes from RandomNewick with every node labeled by an integer id: the leaves are numbered from 1 to the
+ * number of leaves, and the internal nodes follow in preorder, so a tree with n leaves has the ids 1 to 2n-1 with the
+ * root at n+1.  Each leaf has a scientific name like "Genus12 species100" (eight species to a genus) and a synonym like
+ * "Taxon100"; internal nodes have no names.  Branch lengths are uniform on [0, 0.1).
+ * <p/>
+ * The output depends only on the number of leaves, so each taxonomy is written once to a directory below
+ * java.io.tmpdir and reused by later runs (and by the service's caches, which are keyed by that directory).
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+public final class SyntheticTaxonomy
+	{
+	private static final Logger logger = Logger.getLogger(SyntheticTaxonomy.class);
+
+	private static final long SEED = 1234;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	public static final String TREE_FILENAME = "tree.newick";
+	public static final String SYNONYMS_FILENAME = "synonyms";
+
+
+	// --------------------------- CONSTRUCTORS ---------------------------
+
+	private SyntheticTaxonomy()
+		{
+		}
+
+	// -------------------------- STATIC METHODS --------------------------
+
+	/**
+	 * @return the directory holding the taxonomy with the given number of leaves, generating it first if needed
+	 */
+	public static synchronized File directory(int leaves) throws IOException
+		{
+		File dir = new File(new File(System.getProperty("java.io.tmpdir"), "phyloutils-benchmarks"),
+		                    "taxonomy-" + leaves);
+		File tree = new File(dir, TREE_FILENAME);
+		File synonyms = new File(dir, SYNONYMS_FILENAME);
+		if (!tree.exists() || !synonyms.exists())
+			{
+			if (!dir.isDirectory() && !dir.mkdirs())
+				{
+				throw new IOException("Could not create " + dir);
+				}
+			logger.info("Generating synthetic taxonomy with " + leaves + " leaves in " + dir);
+
+			// each file is moved into place only once complete, so an interrupted run never leaves a truncated one
+			write(tree.toPath(), newick(leaves));
+			Path tmp = Files.createTempFile(dir.toPath(), SYNONYMS_FILENAME, ".tmp");
+			Writer out = Files.newBufferedWriter(tmp, UTF8);
+			try
+				{
+				for (int leaf = 1; leaf <= leaves; leaf++)
+					{
+					out.write(leaf + "\t" + scientificName(leaf) + "\t" + synonym(leaf) + "\n");
+					}
+				}
+			finally
+				{
+				out.close();
+				}
+			Files.move(tmp, synonyms.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		return dir;
+		}
+
+	private static void write(Path path, String content) throws IOException
+		{
+		Path tmp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+		Writer out = Files.newBufferedWriter(tmp, UTF8);
+		try
+			{
+			out.write(content);
+			}
+		finally
+			{
+			out.close();
+			}
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+		}
+
+	/**
+	 * @return the taxonomy tree with the given number of leaves, in Newick format
+	 */
+	public static String newick(int leaves)
+		{
+		return RandomNewick.generate(leaves, "", true, new Random(SEED));
+		}
+
+	public static String scientificName(int leaf)
+		{
+		return "Genus" + (leaf / 8) + " species" + leaf;
+		}
+
+	public static String synonym(int leaf)
+		{
+		return "Taxon" + leaf;
+		}
+
+	/**
+	 * @return the number of nodes, and so the greatest id, in the taxonomy with the given number of leaves
+	 */
+	public static int nodeCount(int leaves)
+		{
+		return 2 * leaves - 1;
+		}
+
+	/**
+	 * @return k distinct leaf ids drawn uniformly at random, in increasing order; or all of them if there are no more
+	 *         than k
+	 */
+	public static int[] randomLeaves(int leaves, int k, Random random)
+		{
+		int[] result;
+		if (k >= leaves)
+			{
+			result = new int[leaves];
+			for (int i = 0; i < leaves; i++)
+				{
+				result[i] = i + 1;
+				}
+			}
+		else
+			{
+			Set<Integer> chosen = new HashSet<Integer>(2 * k);
+			while (chosen.size() < k)
+				{
+				chosen.add(1 + random.nextInt(leaves));
+				}
+			result = new int[k];
+			int i = 0;
+			for (Integer leaf : chosen)
+				{
+				result[i++] = leaf;
+				}
+			Arrays.sort(result);
+			}
+		return result;
+		}
+	}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils.benchmarks;
+
+import com.davidsoergel.trees.NoSuchNodeException;
+import com.davidsoergel.trees.TreeException;
+import edu.berkeley.compbio.phyloutils.NewickWithSynonymsAndRanksTaxonomyService;
+import edu.berkeley.compbio.phyloutils.TaxonMerger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Times TaxonMerger.merge on a random set of leaves.  The leaves of the synthetic trees lie roughly 1 to 1.5 below the
+ * root, so the default threshold of 0.5 merges small clades while keeping most of the tree apart.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class TaxonMergerBenchmark
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	private static final long SEED = 1357;
+
+	@Param({"1000", "10000"})
+	public int requestedLeaves;
+
+	@Param({"0.5"})
+	public double branchSpanMergeThreshold;
+
+	private NewickWithSynonymsAndRanksTaxonomyService service;
+	private final Set<Integer> ids = new HashSet<Integer>();
+
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	@Setup(Level.Trial)
+	public void setUp(TaxonomyState taxonomy)
+		{
+		service = taxonomy.getService();
+
+		ids.clear();
+		for (int leaf : SyntheticTaxonomy.randomLeaves(taxonomy.leaves, requestedLeaves, new Random(SEED)))
+			{
+			ids.add(leaf);
+			}
+		}
+
+	@Benchmark
+	public Map<Integer, Set<Integer>> merge() throws TreeException, NoSuchNodeException
+		{
+		return TaxonMerger.merge(ids, service, branchSpanMergeThreshold);
+		}
+	}
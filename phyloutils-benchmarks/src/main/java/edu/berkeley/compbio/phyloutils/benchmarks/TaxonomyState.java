@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils.benchmarks;
+
+import com.davidsoergel.trees.RootedPhylogeny;
+import edu.berkeley.compbio.phyloutils.CompactRootedPhylogeny;
+import edu.berkeley.compbio.phyloutils.NewickWithSynonymsAndRanksTaxonomyService;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.io.IOException;
+
+
+/**
+ * A synthetic taxonomy loaded into a NewickWithSynonymsAndRanksTaxonomyService, shared by all the threads of a trial.
+ * The compact tree and its indexes are built during setup, so that no benchmark pays for them in its first iterations.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+public class TaxonomyState
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	@Param({"10000", "100000", "1000000"})
+	public int leaves;
+
+	private File directory;
+	private NewickWithSynonymsAndRanksTaxonomyService service;
+
+
+	// --------------------------- GETTER/SETTER METHODS ---------------------------
+
+	public File getDirectory()
+		{
+		return directory;
+		}
+
+	public NewickWithSynonymsAndRanksTaxonomyService getService()
+		{
+		return service;
+		}
+
+	public RootedPhylogeny<Integer> getTree()
+		{
+		return service.getTree();
+		}
+
+	public CompactRootedPhylogeny<Integer> getCompactTree()
+		{
+		return service.getCompactPhylogeny();
+		}
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException
+		{
+		directory = SyntheticTaxonomy.directory(leaves);
+		service = new NewickWithSynonymsAndRanksTaxonomyService(directory.getPath(), false);
+		service.getCompactPhylogeny();
+		}
+	}
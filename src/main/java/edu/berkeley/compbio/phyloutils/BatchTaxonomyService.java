@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import com.davidsoergel.trees.NoSuchNodeException;
+
+import java.util.List;
+
+
+/**
+ * Batch variants of the most frequent TaxonomyService queries, for services over integer ids, taking and filling
+ * primitive arrays.  Each batch is answered against a single version of the tree (so a concurrent reload can't give
+ * mixed answers) and is split across the shared fork-join pool when it is large.
+ * <p/>
+ * Rather than failing the whole batch, an id that isn't in the tree gives false, or NaN where a distance is expected,
+ * and a name that can't be resolved gives NOT_FOUND.  Each output array must be at least as long as its input.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+public interface BatchTaxonomyService
+	{
+	/**
+	 * The id reported for a name that could not be resolved.
+	 */
+	int NOT_FOUND = Integer.MIN_VALUE;
+
+	void isKnown(int[] ids, boolean[] out);
+
+	/**
+	 * @throws NoSuchNodeException if the ancestor is not in the tree
+	 */
+	void isDescendant(int ancestor, int[] candidates, boolean[] out) throws NoSuchNodeException;
+
+	/**
+	 * Compute the distance between a[i] and b[i] for each i.
+	 */
+	void minDistanceBetween(int[] a, int[] b, double[] out);
+
+	void getDepthFromRoot(int[] ids, double[] out);
+
+	void findTaxidsByName(List<String> names, int[] out);
+
+	void findTaxidsByNameRelaxed(List<String> names, int[] out);
+	}
@@ -0,0 +1,439 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+
+/**
+ * A versioned, checksummed binary file format for the loaded state of a taxonomy service: primitive arrays for the
+ * tree topology and branch lengths, and tables of UTF-8 strings for the names.  Reading one maps the file into memory
+ * and copies the arrays out in bulk, so a service can start in a small fraction of the time it takes to deserialize the
+ * equivalent object graphs, let alone reparse the Newick and GreenGenes files.  Data that would be wasteful to copy can
+ * instead be read as views of the mapped file (see MappedNameDictionary).
+ * <p/>
+ * A file consists of a header (magic number, format version, the kind of contents and their version, the body length,
+ * and a CRC32 of the body) followed by a body that is just a sequence of values.  Its layout is entirely up to the
+ * writer; the reader must ask for the same values in the same order.  All values are big-endian.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+public final class BinarySnapshot
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	private static final int MAGIC = 0x50485953;  // "PHYS"
+
+	/**
+	 * The version of the header and of the value encodings; the layout of the body is versioned by each kind separately.
+	 */
+	public static final int FORMAT_VERSION = 1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int CHUNK = 1 << 16;
+
+
+	// --------------------------- CONSTRUCTORS ---------------------------
+
+	private BinarySnapshot()
+		{
+		}
+
+	// -------------------------- INNER CLASSES --------------------------
+
+	/**
+	 * Writes a snapshot file.  The header is completed by close(), so a file that wasn't closed won't load.
+	 */
+	public static class Writer
+		{
+		private final RandomAccessFile file;
+		private final CRC32 crc = new CRC32();
+		private final DataOutputStream out;
+		private final long headerEnd;
+		private final byte[] scratch = new byte[CHUNK];
+
+		public Writer(Path path, String kind, int kindVersion) throws IOException
+			{
+			file = new RandomAccessFile(path.toFile(), "rw");
+			file.setLength(0);
+			file.writeInt(MAGIC);
+			file.writeInt(FORMAT_VERSION);
+			byte[] kindBytes = kind.getBytes(UTF8);
+			file.writeInt(kindBytes.length);
+			file.write(kindBytes);
+			file.writeInt(kindVersion);
+
+			// placeholders for the body length and checksum
+			file.writeLong(0);
+			file.writeLong(0);
+			headerEnd = file.getFilePointer();
+
+			out = new DataOutputStream(
+					new BufferedOutputStream(new CheckedOutputStream(Channels.newOutputStream(file.getChannel()), crc),
+					                         CHUNK));
+			}
+
+		public void writeInt(int v) throws IOException
+			{
+			out.writeInt(v);
+			}
+
+		public void writeIntArray(int[] a) throws IOException
+			{
+			out.writeInt(a.length);
+			ByteBuffer buffer = ByteBuffer.wrap(scratch);
+			for (int from = 0; from < a.length; from += CHUNK / 4)
+				{
+				int count = Math.min(CHUNK / 4, a.length - from);
+				buffer.clear();
+				buffer.asIntBuffer().put(a, from, count);
+				out.write(scratch, 0, count * 4);
+				}
+			}
+
+		/**
+		 * Write the remaining values of the given buffer, e.g. a view from Reader.readIntArrayView(), as an int array.
+		 */
+		public void writeIntArray(IntBuffer a) throws IOException
+			{
+			IntBuffer source = a.duplicate();
+			out.writeInt(source.remaining());
+			ByteBuffer buffer = ByteBuffer.wrap(scratch);
+			while (source.hasRemaining())
+				{
+				int count = Math.min(CHUNK / 4, source.remaining());
+				IntBuffer chunk = source.slice();
+				chunk.limit(count);
+				buffer.clear();
+				buffer.asIntBuffer().put(chunk);
+				source.position(source.position() + count);
+				out.write(scratch, 0, count * 4);
+				}
+			}
+
+		/**
+		 * Write the remaining bytes of the given buffer as they are, without a length; see Reader.readBytesView().
+		 */
+		public void writeBytes(ByteBuffer bytes) throws IOException
+			{
+			ByteBuffer source = bytes.duplicate();
+			while (source.hasRemaining())
+				{
+				int count = Math.min(CHUNK, source.remaining());
+				source.get(scratch, 0, count);
+				out.write(scratch, 0, count);
+				}
+			}
+
+		public void writeDoubleArray(double[] a) throws IOException
+			{
+			out.writeInt(a.length);
+			ByteBuffer buffer = ByteBuffer.wrap(scratch);
+			for (int from = 0; from < a.length; from += CHUNK / 8)
+				{
+				int count = Math.min(CHUNK / 8, a.length - from);
+				buffer.clear();
+				buffer.asDoubleBuffer().put(a, from, count);
+				out.write(scratch, 0, count * 8);
+				}
+			}
+
+		/**
+		 * Write a table of strings, as their count, the offset of each in the UTF-8 data (plus the end), and the data.
+		 */
+		public void writeStrings(Collection<String> strings) throws IOException
+			{
+			byte[][] encoded = new byte[strings.size()][];
+			int i = 0;
+			for (String s : strings)
+				{
+				encoded[i++] = s.getBytes(UTF8);
+				}
+			writeEncodedStrings(encoded);
+			}
+
+		/**
+		 * Write a table of strings that are already encoded as UTF-8, in the same form as writeStrings().
+		 */
+		public void writeEncodedStrings(byte[][] encoded) throws IOException
+			{
+			int[] offsets = new int[encoded.length + 1];
+			for (int i = 0; i < encoded.length; i++)
+				{
+				offsets[i + 1] = offsets[i] + encoded[i].length;
+				}
+			writeIntArray(offsets);
+			for (byte[] b : encoded)
+				{
+				out.write(b);
+				}
+			}
+
+		public void writeIntegerTree(IntegerCompactRootedPhylogeny tree) throws IOException
+			{
+			writeIntArray(tree.parent);
+			writeDoubleArray(tree.length);
+			writeIntArray(tree.getIds());
+			}
+
+		public void writeStringIntMap(Map<String, Integer> map) throws IOException
+			{
+			int[] values = new int[map.size()];
+			int i = 0;
+			for (Integer v : map.values())
+				{
+				values[i++] = v;
+				}
+			// keySet() and values() iterate in the same order
+			writeStrings(map.keySet());
+			writeIntArray(values);
+			}
+
+		/**
+		 * Write a multimap as its keys, the offset of each key's values in the value array (plus the end), and the values.
+		 */
+		public void writeStringIntMultimap(Multimap<String, Integer> multimap) throws IOException
+			{
+			Map<String, Collection<Integer>> map = multimap.asMap();
+			int[] offsets = new int[map.size() + 1];
+			int[] values = new int[multimap.size()];
+			int i = 0;
+			int j = 0;
+			for (Collection<Integer> ids : map.values())
+				{
+				for (Integer id : ids)
+					{
+					values[j++] = id;
+					}
+				offsets[++i] = j;
+				}
+			writeStrings(map.keySet());
+			writeIntArray(offsets);
+			writeIntArray(values);
+			}
+
+		/**
+		 * Complete the header and close the file.
+		 */
+		public void close() throws IOException
+			{
+			try
+				{
+				out.flush();
+				long bodyLength = file.getFilePointer() - headerEnd;
+				file.seek(headerEnd - 16);
+				file.writeLong(bodyLength);
+				file.writeLong(crc.getValue());
+				}
+			finally
+				{
+				file.close();
+				}
+			}
+		}
+
+	/**
+	 * Reads a snapshot file, after checking its header and checksum.
+	 */
+	public static class Reader
+		{
+		private final ByteBuffer body;
+
+		/**
+		 * @throws PhyloUtilsException if the file is not a complete, intact snapshot of the given kind and version
+		 */
+		public Reader(Path path, String kind, int kindVersion) throws IOException, PhyloUtilsException
+			{
+			ByteBuffer buffer;
+			FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+			try
+				{
+				// the mapping stays valid after the channel is closed
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				}
+			finally
+				{
+				channel.close();
+				}
+
+			try
+				{
+				if (buffer.getInt() != MAGIC)
+					{
+					throw new PhyloUtilsException("Not a snapshot file: " + path);
+					}
+				int formatVersion = buffer.getInt();
+				if (formatVersion != FORMAT_VERSION)
+					{
+					throw new PhyloUtilsException(
+							"Snapshot " + path + " has format version " + formatVersion + ", expected " + FORMAT_VERSION);
+					}
+				byte[] kindBytes = new byte[buffer.getInt()];
+				buffer.get(kindBytes);
+				String fileKind = new String(kindBytes, UTF8);
+				int fileKindVersion = buffer.getInt();
+				if (!fileKind.equals(kind) || fileKindVersion != kindVersion)
+					{
+					throw new PhyloUtilsException(
+							"Snapshot " + path + " contains " + fileKind + " version " + fileKindVersion + ", expected "
+							+ kind + " version " + kindVersion);
+					}
+				long bodyLength = buffer.getLong();
+				long checksum = buffer.getLong();
+				if (bodyLength != buffer.remaining())
+					{
+					throw new PhyloUtilsException("Snapshot " + path + " is truncated or was not closed");
+					}
+				body = buffer.slice();
+				if (checksum(body.duplicate()) != checksum)
+					{
+					throw new PhyloUtilsException("Snapshot " + path + " is corrupt: checksum mismatch");
+					}
+				}
+			catch (RuntimeException e)
+				{
+				// e.g. BufferUnderflowException, NegativeArraySizeException on a damaged header
+				throw new PhyloUtilsException(e, "Snapshot " + path + " is corrupt");
+				}
+			}
+
+		private static long checksum(ByteBuffer buffer)
+			{
+			CRC32 crc = new CRC32();
+			byte[] chunk = new byte[CHUNK];
+			while (buffer.hasRemaining())
+				{
+				int count = Math.min(CHUNK, buffer.remaining());
+				buffer.get(chunk, 0, count);
+				crc.update(chunk, 0, count);
+				}
+			return crc.getValue();
+			}
+
+		public int readInt()
+			{
+			return body.getInt();
+			}
+
+		public int[] readIntArray()
+			{
+			int[] result = new int[body.getInt()];
+			body.asIntBuffer().get(result);
+			body.position(body.position() + 4 * result.length);
+			return result;
+			}
+
+		public double[] readDoubleArray()
+			{
+			double[] result = new double[body.getInt()];
+			body.asDoubleBuffer().get(result);
+			body.position(body.position() + 8 * result.length);
+			return result;
+			}
+
+		/**
+		 * Like readIntArray(), but returns a read-only view of the mapped file instead of copying the values to the heap.
+		 */
+		public IntBuffer readIntArrayView()
+			{
+			int length = body.getInt();
+			ByteBuffer view = body.slice();
+			view.limit(4 * length);
+			body.position(body.position() + 4 * length);
+			return view.asIntBuffer();
+			}
+
+		/**
+		 * @return a read-only view of the next length bytes of the mapped file
+		 */
+		public ByteBuffer readBytesView(int length)
+			{
+			ByteBuffer view = body.slice();
+			view.limit(length);
+			body.position(body.position() + length);
+			return view.slice();
+			}
+
+		public String[] readStrings()
+			{
+			int[] offsets = readIntArray();
+			byte[] data = new byte[offsets[offsets.length - 1]];
+			body.get(data);
+			String[] result = new String[offsets.length - 1];
+			for (int i = 0; i < result.length; i++)
+				{
+				result[i] = new String(data, offsets[i], offsets[i + 1] - offsets[i], UTF8);
+				}
+			return result;
+			}
+
+		public IntegerCompactRootedPhylogeny readIntegerTree()
+			{
+			int[] parent = readIntArray();
+			double[] length = readDoubleArray();
+			int[] ids = readIntArray();
+			return new IntegerCompactRootedPhylogeny(parent, length, ids);
+			}
+
+		public void readStringIntMap(Map<String, Integer> result)
+			{
+			String[] keys = readStrings();
+			int[] values = readIntArray();
+			for (int i = 0; i < keys.length; i++)
+				{
+				result.put(keys[i], values[i]);
+				}
+			}
+
+		public HashMultimap<String, Integer> readStringIntMultimap()
+			{
+			String[] keys = readStrings();
+			int[] offsets = readIntArray();
+			int[] values = readIntArray();
+			HashMultimap<String, Integer> result =
+					HashMultimap.create(keys.length, Math.max(1, values.length / Math.max(1, keys.length)));
+			for (int i = 0; i < keys.length; i++)
+				{
+				for (int j = offsets[i]; j < offsets[i + 1]; j++)
+					{
+					result.put(keys[i], values[j]);
+					}
+				}
+			return result;
+			}
+
+		/**
+		 * Check that everything in the body has been read, which catches a reader that is out of step with the writer.
+		 */
+		public void finish() throws PhyloUtilsException
+			{
+			if (body.hasRemaining())
+				{
+				throw new PhyloUtilsException("Snapshot has " + body.remaining() + " unread bytes");
+				}
+			}
+		}
+	}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+
+/**
+ * Answers lowest-common-ancestor and distance queries on a CompactRootedPhylogeny in constant time, after an O(n log n)
+ * precomputation.
+ * <p/>
+ * This is the usual reduction of LCA to a range-minimum query over node levels, answered with a sparse table.  Since
+ * the compact tree is already numbered in preorder, the range can be taken over the preorder sequence rather than an
+ * Euler tour, which halves the table: for nodes u < v, every node with preorder index in (u, v] lies in the subtree of
+ * LCA(u, v) but is not the LCA itself, and the shallowest of them is a child of the LCA.
+ * <p/>
+ * Distances use the root-to-node branch-length depths: d(a, b) = depth[a] + depth[b] - 2 depth[LCA(a, b)].
+ * <p/>
+ * Instances are immutable, so queries need no synchronization and allocate nothing.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+public final class CommonAncestorIndex
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	private final int[] parent;
+
+	// number of edges from the root
+	private final int[] level;
+
+	// sum of branch lengths from the root
+	private final double[] depth;
+
+	// sparse[k][i] is the index of the shallowest node among i .. i + 2^k - 1
+	private final int[][] sparse;
+
+
+	// --------------------------- CONSTRUCTORS ---------------------------
+
+	public CommonAncestorIndex(CompactRootedPhylogeny<?> tree)
+		{
+		int n = tree.size();
+		parent = new int[n];
+		level = new int[n];
+		depth = new double[n];
+
+		// parents precede their children, so a single forward pass suffices
+		parent[0] = CompactRootedPhylogeny.NO_NODE;
+		for (int i = 1; i < n; i++)
+			{
+			int p = tree.getParentIndex(i);
+			parent[i] = p;
+			level[i] = level[p] + 1;
+			depth[i] = depth[p] + tree.getLength(i);
+			}
+
+		int levels = 1;
+		while ((1 << levels) <= n)
+			{
+			levels++;
+			}
+		sparse = new int[levels][];
+
+		int[] base = new int[n];
+		for (int i = 0; i < n; i++)
+			{
+			base[i] = i;
+			}
+		sparse[0] = base;
+
+		for (int k = 1; k < levels; k++)
+			{
+			int[] prev = sparse[k - 1];
+			int half = 1 << (k - 1);
+			int[] row = new int[n - (1 << k) + 1];
+			for (int i = 0; i < row.length; i++)
+				{
+				row[i] = shallower(prev[i], prev[i + half]);
+				}
+			sparse[k] = row;
+			}
+		}
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	private int shallower(int a, int b)
+		{
+		return level[a] <= level[b] ? a : b;
+		}
+
+	/**
+	 * @return the index of the lowest common ancestor of the two given node indexes (which is one of them if one is an
+	 *         ancestor of the other)
+	 */
+	public int commonAncestor(int a, int b)
+		{
+		if (a == b)
+			{
+			return a;
+			}
+		if (a > b)
+			{
+			int t = a;
+			a = b;
+			b = t;
+			}
+
+		// shallowest node in (a, b]
+		int from = a + 1;
+		int k = 31 - Integer.numberOfLeadingZeros(b - from + 1);
+		int[] row = sparse[k];
+		int shallowest = shallower(row[from], row[b - (1 << k) + 1]);
+
+		return parent[shallowest];
+		}
+
+	public double distanceBetween(int a, int b)
+		{
+		return depth[a] + depth[b] - 2 * depth[commonAncestor(a, b)];
+		}
+
+	public double getDepth(int node)
+		{
+		return depth[node];
+		}
+
+	public int getLevel(int node)
+		{
+		return level[node];
+		}
+	}
@@ -0,0 +1,375 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import com.davidsoergel.trees.NoSuchNodeException;
+import com.davidsoergel.trees.PhylogenyNode;
+import org.apache.log4j.Logger;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * A frozen, array-backed copy of a rooted phylogeny, for read-only taxonomy services over large trees.  Instead of a
+ * graph of node objects with boxed payloads and lengths, the topology is stored as parallel primitive arrays (parent,
+ * first child, next sibling, branch length), indexed by the preorder rank of each node.  So the root is node 0, a
+ * parent always has a smaller index than its children, and the nodes of any subtree are contiguous.
+ * <p/>
+ * Subclasses provide the mapping between payloads and node indexes; see IntegerCompactRootedPhylogeny for trees with
+ * Integer ids and GenericCompactRootedPhylogeny for everything else.
+ * <p/>
+ * Missing branch lengths are treated as zero.  Instances are immutable and so may be shared between threads freely.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+public abstract class CompactRootedPhylogeny<T extends Serializable> implements Serializable
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	private static final Logger logger = Logger.getLogger(CompactRootedPhylogeny.class);
+
+	private static final long serialVersionUID = 1L;
+
+	public static final int NO_NODE = -1;
+
+	protected final int[] parent;
+	protected final int[] firstChild;
+	protected final int[] nextSibling;
+	protected final double[] length;
+
+	// the largest preorder index in the subtree rooted at each node, so that subtree(i) == [i, subtreeEnd[i]]
+	protected final int[] subtreeEnd;
+
+	// derived entirely from the arrays above, so there's no need to serialize it
+	private transient volatile CommonAncestorIndex commonAncestorIndex;
+	private transient volatile SubtreeSpans subtreeSpans;
+
+
+	// --------------------------- CONSTRUCTORS ---------------------------
+
+	/**
+	 * @param parent the parent index of each node, in preorder (so parent[0] == NO_NODE and parent[i] < i otherwise)
+	 * @param length the branch length leading to each node
+	 */
+	protected CompactRootedPhylogeny(int[] parent, double[] length)
+		{
+		this.parent = parent;
+		this.length = length;
+
+		int n = parent.length;
+		firstChild = new int[n];
+		nextSibling = new int[n];
+		Arrays.fill(firstChild, NO_NODE);
+		Arrays.fill(nextSibling, NO_NODE);
+
+		subtreeEnd = new int[n];
+		for (int i = 0; i < n; i++)
+			{
+			subtreeEnd[i] = i;
+			}
+
+		// walk backwards so that each child list comes out in the original order, and so that each subtree is complete
+		// before its end is propagated to the parent
+		for (int i = n - 1; i > 0; i--)
+			{
+			int p = parent[i];
+			nextSibling[i] = firstChild[p];
+			firstChild[p] = i;
+			if (subtreeEnd[i] > subtreeEnd[p])
+				{
+				subtreeEnd[p] = subtreeEnd[i];
+				}
+			}
+		}
+
+	// --------------------- GETTER / SETTER METHODS ---------------------
+
+	/**
+	 * @return the number of nodes in the tree
+	 */
+	public int size()
+		{
+		return parent.length;
+		}
+
+	public int getParentIndex(int node)
+		{
+		return parent[node];
+		}
+
+	public int getFirstChildIndex(int node)
+		{
+		return firstChild[node];
+		}
+
+	public int getNextSiblingIndex(int node)
+		{
+		return nextSibling[node];
+		}
+
+	public double getLength(int node)
+		{
+		return length[node];
+		}
+
+	public boolean isLeafIndex(int node)
+		{
+		return firstChild[node] == NO_NODE;
+		}
+
+	/**
+	 * @return the largest index in the subtree rooted at the given node; the subtree consists of exactly the indexes from
+	 *         node to this, inclusive
+	 */
+	public int getSubtreeEndIndex(int node)
+		{
+		return subtreeEnd[node];
+		}
+
+	/**
+	 * Provides the constant-time LCA and distance index for this tree, building it on first use.  Services should call
+	 * this during initialization so that the first queries don't pay for it.
+	 */
+	public CommonAncestorIndex getCommonAncestorIndex()
+		{
+		CommonAncestorIndex result = commonAncestorIndex;
+		if (result == null)
+			{
+			synchronized (this)
+				{
+				result = commonAncestorIndex;
+				if (result == null)
+					{
+					result = new CommonAncestorIndex(this);
+					commonAncestorIndex = result;
+					}
+				}
+			}
+		return result;
+		}
+
+	/**
+	 * Provides the greatest depth below and the largest span within every subtree, computing them all on first use.
+	 */
+	public SubtreeSpans getSubtreeSpans()
+		{
+		SubtreeSpans result = subtreeSpans;
+		if (result == null)
+			{
+			synchronized (this)
+				{
+				result = subtreeSpans;
+				if (result == null)
+					{
+					result = new SubtreeSpans(this);
+					subtreeSpans = result;
+					}
+				}
+			}
+		return result;
+		}
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	/**
+	 * @return the index of the node with the given payload
+	 * @throws NoSuchNodeException if there is no such node
+	 */
+	public abstract int indexOf(T id) throws NoSuchNodeException;
+
+	public abstract boolean isKnown(T id);
+
+	public abstract T getPayload(int node);
+
+	public T getRootPayload()
+		{
+		return getPayload(0);
+		}
+
+	/**
+	 * @return true if descendant is in the subtree rooted at ancestor, including the case where they are the same node
+	 */
+	public boolean isDescendantIndex(int ancestor, int descendant)
+		{
+		return ancestor <= descendant && descendant <= subtreeEnd[ancestor];
+		}
+
+	public int commonAncestorIndex(int a, int b)
+		{
+		return getCommonAncestorIndex().commonAncestor(a, b);
+		}
+
+	public double distanceBetweenIndexes(int a, int b)
+		{
+		return getCommonAncestorIndex().distanceBetween(a, b);
+		}
+
+	public double distanceFromRootIndex(int node)
+		{
+		return getCommonAncestorIndex().getDepth(node);
+		}
+
+	public boolean isDescendant(T ancestor, T descendant) throws NoSuchNodeException
+		{
+		return isDescendantIndex(indexOf(ancestor), indexOf(descendant));
+		}
+
+	public double distanceBetween(T a, T b) throws NoSuchNodeException
+		{
+		return distanceBetweenIndexes(indexOf(a), indexOf(b));
+		}
+
+	public double getDepthFromRoot(T id) throws NoSuchNodeException
+		{
+		return distanceFromRootIndex(indexOf(id));
+		}
+
+	public double getGreatestDepthBelow(T id) throws NoSuchNodeException
+		{
+		return getSubtreeSpans().getGreatestDepthBelow(indexOf(id));
+		}
+
+	public double getLargestLengthSpan(T id) throws NoSuchNodeException
+		{
+		return getSubtreeSpans().getLargestLengthSpan(indexOf(id));
+		}
+
+	/**
+	 * @return an upper bound on the distance between any two nodes: twice the greatest depth below the root
+	 */
+	public double maxDistance()
+		{
+		return 2.0 * getSubtreeSpans().getGreatestDepthBelow(0);
+		}
+
+	/**
+	 * @return those of the given labels that are ancestors of the given node (including the node itself, if it is among
+	 *         the labels).  Labels not in the tree are ignored, as is an unknown id.
+	 */
+	public Set<T> selectAncestors(Collection<T> labels, T id)
+		{
+		Set<T> result = new HashSet<T>();
+		if (!isKnown(id))
+			{
+			return result;
+			}
+		try
+			{
+			int node = indexOf(id);
+			for (T label : labels)
+				{
+				if (isKnown(label) && isDescendantIndex(indexOf(label), node))
+					{
+					result.add(label);
+					}
+				}
+			}
+		catch (NoSuchNodeException e)
+			{
+			// impossible, since we checked isKnown first
+			logger.error("Error", e);
+			throw new PhyloUtilsRuntimeException(e);
+			}
+		return result;
+		}
+
+	public boolean isLeaf(T id) throws NoSuchNodeException
+		{
+		return isLeafIndex(indexOf(id));
+		}
+
+	/**
+	 * @return the ids on the path from the root down to the given node, inclusive
+	 */
+	public List<T> getAncestorPathIds(T id) throws NoSuchNodeException
+		{
+		LinkedList<T> result = new LinkedList<T>();
+		for (int node = indexOf(id); node != NO_NODE; node = parent[node])
+			{
+			result.addFirst(getPayload(node));
+			}
+		return result;
+		}
+
+	public Set<T> getLeafValues()
+		{
+		Set<T> result = new HashSet<T>();
+		for (int i = 0; i < parent.length; i++)
+			{
+			if (firstChild[i] == NO_NODE)
+				{
+				result.add(getPayload(i));
+				}
+			}
+		return result;
+		}
+
+	// -------------------------- INNER CLASSES --------------------------
+
+	/**
+	 * The preorder flattening of a tree of PhylogenyNodes, from which subclasses build their arrays.
+	 */
+	protected static class Flattened<T extends Serializable>
+		{
+		final int[] parent;
+		final double[] length;
+		final List<T> payloads;
+
+		Flattened(PhylogenyNode<T> root)
+			{
+			List<PhylogenyNode<T>> nodes = new ArrayList<PhylogenyNode<T>>();
+			List<Integer> parents = new ArrayList<Integer>();
+
+			// iterative, since real trees can be far deeper than the stack allows
+			List<PhylogenyNode<T>> stack = new ArrayList<PhylogenyNode<T>>();
+			List<Integer> stackParents = new ArrayList<Integer>();
+			stack.add(root);
+			stackParents.add(NO_NODE);
+			while (!stack.isEmpty())
+				{
+				int last = stack.size() - 1;
+				PhylogenyNode<T> node = stack.remove(last);
+				int parentIndex = stackParents.remove(last);
+
+				int index = nodes.size();
+				nodes.add(node);
+				parents.add(parentIndex);
+
+				List<? extends PhylogenyNode<T>> children = node.getChildren();
+				if (children != null)
+					{
+					for (int i = children.size() - 1; i >= 0; i--)
+						{
+						stack.add(children.get(i));
+						stackParents.add(index);
+						}
+					}
+				}
+
+			int n = nodes.size();
+			parent = new int[n];
+			length = new double[n];
+			payloads = new ArrayList<T>(n);
+			for (int i = 0; i < n; i++)
+				{
+				PhylogenyNode<T> node = nodes.get(i);
+				parent[i] = parents.get(i);
+				Double l = node.getLength();
+				length[i] = l == null ? 0 : l;
+				payloads.add(node.getPayload());
+				}
+			}
+		}
+	}
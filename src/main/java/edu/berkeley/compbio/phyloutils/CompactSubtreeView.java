@@ -0,0 +1,457 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import com.davidsoergel.trees.BasicPhylogenyNode;
+import com.davidsoergel.trees.BasicRootedPhylogeny;
+import com.davidsoergel.trees.NoSuchNodeException;
+import org.apache.log4j.Logger;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * A subtree induced on a CompactRootedPhylogeny by a set of node ids, as extractTreeWithLeafIDs would produce, but held
+ * as a sorted array of indexes into the frozen base tree rather than copied into new node objects.  The subtree spans
+ * the requested nodes and is rooted at their common ancestor.  Unless internal branches are included, chains of nodes
+ * with a single child are collapsed into single branches, whose lengths are computed from the base tree's depths only
+ * when asked for.
+ * <p/>
+ * The view is numbered in preorder like the base tree, so a node's first child, if any, immediately follows it.  A
+ * requested node that is an ancestor of another requested node simply remains in the view as an internal node.  The
+ * view is immutable; toRootedPhylogeny() copies it out for callers that need a mutable tree.
+ * <p/>
+ * extract() visits the requested nodes' paths to the root; when only a few nodes are requested from a large tree,
+ * virtualTree() builds the same collapsed subtree from the requested nodes and their pairwise common ancestors alone.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+public final class CompactSubtreeView<T extends Serializable>
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	private static final Logger logger = Logger.getLogger(CompactSubtreeView.class);
+
+	private final CompactRootedPhylogeny<T> base;
+
+	// the base index of each node of the view, in increasing (i.e., preorder) order
+	private final int[] nodes;
+
+	// the view index of the parent of each node of the view
+	private final int[] parent;
+
+	// the largest span within the subtree below each node of the view, computed on first use
+	private volatile double[] spans;
+
+
+	// --------------------------- CONSTRUCTORS ---------------------------
+
+	private CompactSubtreeView(CompactRootedPhylogeny<T> base, int[] nodes, int[] parent)
+		{
+		this.base = base;
+		this.nodes = nodes;
+		this.parent = parent;
+		}
+
+	// -------------------------- STATIC METHODS --------------------------
+
+	/**
+	 * Extract the subtree spanning the given nodes.  Only the nodes on the paths from the requested nodes up to the root
+	 * of the base tree are visited.
+	 *
+	 * @param ignoreAbsentNodes       if true, ids that are not in the base tree are skipped; otherwise they cause an
+	 *                                exception
+	 * @param includeInternalBranches if true, nodes with a single child are kept; otherwise chains of them are collapsed
+	 * @throws NoSuchNodeException if an id is not in the base tree and ignoreAbsentNodes is false
+	 */
+	public static <T extends Serializable> CompactSubtreeView<T> extract(CompactRootedPhylogeny<T> base,
+	                                                                    Collection<T> ids, boolean ignoreAbsentNodes,
+	                                                                    boolean includeInternalBranches)
+			throws NoSuchNodeException
+		{
+		// mark the union of the paths to the root, stopping each path where it meets one already marked
+		BitSet onPath = new BitSet(base.size());
+		BitSet requested = new BitSet(base.size());
+		int[] marked = new int[16];
+		int numMarked = 0;
+		for (T id : ids)
+			{
+			if (ignoreAbsentNodes && !base.isKnown(id))
+				{
+				continue;
+				}
+			int i = base.indexOf(id);
+			requested.set(i);
+			for (; i != CompactRootedPhylogeny.NO_NODE && !onPath.get(i); i = base.getParentIndex(i))
+				{
+				onPath.set(i);
+				if (numMarked == marked.length)
+					{
+					marked = Arrays.copyOf(marked, 2 * numMarked);
+					}
+				marked[numMarked++] = i;
+				}
+			}
+		if (numMarked == 0)
+			{
+			throw new PhyloUtilsRuntimeException("Can't extract a subtree without any nodes");
+			}
+		Arrays.sort(marked, 0, numMarked);
+
+		// the parent of each marked node is marked too, and precedes it
+		int[] markedParent = new int[numMarked];
+		int[] childCount = new int[numMarked];
+		markedParent[0] = CompactRootedPhylogeny.NO_NODE;
+		for (int k = 1; k < numMarked; k++)
+			{
+			int p = Arrays.binarySearch(marked, 0, k, base.getParentIndex(marked[k]));
+			markedParent[k] = p;
+			childCount[p]++;
+			}
+
+		// descend from the base root to the common ancestor of the requested nodes
+		int top = 0;
+		while (!requested.get(marked[top]) && childCount[top] == 1)
+			{
+			top++;
+			}
+
+		// keep the requested nodes and the branch points, or everything below the common ancestor
+		int[] viewIndex = new int[numMarked];
+		int[] keptAncestor = new int[numMarked];
+		int[] resultNodes = new int[numMarked - top];
+		int[] resultParent = new int[numMarked - top];
+		int size = 0;
+		for (int k = top; k < numMarked; k++)
+			{
+			int p = markedParent[k];
+			int ancestor = CompactRootedPhylogeny.NO_NODE;
+			if (k > top)
+				{
+				ancestor = viewIndex[p] >= 0 ? viewIndex[p] : keptAncestor[p];
+				}
+			if (k == top || includeInternalBranches || requested.get(marked[k]) || childCount[k] != 1)
+				{
+				viewIndex[k] = size;
+				resultNodes[size] = marked[k];
+				resultParent[size] = ancestor;
+				size++;
+				}
+			else
+				{
+				viewIndex[k] = -1;
+				keptAncestor[k] = ancestor;
+				}
+			}
+
+		return new CompactSubtreeView<T>(base, Arrays.copyOf(resultNodes, size), Arrays.copyOf(resultParent, size));
+		}
+
+	/**
+	 * Build the subtree spanning the given nodes, with chains collapsed, as extract() would, but in time depending only
+	 * on the number of nodes requested: the "virtual tree" of those nodes consists of the nodes themselves and the
+	 * common ancestors of the pairs that are adjacent in preorder, which are exactly its branch points.
+	 *
+	 * @param ignoreAbsentNodes if true, ids that are not in the base tree are skipped; otherwise they cause an exception
+	 * @throws NoSuchNodeException if an id is not in the base tree and ignoreAbsentNodes is false
+	 */
+	public static <T extends Serializable> CompactSubtreeView<T> virtualTree(CompactRootedPhylogeny<T> base,
+	                                                                        Collection<T> ids,
+	                                                                        boolean ignoreAbsentNodes)
+			throws NoSuchNodeException
+		{
+		int[] baseIndexes = new int[ids.size()];
+		int k = 0;
+		for (T id : ids)
+			{
+			if (!ignoreAbsentNodes || base.isKnown(id))
+				{
+				baseIndexes[k++] = base.indexOf(id);
+				}
+			}
+		return virtualTree(base, Arrays.copyOf(baseIndexes, k));
+		}
+
+	/**
+	 * Build the virtual tree of the given nodes of the base tree, given by their indexes there, in O(k log k).
+	 */
+	public static <T extends Serializable> CompactSubtreeView<T> virtualTree(CompactRootedPhylogeny<T> base,
+	                                                                        int[] baseIndexes)
+		{
+		int k = baseIndexes.length;
+		if (k == 0)
+			{
+			throw new PhyloUtilsRuntimeException("Can't extract a subtree without any nodes");
+			}
+		int[] sorted = baseIndexes.clone();
+		Arrays.sort(sorted);
+
+		// the branch points are the common ancestors of neighbors in preorder; the shallowest of them is the root
+		CommonAncestorIndex ancestors = base.getCommonAncestorIndex();
+		int[] all = Arrays.copyOf(sorted, 2 * k - 1);
+		for (int i = 0; i + 1 < k; i++)
+			{
+			all[k + i] = ancestors.commonAncestor(sorted[i], sorted[i + 1]);
+			}
+		Arrays.sort(all);
+		int m = 0;
+		for (int i = 0; i < all.length; i++)
+			{
+			if (m == 0 || all[i] != all[m - 1])
+				{
+				all[m++] = all[i];
+				}
+			}
+		int[] nodes = Arrays.copyOf(all, m);
+
+		// in preorder, each node's parent is the nearest node on the current path that contains it
+		int[] parent = new int[m];
+		int[] path = new int[m];
+		int depth = 0;
+		for (int v = 0; v < m; v++)
+			{
+			while (depth > 0 && !base.isDescendantIndex(nodes[path[depth - 1]], nodes[v]))
+				{
+				depth--;
+				}
+			parent[v] = depth == 0 ? CompactRootedPhylogeny.NO_NODE : path[depth - 1];
+			path[depth++] = v;
+			}
+
+		return new CompactSubtreeView<T>(base, nodes, parent);
+		}
+
+	// --------------------- GETTER / SETTER METHODS ---------------------
+
+	public CompactRootedPhylogeny<T> getBase()
+		{
+		return base;
+		}
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	/**
+	 * @return the number of nodes in the view
+	 */
+	public int size()
+		{
+		return nodes.length;
+		}
+
+	/**
+	 * @return the index in the base tree of the given node of the view
+	 */
+	public int getBaseIndex(int node)
+		{
+		return nodes[node];
+		}
+
+	public int getParentIndex(int node)
+		{
+		return parent[node];
+		}
+
+	/**
+	 * @return the length of the branch leading to the given node of the view, i.e. the sum of the lengths of the base
+	 *         branches it spans; zero for the root
+	 */
+	public double getLength(int node)
+		{
+		if (node == 0)
+			{
+			return 0;
+			}
+		int baseParent = nodes[parent[node]];
+		if (base.getParentIndex(nodes[node]) == baseParent)
+			{
+			// an uncollapsed branch has its length stored exactly
+			return base.getLength(nodes[node]);
+			}
+		CommonAncestorIndex ancestors = base.getCommonAncestorIndex();
+		return ancestors.getDepth(nodes[node]) - ancestors.getDepth(baseParent);
+		}
+
+	public boolean isLeafIndex(int node)
+		{
+		return node + 1 == nodes.length || parent[node + 1] != node;
+		}
+
+	public T getPayload(int node)
+		{
+		return base.getPayload(nodes[node]);
+		}
+
+	public T getRootPayload()
+		{
+		return getPayload(0);
+		}
+
+	/**
+	 * @return the index in the view of the node with the given id
+	 * @throws NoSuchNodeException if the node is not in the view
+	 */
+	public int indexOf(T id) throws NoSuchNodeException
+		{
+		int result = base.isKnown(id) ? Arrays.binarySearch(nodes, base.indexOf(id)) : -1;
+		if (result < 0)
+			{
+			throw new NoSuchNodeException("No node found with id " + id);
+			}
+		return result;
+		}
+
+	public boolean isKnown(T id)
+		{
+		try
+			{
+			return base.isKnown(id) && Arrays.binarySearch(nodes, base.indexOf(id)) >= 0;
+			}
+		catch (NoSuchNodeException e)
+			{
+			// impossible, since we checked isKnown first
+			logger.error("Error", e);
+			throw new PhyloUtilsRuntimeException(e);
+			}
+		}
+
+	public boolean isLeaf(T id) throws NoSuchNodeException
+		{
+		return isLeafIndex(indexOf(id));
+		}
+
+	/**
+	 * @return true if descendant is in the subtree rooted at ancestor, including the case where they are the same node
+	 */
+	public boolean isDescendant(T ancestor, T descendant) throws NoSuchNodeException
+		{
+		return base.isDescendantIndex(nodes[indexOf(ancestor)], nodes[indexOf(descendant)]);
+		}
+
+	/**
+	 * @return the distance between two nodes of the view, which is the same as in the base tree
+	 */
+	public double distanceBetween(T a, T b) throws NoSuchNodeException
+		{
+		return base.distanceBetweenIndexes(nodes[indexOf(a)], nodes[indexOf(b)]);
+		}
+
+	/**
+	 * @return the greatest distance between any two nodes of the view in the subtree rooted at the given node
+	 */
+	public double getLargestLengthSpan(int node)
+		{
+		double[] result = spans;
+		if (result == null)
+			{
+			synchronized (this)
+				{
+				result = spans;
+				if (result == null)
+					{
+					result = computeSpans();
+					spans = result;
+					}
+				}
+			}
+		return result[node];
+		}
+
+	/**
+	 * Compute the spans of all the nodes of the view in one pass, as SubtreeSpans does for a whole tree: since children
+	 * follow their parents, each node is complete by the time its own branch is added to its parent.
+	 */
+	private double[] computeSpans()
+		{
+		int n = nodes.length;
+		double[] depthBelow = new double[n];
+		double[] secondDepthBelow = new double[n];
+		double[] result = new double[n];
+		for (int v = n - 1; v >= 0; v--)
+			{
+			result[v] = Math.max(result[v], depthBelow[v] + secondDepthBelow[v]);
+			if (v == 0)
+				{
+				break;
+				}
+			int p = parent[v];
+			double depth = getLength(v) + depthBelow[v];
+			if (depth > depthBelow[p])
+				{
+				secondDepthBelow[p] = depthBelow[p];
+				depthBelow[p] = depth;
+				}
+			else if (depth > secondDepthBelow[p])
+				{
+				secondDepthBelow[p] = depth;
+				}
+			result[p] = Math.max(result[p], result[v]);
+			}
+		return result;
+		}
+
+	public double getTotalBranchLength()
+		{
+		double result = 0;
+		for (int v = 1; v < nodes.length; v++)
+			{
+			result += getLength(v);
+			}
+		return result;
+		}
+
+	public Set<T> getLeafValues()
+		{
+		Set<T> result = new HashSet<T>();
+		for (int v = 0; v < nodes.length; v++)
+			{
+			if (isLeafIndex(v))
+				{
+				result.add(getPayload(v));
+				}
+			}
+		return result;
+		}
+
+	public Set<T> getNodeValues()
+		{
+		Set<T> result = new HashSet<T>(2 * nodes.length);
+		for (int node : nodes)
+			{
+			result.add(base.getPayload(node));
+			}
+		return result;
+		}
+
+	/**
+	 * Copy the view out into a new tree of node objects, with the collapsed branch lengths.
+	 */
+	public BasicRootedPhylogeny<T> toRootedPhylogeny()
+		{
+		BasicRootedPhylogeny<T> result = new BasicRootedPhylogeny<T>(getRootPayload());
+		List<BasicPhylogenyNode<T>> copies = new ArrayList<BasicPhylogenyNode<T>>(nodes.length);
+		copies.add(result.getSelfNode());
+		result.putUniqueIdToNode(getRootPayload(), result.getSelfNode());
+
+		// parents precede their children
+		for (int v = 1; v < nodes.length; v++)
+			{
+			T id = getPayload(v);
+			BasicPhylogenyNode<T> copy = new BasicPhylogenyNode<T>(copies.get(parent[v]), id, getLength(v));
+			copies.add(copy);
+			result.putUniqueIdToNode(id, copy);
+			}
+		return result;
+		}
+	}
@@ -36,6 +36,27 @@ public class EnvironmentParser
 	public static Collection<RootedPhylogeny<String>> read(InputStream is, RootedPhylogeny<String> tree)
 			throws IOException, TreeException, NoSuchNodeException
 		{
+		Map<String, Multiset<String>> environmentCounts = readCounts(is);
+
+		Set<RootedPhylogeny<String>> result = new HashSet<RootedPhylogeny<String>>();
+		for (Map.Entry<String, Multiset<String>> entry : environmentCounts.entrySet())
+			{
+			String name = entry.getKey();
+			Multiset<String> ids = entry.getValue();
+			RootedPhylogeny<String> subtree = tree.extractTreeWithLeafIDs(ids.elementSet(), false, false,
+			                                                              AbstractRootedPhylogeny.MutualExclusionResolutionMode.EXCEPTION);
+			subtree.setPayload(name);
+			subtree.setLeafWeights(ids);
+			result.add(subtree);
+			}
+		return result;
+		}
+
+	/**
+	 * @return the taxon counts of each environment, by environment name
+	 */
+	public static Map<String, Multiset<String>> readCounts(InputStream is) throws IOException
+		{
 		BufferedReader r = new BufferedReader(new InputStreamReader(is));
 
 		Map<String, Multiset<String>> environmentCounts = new HashMap<String, Multiset<String>>();
@@ -52,18 +73,23 @@ public class EnvironmentParser
 				}
 			env.add(tokens[0], Integer.parseInt(tokens[2]));
 			}
+		return environmentCounts;
+		}
 
-
-		Set<RootedPhylogeny<String>> result = new HashSet<RootedPhylogeny<String>>();
+	/**
+	 * Provide the communities as virtual trees over a compact tree, without copying any nodes; the weights remain in
+	 * the counts.
+	 *
+	 * @return the subtree spanning the taxa of each environment, by environment name
+	 */
+	public static Map<String, CompactSubtreeView<String>> extractViews(Map<String, Multiset<String>> environmentCounts,
+	                                                                   CompactRootedPhylogeny<String> tree)
+			throws NoSuchNodeException
+		{
+		Map<String, CompactSubtreeView<String>> result = new HashMap<String, CompactSubtreeView<String>>();
 		for (Map.Entry<String, Multiset<String>> entry : environmentCounts.entrySet())
 			{
-			String name = entry.getKey();
-			Multiset<String> ids = entry.getValue();
-			RootedPhylogeny<String> subtree = tree.extractTreeWithLeafIDs(ids.elementSet(), false, false,
-			                                                              AbstractRootedPhylogeny.MutualExclusionResolutionMode.EXCEPTION);
-			subtree.setPayload(name);
-			subtree.setLeafWeights(ids);
-			result.add(subtree);
+			result.put(entry.getKey(), CompactSubtreeView.virtualTree(tree, entry.getValue().elementSet(), false));
 			}
 		return result;
 		}
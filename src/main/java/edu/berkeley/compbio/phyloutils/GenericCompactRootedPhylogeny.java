@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import com.davidsoergel.trees.NoSuchNodeException;
+import com.davidsoergel.trees.PhylogenyNode;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * A CompactRootedPhylogeny for trees with arbitrary payloads, e.g. Strings.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+public class GenericCompactRootedPhylogeny<T extends Serializable> extends CompactRootedPhylogeny<T>
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	private static final long serialVersionUID = 1L;
+
+	private final Object[] payloads;
+	private final Map<T, Integer> indexById;
+
+
+	// --------------------------- CONSTRUCTORS ---------------------------
+
+	public GenericCompactRootedPhylogeny(PhylogenyNode<T> root)
+		{
+		this(new Flattened<T>(root));
+		}
+
+	private GenericCompactRootedPhylogeny(Flattened<T> flattened)
+		{
+		super(flattened.parent, flattened.length);
+
+		int n = flattened.parent.length;
+		payloads = flattened.payloads.toArray();
+		indexById = new HashMap<T, Integer>(n * 2);
+		for (int i = 0; i < n; i++)
+			{
+			indexById.put(flattened.payloads.get(i), i);
+			}
+		}
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	public int indexOf(T id) throws NoSuchNodeException
+		{
+		Integer result = indexById.get(id);
+		if (result == null)
+			{
+			throw new NoSuchNodeException("No node found with id " + id);
+			}
+		return result;
+		}
+
+	public boolean isKnown(T id)
+		{
+		return indexById.containsKey(id);
+		}
+
+	public T getPayload(int node)
+		{
+		return (T) payloads[node];
+		}
+	}
@@ -16,7 +16,14 @@ import com.davidsoergel.trees.BasicRootedPhylogeny;
 import com.davidsoergel.trees.NoSuchNodeException;
 import com.davidsoergel.trees.RequireExistingNodeNamer;
 import com.davidsoergel.trees.RootedPhylogeny;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimaps;
+import com.google.common.collect.SetMultimap;
 import org.apache.commons.lang.NotImplementedException;
 import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
@@ -28,20 +35,17 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPInputStream;
 
 /**
  * Provides a view onto the Hugenholtz taxonomy using Integer IDs.  The Hugenholtz taxonomy has integer ids
@@ -55,7 +59,8 @@ import java.util.zip.GZIPInputStream;
  * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
  * @version $Id$
  */
-public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, TaxonomyService<String>
+public class HugenholtzTaxonomyService implements TaxonomyService<Integer>, IntTaxonomyService, BatchTaxonomyService
+		//, TaxonomyService<String>
 	{
 	private static final Logger logger = Logger.getLogger(HugenholtzTaxonomyService.class);
 
@@ -86,9 +91,12 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 
 	private static HugenholtzTaxonomyService instance;// = new CiccarelliUtils();
 
-	private TaxonomySynonymService synonymService;
+	static final String SNAPSHOT_KIND = "HugenholtzTaxonomyService";
+	static final int SNAPSHOT_VERSION = 3;
 
-	private final static Integer NO_VALID_ID = -1;
+	private volatile TaxonomySynonymService synonymService;
+
+	final static Integer NO_VALID_ID = -1;
 
 	public static HugenholtzTaxonomyService getInjectedInstance()
 		{
@@ -105,12 +113,15 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 		HugenholtzTaxonomyService.instance = instance;
 		}
 
-	public synchronized void setSynonymService(@NotNull TaxonomySynonymService synonymService)
+	public void setSynonymService(@NotNull TaxonomySynonymService synonymService)
 		{
 		this.synonymService = synonymService;
 		}
 
-	// PERF use ConcurrentMaps and such here instead of synchronizing all the methods
+	// Loading is synchronized, but queries are not: init() publishes everything they need as an immutable Snapshot
+	// through a volatile field, and the only thing queries write is the concurrent memo of name lookups.
+
+	private volatile Snapshot snapshot;
 
 	/*	private BasicRootedPhylogeny<Integer> theIntegerTree;
 	 private HashMultimap<String, Integer> extraNameToIdsMap;
@@ -122,6 +133,8 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 	CacheManager.LazyStub extraNameToIdsMapStub;
 	CacheManager.LazyStub nameToIdsMapStub;
 	CacheManager.LazyStub nameToUniqueIdMapStub;
+	CacheManager.LazyStub compactTreeStub;
+	CacheManager.LazyStub idToNamesMapStub;
 
 //	BiMap<Integer, PhylogenyNode<String>> intToNodeMap = new HashBiMap<Integer, PhylogenyNode<String>>();
 //	Multimap<String, PhylogenyNode<String>> nameToNodeMap = new HashMultimap<String, PhylogenyNode<String>>();
@@ -130,7 +143,7 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 
 	public Set<Integer> getLeafIds()
 		{
-		BasicRootedPhylogeny<Integer> theIntegerTree = (BasicRootedPhylogeny<Integer>) theIntegerTreeStub.get();
+		BasicRootedPhylogeny<Integer> theIntegerTree = snapshot.getIntegerTree();
 		return theIntegerTree.getLeafValues();
 		}
 
@@ -149,9 +162,11 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 		nameToIdsMapStub = CacheManager.getLazy(this, allFilenames + ".nameToIdsMap");
 		extraNameToIdsMapStub = CacheManager.getLazy(this, allFilenames + ".extraNameToIdsMap");
 		nameToUniqueIdMapStub = CacheManager.getLazy(this, allFilenames + ".nameToUniqueIdMap");
+		compactTreeStub = CacheManager.getLazy(this, allFilenames + ".compactTree");
+		idToNamesMapStub = CacheManager.getLazy(this, allFilenames + ".idToNamesMap");
 
 		if (theIntegerTreeStub.notCached() || nameToIdsMapStub.notCached() || extraNameToIdsMapStub.notCached()
-		    || nameToUniqueIdMapStub.notCached())
+		    || nameToUniqueIdMapStub.notCached() || compactTreeStub.notCached() || idToNamesMapStub.notCached())
 			{
 			HashMultimap<String, Integer> nameToIdsMap = HashMultimap.create();
 
@@ -160,6 +175,10 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 
 			nameToIdsMapStub.put(nameToIdsMap);
 
+			// the forward map is complete now (including the overrides, which replace earlier mappings), so invert it in
+			// one go rather than tracking removals
+			idToNamesMapStub.put(Multimaps.invertFrom(nameToIdsMap, HashMultimap.<Integer, String>create()));
+
 			// ** Note we don't invalidate downstream caches, e.g. for StrainDirectoryLabelChooser and so forth
 			// CacheManager.invalidate
 			/*	CacheManager.put(this, allFilenames + ".theIntegerTree", theIntegerTree);
@@ -168,6 +187,26 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 						CacheManager.put(this, allFilenames + ".nameToUniqueIdMap", nameToUniqueIdMap); */
 			}
 
+		ConcurrentHashMap<String, Integer> nameToUniqueIdMap =
+				(ConcurrentHashMap<String, Integer>) nameToUniqueIdMapStub.get();
+		if (nameToUniqueIdMap == null)
+			{
+			// there was no override file, but we still need somewhere to memoize lookups
+			nameToUniqueIdMap = new ConcurrentHashMap<String, Integer>();
+			nameToUniqueIdMapStub.put(nameToUniqueIdMap);
+			}
+
+		IntegerCompactRootedPhylogeny compactTree = (IntegerCompactRootedPhylogeny) compactTreeStub.get();
+
+		// the LCA index and subtree spans aren't cached, since they're quick to rebuild
+		compactTree.getCommonAncestorIndex();
+		compactTree.getSubtreeSpans();
+
+		snapshot = new Snapshot(theIntegerTreeStub, compactTree,
+		                        (HashMultimap<String, Integer>) nameToIdsMapStub.get(),
+		                        (HashMultimap<String, Integer>) extraNameToIdsMapStub.get(),
+		                        (HashMultimap<Integer, String>) idToNamesMapStub.get(), nameToUniqueIdMap);
+
 		/*if (!readStateIfAvailable())
 			{
 			reloadFromNewick();
@@ -224,9 +263,113 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 
 
 		theIntegerTreeStub.put(theIntegerTree);
+		try
+			{
+			compactTreeStub.put(new IntegerCompactRootedPhylogeny(theIntegerTree));
+			}
+		catch (PhyloUtilsException e)
+			{
+			logger.error("Error", e);
+			throw new PhyloUtilsRuntimeException(e);
+			}
 		extraNameToIdsMapStub.put(extraNameToIdsMap);
 		}
 
+	/**
+	 * Write everything init() loads to a BinarySnapshot, including the names memoized so far, so that loadSnapshot() can
+	 * restore it without the cache or the source files.  The primary names are written as a MappedNameDictionary,
+	 * straight from the mapped file after useNameDictionary().
+	 */
+	public void saveSnapshot(Path path) throws IOException
+		{
+		Snapshot s = snapshot;
+		BinarySnapshot.Writer out = new BinarySnapshot.Writer(path, SNAPSHOT_KIND, SNAPSHOT_VERSION);
+		try
+			{
+			out.writeIntegerTree(s.compactTree);
+			s.writeNames(out);
+			out.writeStringIntMultimap(s.extraNameToIdsMap);
+			out.writeStringIntMap(new HashMap<String, Integer>(s.nameToUniqueIdMap));
+			out.writeStringIntMap(s.nameCache.getFoundAsMap());
+			}
+		finally
+			{
+			out.close();
+			}
+		}
+
+	/**
+	 * Load the state written by saveSnapshot(), instead of calling init().  The primary names are used in place from the
+	 * mapped file, as after useNameDictionary(), and the tree of node objects that a few queries need is rebuilt from
+	 * the compact tree on first use.
+	 *
+	 * @throws PhyloUtilsException if the file is not an intact snapshot of this service
+	 */
+	public synchronized void loadSnapshot(Path path) throws IOException, PhyloUtilsException
+		{
+		BinarySnapshot.Reader in = new BinarySnapshot.Reader(path, SNAPSHOT_KIND, SNAPSHOT_VERSION);
+		IntegerCompactRootedPhylogeny compactTree = in.readIntegerTree();
+		MappedNameDictionary nameDictionary = new MappedNameDictionary(in);
+		HashMultimap<String, Integer> extraNameToIdsMap = in.readStringIntMultimap();
+		ConcurrentHashMap<String, Integer> nameToUniqueIdMap = new ConcurrentHashMap<String, Integer>();
+		in.readStringIntMap(nameToUniqueIdMap);
+		HashMap<String, Integer> memos = new HashMap<String, Integer>();
+		in.readStringIntMap(memos);
+		in.finish();
+
+		compactTree.getCommonAncestorIndex();
+		compactTree.getSubtreeSpans();
+
+		Snapshot s = new Snapshot(compactTree, nameDictionary, extraNameToIdsMap, nameToUniqueIdMap);
+		s.memoizeAll(memos);
+		snapshot = s;
+		}
+
+	/**
+	 * @return the resolver of semicolon-delimited classification paths, e.g. for resolving many of them in parallel
+	 */
+	public LineageResolver getLineageResolver()
+		{
+		return snapshot.getLineageResolver();
+		}
+
+	/**
+	 * @return the memo of name lookups, e.g. for monitoring its hit rate
+	 */
+	public NameLookupCache getNameCache()
+		{
+		return snapshot.nameCache;
+		}
+
+	/**
+	 * Write the primary name map (the scientific names, strain names and the like, but not the extra names) to a
+	 * MappedNameDictionary, for use by useNameDictionary().
+	 */
+	public void saveNameDictionary(Path path) throws IOException
+		{
+		snapshot.writeNameDictionary(path);
+		}
+
+	/**
+	 * Look up names in the given MappedNameDictionary file instead of in the primary name map, which (with its inverse)
+	 * is then dropped from the heap.  The memo of names already looked up is kept.
+	 *
+	 * @throws PhyloUtilsException if the file is not an intact name dictionary
+	 */
+	public synchronized void useNameDictionary(Path path) throws IOException, PhyloUtilsException
+		{
+		snapshot = new Snapshot(snapshot, new MappedNameDictionary(path));
+		}
+
+	/**
+	 * The read-only queries (isKnown, isDescendant, distances, depths, ancestor paths) go to this array-backed copy of the
+	 * tree, so that answering them doesn't require deserializing the full object tree from the cache.
+	 */
+	public IntegerCompactRootedPhylogeny getCompactTree()
+		{
+		return snapshot.compactTree;
+		}
+
 	private synchronized void reloadNameToProkMSAidMap(HashMultimap<String, Integer> nameToIdsMap)
 		{
 
@@ -315,13 +458,7 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 			}
 
 
-		InputStream is = res.openStream();
-		is = filename.endsWith(".gz") ? new GZIPInputStream(is) : is;
-		/*if (is == null)
-					 {
-					 is = new FileInputStream(filename);
-					 }*/
-		return is;
+		return NewickParser.openStream(res, filename);
 		}
 
 	/**
@@ -349,91 +486,99 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 				{
 
 				BufferedReader in = new BufferedReader(new InputStreamReader(getInputStream(greengenesRawFilename)));
-				String line;
-				Pattern strainPattern = Pattern.compile("( str.? )|( strain )");
-				int skipped = 0;
-				int found = 0;
-				while ((line = in.readLine()) != null)
+				try
 					{
-					line = line.trim();
-					if (line.equals("END"))
+					String line;
+					Pattern strainPattern = Pattern.compile("( str.? )|( strain )");
+					int skipped = 0;
+					int found = 0;
+					while ((line = in.readLine()) != null)
 						{
-						try
+						line = line.trim();
+						if (line.equals("END"))
 							{
-							theIntegerTree.getNode(prokMSA_id);
-							}
-						catch (NoSuchNodeException e)
-							{
-							if (logger.isTraceEnabled())
+							try
 								{
-								logger.trace(
-										"prokMSA_id " + prokMSA_id + " not in tree; " + organism + " " + prokMSAname
-										+ " " + source);
+								theIntegerTree.getNode(prokMSA_id);
 								}
-							skipped++;
-							continue;
-							}
-						found++;
-						if (organism != null)
-							{
-							nameToIdsMap.put(organism, prokMSA_id);
-							String cleanOrganism = strainPattern.matcher(organism).replaceAll(" ");
-							if (!cleanOrganism.equals(source))
+							catch (NoSuchNodeException e)
 								{
-								nameToIdsMap.put(cleanOrganism, prokMSA_id);
+								if (logger.isTraceEnabled())
+									{
+									logger.trace(
+											"prokMSA_id " + prokMSA_id + " not in tree; " + organism + " " + prokMSAname
+											+ " " + source);
+									}
+								skipped++;
+								continue;
 								}
-							}
-						if (prokMSAname != null)
-							{
-							nameToIdsMap.put(prokMSAname, prokMSA_id);
-							String cleanProkMSAname = strainPattern.matcher(prokMSAname).replaceAll(" ");
-							if (!cleanProkMSAname.equals(source))
+							found++;
+							if (organism != null)
 								{
-								nameToIdsMap.put(cleanProkMSAname, prokMSA_id);
+								nameToIdsMap.put(organism, prokMSA_id);
+								String cleanOrganism = strainPattern.matcher(organism).replaceAll(" ");
+								if (!cleanOrganism.equals(source))
+									{
+									nameToIdsMap.put(cleanOrganism, prokMSA_id);
+									}
 								}
-							}
-						if (source != null)
-							{
-							nameToIdsMap.put(source, prokMSA_id);
-							String cleanSource = strainPattern.matcher(source).replaceAll("");
-							if (!cleanSource.equals(source))
+							if (prokMSAname != null)
 								{
-								nameToIdsMap.put(cleanSource, prokMSA_id);
+								nameToIdsMap.put(prokMSAname, prokMSA_id);
+								String cleanProkMSAname = strainPattern.matcher(prokMSAname).replaceAll(" ");
+								if (!cleanProkMSAname.equals(source))
+									{
+									nameToIdsMap.put(cleanProkMSAname, prokMSA_id);
+									}
+								}
+							if (source != null)
+								{
+								nameToIdsMap.put(source, prokMSA_id);
+								String cleanSource = strainPattern.matcher(source).replaceAll("");
+								if (!cleanSource.equals(source))
+									{
+									nameToIdsMap.put(cleanSource, prokMSA_id);
+									}
 								}
-							}
 
-						organism = null;
-						prokMSAname = null;
-						source = null;
-						prokMSA_id = null;
-						}
-					else
-						{
-						String[] sa = line.split("=");
-						if (sa[0].equals("organism"))
-							{
-							organism = sa[1];
+							organism = null;
+							prokMSAname = null;
+							source = null;
+							prokMSA_id = null;
 							}
-						else if (sa[0].equals("source"))
+						else
 							{
-							source = sa[1];
-							}
-						else if (sa[0].equals("prokMSA_id"))
-							{
-							prokMSA_id = new Integer(sa[1]);
-							}
-						else if (sa[0].equals("prokMSAname"))
-							{
-							prokMSAname = sa[1];
+							String[] sa = line.split("=");
+							if (sa[0].equals("organism"))
+								{
+								organism = sa[1];
+								}
+							else if (sa[0].equals("source"))
+								{
+								source = sa[1];
+								}
+							else if (sa[0].equals("prokMSA_id"))
+								{
+								prokMSA_id = new Integer(sa[1]);
+								}
+							else if (sa[0].equals("prokMSAname"))
+								{
+								prokMSAname = sa[1];
+								}
+							//	else if (sa[0].equals("replaced_by"))
+							//			{
+							//			replaced_by = sa[1];
+							//			}
+							// else ignore
 							}
-						//	else if (sa[0].equals("replaced_by"))
-						//			{
-						//			replaced_by = sa[1];
-						//			}
-						// else ignore
 						}
+					logger.info("Found " + found + " taxa in tree, skipped " + skipped);
+					}
+				finally
+					{
+					// for a .gz file this also stops the background inflater
+					in.close();
 					}
-				logger.info("Found " + found + " taxa in tree, skipped " + skipped);
 				}
 			catch (IOException e)
 				{
@@ -551,26 +696,14 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 		 }
  */
 
-	public synchronized boolean isLeaf(Integer leafId) throws NoSuchNodeException
+	public boolean isLeaf(Integer leafId) throws NoSuchNodeException
 		{
-		BasicRootedPhylogeny<Integer> theIntegerTree = (BasicRootedPhylogeny<Integer>) theIntegerTreeStub.get();
-
-		return theIntegerTree.getNode(leafId).isLeaf();
+		return getCompactTree().isLeaf(leafId);
 		}
 
-	public synchronized boolean isKnown(Integer leafId) //throws NoSuchNodeException
+	public boolean isKnown(Integer leafId) //throws NoSuchNodeException
 	{
-	try
-		{
-		BasicRootedPhylogeny<Integer> theIntegerTree = (BasicRootedPhylogeny<Integer>) theIntegerTreeStub.get();
-
-		theIntegerTree.getNode(leafId);
-		return true;
-		}
-	catch (NoSuchNodeException e)
-		{
-		return false;
-		}
+	return getCompactTree().isKnown(leafId);
 	}
 
 
@@ -580,47 +713,24 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 		return findTaxidByName(name);
 		}
 
-	public synchronized Set<String> getCachedNamesForId(Integer id)
+	public Set<String> getCachedNamesForId(Integer id)
 		{
-		HashMultimap<String, Integer> nameToIdsMap = (HashMultimap<String, Integer>) nameToIdsMapStub.get();
-		ConcurrentHashMap<String, Integer> nameToUniqueIdMap =
-				(ConcurrentHashMap<String, Integer>) nameToUniqueIdMapStub.get();
-
-		//PERF, need a BiMultiMap or something
-		Set<String> result = new HashSet<String>();
-		for (Map.Entry<String, Integer> entry : nameToUniqueIdMap.entrySet())
-			{
-			if (entry.getValue().equals(id))
-				{
-				result.add(entry.getKey());
-				}
-			}
-		for (Map.Entry<String, Integer> entry : nameToIdsMap.entries())
-			{
-			if (entry.getValue().equals(id))
-				{
-				result.add(entry.getKey());
-				}
-			}
-		return result;
+		return snapshot.getNamesForId(id);
 		}
 
 	@NotNull
-	public synchronized Integer findTaxidByName(String name) throws NoSuchNodeException
+	public Integer findTaxidByName(String name) throws NoSuchNodeException
 		{
-		ConcurrentHashMap<String, Integer> nameToUniqueIdMap =
-				(ConcurrentHashMap<String, Integer>) nameToUniqueIdMapStub.get();
+		Snapshot snapshot = this.snapshot;
 
-		Integer result = nameToUniqueIdMap.get(name);
+		Integer result = snapshot.getMemoized(name);
 
 		if (result == null)
 			{
-			BasicRootedPhylogeny<Integer> theIntegerTree = (BasicRootedPhylogeny<Integer>) theIntegerTreeStub.get();
-
 			try
 				{
 				Integer id = new Integer(name);
-				theIntegerTree.getNode(id);   // throws exception if not present // intToNodeMap.containsKey(id))
+				snapshot.compactTree.indexOf(id);   // throws exception if not present // intToNodeMap.containsKey(id))
 				result = id;
 				}
 			catch (NumberFormatException e)
@@ -638,7 +748,7 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 					{
 					try
 						{
-						BasicRootedPhylogeny<Integer> bTree = findSubtreeByNameRelaxed(name);
+						BasicRootedPhylogeny<Integer> bTree = findSubtreeByNameRelaxed(snapshot, name);
 						result = bTree.getShallowestLeaf();
 						}
 					catch (NoSuchNodeException e)
@@ -654,10 +764,12 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 					}
 				else
 					{
-					result = getUniqueNodeForMultilevelName(name.split("[; ]+"));
+					result = snapshot.getLineageResolver().resolve(name);
 					}
 				}
-			nameToUniqueIdMap.put(name, result);
+
+			// another thread may have resolved the same name meanwhile; the answer is the same either way
+			snapshot.memoize(name, result);
 			}
 
 		if (result.equals(NO_VALID_ID))
@@ -675,118 +787,6 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 */
 
 
-	private synchronized Integer commonAncestor(Set<Deque<Integer>> paths) throws NoSuchNodeException
-		{
-		if (paths.size() == 1)
-			{
-			final Deque<Integer> path = paths.iterator().next();
-			return path.getLast();
-			}
-		else
-			{
-			assert paths.size() > 1;
-			//	throw new PhyloUtilsRuntimeException("Taxonomy path not unique : " + DSStringUtils.join(taxa, "; "));
-			Set<Integer> leafIds = new HashSet<Integer>();
-			for (Deque<Integer> path : paths)
-				{
-				leafIds.add(path.peekLast());
-				}
-			BasicRootedPhylogeny<Integer> theIntegerTree = (BasicRootedPhylogeny<Integer>) theIntegerTreeStub.get();
-
-			return theIntegerTree.commonAncestor(leafIds, 0.75);
-			}
-		}
-
-
-	// bottom-up search
-
-	@NotNull
-	private synchronized Integer getUniqueNodeForMultilevelName(String[] taxa) throws NoSuchNodeException
-		{
-		List<String> reverseTaxa = new ArrayList(Arrays.asList(taxa.clone()));
-		Collections.reverse(reverseTaxa);
-
-		//final String firstS = reverseTaxa.remove(0);
-		//Collection<Integer> trav = null; // = nameToIdMap.get(firstS);
-
-		/*while (trav.isEmpty())
-			{
-			logger.warn("IGNORING Node " + s + " not found in " + DSStringUtils.join(taxa, "; "));
-			continue;
-			}
-*/
-
-		Set<Deque<Integer>> paths = null;
-		HashMultimap<String, Integer> nameToIdsMap = (HashMultimap<String, Integer>) nameToIdsMapStub.get();
-		HashMultimap<String, Integer> extraNameToIdsMap = (HashMultimap<String, Integer>) extraNameToIdsMapStub.get();
-
-		for (String s : reverseTaxa)
-			{
-			Collection<Integer> matchingNodes = nameToIdsMap.get(s);
-			if (matchingNodes.isEmpty())
-				{
-				matchingNodes = extraNameToIdsMap.get(s);
-				}
-			if (matchingNodes.isEmpty())
-				{
-				logger.debug("IGNORING Node " + s + " not found in " + DSStringUtils.join(taxa, "; "));
-				}
-			else
-				{
-				//	Set<Integer> nextTrav = new HashSet<Integer>();
-				if (paths == null)
-					{
-					paths = new HashSet<Deque<Integer>>(matchingNodes.size());
-					//nextTrav.addAll(matchingNodes);
-					for (Integer node : matchingNodes)
-						{
-						Deque<Integer> l = new LinkedList<Integer>();
-						l.add(node);
-						paths.add(l);
-						}
-					}
-				else
-					{
-					BasicRootedPhylogeny<Integer> theIntegerTree =
-							(BasicRootedPhylogeny<Integer>) theIntegerTreeStub.get();
-
-					Set<Deque<Integer>> okPaths = new HashSet<Deque<Integer>>();
-					for (Deque<Integer> path : paths)
-						{
-						Integer descendant = path.peek();
-						for (Integer ancestor : matchingNodes)
-							{
-							if (theIntegerTree.isDescendant(ancestor, descendant))
-								{
-								path.addFirst(ancestor);
-								okPaths.add(path);
-								}
-							}
-						}
-					paths = okPaths;  // ditch any paths that didn't have an ancestor added this round
-					}
-
-				if (paths.isEmpty())
-					{
-					// we get here only if
-					//  a) there was more than one live path on the last round
-					//  b) none of those paths are descendants of the matches at the current level
-					throw new NoSuchNodeException(
-							"Requested classification path does not match tree: " + DSStringUtils.join(taxa, "; "));
-					}
-
-				// if all the paths converge on exactly one node, call it a match, even if higher levels of the tree don't match.
-
-				if (matchingNodes.size() == 1)
-					{
-					return commonAncestor(paths);
-					}
-				}
-			}
-		throw new NoSuchNodeException("Multiple distinct matching paths: " + DSStringUtils.join(taxa, "; "));
-		//return commonAncestor(paths);
-		}
-
 	// top-down search
 	/*	private Integer getUniqueNodeForMultilevelName(String[] taxa) throws PhyloUtilsException
 			 {
@@ -864,7 +864,6 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 	 */
 
 
-	Pattern spaceSuffixPattern = Pattern.compile(" \\S*$");
 	//Pattern strainSuffixPattern = Pattern.compile("( (sp.?)|(str.?)|(strain)).*$");
 
 /*	@NotNull
@@ -887,16 +886,17 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 */
 
 
-	private synchronized BasicRootedPhylogeny<Integer> findSubtreeByNameRelaxed(String name) throws NoSuchNodeException
+	private BasicRootedPhylogeny<Integer> findSubtreeByNameRelaxed(Snapshot snapshot, String name)
+			throws NoSuchNodeException
 		{
-		Set<Integer> matchingIds = findMatchingIdsRelaxed(name);
+		Set<Integer> matchingIds = findMatchingIdsRelaxed(snapshot, name);
 
 		if (matchingIds.size() == 0)
 			{
 			throw new NoSuchNodeException("Subtree not found even with relaxation: " + name);
 			}
 
-		return findCompactSubtreeWithIds(matchingIds, name);
+		return findCompactSubtreeWithIds(snapshot, matchingIds, name);
 		}
 
 
@@ -954,11 +954,9 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 		 }
  */
 
-	public synchronized Set<Integer> findMatchingIds(String name) throws NoSuchNodeException
+	public Set<Integer> findMatchingIds(String name) throws NoSuchNodeException
 		{
-		HashMultimap<String, Integer> nameToIdsMap = (HashMultimap<String, Integer>) nameToIdsMapStub.get();
-
-		Set<Integer> matchingIds = nameToIdsMap.get(name);
+		Set<Integer> matchingIds = snapshot.getIdsForName(name);
 		if (matchingIds.isEmpty())
 			{
 			throw new NoSuchNodeException("Node not found: " + name);
@@ -966,11 +964,14 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 		return matchingIds;
 		}
 
-	public synchronized Set<Integer> findMatchingIdsRelaxed(String name) throws NoSuchNodeException
+	public Set<Integer> findMatchingIdsRelaxed(String name) throws NoSuchNodeException
 		{
-		HashMultimap<String, Integer> nameToIdsMap = (HashMultimap<String, Integer>) nameToIdsMapStub.get();
+		return findMatchingIdsRelaxed(snapshot, name);
+		}
 
-		Set<Integer> matchingIds = nameToIdsMap.get(name);
+	private Set<Integer> findMatchingIdsRelaxed(Snapshot snapshot, String name) throws NoSuchNodeException
+		{
+		Set<Integer> matchingIds = snapshot.getIdsForName(name);
 		/*	if (matchingIds.isEmpty())
 		   {
 		   matchingIds = new HashSet<Integer>();
@@ -992,7 +993,7 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 			matchingIds = new HashSet<Integer>();
 			for (String syn : synonymService.synonymsOfRelaxed(name))
 				{
-				matchingIds.addAll(nameToIdsMap.get(syn));
+				matchingIds.addAll(snapshot.getIdsForName(syn));
 				}
 			}
 		String shortName = name;
@@ -1003,12 +1004,14 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 
 		while (matchingIds.isEmpty() && shortName.contains(" "))
 			{
-			shortName = spaceSuffixPattern.matcher(shortName).replaceFirst("");
+			// each level goes through the synonym service, so this can't be collapsed into a single trie pass; but at
+			// least drop the last word directly rather than with a regex (which never matched a tab-containing last word)
+			shortName = shortName.substring(0, shortName.lastIndexOf(' '));
 			//shortName = strainSuffixPattern.matcher(shortName).replaceAll("");
 			matchingIds = new HashSet<Integer>();
 			for (String syn : synonymService.synonymsOfRelaxed(shortName))
 				{
-				matchingIds.addAll(nameToIdsMap.get(syn));
+				matchingIds.addAll(snapshot.getIdsForName(syn));
 				}
 			if (!matchingIds.isEmpty())
 				{
@@ -1019,17 +1022,29 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 			{
 			throw new NoSuchNodeException("Node not found: " + name + "; no id found even for " + shortName);
 			}
-		shortNames.put(name, shortName);
+		relaxedNames.put(name, shortName);
 		return matchingIds;
 		}
 
 //	WeightedSet<String> depthsBelow = new HashWeightedSet<String>(); // for debugging
 
-	private Map<String, String> shortNames = new HashMap<String, String>();
+	// the name each relaxed lookup was resolved by, bounded by characters like the name memo
+	private final Cache<String, String> relaxedNames = CacheBuilder.newBuilder()
+			.maximumWeight(NameLookupCache.DEFAULT_MAXIMUM_WEIGHT).weigher(new Weigher<String, String>()
+			{
+			public int weigh(String name, String shortName)
+				{
+				return NameLookupCache.ENTRY_WEIGHT + name.length() + shortName.length();
+				}
+			}).build();
 
-	public synchronized String getRelaxedName(String name)
+	/**
+	 * @return the name that a recent findMatchingIdsRelaxed() of the given name was resolved by, or null if it has been
+	 *         forgotten
+	 */
+	public String getRelaxedName(String name)
 		{
-		return shortNames.get(name);
+		return relaxedNames.getIfPresent(name);
 		}
 
 	/*	public void printDepthsBelow()
@@ -1037,25 +1052,21 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 		for (String name : depthsBelow.keysInDecreasingWeightOrder())
 			{
 			double depthBelow = depthsBelow.get(name);
-			String shortName = shortNames.get(name);
+			String shortName = relaxedNames.getIfPresent(name);
 
 			logger.info(String.format("Depth below = %.3f for %s relaxed from %s", depthBelow, shortName, name));
 			}
 		}*/
 
-	public synchronized boolean isDescendant(Integer ancestor, Integer descendant) throws NoSuchNodeException
+	public boolean isDescendant(Integer ancestor, Integer descendant) throws NoSuchNodeException
 		{
-		BasicRootedPhylogeny<Integer> theIntegerTree = (BasicRootedPhylogeny<Integer>) theIntegerTreeStub.get();
-
-		return theIntegerTree.isDescendant(ancestor, descendant);
+		return getCompactTree().isDescendant(ancestor, descendant);
 //		return stringTaxonomyService.isDescendant(intToNodeMap.get(ancestor), intToNodeMap.get(descendant));
 		}
 
 	public Set<Integer> selectAncestors(final Collection<Integer> labels, final Integer id)
 		{
-		BasicRootedPhylogeny<Integer> theIntegerTree = (BasicRootedPhylogeny<Integer>) theIntegerTreeStub.get();
-
-		return theIntegerTree.selectAncestors(labels, id);
+		return getCompactTree().selectAncestors(labels, id);
 		}
 
 	/*public double exactDistanceBetween(Integer a, Integer b)
@@ -1064,51 +1075,114 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 		}
 */
 
-	// assume that theIntegerTree is good to go, and that its distanceBetween method is threadsafe
+	// assume that the compact tree is good to go; it's immutable, so its distanceBetween method is threadsafe
 
 	public double minDistanceBetween(Integer a, Integer b) throws NoSuchNodeException
 		{
-		BasicRootedPhylogeny<Integer> theIntegerTree = (BasicRootedPhylogeny<Integer>) theIntegerTreeStub.get();
-
-		return theIntegerTree.distanceBetween(a, b);
+		return getCompactTree().distanceBetween(a, b);
 		//return stringTaxonomyService.minDistanceBetween(intToNodeMap.get(a), intToNodeMap.get(b));
 		//	return exactDistanceBetween(name1, name2);
 		}
 
-	public synchronized double getDepthFromRoot(Integer b) throws NoSuchNodeException
+	public double getDepthFromRoot(Integer b) throws NoSuchNodeException
 		{
-		BasicRootedPhylogeny<Integer> theIntegerTree = (BasicRootedPhylogeny<Integer>) theIntegerTreeStub.get();
-
-		return theIntegerTree.distanceBetween(theIntegerTree.getRoot().getPayload(), b);
+		return getCompactTree().getDepthFromRoot(b);
 		//return stringTaxonomyService.minDistanceBetween(intToNodeMap.get(a), intToNodeMap.get(b));
 		//	return exactDistanceBetween(name1, name2);
 		}
 
-	public synchronized double getGreatestDepthBelow(Integer taxid) throws NoSuchNodeException
+	// the batch queries read the compact tree once, so a concurrent loadSnapshot() can't give mixed answers
+
+	public void isKnown(int[] ids, boolean[] out)
 		{
-		BasicRootedPhylogeny<Integer> theIntegerTree = (BasicRootedPhylogeny<Integer>) theIntegerTreeStub.get();
+		TaxonomyBatchQueries.isKnown(getCompactTree(), ids, out);
+		}
 
-		return theIntegerTree.getNode(taxid).getGreatestBranchLengthDepthBelow();
+	public void isDescendant(int ancestor, int[] candidates, boolean[] out) throws NoSuchNodeException
+		{
+		TaxonomyBatchQueries.isDescendant(getCompactTree(), ancestor, candidates, out);
 		}
 
-	public synchronized double getLargestLengthSpan(Integer taxid) throws NoSuchNodeException
+	public void minDistanceBetween(int[] a, int[] b, double[] out)
 		{
-		BasicRootedPhylogeny<Integer> theIntegerTree = (BasicRootedPhylogeny<Integer>) theIntegerTreeStub.get();
+		TaxonomyBatchQueries.minDistanceBetween(getCompactTree(), a, b, out);
+		}
 
-		return theIntegerTree.getNode(taxid).getLargestLengthSpan();
+	public void getDepthFromRoot(int[] ids, double[] out)
+		{
+		TaxonomyBatchQueries.getDepthFromRoot(getCompactTree(), ids, out);
 		}
 
-	private Double maxDistance = null;
+	public void findTaxidsByName(List<String> names, int[] out)
+		{
+		TaxonomyBatchQueries.findTaxidsByName(this, false, names, out);
+		}
 
-	public synchronized double maxDistance()
+	public void findTaxidsByNameRelaxed(List<String> names, int[] out)
 		{
-		if (maxDistance == null)
-			{
-			BasicRootedPhylogeny<Integer> theIntegerTree = (BasicRootedPhylogeny<Integer>) theIntegerTreeStub.get();
+		TaxonomyBatchQueries.findTaxidsByName(this, true, names, out);
+		}
 
-			maxDistance = 2.0 * theIntegerTree.getRoot().getGreatestBranchLengthDepthBelow();
-			}
-		return maxDistance;
+	// IntTaxonomyService
+
+	public boolean isKnownId(int id)
+		{
+		return getCompactTree().isKnown(id);
+		}
+
+	public boolean isLeafId(int id) throws NoSuchNodeException
+		{
+		return getCompactTree().isLeaf(id);
+		}
+
+	public boolean isDescendantId(int ancestor, int descendant) throws NoSuchNodeException
+		{
+		return getCompactTree().isDescendant(ancestor, descendant);
+		}
+
+	public double minDistanceBetweenIds(int a, int b) throws NoSuchNodeException
+		{
+		return getCompactTree().distanceBetween(a, b);
+		}
+
+	public double getDepthFromRootOfId(int id) throws NoSuchNodeException
+		{
+		return getCompactTree().getDepthFromRoot(id);
+		}
+
+	public IntHashSet selectAncestors(int[] labels, int id)
+		{
+		return getCompactTree().selectAncestors(labels, id);
+		}
+
+	public IntHashSet getLeafIdSet()
+		{
+		return getCompactTree().getLeafIdSet();
+		}
+
+	public IntHashSet findMatchingIdSet(String name) throws NoSuchNodeException
+		{
+		return IntHashSet.copyOf(findMatchingIds(name));
+		}
+
+	public IntHashSet findMatchingIdSetRelaxed(String name) throws NoSuchNodeException
+		{
+		return IntHashSet.copyOf(findMatchingIdsRelaxed(name));
+		}
+
+	public double getGreatestDepthBelow(Integer taxid) throws NoSuchNodeException
+		{
+		return getCompactTree().getGreatestDepthBelow(taxid);
+		}
+
+	public double getLargestLengthSpan(Integer taxid) throws NoSuchNodeException
+		{
+		return getCompactTree().getLargestLengthSpan(taxid);
+		}
+
+	public double maxDistance()
+		{
+		return getCompactTree().maxDistance();
 		}
 
 	/**
@@ -1118,12 +1192,10 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 	 * @return
 	 * @throws NoSuchNodeException
 	 */
-	public synchronized Integer nearestAncestorWithBranchLength(Integer id) throws NoSuchNodeException
+	public Integer nearestAncestorWithBranchLength(Integer id) throws NoSuchNodeException
 		{
-		BasicRootedPhylogeny<Integer> theIntegerTree = (BasicRootedPhylogeny<Integer>) theIntegerTreeStub.get();
-
 		//checkNodeExists(id);
-		theIntegerTree.getNode(id);  // test exists
+		getCompactTree().indexOf(id);  // test exists
 		return id;
 
 		//return theIntegerTree.nearestAncestorWithBranchLength(id);
@@ -1134,9 +1206,7 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 	@NotNull
 	public List<Integer> getAncestorPathIds(final Integer id) throws NoSuchNodeException
 		{
-		BasicRootedPhylogeny<Integer> theIntegerTree = (BasicRootedPhylogeny<Integer>) theIntegerTreeStub.get();
-
-		return theIntegerTree.getAncestorPathIds(id);
+		return getCompactTree().getAncestorPathIds(id);
 		}
 
 	/*	public List<PhylogenyNode<Integer>> getAncestorPath(final Integer id) throws NoSuchNodeException
@@ -1148,7 +1218,7 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 	@NotNull
 	public List<BasicPhylogenyNode<Integer>> getAncestorPathAsBasic(final Integer id) throws NoSuchNodeException
 		{
-		BasicRootedPhylogeny<Integer> theIntegerTree = (BasicRootedPhylogeny<Integer>) theIntegerTreeStub.get();
+		BasicRootedPhylogeny<Integer> theIntegerTree = snapshot.getIntegerTree();
 
 		return theIntegerTree.getAncestorPathAsBasic(id);
 		}
@@ -1209,30 +1279,30 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 		 }
  */
 
-	public synchronized BasicRootedPhylogeny<Integer> extractTreeWithLeafIDs(Set<Integer> ids,
+	public BasicRootedPhylogeny<Integer> extractTreeWithLeafIDs(Set<Integer> ids,
 	                                                                         boolean ignoreAbsentNodes,
 	                                                                         boolean includeInternalBranches,
 	                                                                         AbstractRootedPhylogeny.MutualExclusionResolutionMode mode)
 			throws NoSuchNodeException //, NodeNamer<Integer> namer
 	{
-	BasicRootedPhylogeny<Integer> theIntegerTree = (BasicRootedPhylogeny<Integer>) theIntegerTreeStub.get();
+	BasicRootedPhylogeny<Integer> theIntegerTree = snapshot.getIntegerTree();
 
 	return theIntegerTree.extractTreeWithLeafIDs(ids, ignoreAbsentNodes, includeInternalBranches, mode); //, namer);
 	}
 
-	public synchronized BasicRootedPhylogeny<Integer> extractTreeWithLeafIDs(Set<Integer> ids,
+	public BasicRootedPhylogeny<Integer> extractTreeWithLeafIDs(Set<Integer> ids,
 	                                                                         boolean ignoreAbsentNodes,
 	                                                                         boolean includeInternalBranches)
 			throws NoSuchNodeException //, NodeNamer<Integer> namer
 	{
-	BasicRootedPhylogeny<Integer> theIntegerTree = (BasicRootedPhylogeny<Integer>) theIntegerTreeStub.get();
+	BasicRootedPhylogeny<Integer> theIntegerTree = snapshot.getIntegerTree();
 
 	return theIntegerTree.extractTreeWithLeafIDs(ids, ignoreAbsentNodes, includeInternalBranches); //, namer);
 	}
 
 
 	@Override
-	public synchronized String toString()
+	public String toString()
 		{
 		String shortname = getClass().getName();
 		shortname = shortname.substring(shortname.lastIndexOf(".") + 1);
@@ -1300,15 +1370,22 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 		 }
  */
 
-	public synchronized BasicRootedPhylogeny<Integer> findTreeForIds(Set<Integer> idBSet)
+	/**
+	 * Extract the subtree spanning the given ids as a view over the compact tree, without copying any nodes.
+	 */
+	public CompactSubtreeView<Integer> extractViewWithLeafIDs(Set<Integer> ids, boolean ignoreAbsentNodes,
+	                                                          boolean includeInternalBranches)
+			throws NoSuchNodeException
+		{
+		return CompactSubtreeView.extract(getCompactTree(), ids, ignoreAbsentNodes, includeInternalBranches);
+		}
+
+	public BasicRootedPhylogeny<Integer> findTreeForIds(Set<Integer> idBSet)
 		{
 		try
 			{
-			BasicRootedPhylogeny<Integer> bTree = extractTreeWithLeafIDs(idBSet, true, true,
-			                                                             AbstractRootedPhylogeny.MutualExclusionResolutionMode.BOTH);
-			BasicPhylogenyNode<Integer> r = bTree.getFirstBranchingNode();
-			bTree = r.asRootedPhylogeny();
-			return bTree;
+			// the view is already rooted at the first branching node, so only the result is copied
+			return extractViewWithLeafIDs(idBSet, true, true).toRootedPhylogeny();
 			}
 		catch (NoSuchNodeException e)
 			{
@@ -1318,24 +1395,28 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 		}
 
 
-	public synchronized BasicRootedPhylogeny<Integer> findCompactSubtreeWithIds(Set<Integer> matchingIds, String name)
+	public BasicRootedPhylogeny<Integer> findCompactSubtreeWithIds(Set<Integer> matchingIds, String name)
 			throws NoSuchNodeException
 		{
-		BasicRootedPhylogeny<Integer> tree = extractTreeWithLeafIDs(matchingIds, true, true,
-		                                                            AbstractRootedPhylogeny.MutualExclusionResolutionMode.BOTH);
-		BasicPhylogenyNode<Integer> result = tree.getFirstBranchingNode();
+		return findCompactSubtreeWithIds(snapshot, matchingIds, name);
+		}
 
-		double span = result.getLargestLengthSpan();
-		if (span > 0.1)
+	private BasicRootedPhylogeny<Integer> findCompactSubtreeWithIds(Snapshot snapshot, Set<Integer> matchingIds,
+	                                                                String name) throws NoSuchNodeException
+		{
+		// the view is rooted at the first branching node, and measures its spans without copying the tree
+		CompactSubtreeView<Integer> view = CompactSubtreeView.extract(snapshot.compactTree, matchingIds, true, true);
+		double span = view.getLargestLengthSpan(0);
+		if (span <= 0.1)
 			{
-			logger.warn("Subtree for " + name + " has span = " + span + ", trying 75% solution");
-			Integer sub = tree.commonAncestor(matchingIds, 0.75);
-			result = tree.getNode(sub);
-			span = result.getLargestLengthSpan();
-			logger.warn("75% subtree for " + name + " has span = " + span);
+			return view.toRootedPhylogeny();
 			}
 
-		result = result;
+		logger.warn("Subtree for " + name + " has span = " + span + ", trying 75% solution");
+		BasicRootedPhylogeny<Integer> tree = view.toRootedPhylogeny();
+		Integer sub = tree.commonAncestor(matchingIds, 0.75);
+		span = view.getLargestLengthSpan(view.indexOf(sub));
+		logger.warn("75% subtree for " + name + " has span = " + span);
 
 		//result = tree.commonAncestor(matchingIds, 0.75);
 		//throw new PhyloUtilsException("Name not unique: " + name);
@@ -1347,20 +1428,27 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 
 		//logger.info("Node found for name " + name + " has depth below = " + jdepthBelow);
 
-		return result.asRootedPhylogeny();
+		return tree.getNode(sub).asRootedPhylogeny();
 		}
 
 	public Integer getLeafAtApproximateDistance(final Integer aId, final double minDesiredTreeDistance,
 	                                            final double maxDesiredTreeDistance) throws NoSuchNodeException
 		{
-		BasicRootedPhylogeny<Integer> theIntegerTree = (BasicRootedPhylogeny<Integer>) theIntegerTreeStub.get();
+		BasicRootedPhylogeny<Integer> theIntegerTree = snapshot.getIntegerTree();
 
 		return theIntegerTree.getLeafAtApproximateDistance(aId, minDesiredTreeDistance, maxDesiredTreeDistance);
 		}
 
 	public Collection<String> getAllNamesForIds(final Set<Integer> ids)
 		{
-		throw new NotImplementedException();
+		// read one snapshot for all the ids, so that a concurrent reload can't give mixed answers
+		Snapshot snapshot = this.snapshot;
+		Set<String> result = new HashSet<String>();
+		for (Integer id : ids)
+			{
+			result.addAll(snapshot.getNamesForId(id));
+			}
+		return result;
 		}
 
 	public String getScientificName(final Integer taxid) throws NoSuchNodeException
@@ -1374,4 +1462,286 @@ public class HugenholtzTaxonomyService implements TaxonomyService<Integer> //, T
 					}
 				return name;*/
 		}
+	
+	/**
+	 * Everything the queries need, published as a unit once loading is complete.  The name maps are wrapped unmodifiable
+	 * and are never written after publication, so concurrent reads of them are safe.  The object tree is needed only for
+	 * subtree extraction and the like, so it stays in the cache until first use.
+	 */
+	private static final class Snapshot
+		{
+		// null when loaded from a BinarySnapshot, in which case the tree is rebuilt from compactTree
+		private final CacheManager.LazyStub theIntegerTreeStub;
+		private volatile BasicRootedPhylogeny<Integer> theIntegerTree;
+
+		final IntegerCompactRootedPhylogeny compactTree;
+		// exactly one of these is null: after useNameDictionary(), the primary names are looked up in the mapped file
+		private final SetMultimap<String, Integer> nameToIdsMap;
+		private final MappedNameDictionary nameDictionary;
+
+		final SetMultimap<String, Integer> extraNameToIdsMap;
+
+		// the inverse of nameToIdsMap; null along with it
+		private final SetMultimap<Integer, String> idToNamesMap;
+
+		// the overrides from nameToProkMSAidFilename, which are never evicted
+		final ConcurrentHashMap<String, Integer> nameToUniqueIdMap;
+
+		// memoizes name lookups, within bounds; shared with snapshots copied from this one
+		final NameLookupCache nameCache;
+
+		// the inverse of nameToUniqueIdMap and of the found names in nameCache, kept in sync as names come and go
+		private final ConcurrentHashMap<Integer, Set<String>> idToUniqueNamesMap;
+
+		private volatile LineageResolver lineageResolver;
+
+		Snapshot(CacheManager.LazyStub theIntegerTreeStub, IntegerCompactRootedPhylogeny compactTree,
+		         HashMultimap<String, Integer> nameToIdsMap, HashMultimap<String, Integer> extraNameToIdsMap,
+		         HashMultimap<Integer, String> idToNamesMap, ConcurrentHashMap<String, Integer> nameToUniqueIdMap)
+			{
+			this(theIntegerTreeStub, compactTree, Multimaps.unmodifiableSetMultimap(nameToIdsMap),
+			     Multimaps.unmodifiableSetMultimap(idToNamesMap), null, extraNameToIdsMap, nameToUniqueIdMap);
+			}
+
+		/**
+		 * A snapshot loaded from a file, which looks up primary names in the given dictionary.
+		 */
+		Snapshot(IntegerCompactRootedPhylogeny compactTree, MappedNameDictionary nameDictionary,
+		         HashMultimap<String, Integer> extraNameToIdsMap, ConcurrentHashMap<String, Integer> nameToUniqueIdMap)
+			{
+			this(null, compactTree, null, null, nameDictionary, extraNameToIdsMap, nameToUniqueIdMap);
+			}
+
+		private Snapshot(CacheManager.LazyStub theIntegerTreeStub, IntegerCompactRootedPhylogeny compactTree,
+		                 SetMultimap<String, Integer> nameToIdsMap, SetMultimap<Integer, String> idToNamesMap,
+		                 MappedNameDictionary nameDictionary, HashMultimap<String, Integer> extraNameToIdsMap,
+		                 ConcurrentHashMap<String, Integer> nameToUniqueIdMap)
+			{
+			this.theIntegerTreeStub = theIntegerTreeStub;
+			this.compactTree = compactTree;
+			this.nameToIdsMap = nameToIdsMap;
+			this.nameDictionary = nameDictionary;
+			this.extraNameToIdsMap = Multimaps.unmodifiableSetMultimap(extraNameToIdsMap);
+			this.idToNamesMap = idToNamesMap;
+			this.nameToUniqueIdMap = nameToUniqueIdMap;
+			this.idToUniqueNamesMap = new ConcurrentHashMap<Integer, Set<String>>();
+			RemovalListener<String, Integer> unindex = new RemovalListener<String, Integer>()
+			{
+			public void onRemoval(RemovalNotification<String, Integer> notification)
+				{
+				unindexUniqueName(notification.getValue(), notification.getKey());
+				}
+			};
+			this.nameCache = new NameLookupCache(NameLookupCache.DEFAULT_MAXIMUM_WEIGHT,
+			                                     NameLookupCache.DEFAULT_MAXIMUM_FAILURES,
+			                                     NameLookupCache.DEFAULT_FAILURE_TTL_MINUTES, TimeUnit.MINUTES, unindex);
+
+			for (Map.Entry<String, Integer> entry : nameToUniqueIdMap.entrySet())
+				{
+				if (!entry.getValue().equals(NO_VALID_ID))
+					{
+					addUniqueName(entry.getValue(), entry.getKey());
+					}
+				}
+			}
+
+		/**
+		 * A copy of the given snapshot that looks up primary names in the given dictionary instead of in its name map.
+		 */
+		Snapshot(Snapshot from, MappedNameDictionary nameDictionary)
+			{
+			this.theIntegerTreeStub = from.theIntegerTreeStub;
+			this.theIntegerTree = from.theIntegerTree;
+			this.compactTree = from.compactTree;
+			this.nameToIdsMap = null;
+			this.nameDictionary = nameDictionary;
+			this.extraNameToIdsMap = from.extraNameToIdsMap;
+			this.idToNamesMap = null;
+			this.nameToUniqueIdMap = from.nameToUniqueIdMap;
+			this.idToUniqueNamesMap = from.idToUniqueNamesMap;
+			this.nameCache = from.nameCache;
+			this.lineageResolver = from.lineageResolver;
+			}
+
+		/**
+		 * @return the ids with the given primary name, or an empty set
+		 */
+		Set<Integer> getIdsForName(String name)
+			{
+			return nameDictionary != null ? nameDictionary.getIds(name) : nameToIdsMap.get(name);
+			}
+
+		/**
+		 * Write the primary names to a MappedNameDictionary file of their own, straight from the mapped one if that's where
+		 * they are.
+		 */
+		void writeNameDictionary(Path path) throws IOException
+			{
+			if (nameDictionary != null)
+				{
+				nameDictionary.write(path);
+				}
+			else
+				{
+				MappedNameDictionary.write(path, nameToIdsMap);
+				}
+			}
+
+		/**
+		 * Write the primary names as a MappedNameDictionary.
+		 */
+		void writeNames(BinarySnapshot.Writer out) throws IOException
+			{
+			if (nameDictionary != null)
+				{
+				nameDictionary.writeTo(out);
+				}
+			else
+				{
+				MappedNameDictionary.write(out, nameToIdsMap);
+				}
+			}
+
+		private void addUniqueName(Integer id, String name)
+			{
+			Set<String> names = idToUniqueNamesMap.get(id);
+			if (names == null)
+				{
+				Set<String> newNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+				names = idToUniqueNamesMap.putIfAbsent(id, newNames);
+				if (names == null)
+					{
+					names = newNames;
+					}
+				}
+			names.add(name);
+			}
+
+		/**
+		 * Drop a name that was evicted from or replaced in the name cache from the inverse of the given id, unless the name
+		 * still maps to that id: the notice may arrive after memoize() has put the name back, or the name may also be an
+		 * override.  Runs under the same lock as memoize(), so the check and the removal see the index and the cache
+		 * change together.
+		 */
+		private void unindexUniqueName(Integer id, String name)
+			{
+			synchronized (idToUniqueNamesMap)
+				{
+				if (id.equals(nameToUniqueIdMap.get(name)) || id.equals(nameCache.peekFound(name)))
+					{
+					return;
+					}
+				Set<String> names = idToUniqueNamesMap.get(id);
+				if (names != null)
+					{
+					names.remove(name);
+					}
+				}
+			}
+
+		/**
+		 * @return the id that the given name is overridden or memoized as, NO_VALID_ID if it was recently not found, or
+		 *         null if it must be looked up
+		 */
+		Integer getMemoized(String name)
+			{
+			Integer result = nameToUniqueIdMap.get(name);
+			if (result == null)
+				{
+				result = nameCache.getFound(name);
+				if (result == null && nameCache.isNotFound(name))
+					{
+					result = NO_VALID_ID;
+					}
+				}
+			return result;
+			}
+
+		/**
+		 * Record the result of a name lookup, keeping the inverse in sync.  Failed lookups are memoized too (for a while),
+		 * but aren't worth indexing.
+		 */
+		void memoize(String name, Integer id)
+			{
+			if (id.equals(NO_VALID_ID))
+				{
+				nameCache.putNotFound(name);
+				}
+			else
+				{
+				// the index and the cache change together, so that no eviction notice sees one without the other
+				synchronized (idToUniqueNamesMap)
+					{
+					addUniqueName(id, name);
+					nameCache.putFound(name, id);
+					}
+				}
+			}
+
+		void memoizeAll(Map<String, Integer> memos)
+			{
+			for (Map.Entry<String, Integer> entry : memos.entrySet())
+				{
+				memoize(entry.getKey(), entry.getValue());
+				}
+			}
+
+		Set<String> getNamesForId(Integer id)
+			{
+			Set<String> result = new HashSet<String>(nameDictionary != null ? nameDictionary.getNames(id)
+			                                                                : idToNamesMap.get(id));
+			Set<String> uniqueNames = idToUniqueNamesMap.get(id);
+			if (uniqueNames != null)
+				{
+				result.addAll(uniqueNames);
+				}
+			return result;
+			}
+
+		LineageResolver getLineageResolver()
+			{
+			LineageResolver result = lineageResolver;
+			if (result == null)
+				{
+				synchronized (this)
+					{
+					result = lineageResolver;
+					if (result == null)
+						{
+						result = nameDictionary != null
+						         ? new LineageResolver(compactTree, nameDictionary, extraNameToIdsMap)
+						         : new LineageResolver(compactTree, nameToIdsMap, extraNameToIdsMap);
+						lineageResolver = result;
+						}
+					}
+				}
+			return result;
+			}
+
+		BasicRootedPhylogeny<Integer> getIntegerTree()
+			{
+			BasicRootedPhylogeny<Integer> result = theIntegerTree;
+			if (result == null)
+				{
+				synchronized (this)
+					{
+					result = theIntegerTree;
+					if (result == null)
+						{
+						if (theIntegerTreeStub != null)
+							{
+							result = (BasicRootedPhylogeny<Integer>) theIntegerTreeStub.get();
+							}
+						else
+							{
+							result = compactTree.toBasicRootedPhylogeny();
+							result.setLeafWeightsUniform();
+							}
+						theIntegerTree = result;
+						}
+					}
+				}
+			return result;
+			}
+		}
 	}
@@ -41,6 +41,10 @@ public class HybridRootedPhylogeny<T extends Serializable>
 	RootedPhylogeny<T> rootPhylogeny;
 	RootedPhylogeny<T> leafPhylogeny;
 
+	// frozen copies of the two trees for ancestry queries, built on first use (a race at worst builds one twice)
+	private volatile CompactRootedPhylogeny<T> compactRootPhylogeny;
+	private volatile CompactRootedPhylogeny<T> compactLeafPhylogeny;
+
 	//private Map<T, T> nearestKnownAncestorCache = new HashMap<T, T>();
 
 	public HybridRootedPhylogeny(RootedPhylogeny<T> rootPhylogeny, RootedPhylogeny<T> leafPhylogeny)
@@ -157,6 +161,28 @@ public class HybridRootedPhylogeny<T extends Serializable>
 		return rootPhylogeny;
 		}
 
+	private CompactRootedPhylogeny<T> getCompactRootPhylogeny()
+		{
+		CompactRootedPhylogeny<T> result = compactRootPhylogeny;
+		if (result == null)
+			{
+			result = new GenericCompactRootedPhylogeny<T>(rootPhylogeny);
+			compactRootPhylogeny = result;
+			}
+		return result;
+		}
+
+	private CompactRootedPhylogeny<T> getCompactLeafPhylogeny()
+		{
+		CompactRootedPhylogeny<T> result = compactLeafPhylogeny;
+		if (result == null)
+			{
+			result = new GenericCompactRootedPhylogeny<T>(leafPhylogeny);
+			compactLeafPhylogeny = result;
+			}
+		return result;
+		}
+
 
 	public boolean isDescendant(T ancestor, T descendant) throws NoSuchNodeException
 		{
@@ -166,7 +192,7 @@ public class HybridRootedPhylogeny<T extends Serializable>
 
 		if (rootPhylogeny.getNode(ancestor) != null)
 			{
-			return ancestor.equals(rootPhylogeny.commonAncestor(ancestor, nearestDescendant));
+			return getCompactRootPhylogeny().isDescendant(ancestor, nearestDescendant);
 			}
 
 		// otherwise the ancestor is in the leaf phylogeny.
@@ -180,7 +206,7 @@ public class HybridRootedPhylogeny<T extends Serializable>
 
 		// OK, both ancestor and descendant exist only in the leaf phylogeny, and they're in the same clade wrt the root phylogeny.
 
-		return ancestor.equals(leafPhylogeny.commonAncestor(ancestor, descendant));
+		return getCompactLeafPhylogeny().isDescendant(ancestor, descendant);
 		}
 /*
 	public void saveState()
@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+
+/**
+ * A minimal open-addressing hash set of ints, the companion of IntIntHashMap, for returning sets of taxon ids without
+ * boxing each one.  asSet() provides a read-only Set<Integer> view for code written against the generic API.  Not
+ * thread-safe for writes; safe for concurrent reads once populated and safely published.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+public final class IntHashSet implements Serializable
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	private static final long serialVersionUID = 1L;
+
+	private int[] keys;
+	private boolean[] occupied;
+	private int size = 0;
+	private int mask;
+
+
+	// --------------------------- CONSTRUCTORS ---------------------------
+
+	public IntHashSet()
+		{
+		this(16);
+		}
+
+	public IntHashSet(int expectedSize)
+		{
+		int capacity = 16;
+		while (capacity < expectedSize * 2)
+			{
+			capacity <<= 1;
+			}
+		allocate(capacity);
+		}
+
+	// -------------------------- STATIC METHODS --------------------------
+
+	public static IntHashSet of(int... values)
+		{
+		IntHashSet result = new IntHashSet(values.length);
+		for (int value : values)
+			{
+			result.add(value);
+			}
+		return result;
+		}
+
+	public static IntHashSet copyOf(Collection<Integer> values)
+		{
+		IntHashSet result = new IntHashSet(values.size());
+		for (Integer value : values)
+			{
+			result.add(value);
+			}
+		return result;
+		}
+
+	private static int hash(int key)
+		{
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+		}
+
+	// --------------------- GETTER / SETTER METHODS ---------------------
+
+	public int size()
+		{
+		return size;
+		}
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	public boolean isEmpty()
+		{
+		return size == 0;
+		}
+
+	private void allocate(int capacity)
+		{
+		keys = new int[capacity];
+		occupied = new boolean[capacity];
+		mask = capacity - 1;
+		}
+
+	private int slotOf(int key)
+		{
+		int slot = hash(key) & mask;
+		while (occupied[slot] && keys[slot] != key)
+			{
+			slot = (slot + 1) & mask;
+			}
+		return slot;
+		}
+
+	public boolean contains(int key)
+		{
+		return occupied[slotOf(key)];
+		}
+
+	/**
+	 * @return true if the key was not already present
+	 */
+	public boolean add(int key)
+		{
+		int slot = slotOf(key);
+		if (occupied[slot])
+			{
+			return false;
+			}
+		if ((size + 1) * 2 > keys.length)
+			{
+			rehash(keys.length * 2);
+			slot = slotOf(key);
+			}
+		occupied[slot] = true;
+		keys[slot] = key;
+		size++;
+		return true;
+		}
+
+	private void rehash(int capacity)
+		{
+		int[] oldKeys = keys;
+		boolean[] oldOccupied = occupied;
+		allocate(capacity);
+		for (int i = 0; i < oldKeys.length; i++)
+			{
+			if (oldOccupied[i])
+				{
+				int slot = slotOf(oldKeys[i]);
+				occupied[slot] = true;
+				keys[slot] = oldKeys[i];
+				}
+			}
+		}
+
+	/**
+	 * @return the keys in no particular order
+	 */
+	public int[] toArray()
+		{
+		int[] result = new int[size];
+		int j = 0;
+		for (int i = 0; i < keys.length; i++)
+			{
+			if (occupied[i])
+				{
+				result[j++] = keys[i];
+				}
+			}
+		return result;
+		}
+
+	/**
+	 * @return a read-only view of this set, boxing each id only as it is iterated
+	 */
+	public Set<Integer> asSet()
+		{
+		return new AbstractSet<Integer>()
+		{
+		@Override
+		public boolean contains(Object o)
+			{
+			return o instanceof Integer && IntHashSet.this.contains((Integer) o);
+			}
+
+		@Override
+		public int size()
+			{
+			return size;
+			}
+
+		@Override
+		public Iterator<Integer> iterator()
+			{
+			return new Iterator<Integer>()
+			{
+			private int slot = nextOccupied(0);
+
+			public boolean hasNext()
+				{
+				return slot < keys.length;
+				}
+
+			public Integer next()
+				{
+				if (slot >= keys.length)
+					{
+					throw new NoSuchElementException();
+					}
+				int result = keys[slot];
+				slot = nextOccupied(slot + 1);
+				return result;
+				}
+
+			public void remove()
+				{
+				throw new UnsupportedOperationException();
+				}
+			};
+			}
+		};
+		}
+
+	private int nextOccupied(int slot)
+		{
+		while (slot < keys.length && !occupied[slot])
+			{
+			slot++;
+			}
+		return slot;
+		}
+
+	/**
+	 * @return true if the given object is an IntHashSet with the same ids, whatever their capacity or insertion order
+	 */
+	@Override
+	public boolean equals(Object o)
+		{
+		if (this == o)
+			{
+			return true;
+			}
+		if (!(o instanceof IntHashSet))
+			{
+			return false;
+			}
+		IntHashSet other = (IntHashSet) o;
+		if (other.size != size)
+			{
+			return false;
+			}
+		for (int i = 0; i < keys.length; i++)
+			{
+			if (occupied[i] && !other.contains(keys[i]))
+				{
+				return false;
+				}
+			}
+		return true;
+		}
+
+	/**
+	 * @return the sum of the ids, which is also the hashCode of asSet() and of any Set<Integer> with the same ids
+	 */
+	@Override
+	public int hashCode()
+		{
+		int result = 0;
+		for (int i = 0; i < keys.length; i++)
+			{
+			if (occupied[i])
+				{
+				result += keys[i];
+				}
+			}
+		return result;
+		}
+
+	public String toString()
+		{
+		return asSet().toString();
+		}
+	}
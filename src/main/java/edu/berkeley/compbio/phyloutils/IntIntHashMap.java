@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import java.io.Serializable;
+
+
+/**
+ * A minimal open-addressing hash map from int to int, for indexing large trees without boxing every key and value.
+ * Not thread-safe for writes; safe for concurrent reads once populated and safely published.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+public final class IntIntHashMap implements Serializable
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	private static final long serialVersionUID = 1L;
+
+	private int[] keys;
+	private int[] values;
+	private boolean[] occupied;
+	private int size = 0;
+	private int mask;
+
+
+	// --------------------------- CONSTRUCTORS ---------------------------
+
+	public IntIntHashMap()
+		{
+		this(16);
+		}
+
+	public IntIntHashMap(int expectedSize)
+		{
+		int capacity = 16;
+		while (capacity < expectedSize * 2)
+			{
+			capacity <<= 1;
+			}
+		allocate(capacity);
+		}
+
+	// --------------------- GETTER / SETTER METHODS ---------------------
+
+	public int size()
+		{
+		return size;
+		}
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	private void allocate(int capacity)
+		{
+		keys = new int[capacity];
+		values = new int[capacity];
+		occupied = new boolean[capacity];
+		mask = capacity - 1;
+		}
+
+	private static int hash(int key)
+		{
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+		}
+
+	private int slotOf(int key)
+		{
+		int slot = hash(key) & mask;
+		while (occupied[slot] && keys[slot] != key)
+			{
+			slot = (slot + 1) & mask;
+			}
+		return slot;
+		}
+
+	public boolean containsKey(int key)
+		{
+		return occupied[slotOf(key)];
+		}
+
+	/**
+	 * @return the value for the given key, or defaultValue if the key is not present
+	 */
+	public int get(int key, int defaultValue)
+		{
+		int slot = slotOf(key);
+		return occupied[slot] ? values[slot] : defaultValue;
+		}
+
+	public void put(int key, int value)
+		{
+		int slot = slotOf(key);
+		if (!occupied[slot])
+			{
+			if ((size + 1) * 2 > keys.length)
+				{
+				rehash(keys.length * 2);
+				slot = slotOf(key);
+				}
+			occupied[slot] = true;
+			keys[slot] = key;
+			size++;
+			}
+		values[slot] = value;
+		}
+
+	private void rehash(int capacity)
+		{
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		boolean[] oldOccupied = occupied;
+		allocate(capacity);
+		for (int i = 0; i < oldKeys.length; i++)
+			{
+			if (oldOccupied[i])
+				{
+				int slot = slotOf(oldKeys[i]);
+				occupied[slot] = true;
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+				}
+			}
+		}
+
+	/**
+	 * @return the keys in no particular order
+	 */
+	public int[] keys()
+		{
+		int[] result = new int[size];
+		int j = 0;
+		for (int i = 0; i < keys.length; i++)
+			{
+			if (occupied[i])
+				{
+				result[j++] = keys[i];
+				}
+			}
+		return result;
+		}
+	}
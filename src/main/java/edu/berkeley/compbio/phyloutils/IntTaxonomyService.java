@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import com.davidsoergel.trees.NoSuchNodeException;
+
+
+/**
+ * The queries of TaxonomyService<Integer> that are made in bulk, over unboxed int ids and returning IntHashSets.  The
+ * integer taxonomy services implement both interfaces; IntTaxonomyServiceAdapter provides this one for any other
+ * TaxonomyService<Integer>, and IntHashSet.asSet() turns a result back into a Set<Integer>.
+ * <p/>
+ * The single-id queries are named apart from their TaxonomyService<Integer> counterparts rather than overloading them,
+ * so that a call with int arguments binds to the same method whichever interface the caller sees.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+public interface IntTaxonomyService
+	{
+	boolean isKnownId(int id);
+
+	boolean isLeafId(int id) throws NoSuchNodeException;
+
+	boolean isDescendantId(int ancestor, int descendant) throws NoSuchNodeException;
+
+	double minDistanceBetweenIds(int a, int b) throws NoSuchNodeException;
+
+	double getDepthFromRootOfId(int id) throws NoSuchNodeException;
+
+	/**
+	 * @return those of the given labels that are ancestors of the given id (including the id itself, if it is among the
+	 *         labels)
+	 */
+	IntHashSet selectAncestors(int[] labels, int id);
+
+	IntHashSet getLeafIdSet();
+
+	IntHashSet findMatchingIdSet(String name) throws NoSuchNodeException;
+
+	IntHashSet findMatchingIdSetRelaxed(String name) throws NoSuchNodeException;
+	}
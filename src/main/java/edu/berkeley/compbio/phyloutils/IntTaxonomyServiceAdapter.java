@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import com.davidsoergel.trees.NoSuchNodeException;
+import com.google.common.primitives.Ints;
+
+
+/**
+ * Provides the IntTaxonomyService queries on top of any TaxonomyService<Integer>, boxing the arguments and copying the
+ * results.  Services that already implement IntTaxonomyService should be used directly; adapt() does so.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+public class IntTaxonomyServiceAdapter implements IntTaxonomyService
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	private final TaxonomyService<Integer> service;
+
+
+	// --------------------------- CONSTRUCTORS ---------------------------
+
+	public IntTaxonomyServiceAdapter(TaxonomyService<Integer> service)
+		{
+		this.service = service;
+		}
+
+	// -------------------------- STATIC METHODS --------------------------
+
+	/**
+	 * @return the given service itself if it is an IntTaxonomyService, and otherwise an adapter wrapping it
+	 */
+	public static IntTaxonomyService adapt(TaxonomyService<Integer> service)
+		{
+		return service instanceof IntTaxonomyService ? (IntTaxonomyService) service
+		                                             : new IntTaxonomyServiceAdapter(service);
+		}
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	public boolean isKnownId(int id)
+		{
+		return service.isKnown(id);
+		}
+
+	public boolean isLeafId(int id) throws NoSuchNodeException
+		{
+		return service.isLeaf(id);
+		}
+
+	public boolean isDescendantId(int ancestor, int descendant) throws NoSuchNodeException
+		{
+		return service.isDescendant(ancestor, descendant);
+		}
+
+	public double minDistanceBetweenIds(int a, int b) throws NoSuchNodeException
+		{
+		return service.minDistanceBetween(a, b);
+		}
+
+	public double getDepthFromRootOfId(int id) throws NoSuchNodeException
+		{
+		return service.getDepthFromRoot(id);
+		}
+
+	public IntHashSet selectAncestors(int[] labels, int id)
+		{
+		return IntHashSet.copyOf(service.selectAncestors(Ints.asList(labels), id));
+		}
+
+	public IntHashSet getLeafIdSet()
+		{
+		return IntHashSet.copyOf(service.getLeafIds());
+		}
+
+	public IntHashSet findMatchingIdSet(String name) throws NoSuchNodeException
+		{
+		return IntHashSet.copyOf(service.findMatchingIds(name));
+		}
+
+	public IntHashSet findMatchingIdSetRelaxed(String name) throws NoSuchNodeException
+		{
+		return IntHashSet.copyOf(service.findMatchingIdsRelaxed(name));
+		}
+	}
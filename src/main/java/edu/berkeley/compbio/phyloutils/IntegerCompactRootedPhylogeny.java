@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import com.davidsoergel.trees.BasicPhylogenyNode;
+import com.davidsoergel.trees.BasicRootedPhylogeny;
+import com.davidsoergel.trees.NoSuchNodeException;
+import com.davidsoergel.trees.PhylogenyNode;
+import com.davidsoergel.trees.RequireExistingNodeNamer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * A CompactRootedPhylogeny for trees with Integer ids, storing the ids as an int[] with a primitive id-to-index map.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+public class IntegerCompactRootedPhylogeny extends CompactRootedPhylogeny<Integer>
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	private static final long serialVersionUID = 1L;
+
+	private final int[] payloads;
+	private final IntIntHashMap indexById;
+
+
+	// --------------------------- CONSTRUCTORS ---------------------------
+
+	/**
+	 * @throws PhyloUtilsException if any node of the tree has no id
+	 */
+	public IntegerCompactRootedPhylogeny(PhylogenyNode<Integer> root) throws PhyloUtilsException
+		{
+		this(new Flattened<Integer>(root));
+		}
+
+	private IntegerCompactRootedPhylogeny(Flattened<Integer> flattened) throws PhyloUtilsException
+		{
+		super(flattened.parent, flattened.length);
+
+		int n = flattened.parent.length;
+		payloads = new int[n];
+		indexById = new IntIntHashMap(n);
+		for (int i = 0; i < n; i++)
+			{
+			Integer payload = flattened.payloads.get(i);
+			if (payload == null)
+				{
+				throw new PhyloUtilsException("Can't build an IntegerCompactRootedPhylogeny: node " + i
+				                              + " (in preorder) has no id");
+				}
+			int id = payload;
+			payloads[i] = id;
+			indexById.put(id, i);
+			}
+		}
+
+	/**
+	 * Rebuild a tree from its arrays, as read from a BinarySnapshot.
+	 */
+	IntegerCompactRootedPhylogeny(int[] parent, double[] length, int[] payloads)
+		{
+		super(parent, length);
+
+		this.payloads = payloads;
+		indexById = new IntIntHashMap(payloads.length);
+		for (int i = 0; i < payloads.length; i++)
+			{
+			indexById.put(payloads[i], i);
+			}
+		}
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	public int indexOf(int id) throws NoSuchNodeException
+		{
+		int result = indexById.get(id, NO_NODE);
+		if (result == NO_NODE)
+			{
+			throw new NoSuchNodeException("No node found with id " + id);
+			}
+		return result;
+		}
+
+	/**
+	 * @return the index of the node with the given id, or NO_NODE
+	 */
+	public int indexOfOrNone(int id)
+		{
+		return indexById.get(id, NO_NODE);
+		}
+
+	public int indexOf(Integer id) throws NoSuchNodeException
+		{
+		if (id == null)
+			{
+			throw new NoSuchNodeException("No node found with id null");
+			}
+		return indexOf(id.intValue());
+		}
+
+	public boolean isKnown(int id)
+		{
+		return indexById.containsKey(id);
+		}
+
+	public boolean isKnown(Integer id)
+		{
+		return id != null && indexById.containsKey(id);
+		}
+
+	public int getId(int node)
+		{
+		return payloads[node];
+		}
+
+	public Integer getPayload(int node)
+		{
+		return payloads[node];
+		}
+
+	// the queries of CompactRootedPhylogeny, over unboxed ids
+
+	public boolean isLeaf(int id) throws NoSuchNodeException
+		{
+		return isLeafIndex(indexOf(id));
+		}
+
+	public boolean isDescendant(int ancestor, int descendant) throws NoSuchNodeException
+		{
+		return isDescendantIndex(indexOf(ancestor), indexOf(descendant));
+		}
+
+	public double distanceBetween(int a, int b) throws NoSuchNodeException
+		{
+		return distanceBetweenIndexes(indexOf(a), indexOf(b));
+		}
+
+	public double getDepthFromRoot(int id) throws NoSuchNodeException
+		{
+		return distanceFromRootIndex(indexOf(id));
+		}
+
+	/**
+	 * @return those of the given labels that are ancestors of the given node (including the node itself, if it is among
+	 *         the labels).  Labels not in the tree are ignored, as is an unknown id.
+	 */
+	public IntHashSet selectAncestors(int[] labels, int id)
+		{
+		IntHashSet result = new IntHashSet();
+		int node = indexOfOrNone(id);
+		if (node != NO_NODE)
+			{
+			for (int label : labels)
+				{
+				int ancestor = indexOfOrNone(label);
+				if (ancestor != NO_NODE && isDescendantIndex(ancestor, node))
+					{
+					result.add(label);
+					}
+				}
+			}
+		return result;
+		}
+
+	public IntHashSet getLeafIdSet()
+		{
+		IntHashSet result = new IntHashSet();
+		for (int i = 0; i < payloads.length; i++)
+			{
+			if (isLeafIndex(i))
+				{
+				result.add(payloads[i]);
+				}
+			}
+		return result;
+		}
+
+	/**
+	 * Rebuild the equivalent tree of node objects, for the queries that still need one.  Branch lengths that were missing
+	 * in the original tree come back as zero, and no weights are set.
+	 */
+	public BasicRootedPhylogeny<Integer> toBasicRootedPhylogeny()
+		{
+		int n = payloads.length;
+		BasicRootedPhylogeny<Integer> result = new BasicRootedPhylogeny<Integer>();
+		List<BasicPhylogenyNode<Integer>> nodes = new ArrayList<BasicPhylogenyNode<Integer>>(n);
+
+		BasicPhylogenyNode<Integer> root = result.getRoot();
+		root.setPayload(payloads[0]);
+		root.setLength(length[0]);
+		nodes.add(root);
+
+		// parents precede their children, and siblings are in their original order
+		for (int i = 1; i < n; i++)
+			{
+			BasicPhylogenyNode<Integer> node = new BasicPhylogenyNode<Integer>(nodes.get(parent[i]));
+			node.setPayload(payloads[i]);
+			node.setLength(length[i]);
+			nodes.add(node);
+			}
+
+		result.assignUniqueIds(new RequireExistingNodeNamer(false));
+		return result;
+		}
+
+	/**
+	 * @return the id of each node, in preorder
+	 */
+	int[] getIds()
+		{
+		return payloads;
+		}
+	}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import com.davidsoergel.trees.NoSuchNodeException;
+import com.google.common.collect.Multimap;
+import com.google.common.primitives.Ints;
+import org.apache.log4j.Logger;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Resolves classification paths like "Bacteria; Proteobacteria; Gammaproteobacteria; ...; Escherichia" to a single node
+ * of an integer taxonomy, matching the names level by level from the bottom up.  At the first level that matches
+ * anything, each matching node starts a candidate path; at each higher level, a path survives only if one of that
+ * level's matches is an ancestor of its current top.  As soon as a level matches exactly one node, the answer is the
+ * consensus of the bottoms of the surviving paths: the deepest node containing at least 75% of them.
+ * <p/>
+ * The candidate nodes for every name are precomputed as sorted arrays of preorder indexes, looked up by the characters
+ * of each level in place, and ancestry is an interval check against the compact tree, so resolving a lineage allocates
+ * only two small arrays.  Since the levels are separated by spaces as well as semicolons, names containing spaces can
+ * never match and are left out.
+ * <p/>
+ * Instances are immutable and may be shared between threads.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+public class LineageResolver
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	private static final Logger logger = Logger.getLogger(LineageResolver.class);
+
+	/**
+	 * Returned by resolveAll() for a lineage that could not be resolved.
+	 */
+	public static final int NOT_RESOLVED = Integer.MIN_VALUE;
+
+	private static final double CONSENSUS_PROPORTION = 0.75;
+
+	private final IntegerCompactRootedPhylogeny tree;
+
+	// each single-word name, mapped to its index in candidates
+	private final WordPrefixTrie names = new WordPrefixTrie();
+
+	// the preorder indexes of the nodes with each name, sorted
+	private final int[][] candidates;
+
+
+	// --------------------------- CONSTRUCTORS ---------------------------
+
+	/**
+	 * @param nameToIds      the names of the nodes
+	 * @param extraNameToIds further names, consulted only for names that nameToIds doesn't have at all
+	 */
+	public LineageResolver(IntegerCompactRootedPhylogeny tree, Multimap<String, Integer> nameToIds,
+	                       Multimap<String, Integer> extraNameToIds)
+		{
+		this.tree = tree;
+		tree.getCommonAncestorIndex();
+
+		int[][] result = new int[nameToIds.keySet().size() + extraNameToIds.keySet().size()][];
+		int count = 0;
+		for (Map.Entry<String, Collection<Integer>> entry : nameToIds.asMap().entrySet())
+			{
+			count = add(entry.getKey(), Ints.toArray(entry.getValue()), result, count);
+			}
+		for (Map.Entry<String, Collection<Integer>> entry : extraNameToIds.asMap().entrySet())
+			{
+			if (!nameToIds.containsKey(entry.getKey()))
+				{
+				count = add(entry.getKey(), Ints.toArray(entry.getValue()), result, count);
+				}
+			}
+		candidates = Arrays.copyOf(result, count);
+		}
+
+	/**
+	 * Read the names of the nodes straight from a MappedNameDictionary, rather than from a copy of it on the heap.
+	 *
+	 * @param extraNameToIds further names, consulted only for names that the dictionary doesn't have at all
+	 */
+	public LineageResolver(IntegerCompactRootedPhylogeny tree, MappedNameDictionary nameDictionary,
+	                       Multimap<String, Integer> extraNameToIds)
+		{
+		this.tree = tree;
+		tree.getCommonAncestorIndex();
+
+		int[][] result = new int[nameDictionary.size() + extraNameToIds.keySet().size()][];
+		int count = 0;
+		for (int i = 0; i < nameDictionary.size(); i++)
+			{
+			count = add(nameDictionary.getNameAt(i), nameDictionary.getIdsAt(i), result, count);
+			}
+		for (Map.Entry<String, Collection<Integer>> entry : extraNameToIds.asMap().entrySet())
+			{
+			if (!nameDictionary.containsName(entry.getKey()))
+				{
+				count = add(entry.getKey(), Ints.toArray(entry.getValue()), result, count);
+				}
+			}
+		candidates = Arrays.copyOf(result, count);
+		}
+
+	private int add(String name, int[] ids, int[][] result, int count)
+		{
+		if (name.isEmpty() || name.indexOf(' ') >= 0 || name.indexOf(';') >= 0)
+			{
+			return count;
+			}
+
+		// ids that aren't in the tree can't be placed, so they never match
+		int[] nodes = new int[ids.length];
+		int n = 0;
+		for (int id : ids)
+			{
+			if (tree.isKnown(id))
+				{
+				try
+					{
+					nodes[n++] = tree.indexOf(id);
+					}
+				catch (NoSuchNodeException e)
+					{
+					logger.error("Error", e);
+					throw new PhyloUtilsRuntimeException(e);
+					}
+				}
+			}
+		nodes = Arrays.copyOf(nodes, n);
+		Arrays.sort(nodes);
+
+		result[count] = nodes;
+		names.put(name, count);
+		return count + 1;
+		}
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	/**
+	 * @return the id of the node matching the given semicolon- (or space-) delimited classification path
+	 * @throws NoSuchNodeException if no single node matches
+	 */
+	public int resolve(CharSequence lineage) throws NoSuchNodeException
+		{
+		int[] bottom = null;
+		int[] top = null;
+		int paths = 0;
+
+		// walk the levels from the last to the first
+		int end = lineage.length();
+		while (end > 0)
+			{
+			while (end > 0 && isDelimiter(lineage.charAt(end - 1)))
+				{
+				end--;
+				}
+			int start = end;
+			while (start > 0 && !isDelimiter(lineage.charAt(start - 1)))
+				{
+				start--;
+				}
+			if (start == end)
+				{
+				break;
+				}
+
+			int index = names.get(lineage, start, end);
+			int[] matches = index == WordPrefixTrie.NOT_FOUND ? null : candidates[index];
+			if (matches == null || matches.length == 0)
+				{
+				if (logger.isDebugEnabled())
+					{
+					logger.debug("IGNORING Node " + lineage.subSequence(start, end) + " not found in " + lineage);
+					}
+				}
+			else
+				{
+				if (bottom == null)
+					{
+					bottom = matches.clone();
+					top = matches.clone();
+					paths = matches.length;
+					}
+				else
+					{
+					// keep the paths that have an ancestor at this level, extended to the deepest such ancestor
+					int kept = 0;
+					for (int i = 0; i < paths; i++)
+						{
+						int ancestor = deepestAncestor(matches, top[i]);
+						if (ancestor != CompactRootedPhylogeny.NO_NODE)
+							{
+							bottom[kept] = bottom[i];
+							top[kept] = ancestor;
+							kept++;
+							}
+						}
+					paths = kept;
+					}
+
+				if (paths == 0)
+					{
+					// we get here only if
+					//  a) there was more than one live path on the last round
+					//  b) none of those paths are descendants of the matches at the current level
+					throw new NoSuchNodeException("Requested classification path does not match tree: " + lineage);
+					}
+
+				// if all the paths converge on exactly one node, call it a match, even if higher levels of the tree don't match.
+
+				if (matches.length == 1)
+					{
+					return tree.getId(consensus(bottom, paths));
+					}
+				}
+			end = start;
+			}
+		throw new NoSuchNodeException("Multiple distinct matching paths: " + lineage);
+		}
+
+	/**
+	 * Resolve many lineages in parallel.
+	 *
+	 * @return the id of the node matching each lineage, or NOT_RESOLVED, in the order of the lineages
+	 */
+	public int[] resolveAll(List<? extends CharSequence> lineages)
+		{
+		int[] result = new int[lineages.size()];
+		if (result.length > 0)
+			{
+			int grain = Math.max(64, result.length / (8 * SharedForkJoinPool.get().getParallelism()));
+			SharedForkJoinPool.get().invoke(new ResolveTask(0, result.length, grain, lineages, result));
+			}
+		return result;
+		}
+
+	private static boolean isDelimiter(char c)
+		{
+		return c == ';' || c == ' ';
+		}
+
+	/**
+	 * @return the deepest of the given sorted preorder indexes that is an ancestor of (or is) the given node, or NO_NODE
+	 */
+	private int deepestAncestor(int[] sortedNodes, int node)
+		{
+		// ancestors precede their descendants in preorder, and nest, so the deepest is the last one at or before node
+		int i = Arrays.binarySearch(sortedNodes, node);
+		if (i >= 0)
+			{
+			return node;
+			}
+		for (i = -i - 2; i >= 0; i--)
+			{
+			if (tree.isDescendantIndex(sortedNodes[i], node))
+				{
+				return sortedNodes[i];
+				}
+			}
+		return CompactRootedPhylogeny.NO_NODE;
+		}
+
+	/**
+	 * @return the deepest node that contains at least CONSENSUS_PROPORTION of the given nodes
+	 */
+	private int consensus(int[] nodes, int count)
+		{
+		if (count == 1)
+			{
+			return nodes[0];
+			}
+		int[] sorted = Arrays.copyOf(nodes, count);
+		Arrays.sort(sorted);
+
+		// any node containing k of them contains k that are consecutive in preorder, so the answer is the deepest of the
+		// common ancestors of the windows of k consecutive nodes
+		int k = (int) Math.ceil(count * CONSENSUS_PROPORTION);
+		CommonAncestorIndex ancestors = tree.getCommonAncestorIndex();
+		int result = CompactRootedPhylogeny.NO_NODE;
+		for (int i = 0; i + k <= count; i++)
+			{
+			int a = ancestors.commonAncestor(sorted[i], sorted[i + k - 1]);
+			if (result == CompactRootedPhylogeny.NO_NODE || ancestors.getLevel(a) > ancestors.getLevel(result))
+				{
+				result = a;
+				}
+			}
+		return result;
+		}
+
+	// -------------------------- INNER CLASSES --------------------------
+
+	private class ResolveTask extends RecursiveAction
+		{
+		private final int from;
+		private final int to;
+		private final int grain;
+		private final List<? extends CharSequence> lineages;
+		private final int[] result;
+
+		ResolveTask(int from, int to, int grain, List<? extends CharSequence> lineages, int[] result)
+			{
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+			this.lineages = lineages;
+			this.result = result;
+			}
+
+		@Override
+		protected void compute()
+			{
+			if (to - from <= grain)
+				{
+				for (int i = from; i < to; i++)
+					{
+					try
+						{
+						result[i] = resolve(lineages.get(i));
+						}
+					catch (NoSuchNodeException e)
+						{
+						result[i] = NOT_RESOLVED;
+						}
+					}
+				}
+			else
+				{
+				int mid = (from + to) >>> 1;
+				invokeAll(new ResolveTask(from, mid, grain, lineages, result),
+				          new ResolveTask(mid, to, grain, lineages, result));
+				}
+			}
+		}
+	}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * An InputStream over a memory-mapped file, so that reading a large tree file costs no read() system calls and no
+ * copying through kernel buffers.  Files larger than a single mapping are mapped in consecutive regions.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+class MappedFileInputStream extends InputStream
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	private static final long MAX_MAPPING = 1L << 30;
+
+	private final FileChannel channel;
+	private final long size;
+	private long mappedUpTo = 0;
+	private MappedByteBuffer buffer;
+
+
+	// --------------------------- CONSTRUCTORS ---------------------------
+
+	public MappedFileInputStream(Path path) throws IOException
+		{
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+		size = channel.size();
+		mapNext();
+		}
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	private void mapNext() throws IOException
+		{
+		long length = Math.min(MAX_MAPPING, size - mappedUpTo);
+		buffer = channel.map(FileChannel.MapMode.READ_ONLY, mappedUpTo, length);
+		mappedUpTo += length;
+		}
+
+	private boolean ensureRemaining() throws IOException
+		{
+		while (!buffer.hasRemaining())
+			{
+			if (mappedUpTo >= size)
+				{
+				return false;
+				}
+			mapNext();
+			}
+		return true;
+		}
+
+	@Override
+	public int read() throws IOException
+		{
+		return ensureRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+		{
+		if (len == 0)
+			{
+			return 0;
+			}
+		if (!ensureRemaining())
+			{
+			return -1;
+			}
+		int n = Math.min(len, buffer.remaining());
+		buffer.get(b, off, n);
+		return n;
+		}
+
+	@Override
+	public int available() throws IOException
+		{
+		return (int) Math.min(Integer.MAX_VALUE, buffer.remaining() + (size - mappedUpTo));
+		}
+
+	@Override
+	public void close() throws IOException
+		{
+		channel.close();
+		}
+	}
@@ -0,0 +1,477 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Multimaps;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.UnsignedBytes;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+
+/**
+ * A read-only dictionary from taxon names to integer ids (and back) that is used in place, from a memory-mapped
+ * BinarySnapshot file, rather than being deserialized onto the heap.  Since the pages belong to the operating system's
+ * file cache, every JVM on a host that opens the same file shares a single copy.
+ * <p/>
+ * The names are stored as UTF-8 in sorted (unsigned byte) order, each with a run of ids, so a lookup is a binary search
+ * comparing bytes in the mapped file; the ids are also stored in sorted order, each with a run of name indexes, for the
+ * reverse lookup.  Only the strings and sets actually returned are allocated.  Instances are immutable and may be
+ * shared between threads.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+public class MappedNameDictionary
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	/**
+	 * Returned by getUniqueId() for a name with no ids.
+	 */
+	public static final int NOT_FOUND = Integer.MIN_VALUE;
+
+	private static final String SNAPSHOT_KIND = "MappedNameDictionary";
+	private static final int SNAPSHOT_VERSION = 1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// the sorted names: name i is nameData[nameOffsets[i], nameOffsets[i + 1])
+	private final IntBuffer nameOffsets;
+	private final ByteBuffer nameData;
+
+	// the ids of name i are ids[idOffsets[i], idOffsets[i + 1])
+	private final IntBuffer idOffsets;
+	private final IntBuffer ids;
+
+	// the sorted distinct ids: the names of sortedIds[j] are names[nameIndexOffsets[j], nameIndexOffsets[j + 1])
+	private final IntBuffer sortedIds;
+	private final IntBuffer nameIndexOffsets;
+	private final IntBuffer nameIndexes;
+
+	private final int size;
+
+
+	// --------------------------- CONSTRUCTORS ---------------------------
+
+	/**
+	 * Map a dictionary written by write().
+	 *
+	 * @throws PhyloUtilsException if the file is not an intact name dictionary
+	 */
+	public MappedNameDictionary(Path path) throws IOException, PhyloUtilsException
+		{
+		this(new BinarySnapshot.Reader(path, SNAPSHOT_KIND, SNAPSHOT_VERSION), true);
+		}
+
+	/**
+	 * Map a dictionary embedded in a larger snapshot by write(BinarySnapshot.Writer, ...) or writeTo(), leaving the reader
+	 * positioned after it.
+	 */
+	MappedNameDictionary(BinarySnapshot.Reader in) throws PhyloUtilsException
+		{
+		this(in, false);
+		}
+
+	private MappedNameDictionary(BinarySnapshot.Reader in, boolean wholeFile) throws PhyloUtilsException
+		{
+		nameOffsets = in.readIntArrayView();
+		size = nameOffsets.limit() - 1;
+		nameData = in.readBytesView(nameOffsets.get(size));
+		idOffsets = in.readIntArrayView();
+		ids = in.readIntArrayView();
+		sortedIds = in.readIntArrayView();
+		nameIndexOffsets = in.readIntArrayView();
+		nameIndexes = in.readIntArrayView();
+		if (wholeFile)
+			{
+			in.finish();
+			}
+		}
+
+	// -------------------------- STATIC METHODS --------------------------
+
+	/**
+	 * Write a dictionary containing every name-id pair in the given multimap.
+	 */
+	public static void write(Path path, Multimap<String, Integer> nameToIds) throws IOException
+		{
+		BinarySnapshot.Writer out = new BinarySnapshot.Writer(path, SNAPSHOT_KIND, SNAPSHOT_VERSION);
+		try
+			{
+			write(out, nameToIds);
+			}
+		finally
+			{
+			out.close();
+			}
+		}
+
+	/**
+	 * Write a dictionary containing every name-id pair in the given multimap into a larger snapshot, from which
+	 * MappedNameDictionary(BinarySnapshot.Reader) maps it.
+	 */
+	static void write(BinarySnapshot.Writer out, Multimap<String, Integer> nameToIds) throws IOException
+		{
+		// sort the names as the lookups will compare them
+		final Comparator<byte[]> byteOrder = UnsignedBytes.lexicographicalComparator();
+		TreeMap<byte[], Collection<Integer>> sorted = new TreeMap<byte[], Collection<Integer>>(byteOrder);
+		for (Map.Entry<String, Collection<Integer>> entry : nameToIds.asMap().entrySet())
+			{
+			sorted.put(entry.getKey().getBytes(UTF8), entry.getValue());
+			}
+
+		int n = sorted.size();
+		byte[][] names = new byte[n][];
+		int[] idOffsets = new int[n + 1];
+		int[] ids = new int[nameToIds.size()];
+		TreeMap<Integer, List<Integer>> namesById = new TreeMap<Integer, List<Integer>>();
+		int i = 0;
+		int j = 0;
+		for (Map.Entry<byte[], Collection<Integer>> entry : sorted.entrySet())
+			{
+			names[i] = entry.getKey();
+			int[] nameIds = Ints.toArray(entry.getValue());
+			Arrays.sort(nameIds);
+			for (int id : nameIds)
+				{
+				ids[j++] = id;
+				List<Integer> nameIndexes = namesById.get(id);
+				if (nameIndexes == null)
+					{
+					nameIndexes = new ArrayList<Integer>(1);
+					namesById.put(id, nameIndexes);
+					}
+				nameIndexes.add(i);
+				}
+			idOffsets[++i] = j;
+			}
+
+		int[] nameIndexOffsets = new int[namesById.size() + 1];
+		int[] nameIndexes = new int[ids.length];
+		i = 0;
+		j = 0;
+		for (List<Integer> indexes : namesById.values())
+			{
+			for (Integer index : indexes)
+				{
+				nameIndexes[j++] = index;
+				}
+			nameIndexOffsets[++i] = j;
+			}
+
+		out.writeEncodedStrings(names);
+		out.writeIntArray(idOffsets);
+		out.writeIntArray(ids);
+		out.writeIntArray(Ints.toArray(namesById.keySet()));
+		out.writeIntArray(nameIndexOffsets);
+		out.writeIntArray(nameIndexes);
+		}
+
+	/**
+	 * Write a dictionary in which each name has a single id.
+	 */
+	public static void write(Path path, Map<String, Integer> nameToId) throws IOException
+		{
+		write(path, Multimaps.forMap(nameToId));
+		}
+
+	/**
+	 * Write a copy of this dictionary to a file of its own, straight from the mapped one.
+	 */
+	public void write(Path path) throws IOException
+		{
+		BinarySnapshot.Writer out = new BinarySnapshot.Writer(path, SNAPSHOT_KIND, SNAPSHOT_VERSION);
+		try
+			{
+			writeTo(out);
+			}
+		finally
+			{
+			out.close();
+			}
+		}
+
+	/**
+	 * Write a copy of this dictionary into a larger snapshot, in the same form as write(BinarySnapshot.Writer, ...) but
+	 * straight from the mapped file, without decoding it onto the heap.
+	 */
+	void writeTo(BinarySnapshot.Writer out) throws IOException
+		{
+		out.writeIntArray(nameOffsets);
+		out.writeBytes(nameData);
+		out.writeIntArray(idOffsets);
+		out.writeIntArray(ids);
+		out.writeIntArray(sortedIds);
+		out.writeIntArray(nameIndexOffsets);
+		out.writeIntArray(nameIndexes);
+		}
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	/**
+	 * @return the number of distinct names
+	 */
+	public int size()
+		{
+		return size;
+		}
+
+	/**
+	 * @return the ids with the given name, or an empty set
+	 */
+	public Set<Integer> getIds(String name)
+		{
+		byte[] bytes = name.getBytes(UTF8);
+		int index = indexOf(bytes, bytes.length);
+		if (index < 0)
+			{
+			return Collections.emptySet();
+			}
+		int from = idOffsets.get(index);
+		int to = idOffsets.get(index + 1);
+		Set<Integer> result = new HashSet<Integer>(2 * (to - from));
+		for (int k = from; k < to; k++)
+			{
+			result.add(ids.get(k));
+			}
+		return Collections.unmodifiableSet(result);
+		}
+
+	/**
+	 * @return the smallest id with the given name, or NOT_FOUND; for dictionaries in which names are unique
+	 */
+	public int getUniqueId(String name)
+		{
+		byte[] bytes = name.getBytes(UTF8);
+		int index = indexOf(bytes, bytes.length);
+		return index < 0 ? NOT_FOUND : ids.get(idOffsets.get(index));
+		}
+
+	public boolean containsName(String name)
+		{
+		byte[] bytes = name.getBytes(UTF8);
+		return indexOf(bytes, bytes.length) >= 0;
+		}
+
+	/**
+	 * Find the longest prefix of the given name that ends at a space (or is the whole name) and is in the dictionary, as
+	 * WordPrefixTrie.longestKnownPrefix() does.  The name is encoded once and its prefixes are searched for in place.
+	 *
+	 * @return the length in characters of that prefix, or -1 if there is none
+	 */
+	public int longestKnownPrefix(String name)
+		{
+		byte[] bytes = name.getBytes(UTF8);
+		int length = bytes.length;
+		while (true)
+			{
+			if (indexOf(bytes, length) >= 0)
+				{
+				return charLength(bytes, length);
+				}
+			// a space byte is never part of a multibyte character
+			do
+				{
+				length--;
+				}
+			while (length >= 0 && bytes[length] != ' ');
+			if (length < 0)
+				{
+				return -1;
+				}
+			}
+		}
+
+	/**
+	 * Find the longest prefix of the given name that ends at a space (or is the whole name) and is in the dictionary, as
+	 * longestKnownPrefix() does, and look up its smallest id in the same search.
+	 *
+	 * @return the smallest id of that prefix, or NOT_FOUND if there is none
+	 */
+	public int getUniqueIdOfLongestKnownPrefix(String name)
+		{
+		byte[] bytes = name.getBytes(UTF8);
+		int length = bytes.length;
+		while (true)
+			{
+			int index = indexOf(bytes, length);
+			if (index >= 0)
+				{
+				return ids.get(idOffsets.get(index));
+				}
+			do
+				{
+				length--;
+				}
+			while (length >= 0 && bytes[length] != ' ');
+			if (length < 0)
+				{
+				return NOT_FOUND;
+				}
+			}
+		}
+
+	/**
+	 * @return the number of UTF-16 characters encoded by the first length bytes
+	 */
+	private static int charLength(byte[] bytes, int length)
+		{
+		int result = 0;
+		for (int i = 0; i < length; i++)
+			{
+			int b = bytes[i] & 0xff;
+			if ((b & 0xc0) != 0x80)
+				{
+				// a lead byte; four-byte sequences are surrogate pairs
+				result += b >= 0xf0 ? 2 : 1;
+				}
+			}
+		return result;
+		}
+
+	/**
+	 * @return the names of the given id, or an empty set
+	 */
+	public Set<String> getNames(int id)
+		{
+		int lo = 0;
+		int hi = sortedIds.limit() - 1;
+		while (lo <= hi)
+			{
+			int mid = (lo + hi) >>> 1;
+			int v = sortedIds.get(mid);
+			if (v < id)
+				{
+				lo = mid + 1;
+				}
+			else if (v > id)
+				{
+				hi = mid - 1;
+				}
+			else
+				{
+				int from = nameIndexOffsets.get(mid);
+				int to = nameIndexOffsets.get(mid + 1);
+				Set<String> result = new HashSet<String>(2 * (to - from));
+				for (int k = from; k < to; k++)
+					{
+					result.add(getNameAt(nameIndexes.get(k)));
+					}
+				return Collections.unmodifiableSet(result);
+				}
+			}
+		return Collections.emptySet();
+		}
+
+	/**
+	 * @return the ids of the name with the given index, from 0 to size() - 1, in ascending order
+	 */
+	public int[] getIdsAt(int index)
+		{
+		int from = idOffsets.get(index);
+		int[] result = new int[idOffsets.get(index + 1) - from];
+		for (int k = 0; k < result.length; k++)
+			{
+			result[k] = ids.get(from + k);
+			}
+		return result;
+		}
+
+	/**
+	 * Copy the whole dictionary onto the heap.
+	 */
+	public HashMultimap<String, Integer> toMultimap()
+		{
+		HashMultimap<String, Integer> result = HashMultimap.create(size, 1);
+		for (int i = 0; i < size; i++)
+			{
+			String name = getNameAt(i);
+			for (int k = idOffsets.get(i); k < idOffsets.get(i + 1); k++)
+				{
+				result.put(name, ids.get(k));
+				}
+			}
+		return result;
+		}
+
+	/**
+	 * @return the name with the given index, from 0 to size() - 1, in sorted order
+	 */
+	public String getNameAt(int index)
+		{
+		int from = nameOffsets.get(index);
+		byte[] bytes = new byte[nameOffsets.get(index + 1) - from];
+		for (int k = 0; k < bytes.length; k++)
+			{
+			bytes[k] = nameData.get(from + k);
+			}
+		return new String(bytes, UTF8);
+		}
+
+	/**
+	 * @return the index of the name given by the first length bytes, or -1
+	 */
+	private int indexOf(byte[] name, int length)
+		{
+		int lo = 0;
+		int hi = size - 1;
+		while (lo <= hi)
+			{
+			int mid = (lo + hi) >>> 1;
+			int c = compareTo(mid, name, length);
+			if (c < 0)
+				{
+				lo = mid + 1;
+				}
+			else if (c > 0)
+				{
+				hi = mid - 1;
+				}
+			else
+				{
+				return mid;
+				}
+			}
+		return -1;
+		}
+
+	/**
+	 * Compare the stored name at the given index with the first nameLength bytes of the given one, as unsigned bytes.
+	 */
+	private int compareTo(int index, byte[] name, int nameLength)
+		{
+		int from = nameOffsets.get(index);
+		int length = nameOffsets.get(index + 1) - from;
+		int common = Math.min(length, nameLength);
+		for (int k = 0; k < common; k++)
+			{
+			int c = (nameData.get(from + k) & 0xff) - (name[k] & 0xff);
+			if (c != 0)
+				{
+				return c;
+				}
+			}
+		return length - nameLength;
+		}
+	}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.Weigher;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * A bounded, concurrent memo of the results of taxon name lookups, replacing maps that accumulated every name ever
+ * queried.  Successful lookups go to a cache bounded by the total length of the names it holds, so that a stream of
+ * long garbage labels can't push out more than its share; failed lookups go to a separate, smaller cache whose entries
+ * also expire, so that noisy labels neither crowd out the useful entries nor stay "not found" forever.  Both caches
+ * keep hit, miss and eviction statistics.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+public class NameLookupCache
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	/**
+	 * The default bound on the characters of successfully resolved names (plus a small charge per entry).
+	 */
+	public static final long DEFAULT_MAXIMUM_WEIGHT = 16L * 1024 * 1024;
+
+	public static final long DEFAULT_MAXIMUM_FAILURES = 100000;
+
+	public static final long DEFAULT_FAILURE_TTL_MINUTES = 60;
+
+	// roughly the overhead of an entry, in characters, so that many short names are also bounded
+	static final int ENTRY_WEIGHT = 32;
+
+	private final Cache<String, Integer> found;
+	private final Cache<String, Boolean> notFound;
+
+
+	// --------------------------- CONSTRUCTORS ---------------------------
+
+	public NameLookupCache()
+		{
+		this(DEFAULT_MAXIMUM_WEIGHT, DEFAULT_MAXIMUM_FAILURES, DEFAULT_FAILURE_TTL_MINUTES, TimeUnit.MINUTES);
+		}
+
+	public NameLookupCache(long maximumWeight, long maximumFailures, long failureTtl, TimeUnit unit)
+		{
+		this(maximumWeight, maximumFailures, failureTtl, unit, null);
+		}
+
+	/**
+	 * @param removalListener told (on the thread that caused it) whenever a successful lookup is evicted or replaced;
+	 *                        may be null
+	 */
+	NameLookupCache(long maximumWeight, long maximumFailures, long failureTtl, TimeUnit unit,
+	                RemovalListener<String, Integer> removalListener)
+		{
+		CacheBuilder<String, Integer> foundBuilder =
+				CacheBuilder.newBuilder().maximumWeight(maximumWeight).weigher(new Weigher<String, Integer>()
+				{
+				public int weigh(String name, Integer id)
+					{
+					return ENTRY_WEIGHT + name.length();
+					}
+				}).recordStats();
+		if (removalListener != null)
+			{
+			foundBuilder = foundBuilder.removalListener(removalListener);
+			}
+		found = foundBuilder.build();
+
+		notFound = CacheBuilder.newBuilder().maximumSize(maximumFailures).expireAfterWrite(failureTtl, unit)
+				.recordStats().build();
+		}
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	/**
+	 * @return the id that the given name was resolved to, or null if it isn't cached as found
+	 */
+	public Integer getFound(String name)
+		{
+		return found.getIfPresent(name);
+		}
+
+	/**
+	 * @return the id that the given name is cached as found, or null; unlike getFound(), this isn't counted as a hit or
+	 *         a miss
+	 */
+	Integer peekFound(String name)
+		{
+		return found.asMap().get(name);
+		}
+
+	/**
+	 * @return true if the given name was recently looked up and not found
+	 */
+	public boolean isNotFound(String name)
+		{
+		return notFound.getIfPresent(name) != null;
+		}
+
+	public void putFound(String name, Integer id)
+		{
+		found.put(name, id);
+		notFound.invalidate(name);
+		}
+
+	public void putNotFound(String name)
+		{
+		notFound.put(name, Boolean.TRUE);
+		}
+
+	/**
+	 * Add the entries of a map written by an earlier run, in which a failed lookup is recorded as the given value.
+	 */
+	public void putAll(Map<String, Integer> memos, Integer notFoundValue)
+		{
+		for (Map.Entry<String, Integer> entry : memos.entrySet())
+			{
+			if (entry.getValue().equals(notFoundValue))
+				{
+				putNotFound(entry.getKey());
+				}
+			else
+				{
+				putFound(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+
+	/**
+	 * @return a copy of the successful lookups currently cached
+	 */
+	public HashMap<String, Integer> getFoundAsMap()
+		{
+		return new HashMap<String, Integer>(found.asMap());
+		}
+
+	public CacheStats getFoundStats()
+		{
+		return found.stats();
+		}
+
+	public CacheStats getNotFoundStats()
+		{
+		return notFound.stats();
+		}
+
+	public void invalidateAll()
+		{
+		found.invalidateAll();
+		notFound.invalidateAll();
+		}
+
+	public String toString()
+		{
+		return "found: " + found.size() + " names, " + found.stats() + "; not found: " + notFound.size() + " names, "
+		       + notFound.stats();
+		}
+	}
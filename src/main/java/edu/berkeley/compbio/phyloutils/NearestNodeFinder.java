@@ -6,19 +6,18 @@
 
 package edu.berkeley.compbio.phyloutils;
 
-import com.davidsoergel.conja.Function;
-import com.davidsoergel.conja.Parallel;
 import com.davidsoergel.dsutils.file.IntArrayReader;
 import com.davidsoergel.trees.NoSuchNodeException;
-import org.apache.commons.collections15.iterators.ArrayIterator;
+import com.google.common.primitives.Ints;
 
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.Map;
 
 /**
  * Load a list of "known" nodes, eg the isolates.  Then for each query sequence (eg from an environment), find the
  * closest known node, and print the distance (along with whatever other stats are desired, e.g. subtree span).
+ * <p/>
+ * This is just a command-line wrapper around NearestTargetIndex.
  *
  * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
  * @version $Id$
@@ -34,42 +33,21 @@ public class NearestNodeFinder
 		//service.setSynonymService(NcbiTaxonomyClient.getInstance());
 		service.init();
 
-		final int[] targetIds = IntArrayReader.read(argv[1]);
+		int[] targetIds = IntArrayReader.read(argv[1]);
 		int[] queryIds = IntArrayReader.read(argv[2]);
-		final double minDistance = Double.parseDouble(argv[3]);  // implement leave-one-out at any level
+		double minDistance = Double.parseDouble(argv[3]);  // implement leave-one-out at any level
 
-
-		Map<Integer, Double> results = Parallel.map(new ArrayIterator(queryIds), new Function<Integer, Double>()
-		{
-		public Double apply(Integer queryId)
-			{
-			try
-				{
-				double best = Double.MAX_VALUE;
-				for (int targetId : targetIds)
-					{
-					double d = service.minDistanceBetween(queryId, targetId);
-					if (d >= minDistance)
-						{
-						best = Math.min(best, d);
-						}
-					}
-				return best;
-				}
-			catch (NoSuchNodeException e)
-				{
-				throw new Error(e);
-				}
-			}
-		});
+		NearestTargetIndex<Integer> index =
+				new NearestTargetIndex<Integer>(service.getCompactTree(), Ints.asList(targetIds));
+		double[] distances = index.distancesToNearest(Ints.asList(queryIds), minDistance);
 
 		String outfileName = argv[4];
 		PrintWriter out = new PrintWriter(outfileName);
 		out.println("id\tdist");
 
-		for (Map.Entry<Integer, Double> entry : results.entrySet())
+		for (int i = 0; i < queryIds.length; i++)
 			{
-			out.println(entry.getKey() + "\t" + entry.getValue());
+			out.println(queryIds[i] + "\t" + distances[i]);
 			}
 		out.close();
 		}
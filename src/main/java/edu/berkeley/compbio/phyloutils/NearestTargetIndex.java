@@ -0,0 +1,459 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import com.davidsoergel.trees.NoSuchNodeException;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Finds, for any node of a compact phylogeny, the nearest member of a fixed set of target nodes (e.g. the sequenced
+ * isolates), by path length through the tree.
+ * <p/>
+ * Two passes over the tree record, for every node, the nearest target within its subtree and the nearest target outside
+ * it, so an unconstrained query takes constant time.  Queries that exclude targets closer than some minimum distance
+ * (i.e., leave-one-out at a given level) walk up from the query node instead: at each ancestor, the best target whose
+ * path to the query turns there is the one of least depth beyond a threshold, among the targets in a preorder range,
+ * which a merge-sort tree over the targets answers in O(log^2 T).  The walk stops as soon as no higher ancestor can
+ * improve on the best distance found.  The merge-sort tree is built on the first constrained query.
+ * <p/>
+ * Instances are immutable (apart from that lazy initialization) and may be shared between threads.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+public class NearestTargetIndex<T extends Serializable>
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	private final CompactRootedPhylogeny<T> tree;
+	private final CommonAncestorIndex ancestors;
+
+	// the target node indexes, in preorder
+	private final int[] targets;
+
+	// the distance to, and index of, the nearest target within each node's subtree
+	private final double[] below;
+	private final int[] belowTarget;
+
+	// the distance to, and index of, the nearest target outside each node's subtree
+	private final double[] outside;
+	private final int[] outsideTarget;
+
+	private volatile TargetDepthTree targetDepthTree;
+
+
+	// --------------------------- CONSTRUCTORS ---------------------------
+
+	/**
+	 * @throws NoSuchNodeException if a target is not in the tree
+	 */
+	public NearestTargetIndex(CompactRootedPhylogeny<T> tree, Collection<T> targetIds) throws NoSuchNodeException
+		{
+		this.tree = tree;
+		ancestors = tree.getCommonAncestorIndex();
+		int n = tree.size();
+
+		boolean[] isTarget = new boolean[n];
+		int numTargets = 0;
+		for (T id : targetIds)
+			{
+			int node = tree.indexOf(id);
+			if (!isTarget[node])
+				{
+				isTarget[node] = true;
+				numTargets++;
+				}
+			}
+		targets = new int[numTargets];
+		for (int i = 0, t = 0; i < n; i++)
+			{
+			if (isTarget[i])
+				{
+				targets[t++] = i;
+				}
+			}
+
+		below = new double[n];
+		belowTarget = new int[n];
+		outside = new double[n];
+		outsideTarget = new int[n];
+
+		// the nearest targets through the best and second-best child of each node, so that the nearest through any
+		// sibling of a node is available without scanning the siblings
+		int[] bestChild = new int[n];
+		double[] bestThroughChild = new double[n];
+		int[] bestThroughChildTarget = new int[n];
+		double[] secondBest = new double[n];
+		int[] secondBestTarget = new int[n];
+
+		Arrays.fill(below, Double.POSITIVE_INFINITY);
+		Arrays.fill(belowTarget, CompactRootedPhylogeny.NO_NODE);
+		Arrays.fill(bestChild, CompactRootedPhylogeny.NO_NODE);
+		Arrays.fill(bestThroughChild, Double.POSITIVE_INFINITY);
+		Arrays.fill(bestThroughChildTarget, CompactRootedPhylogeny.NO_NODE);
+		Arrays.fill(secondBest, Double.POSITIVE_INFINITY);
+		Arrays.fill(secondBestTarget, CompactRootedPhylogeny.NO_NODE);
+		for (int t : targets)
+			{
+			below[t] = 0;
+			belowTarget[t] = t;
+			}
+
+		// children have larger indexes than their parents, so this completes every subtree before its root
+		for (int i = n - 1; i > 0; i--)
+			{
+			int p = tree.getParentIndex(i);
+			double d = below[i] + tree.getLength(i);
+			if (d < bestThroughChild[p])
+				{
+				secondBest[p] = bestThroughChild[p];
+				secondBestTarget[p] = bestThroughChildTarget[p];
+				bestThroughChild[p] = d;
+				bestThroughChildTarget[p] = belowTarget[i];
+				bestChild[p] = i;
+				}
+			else if (d < secondBest[p])
+				{
+				secondBest[p] = d;
+				secondBestTarget[p] = belowTarget[i];
+				}
+			if (d < below[p])
+				{
+				below[p] = d;
+				belowTarget[p] = belowTarget[i];
+				}
+			}
+
+		// parents precede their children, so each node's outside distance is known before its children need it
+		outside[0] = Double.POSITIVE_INFINITY;
+		outsideTarget[0] = CompactRootedPhylogeny.NO_NODE;
+		for (int i = 1; i < n; i++)
+			{
+			int p = tree.getParentIndex(i);
+			double best = outside[p];
+			int bestTarget = outsideTarget[p];
+			if (isTarget[p])
+				{
+				best = 0;
+				bestTarget = p;
+				}
+			double sibling = bestChild[p] == i ? secondBest[p] : bestThroughChild[p];
+			if (sibling < best)
+				{
+				best = sibling;
+				bestTarget = bestChild[p] == i ? secondBestTarget[p] : bestThroughChildTarget[p];
+				}
+			outside[i] = best + tree.getLength(i);
+			outsideTarget[i] = bestTarget;
+			}
+		}
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	/**
+	 * @return the distance from the query to the nearest target, or Double.MAX_VALUE if there are no targets
+	 * @throws NoSuchNodeException if the query is not in the tree
+	 */
+	public double distanceToNearest(T query) throws NoSuchNodeException
+		{
+		return distanceToNearest(query, 0);
+		}
+
+	/**
+	 * @return the distance from the query to the nearest target at least minDistance away, or Double.MAX_VALUE if there is
+	 *         none
+	 * @throws NoSuchNodeException if the query is not in the tree
+	 */
+	public double distanceToNearest(T query, double minDistance) throws NoSuchNodeException
+		{
+		Hit hit = nearestIndex(tree.indexOf(query), minDistance);
+		return hit.target == CompactRootedPhylogeny.NO_NODE ? Double.MAX_VALUE : hit.distance;
+		}
+
+	/**
+	 * @return the nearest target to the query, or null if there are no targets
+	 * @throws NoSuchNodeException if the query is not in the tree
+	 */
+	public T nearest(T query) throws NoSuchNodeException
+		{
+		return nearest(query, 0);
+		}
+
+	/**
+	 * @return the nearest target at least minDistance away from the query, or null if there is none
+	 * @throws NoSuchNodeException if the query is not in the tree
+	 */
+	public T nearest(T query, double minDistance) throws NoSuchNodeException
+		{
+		Hit hit = nearestIndex(tree.indexOf(query), minDistance);
+		return hit.target == CompactRootedPhylogeny.NO_NODE ? null : tree.getPayload(hit.target);
+		}
+
+	/**
+	 * Answer many queries in parallel on the shared fork-join pool.
+	 *
+	 * @return the distance from each query to the nearest target at least minDistance away, or Double.MAX_VALUE where
+	 *         there is none, in the order of the queries
+	 * @throws NoSuchNodeException if a query is not in the tree
+	 */
+	public double[] distancesToNearest(List<T> queries, double minDistance) throws NoSuchNodeException
+		{
+		int[] nodes = new int[queries.size()];
+		for (int i = 0; i < nodes.length; i++)
+			{
+			nodes[i] = tree.indexOf(queries.get(i));
+			}
+
+		double[] result = new double[nodes.length];
+		if (nodes.length > 0)
+			{
+			if (minDistance > 0)
+				{
+				// build it once up front rather than have the first tasks contend for it
+				getTargetDepthTree();
+				}
+			int grain = Math.max(64, nodes.length / (8 * SharedForkJoinPool.get().getParallelism()));
+			SharedForkJoinPool.get().invoke(new QueryTask(0, nodes.length, grain, nodes, minDistance, result));
+			}
+		return result;
+		}
+
+	private Hit nearestIndex(int query, double minDistance)
+		{
+		if (!(minDistance > 0))
+			{
+			// every distance qualifies
+			return below[query] <= outside[query] ? new Hit(belowTarget[query], below[query])
+			                                      : new Hit(outsideTarget[query], outside[query]);
+			}
+		if (targets.length == 0)
+			{
+			return new Hit(CompactRootedPhylogeny.NO_NODE, Double.POSITIVE_INFINITY);
+			}
+
+		TargetDepthTree depths = getTargetDepthTree();
+		double queryDepth = ancestors.getDepth(query);
+		Hit best = new Hit(CompactRootedPhylogeny.NO_NODE, Double.POSITIVE_INFINITY);
+
+		// a target whose path to the query turns at ancestor a is at distance queryDepth - 2 depth(a) + depth(target)
+		int a = query;
+		int child = CompactRootedPhylogeny.NO_NODE;
+		while (a != CompactRootedPhylogeny.NO_NODE)
+			{
+			double ancestorDepth = ancestors.getDepth(a);
+			if (queryDepth - ancestorDepth >= best.distance)
+				{
+				// this and every higher turning point is at least that far away
+				break;
+				}
+			double offset = queryDepth - 2 * ancestorDepth;
+			double minTargetDepth = minDistance - offset;
+			int end = tree.getSubtreeEndIndex(a);
+			if (child == CompactRootedPhylogeny.NO_NODE)
+				{
+				depths.improve(best, a, end, minTargetDepth, offset);
+				}
+			else
+				{
+				depths.improve(best, a, child - 1, minTargetDepth, offset);
+				depths.improve(best, tree.getSubtreeEndIndex(child) + 1, end, minTargetDepth, offset);
+				}
+			child = a;
+			a = tree.getParentIndex(a);
+			}
+		return best;
+		}
+
+	private TargetDepthTree getTargetDepthTree()
+		{
+		TargetDepthTree result = targetDepthTree;
+		if (result == null)
+			{
+			synchronized (this)
+				{
+				result = targetDepthTree;
+				if (result == null)
+					{
+					result = new TargetDepthTree();
+					targetDepthTree = result;
+					}
+				}
+			}
+		return result;
+		}
+
+	// -------------------------- INNER CLASSES --------------------------
+
+	/**
+	 * A candidate answer, updated in place as better ones are found.
+	 */
+	private static class Hit
+		{
+		private int target;
+		private double distance;
+
+		Hit(int target, double distance)
+			{
+			this.target = target;
+			this.distance = distance;
+			}
+		}
+
+	/**
+	 * A merge-sort tree over the targets in preorder: each segment-tree node lists the targets in its range in order of
+	 * depth, so the shallowest target at or below a given depth within any preorder range can be found by binary search
+	 * in O(log T) of those lists.
+	 */
+	private class TargetDepthTree
+		{
+		private final int[][] byDepth;
+		private final int size;
+
+		TargetDepthTree()
+			{
+			size = targets.length;
+			byDepth = new int[2 * size][];
+			for (int i = 0; i < size; i++)
+				{
+				byDepth[size + i] = new int[]{targets[i]};
+				}
+			for (int i = size - 1; i > 0; i--)
+				{
+				byDepth[i] = merge(byDepth[2 * i], byDepth[2 * i + 1]);
+				}
+			}
+
+		private int[] merge(int[] x, int[] y)
+			{
+			int[] result = new int[x.length + y.length];
+			int i = 0;
+			int j = 0;
+			int k = 0;
+			while (i < x.length && j < y.length)
+				{
+				result[k++] = ancestors.getDepth(x[i]) <= ancestors.getDepth(y[j]) ? x[i++] : y[j++];
+				}
+			while (i < x.length)
+				{
+				result[k++] = x[i++];
+				}
+			while (j < y.length)
+				{
+				result[k++] = y[j++];
+				}
+			return result;
+			}
+
+		/**
+		 * Consider the targets among the nodes [fromNode, toNode] with depth at least minDepth, and record the shallowest
+		 * of them in the hit if its distance (offset + depth) is better.
+		 */
+		void improve(Hit hit, int fromNode, int toNode, double minDepth, double offset)
+			{
+			if (fromNode > toNode)
+				{
+				return;
+				}
+			int l = lowerBound(fromNode) + size;
+			int r = lowerBound(toNode + 1) + size;
+			while (l < r)
+				{
+				if ((l & 1) == 1)
+					{
+					improve(hit, byDepth[l++], minDepth, offset);
+					}
+				if ((r & 1) == 1)
+					{
+					improve(hit, byDepth[--r], minDepth, offset);
+					}
+				l >>= 1;
+				r >>= 1;
+				}
+			}
+
+		private void improve(Hit hit, int[] sorted, double minDepth, double offset)
+			{
+			int lo = 0;
+			int hi = sorted.length;
+			while (lo < hi)
+				{
+				int mid = (lo + hi) >>> 1;
+				if (ancestors.getDepth(sorted[mid]) < minDepth)
+					{
+					lo = mid + 1;
+					}
+				else
+					{
+					hi = mid;
+					}
+				}
+			if (lo < sorted.length)
+				{
+				double d = offset + ancestors.getDepth(sorted[lo]);
+				if (d < hit.distance)
+					{
+					hit.distance = d;
+					hit.target = sorted[lo];
+					}
+				}
+			}
+
+		/**
+		 * @return the position of the first target with a node index of at least the given one
+		 */
+		private int lowerBound(int node)
+			{
+			int result = Arrays.binarySearch(targets, node);
+			return result >= 0 ? result : -result - 1;
+			}
+		}
+
+	private class QueryTask extends RecursiveAction
+		{
+		private final int from;
+		private final int to;
+		private final int grain;
+		private final int[] nodes;
+		private final double minDistance;
+		private final double[] result;
+
+		QueryTask(int from, int to, int grain, int[] nodes, double minDistance, double[] result)
+			{
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+			this.nodes = nodes;
+			this.minDistance = minDistance;
+			this.result = result;
+			}
+
+		@Override
+		protected void compute()
+			{
+			if (to - from <= grain)
+				{
+				for (int i = from; i < to; i++)
+					{
+					Hit hit = nearestIndex(nodes[i], minDistance);
+					result[i] = hit.target == CompactRootedPhylogeny.NO_NODE ? Double.MAX_VALUE : hit.distance;
+					}
+				}
+			else
+				{
+				int mid = (from + to) >>> 1;
+				invokeAll(new QueryTask(from, mid, grain, nodes, minDistance, result),
+				          new QueryTask(mid, to, grain, nodes, minDistance, result));
+				}
+			}
+		}
+	}
@@ -7,13 +7,16 @@
 package edu.berkeley.compbio.phyloutils;
 
 import com.davidsoergel.dsutils.collections.DSCollectionUtils;
+import com.davidsoergel.trees.BasicRootedPhylogeny;
 import com.davidsoergel.trees.NoSuchNodeException;
+import com.davidsoergel.trees.RootedPhylogeny;
 import com.davidsoergel.trees.TreeException;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -21,7 +24,7 @@ import java.util.Set;
  * @version $Id$
  */
 public class NewickIntegerTaxonomyService extends RootedPhylogenyAsService<Integer>
-		implements Serializable  // extends AbstractRootedPhylogeny<String>
+		implements IntTaxonomyService, BatchTaxonomyService, Serializable  // extends AbstractRootedPhylogeny<String>
 	{
 	private static final Logger logger = Logger.getLogger(NewickStringTaxonomyService.class);
 
@@ -130,12 +133,15 @@ public class NewickIntegerTaxonomyService extends RootedPhylogenyAsService<Integ
 				is = new FileInputStream(filename);
 				}*/
 			//	ciccarelliTree = new NewickParser<String>().read(is, new StringNodeNamer("UNNAMED NODE "));
-			basePhylogeny = NewickParser.readWithIntegerIds(newickFilename, false, namedNodesMustBeLeaves);
-			basePhylogeny.setLeafWeightsUniform();
+			RootedPhylogeny<Integer> tree =
+					NewickParser.readWithIntegerIds(newickFilename, false, namedNodesMustBeLeaves);
 			if (setAllBranchLengthsTo != null)
 				{
-				basePhylogeny.setAllBranchLengthsTo(setAllBranchLengthsTo.doubleValue());
+				tree.setAllBranchLengthsTo(setAllBranchLengthsTo.doubleValue());
 				}
+
+			// only the compact tree is kept; the object tree is rebuilt from it if anyone asks for it
+			setCompactPhylogeny(new IntegerCompactRootedPhylogeny(tree));
 			}
 		catch (IOException e)
 			{
@@ -149,14 +155,118 @@ public class NewickIntegerTaxonomyService extends RootedPhylogenyAsService<Integ
 			}
 		}
 
+	@Override
+	protected CompactRootedPhylogeny<Integer> newCompactPhylogeny(RootedPhylogeny<Integer> basePhylogeny)
+			throws PhyloUtilsException
+		{
+		return new IntegerCompactRootedPhylogeny(basePhylogeny);
+		}
+
+	@Override
+	protected RootedPhylogeny<Integer> newBasePhylogeny(CompactRootedPhylogeny<Integer> compactPhylogeny)
+		{
+		BasicRootedPhylogeny<Integer> result = ((IntegerCompactRootedPhylogeny) compactPhylogeny).toBasicRootedPhylogeny();
+		result.setLeafWeightsUniform();
+		return result;
+		}
+
 	public Integer findTaxidByName(String name) throws NoSuchNodeException
 		{
-		return basePhylogeny.getNode(new Integer(name)).getPayload();
+		Integer id = new Integer(name);
+		if (!isKnownId(id))
+			{
+			throw new NoSuchNodeException("Node not found: " + name);
+			}
+		return id;
 		}
 
 	public Integer findTaxidByNameRelaxed(String name) throws NoSuchNodeException
 		{
-		return basePhylogeny.getNode(new Integer(name)).getPayload();
+		return findTaxidByName(name);
+		}
+
+	public IntegerCompactRootedPhylogeny getIntegerCompactPhylogeny()
+		{
+		return (IntegerCompactRootedPhylogeny) getCompactPhylogeny();
+		}
+
+	// the batch queries read the compact tree once, so a concurrent reload can't give mixed answers
+
+	public void isKnown(int[] ids, boolean[] out)
+		{
+		TaxonomyBatchQueries.isKnown(getIntegerCompactPhylogeny(), ids, out);
+		}
+
+	public void isDescendant(int ancestor, int[] candidates, boolean[] out) throws NoSuchNodeException
+		{
+		TaxonomyBatchQueries.isDescendant(getIntegerCompactPhylogeny(), ancestor, candidates, out);
+		}
+
+	public void minDistanceBetween(int[] a, int[] b, double[] out)
+		{
+		TaxonomyBatchQueries.minDistanceBetween(getIntegerCompactPhylogeny(), a, b, out);
+		}
+
+	public void getDepthFromRoot(int[] ids, double[] out)
+		{
+		TaxonomyBatchQueries.getDepthFromRoot(getIntegerCompactPhylogeny(), ids, out);
+		}
+
+	public void findTaxidsByName(List<String> names, int[] out)
+		{
+		TaxonomyBatchQueries.findTaxidsByName(this, false, names, out);
+		}
+
+	public void findTaxidsByNameRelaxed(List<String> names, int[] out)
+		{
+		TaxonomyBatchQueries.findTaxidsByName(this, true, names, out);
+		}
+
+	// IntTaxonomyService
+
+	public boolean isKnownId(int id)
+		{
+		return getIntegerCompactPhylogeny().isKnown(id);
+		}
+
+	public boolean isLeafId(int id) throws NoSuchNodeException
+		{
+		return getIntegerCompactPhylogeny().isLeaf(id);
+		}
+
+	public boolean isDescendantId(int ancestor, int descendant) throws NoSuchNodeException
+		{
+		return getIntegerCompactPhylogeny().isDescendant(ancestor, descendant);
+		}
+
+	public double minDistanceBetweenIds(int a, int b) throws NoSuchNodeException
+		{
+		return getIntegerCompactPhylogeny().distanceBetween(a, b);
+		}
+
+	public double getDepthFromRootOfId(int id) throws NoSuchNodeException
+		{
+		return getIntegerCompactPhylogeny().getDepthFromRoot(id);
+		}
+
+	public IntHashSet selectAncestors(int[] labels, int id)
+		{
+		return getIntegerCompactPhylogeny().selectAncestors(labels, id);
+		}
+
+	public IntHashSet getLeafIdSet()
+		{
+		return getIntegerCompactPhylogeny().getLeafIdSet();
+		}
+
+	public IntHashSet findMatchingIdSet(String name) throws NoSuchNodeException
+		{
+		return IntHashSet.copyOf(findMatchingIds(name));
+		}
+
+	public IntHashSet findMatchingIdSetRelaxed(String name) throws NoSuchNodeException
+		{
+		return IntHashSet.copyOf(findMatchingIdsRelaxed(name));
 		}
 
 	public Set<Integer> getCachedNamesForId(String id)
@@ -164,7 +274,7 @@ public class NewickIntegerTaxonomyService extends RootedPhylogenyAsService<Integ
 		Integer s = null;
 		try
 			{
-			s = basePhylogeny.getNode(new Integer(id)).getPayload();
+			s = findTaxidByName(id);
 			}
 		catch (NoSuchNodeException e)
 			{
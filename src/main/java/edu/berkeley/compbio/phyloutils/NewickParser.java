@@ -16,24 +16,23 @@ import com.davidsoergel.trees.StringNodeNamer;
 import com.davidsoergel.trees.TreeException;
 import org.apache.log4j.Logger;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
 import java.io.Serializable;
-import java.io.StreamTokenizer;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.regex.Matcher;
-import java.util.zip.GZIPInputStream;
 
 
 /**
  * Parser for New Hampshire (aka Newick) tree files.  Does not yet handle quoted labels or NHX extensions.  Simple state
- * machine implementation.
+ * machine implementation, driven by a byte-level {@link NewickTokenizer}.
  *
  * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
  * @version $Id$
@@ -91,8 +90,14 @@ public class NewickParser<T extends Serializable>
 			throws TreeException, IOException
 		{
 		InputStream is = getInputStream(filename);
-
-		return new NewickParser<String>().read(is, new StringNodeNamer("UNNAMED ", false, namedNodesMustBeLeaves));
+		try
+			{
+			return new NewickParser<String>().read(is, new StringNodeNamer("UNNAMED ", false, namedNodesMustBeLeaves));
+			}
+		finally
+			{
+			is.close();
+			}
 		}
 
 	public static BasicRootedPhylogeny<Integer> readWithIntegerIds(String filename, boolean generateIds,
@@ -103,7 +108,14 @@ public class NewickParser<T extends Serializable>
 
 		NodeNamer<Integer> namer =
 				generateIds ? new IntegerGeneratingNodeNamer(10000000, namedNodesMustBeLeaves) : new IntegerNodeNamer();
-		return new NewickParser<Integer>().read(is, namer);
+		try
+			{
+			return new NewickParser<Integer>().read(is, namer);
+			}
+		finally
+			{
+			is.close();
+			}
 		}
 
 	private static InputStream getInputStream(String filename) throws PhyloUtilsException, IOException
@@ -141,9 +153,31 @@ public class NewickParser<T extends Serializable>
 
 			throw new PhyloUtilsException("tree not found: " + filename);
 			}
+		return openStream(res, filename);
+		}
+
+	/**
+	 * Open a resource that has already been located.  Local files are memory-mapped, and gzipped content is inflated on
+	 * a separate thread so that decompression overlaps with parsing.
+	 */
+	static InputStream openStream(URL res, String filename) throws IOException
+		{
+		if ("file".equals(res.getProtocol()))
+			{
+			try
+				{
+				return openPath(Paths.get(res.toURI()));
+				}
+			catch (URISyntaxException e)
+				{
+				// fall through to the generic path
+				logger.debug("Could not convert URL to path: " + res, e);
+				}
+			}
+
 		InputStream is = res.openStream();
 
-		is = filename.endsWith(".gz") ? new GZIPInputStream(is) : is;
+		is = filename.endsWith(".gz") ? new PipelinedGZIPInputStream(is) : is;
 		/*if (is == null)
 					 {
 					 is = new FileInputStream(filename);
@@ -151,23 +185,39 @@ public class NewickParser<T extends Serializable>
 		return is;
 		}
 
-	public BasicRootedPhylogeny<T> read(InputStream is, NodeNamer<T> namer) throws TreeException
+	static InputStream openPath(Path path) throws IOException
 		{
-		Reader r = new BufferedReader(new InputStreamReader(is));
-		StreamTokenizer st = new StreamTokenizer(r);
-
-		st.lowerCaseMode(false);
-		st.eolIsSignificant(false);
-		st.slashSlashComments(false);
-		st.slashStarComments(false);
-		st.wordChars('_', '_');
-		st.wordChars('-', '-');
-		st.wordChars('/', '/');
+		if (path.getFileName().toString().endsWith(".gz"))
+			{
+			return new PipelinedGZIPInputStream(Files.newInputStream(path));
+			}
+		return new MappedFileInputStream(path);
+		}
 
+	/**
+	 * Read a tree from a file.  Uncompressed files (.nh, .tree, etc.) are memory-mapped; for .gz files, inflation runs
+	 * on a separate thread, concurrently with parsing.
+	 */
+	public BasicRootedPhylogeny<T> read(Path path, NodeNamer<T> namer) throws TreeException, IOException
+		{
+		InputStream is = openPath(path);
+		try
+			{
+			return read(is, namer);
+			}
+		finally
+			{
+			is.close();
+			}
+		}
 
-		// allow = within node names for the sake of synonym1==synonym2
-		st.wordChars('=', '=');
+	public BasicRootedPhylogeny<T> read(InputStream is, NodeNamer<T> namer) throws TreeException
+		{
+		return read(new NewickTokenizer(is), namer);
+		}
 
+	BasicRootedPhylogeny<T> read(NewickTokenizer st, NodeNamer<T> namer) throws TreeException
+		{
 		BasicRootedPhylogeny<T> theTree = new BasicRootedPhylogeny<T>();
 		BasicPhylogenyNode<T> currentNode = theTree.getRoot();
 		//List<PhylogenyNode> path = new LinkedList<PhylogenyNode>();
@@ -210,7 +260,7 @@ public class NewickParser<T extends Serializable>
 				{
 				switch (st.nextToken())
 					{
-					case StreamTokenizer.TT_EOF:
+					case NewickTokenizer.TT_EOF:
 						if (!(state == State.FINISHED))
 							{
 							throw new PhyloUtilsException("Premature end of tree at " + st.lineno());
@@ -218,13 +268,11 @@ public class NewickParser<T extends Serializable>
 						state = State.EOF;
 						break;
 
-					case StreamTokenizer.TT_EOL:
-						continue;
-
-					case StreamTokenizer.TT_NUMBER:
+					case NewickTokenizer.TT_NUMBER:
 						if (state == State.EXPECTING_NUMBER)
 							{
-							currentNode.setLength(st.nval);
+							// branch lengths may be given in scientific notation
+							currentNode.setLength(st.readExponent());
 							state = State.NODEEND;
 							}
 						else if (state == State.NEWNODE || state == State.NAME)
@@ -252,18 +300,19 @@ public class NewickParser<T extends Serializable>
 						break;
 
 					//** note underscore vs space issues here... elsewhere, space is a legitimate character, different from _
-					// but in the ITOL newick files at least, all underscores are really spaces
+					// but in the ITOL newick files at least, all underscores are really spaces; the tokenizer has
+					// already replaced them
 
 
-					case StreamTokenizer.TT_WORD:
+					case NewickTokenizer.TT_WORD:
 						if (state == State.NEWNODE || state == State.NAME)
 							{
-							currentNode.appendToValue(st.sval.replace('_', ' '), namer);
+							currentNode.appendToValue(st.sval, namer);
 							state = State.NAME;
 							}
 						else if (state == State.POST_CHILDREN)
 							{
-							currentNode.appendToValue(st.sval.replace('_', ' '), namer);
+							currentNode.appendToValue(st.sval, namer);
 							state = State.POST_CHILDREN;
 							}
 						else if (state == State.COMMENT)
@@ -49,19 +49,21 @@ public class NewickStringTaxonomyService extends RootedPhylogenyAsService<String
 		final String cacheKey = newickFilename + ", " + namedNodesMustBeLeaves;
 		logger.info("Cache key: " + cacheKey);
 
-		basePhylogeny = (RootedPhylogeny<String>) CacheManager.get(this, cacheKey + ".basePhylogeny");
+		RootedPhylogeny<String> cachedPhylogeny =
+				(RootedPhylogeny<String>) CacheManager.get(this, cacheKey + ".basePhylogeny");
 
 
-		if (basePhylogeny == null)
+		if (cachedPhylogeny == null)
 			{
 
 			logger.info("Caches not found for " + cacheKey + ", reloading...");
 			reload();
 
-			CacheManager.put(this, cacheKey + ".basePhylogeny", basePhylogeny);
+			CacheManager.put(this, cacheKey + ".basePhylogeny", getBasePhylogeny());
 			}
 		else
 			{
+			setBasePhylogeny(cachedPhylogeny);
 			logger.info("Loaded caches for " + cacheKey);
 			}
 		}
@@ -93,7 +95,7 @@ public class NewickStringTaxonomyService extends RootedPhylogenyAsService<String
 				is = new FileInputStream(filename);
 				}*/
 			//	ciccarelliTree = new NewickParser<String>().read(is, new StringNodeNamer("UNNAMED NODE "));
-			basePhylogeny = NewickParser.readWithStringIds(newickFilename, namedNodesMustBeLeaves);
+			setBasePhylogeny(NewickParser.readWithStringIds(newickFilename, namedNodesMustBeLeaves));
 			}
 		catch (IOException e)
 			{
@@ -109,12 +111,12 @@ public class NewickStringTaxonomyService extends RootedPhylogenyAsService<String
 
 	public String findTaxidByName(String name) throws NoSuchNodeException
 		{
-		return basePhylogeny.getNode(name).getPayload();
+		return getBasePhylogeny().getNode(name).getPayload();
 		}
 
 	public String findTaxidByNameRelaxed(String name) throws NoSuchNodeException
 		{
-		return basePhylogeny.getNode(name).getPayload();
+		return getBasePhylogeny().getNode(name).getPayload();
 		}
 
 	public Set<String> getCachedNamesForId(String id)
@@ -122,7 +124,7 @@ public class NewickStringTaxonomyService extends RootedPhylogenyAsService<String
 		String s = null;
 		try
 			{
-			s = basePhylogeny.getNode(id).getPayload();
+			s = getBasePhylogeny().getNode(id).getPayload();
 			}
 		catch (NoSuchNodeException e)
 			{
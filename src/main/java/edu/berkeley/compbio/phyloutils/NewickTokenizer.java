@@ -0,0 +1,408 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+
+/**
+ * Byte-level tokenizer for Newick trees, used by {@link NewickParser} in place of a {@link java.io.StreamTokenizer}.
+ * Reads directly from a byte window without a Reader in between, lexes numbers without going through a double parse
+ * of the text, and builds word tokens with underscores already replaced by spaces.
+ * <p/>
+ * Token classes deliberately mirror the StreamTokenizer configuration that NewickParser used to set up, so that the
+ * parser produces the same trees: words start with a letter (or a non-ASCII byte, or one of <code>_-/=</code>) and
+ * continue through letters, digits, <code>.</code> and those extra characters; numbers are digits with at most one
+ * decimal point and an optional leading minus; quoted strings are returned as a single token of the quote type with
+ * their contents discarded; whitespace and control characters are skipped; everything else is returned as an
+ * ordinary single-character token.  Non-ASCII words are decoded as UTF-8.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+public class NewickTokenizer
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	public static final int TT_EOF = -1;
+	public static final int TT_NUMBER = -2;
+	public static final int TT_WORD = -3;
+
+	private static final int DEFAULT_WINDOW_SIZE = 1 << 16;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final byte CT_WHITESPACE = 1;
+	private static final byte CT_DIGIT = 2;
+	private static final byte CT_ALPHA = 4;
+	private static final byte CT_QUOTE = 8;
+
+	private static final byte[] ctype = new byte[256];
+
+	static
+		{
+		for (int c = 0; c <= ' '; c++)
+			{
+			ctype[c] = CT_WHITESPACE;
+			}
+		for (int c = 'a'; c <= 'z'; c++)
+			{
+			ctype[c] = CT_ALPHA;
+			}
+		for (int c = 'A'; c <= 'Z'; c++)
+			{
+			ctype[c] = CT_ALPHA;
+			}
+		// bytes of multibyte UTF-8 sequences
+		for (int c = 128; c < 256; c++)
+			{
+			ctype[c] = CT_ALPHA;
+			}
+		for (int c = '0'; c <= '9'; c++)
+			{
+			ctype[c] = CT_DIGIT;
+			}
+		ctype['.'] = CT_DIGIT;
+		ctype['-'] = CT_DIGIT | CT_ALPHA;
+		ctype['_'] = CT_ALPHA;
+		ctype['/'] = CT_ALPHA;
+
+		// allow = within node names for the sake of synonym1==synonym2
+		ctype['='] = CT_ALPHA;
+
+		ctype['\''] = CT_QUOTE;
+		ctype['"'] = CT_QUOTE;
+		}
+
+	/**
+	 * The type of the most recently read token: TT_EOF, TT_NUMBER, TT_WORD, or the character itself
+	 */
+	public int ttype;
+
+	/**
+	 * The value of the most recent word token
+	 */
+	public String sval;
+
+	/**
+	 * The value of the most recent number token
+	 */
+	public double nval;
+
+	private final InputStream is;
+
+	private final byte[] window;
+	private int pos = 0;
+	private int limit = 0;
+
+	// one byte of pushback, or -2 if none
+	private int peekc = -2;
+
+	// scratch space for building words, and the text of numbers in case they need an exponent
+	private char[] chars = new char[256];
+	private byte[] bytes = new byte[256];
+	private int numberLength;
+
+	private int lineno = 1;
+	private boolean pendingCR = false;
+
+
+	// --------------------------- CONSTRUCTORS ---------------------------
+
+	public NewickTokenizer(InputStream is)
+		{
+		this(is, DEFAULT_WINDOW_SIZE);
+		}
+
+	public NewickTokenizer(InputStream is, int windowSize)
+		{
+		this.is = is;
+		this.window = new byte[windowSize];
+		}
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	public int lineno()
+		{
+		return lineno;
+		}
+
+	/**
+	 * Refill the byte window.  Returns the number of bytes now available, or -1 at end of input.
+	 */
+	protected int fill(byte[] window) throws IOException
+		{
+		return is.read(window, 0, window.length);
+		}
+
+	private int read() throws IOException
+		{
+		if (pos < limit)
+			{
+			return window[pos++] & 0xFF;
+			}
+		int n;
+		do
+			{
+			n = fill(window);
+			}
+		while (n == 0);
+		if (n < 0)
+			{
+			limit = 0;
+			pos = 0;
+			return -1;
+			}
+		limit = n;
+		pos = 1;
+		return window[0] & 0xFF;
+		}
+
+	public int nextToken() throws IOException
+		{
+		sval = null;
+
+		int c = peekc;
+		if (c == -2)
+			{
+			c = read();
+			}
+		peekc = -2;
+
+		// skip whitespace, counting lines the way StreamTokenizer does
+		while (c >= 0 && ctype[c] == CT_WHITESPACE)
+			{
+			if (c == '\r')
+				{
+				lineno++;
+				pendingCR = true;
+				}
+			else
+				{
+				if (c == '\n' && !pendingCR)
+					{
+					lineno++;
+					}
+				pendingCR = false;
+				}
+			c = read();
+			}
+		pendingCR = false;
+
+		if (c < 0)
+			{
+			return ttype = TT_EOF;
+			}
+
+		int ct = ctype[c];
+
+		if ((ct & CT_DIGIT) != 0)
+			{
+			return ttype = lexNumber(c);
+			}
+
+		if ((ct & CT_ALPHA) != 0)
+			{
+			return ttype = lexWord(c);
+			}
+
+		if (ct == CT_QUOTE)
+			{
+			skipQuoted(c);
+			return ttype = c;
+			}
+
+		return ttype = c;
+		}
+
+	private int lexNumber(int c) throws IOException
+		{
+		numberLength = 0;
+		boolean neg = false;
+		if (c == '-')
+			{
+			c = read();
+			if (c != '.' && (c < '0' || c > '9'))
+				{
+				peekc = c;
+				return '-';
+				}
+			neg = true;
+			appendNumberChar('-');
+			}
+
+		// accumulate exactly as StreamTokenizer does, so that the resulting doubles are identical
+		double v = 0;
+		int decexp = 0;
+		int seendot = 0;
+		while (true)
+			{
+			if (c == '.' && seendot == 0)
+				{
+				seendot = 1;
+				}
+			else if ('0' <= c && c <= '9')
+				{
+				v = v * 10 + (c - '0');
+				decexp += seendot;
+				}
+			else
+				{
+				break;
+				}
+			appendNumberChar((char) c);
+			c = read();
+			}
+		peekc = c;
+		if (decexp != 0)
+			{
+			double denom = 10;
+			decexp--;
+			while (decexp > 0)
+				{
+				denom *= 10;
+				decexp--;
+				}
+			v = v / denom;
+			}
+		nval = neg ? -v : v;
+		return TT_NUMBER;
+		}
+
+	/**
+	 * If the number token just read is immediately followed by an exponent (e.g. the "e-05" of "1.2e-05"), consume it
+	 * and adjust nval accordingly.  Only meaningful right after a TT_NUMBER token; the parser calls this where a branch
+	 * length is expected, so that labels such as "12e5" keep their usual tokenization.
+	 *
+	 * @return the (possibly adjusted) value of the number
+	 */
+	public double readExponent() throws IOException
+		{
+		if (ttype != TT_NUMBER || (peekc != 'e' && peekc != 'E'))
+			{
+			return nval;
+			}
+
+		int savedLength = numberLength;
+		appendNumberChar((char) peekc);
+
+		int c = read();
+		if (c == '+' || c == '-')
+			{
+			appendNumberChar((char) c);
+			c = read();
+			}
+		if (c < '0' || c > '9')
+			{
+			// not an exponent after all.  We can't push back more than one character, so this is an error in any
+			// context where an exponent could appear.
+			throw new IOException("Malformed number: " + new String(chars, 0, numberLength));
+			}
+		while ('0' <= c && c <= '9')
+			{
+			appendNumberChar((char) c);
+			c = read();
+			}
+		peekc = c;
+
+		nval = Double.parseDouble(new String(chars, 0, numberLength));
+		numberLength = savedLength;
+		return nval;
+		}
+
+	private void appendNumberChar(char c)
+		{
+		if (numberLength == chars.length)
+			{
+			chars = grow(chars);
+			}
+		chars[numberLength++] = c;
+		}
+
+	private int lexWord(int c) throws IOException
+		{
+		int length = 0;
+		boolean ascii = true;
+		do
+			{
+			if (c >= 128)
+				{
+				ascii = false;
+				}
+			if (length == bytes.length)
+				{
+				bytes = grow(bytes);
+				}
+			bytes[length++] = (byte) c;
+			c = read();
+			}
+		while (c >= 0 && (ctype[c] & (CT_ALPHA | CT_DIGIT)) != 0);
+		peekc = c;
+
+		//** note underscore vs space issues here... elsewhere, space is a legitimate character, different from _
+		// but in the ITOL newick files at least, all underscores are really spaces
+		if (ascii)
+			{
+			if (chars.length < length)
+				{
+				chars = new char[Math.max(length, chars.length * 2)];
+				}
+			for (int i = 0; i < length; i++)
+				{
+				byte b = bytes[i];
+				chars[i] = b == '_' ? ' ' : (char) b;
+				}
+			sval = new String(chars, 0, length);
+			}
+		else
+			{
+			sval = new String(bytes, 0, length, UTF8).replace('_', ' ');
+			}
+		return TT_WORD;
+		}
+
+	/**
+	 * StreamTokenizer returns a quoted string as a single token; NewickParser ignores those entirely, so we just skip
+	 * to the closing quote (or the end of the line).
+	 */
+	private void skipQuoted(int quote) throws IOException
+		{
+		int c = read();
+		while (c >= 0 && c != quote && c != '\n' && c != '\r')
+			{
+			if (c == '\\')
+				{
+				c = read();
+				if (c < 0)
+					{
+					break;
+					}
+				}
+			c = read();
+			}
+		if (c != quote)
+			{
+			// the line terminator is not part of the quoted string
+			peekc = c;
+			}
+		}
+
+	private static char[] grow(char[] a)
+		{
+		char[] result = new char[a.length * 2];
+		System.arraycopy(a, 0, result, 0, a.length);
+		return result;
+		}
+
+	private static byte[] grow(byte[] a)
+		{
+		byte[] result = new byte[a.length * 2];
+		System.arraycopy(a, 0, result, 0, a.length);
+		return result;
+		}
+	}
@@ -11,7 +11,8 @@ import com.davidsoergel.dsutils.DSArrayUtils;
 import com.davidsoergel.dsutils.collections.DSCollectionUtils;
 import com.davidsoergel.dsutils.file.IntArrayReader;
 import com.davidsoergel.trees.NoSuchNodeException;
-import com.davidsoergel.trees.PhylogenyNode;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimaps;
 import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
@@ -21,10 +22,14 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -42,8 +47,9 @@ public class NewickWithSynonymsAndRanksTaxonomyService extends NewickIntegerTaxo
 	private HashMap<String, Integer> taxIdByName;
 	private HashMap<Integer, String> nameByTaxId;
 */
-	private HashMap<String, Integer> taxIdByNameRelaxed;
-	private HashMap<String, Integer> taxIdByNameRecent;
+	// bounded memos of name lookups, exact and relaxed
+	private final NameLookupCache taxIdByNameRelaxed = new NameLookupCache();
+	private final NameLookupCache taxIdByNameRecent = new NameLookupCache();
 /*
 	private HashSet<String> ambiguousNames;
 	private HashMap<Integer, String[]> allNamesByTaxId;
@@ -57,6 +63,12 @@ public class NewickWithSynonymsAndRanksTaxonomyService extends NewickIntegerTaxo
 	private CacheManager.LazyStub ambiguousNamesStub;
 	private CacheManager.LazyStub allNamesByTaxIdStub;
 
+	// the name maps that queries use, from the cache stubs or from mapped files
+	private volatile Names names;
+
+	static final String SNAPSHOT_KIND = "NewickWithSynonymsAndRanksTaxonomyService";
+	static final int SNAPSHOT_VERSION = 2;
+
 	private String dirName;
 
 	public void setDirName(final String dirName)
@@ -80,10 +92,11 @@ public class NewickWithSynonymsAndRanksTaxonomyService extends NewickIntegerTaxo
 
 		//taxIdByNameRelaxed = (HashMap<String, Integer>) CacheManager.get(this, dirName + ".taxIdByNameRelaxed");
 
-		taxIdByNameRelaxed = (HashMap<String, Integer>) CacheManager
-				.getAccumulatingMapAssumeSerializable(this, dirName + ".taxIdByNameRelaxed");
-		taxIdByNameRecent = (HashMap<String, Integer>) CacheManager
-				.getAccumulatingMapAssumeSerializable(this, dirName + ".taxIdByNameRecent");
+		// the memos accumulated by earlier versions just warm up the bounded ones, which aren't written back
+		taxIdByNameRelaxed.putAll((HashMap<String, Integer>) CacheManager
+				.getAccumulatingMapAssumeSerializable(this, dirName + ".taxIdByNameRelaxed"), Integer.MIN_VALUE);
+		taxIdByNameRecent.putAll((HashMap<String, Integer>) CacheManager
+				.getAccumulatingMapAssumeSerializable(this, dirName + ".taxIdByNameRecent"), Integer.MIN_VALUE);
 
 		taxIdByNameStub = CacheManager.getLazy(this, dirName + ".taxIdByName");
 		ambiguousNamesStub = CacheManager.getLazy(this, dirName + ".ambiguousNames");
@@ -109,6 +122,8 @@ public class NewickWithSynonymsAndRanksTaxonomyService extends NewickIntegerTaxo
 			{
 			logger.info("Loaded cache stubs for " + dirName);
 			}
+
+		names = new Names(taxIdByNameStub, nameByTaxIdStub, allNamesByTaxIdStub);
 		}
 
 	public NewickWithSynonymsAndRanksTaxonomyService(String dirName, boolean namedNodesMustBeLeaves) throws IOException
@@ -139,7 +154,10 @@ public class NewickWithSynonymsAndRanksTaxonomyService extends NewickIntegerTaxo
 				nameByTaxId.put(id, sp[1]);  // scientific name should always be the first entry
 				allNamesByTaxId.put(id, sp);  // track synonyms
 
-				PhylogenyNode<Integer> node = basePhylogeny.getNode(id);
+				if (!isKnownId(id))
+					{
+					throw new NoSuchNodeException("Node not found: " + id);
+					}
 
 				// note the initial canonical ID is itself included as a name
 				for (int i = 0; i < sp.length; i++)
@@ -155,7 +173,7 @@ public class NewickWithSynonymsAndRanksTaxonomyService extends NewickIntegerTaxo
 							}
 						else
 							{
-							taxIdByName.put(sp[i], node.getPayload());
+							taxIdByName.put(sp[i], id);
 							}
 						}
 					}
@@ -183,13 +201,91 @@ public class NewickWithSynonymsAndRanksTaxonomyService extends NewickIntegerTaxo
 			}
 		}
 
+	/**
+	 * Write the tree and the name maps to a BinarySnapshot, from which loadSnapshot() can restore them without the cache
+	 * or the source files.  The name maps are written as MappedNameDictionaries, straight from the mapped files if that's
+	 * where they are.  The rank files are not included, so getTaxIdsWithRank() still needs dirName.
+	 */
+	public void saveSnapshot(Path path) throws IOException
+		{
+		Names names = this.names;
+		BinarySnapshot.Writer out = new BinarySnapshot.Writer(path, SNAPSHOT_KIND, SNAPSHOT_VERSION);
+		try
+			{
+			out.writeIntegerTree((IntegerCompactRootedPhylogeny) getCompactPhylogeny());
+			names.write(out);
+			}
+		finally
+			{
+			out.close();
+			}
+		}
+
+	/**
+	 * Load the state written by saveSnapshot(), instead of calling init().  The name maps are used in place from the
+	 * mapped file, as after useNameDictionary(), so only the compact tree is copied onto the heap.
+	 *
+	 * @throws PhyloUtilsException if the file is not an intact snapshot of this service
+	 */
+	public synchronized void loadSnapshot(Path path) throws IOException, PhyloUtilsException
+		{
+		BinarySnapshot.Reader in = new BinarySnapshot.Reader(path, SNAPSHOT_KIND, SNAPSHOT_VERSION);
+		IntegerCompactRootedPhylogeny compactTree = in.readIntegerTree();
+		MappedNameDictionary nameDictionary = new MappedNameDictionary(in);
+		MappedNameDictionary scientificNameDictionary = new MappedNameDictionary(in);
+		MappedNameDictionary synonymDictionary = new MappedNameDictionary(in);
+		in.finish();
+
+		// the object tree is rebuilt from the compact tree only if someone asks for it
+		setCompactPhylogeny(compactTree);
+
+		names = new Names(nameDictionary, scientificNameDictionary, synonymDictionary);
+		taxIdByNameRelaxed.invalidateAll();
+		taxIdByNameRecent.invalidateAll();
+		}
+
+	/**
+	 * @return the memo of exact name lookups, e.g. for monitoring its hit rate
+	 */
+	public NameLookupCache getNameCache()
+		{
+		return taxIdByNameRecent;
+		}
+
+	/**
+	 * @return the memo of relaxed name lookups
+	 */
+	public NameLookupCache getRelaxedNameCache()
+		{
+		return taxIdByNameRelaxed;
+		}
+
+	/**
+	 * Write the scientific names and synonyms to a MappedNameDictionary, for use by useNameDictionary().
+	 */
+	public void saveNameDictionary(Path path) throws IOException
+		{
+		names.writeNameDictionary(path);
+		}
+
+	/**
+	 * Look up taxon names in the given MappedNameDictionary file instead of loading the name map onto the heap.  Names
+	 * are then resolved directly against the mapped file rather than being memoized.
+	 *
+	 * @throws PhyloUtilsException if the file is not an intact name dictionary
+	 */
+	public synchronized void useNameDictionary(Path path) throws IOException, PhyloUtilsException
+		{
+		names = new Names(names, new MappedNameDictionary(path));
+		}
+
 	public Collection<String> getAllNamesForIds(final Set<Integer> ids)
 		{
-		HashMap<Integer, String[]> allNamesByTaxId = (HashMap<Integer, String[]>) allNamesByTaxIdStub.get();
+		Names names = this.names;
 		Set<String> result = new HashSet<String>();
 		for (Integer id : ids)
 			{
-			result.addAll(Arrays.asList(allNamesByTaxId.get(id)));
+			result.addAll(names.getAllNames(id));
 			}
 		return result;
 		}
@@ -197,81 +293,75 @@ public class NewickWithSynonymsAndRanksTaxonomyService extends NewickIntegerTaxo
 	@NotNull
 	public Integer findTaxidByName(String name) throws NoSuchNodeException
 		{
-		Integer taxid = taxIdByNameRecent.get(name);
+		Names names = this.names;
+		boolean memoize = !names.isMapped();
+		if (memoize && taxIdByNameRecent.isNotFound(name))
+			{
+			throw new NoSuchNodeException("Could not find taxon: " + name);
+			}
+		Integer taxid = memoize ? taxIdByNameRecent.getFound(name) : null;
 		if (taxid == null)
 			{
-			HashMap<String, Integer> taxIdByName = (HashMap<String, Integer>) taxIdByNameStub.get();
 			//PhylogenyNode<String> node = basePhylogeny.getNode(name);  // not needed; nameToNode contains the primary ID too
-			taxid = taxIdByName.get(name);
+			taxid = names.lookupTaxId(name);
 			if (taxid == null)
 				{
-				taxid = Integer.MIN_VALUE;
+				if (memoize)
+					{
+					taxIdByNameRecent.putNotFound(name);
+					}
+				throw new NoSuchNodeException("Could not find taxon: " + name);
+				}
+			if (memoize)
+				{
+				taxIdByNameRecent.putFound(name, taxid);
 				}
-			taxIdByNameRecent.put(name, taxid);
-			}
-		if (taxid == Integer.MIN_VALUE)
-			{
-			throw new NoSuchNodeException("Could not find taxon: " + name);
 			}
 		return taxid;
 		}
 
+	/**
+	 * Resolve exact names straight from the name map (or dictionary), fetched once for the whole batch, skipping the
+	 * memo.
+	 */
+	@Override
+	public void findTaxidsByName(List<String> names, int[] out)
+		{
+		this.names.findTaxidsByName(names, out);
+		}
+
 	@NotNull
 	public Integer findTaxidByNameRelaxed(String name) throws NoSuchNodeException
 		{
 		// check the "relaxed" cache first, since this is a much smaller set of recently used names and so avoids loading the whole map
 
-		Integer taxid = taxIdByNameRelaxed.get(name);
+		Names names = this.names;
+		boolean memoize = !names.isMapped();
+		if (memoize && taxIdByNameRelaxed.isNotFound(name))
+			{
+			throw new NoSuchNodeException("Could not find taxon even with relaxation: " + name);
+			}
+		Integer taxid = memoize ? taxIdByNameRelaxed.getFound(name) : null;
 
 		if (taxid == null)
 			{
-			// only lazy-load the whole map if needed
-			HashMap<String, Integer> taxIdByName = (HashMap<String, Integer>) taxIdByNameStub.get();
-
-			taxid = taxIdByName.get(name);
+			// find the longest known prefix by whole words and its taxid in one pass, rather than chopping off one word at a
+			// time
+			taxid = names.lookupTaxIdOfLongestKnownPrefix(name);
 			if (taxid == null)
 				{
-				String origName = name;
-				String oldname = null;
-				try
+				if (memoize)
 					{
-					while (!name.equals(oldname))
-						{
-						taxid = taxIdByName.get(name);
-						if (taxid != null)
-							{
-							break;
-							}
-
-						oldname = name;
-						name = name.substring(0, name.lastIndexOf(" "));
-						}
-					}
-				catch (IndexOutOfBoundsException e)
-					{
-					throw new NoSuchNodeException("Could not find taxon even with relaxation: " + name);
-					}
-				if (!name.equals(origName))
-					{
-					logger.warn("Relaxed name " + origName + " to " + name);
+					taxIdByNameRelaxed.putNotFound(name);
 					}
+				throw new NoSuchNodeException("Could not find taxon even with relaxation: " + name);
 				}
 
-			// add names to the "relaxed" map even if they weren't actually relaxed, for the sake of fast loading next time around
-
-			// also we'd like add nulls for the same reason, but adding "null" as a map value doesn't distinguish "previously not found" from "not present"
-
-			if (taxid == null)
+			// add names to the "relaxed" memo even if they weren't actually relaxed, so repeated queries skip the trie
+			if (memoize)
 				{
-				taxid = Integer.MIN_VALUE;
+				taxIdByNameRelaxed.putFound(name, taxid);
 				}
-
-			taxIdByNameRelaxed.put(name, taxid);
-			}
-
-		if (taxid == Integer.MIN_VALUE)  // can't be null anymore
-			{
-			throw new NoSuchNodeException("Could not find taxon even with relaxation: " + name);
 			}
 
 		return taxid;
@@ -302,9 +392,8 @@ public class NewickWithSynonymsAndRanksTaxonomyService extends NewickIntegerTaxo
 	@NotNull
 	String getScientificName(@NotNull final Integer taxid) throws NoSuchNodeException
 		{
-		HashMap<Integer, String> nameByTaxId = (HashMap<Integer, String>) nameByTaxIdStub.get();
 		//PhylogenyNode<String> node = basePhylogeny.getNode(name);  // not needed; nameToNode contains the primary ID too
-		String name = nameByTaxId.get(taxid);
+		String name = names.getScientificName(taxid);
 		if (name == null)
 			{
 			throw new NoSuchNodeException("Could not find scientific name: " + taxid);
@@ -323,4 +412,220 @@ public class NewickWithSynonymsAndRanksTaxonomyService extends NewickIntegerTaxo
 		// note that ambiguous names (matching more than one node) were set aside and ignored
 		return DSCollectionUtils.setOf(findTaxidByNameRelaxed(name));
 		}
+
+	@Override
+	public IntHashSet findMatchingIdSet(String name) throws NoSuchNodeException
+		{
+		return IntHashSet.of(findTaxidByName(name));
+		}
+
+	@Override
+	public IntHashSet findMatchingIdSetRelaxed(String name) throws NoSuchNodeException
+		{
+		return IntHashSet.of(findTaxidByNameRelaxed(name));
+		}
+
+	/**
+	 * The name maps, published together so that each query sees a consistent set.  Each map is either loaded from the
+	 * cache on first use, or used in place from a MappedNameDictionary; loadSnapshot() and useNameDictionary() replace
+	 * the whole set rather than changing it.
+	 */
+	private static final class Names
+		{
+		// exactly one of each pair is null
+		private final CacheManager.LazyStub taxIdByNameStub;
+		private final MappedNameDictionary nameDictionary;
+		private final CacheManager.LazyStub nameByTaxIdStub;
+		private final MappedNameDictionary scientificNameDictionary;
+		private final CacheManager.LazyStub allNamesByTaxIdStub;
+		private final MappedNameDictionary synonymDictionary;
+
+		// the names of taxIdByName indexed by word, built on first use
+		private volatile WordPrefixTrie relaxedNameTrie;
+
+		Names(CacheManager.LazyStub taxIdByNameStub, CacheManager.LazyStub nameByTaxIdStub,
+		      CacheManager.LazyStub allNamesByTaxIdStub)
+			{
+			this.taxIdByNameStub = taxIdByNameStub;
+			this.nameDictionary = null;
+			this.nameByTaxIdStub = nameByTaxIdStub;
+			this.scientificNameDictionary = null;
+			this.allNamesByTaxIdStub = allNamesByTaxIdStub;
+			this.synonymDictionary = null;
+			}
+
+		Names(MappedNameDictionary nameDictionary, MappedNameDictionary scientificNameDictionary,
+		      MappedNameDictionary synonymDictionary)
+			{
+			this.taxIdByNameStub = null;
+			this.nameDictionary = nameDictionary;
+			this.nameByTaxIdStub = null;
+			this.scientificNameDictionary = scientificNameDictionary;
+			this.allNamesByTaxIdStub = null;
+			this.synonymDictionary = synonymDictionary;
+			}
+
+		/**
+		 * A copy of the given names that looks up taxids in the given dictionary instead.
+		 */
+		Names(Names from, MappedNameDictionary nameDictionary)
+			{
+			this.taxIdByNameStub = null;
+			this.nameDictionary = nameDictionary;
+			this.nameByTaxIdStub = from.nameByTaxIdStub;
+			this.scientificNameDictionary = from.scientificNameDictionary;
+			this.allNamesByTaxIdStub = from.allNamesByTaxIdStub;
+			this.synonymDictionary = from.synonymDictionary;
+			}
+
+		/**
+		 * @return true if taxids are looked up in a mapped file, which is fast enough not to need memoizing
+		 */
+		boolean isMapped()
+			{
+			return nameDictionary != null;
+			}
+
+		private HashMap<String, Integer> getTaxIdByName()
+			{
+			return (HashMap<String, Integer>) taxIdByNameStub.get();
+			}
+
+		/**
+		 * @return the taxid with the given exact name, or null
+		 */
+		Integer lookupTaxId(String name)
+			{
+			if (nameDictionary != null)
+				{
+				int taxid = nameDictionary.getUniqueId(name);
+				return taxid == MappedNameDictionary.NOT_FOUND ? null : taxid;
+				}
+			return getTaxIdByName().get(name);
+			}
+
+		/**
+		 * @return the taxid of the longest prefix of the given name that ends at a space (or is the whole name) and is a
+		 *         known name, or null
+		 */
+		Integer lookupTaxIdOfLongestKnownPrefix(String name)
+			{
+			if (nameDictionary != null)
+				{
+				int taxid = nameDictionary.getUniqueIdOfLongestKnownPrefix(name);
+				return taxid == MappedNameDictionary.NOT_FOUND ? null : taxid;
+				}
+
+			// only lazy-load the whole map if needed
+			WordPrefixTrie trie = relaxedNameTrie;
+			if (trie == null)
+				{
+				synchronized (this)
+					{
+					trie = relaxedNameTrie;
+					if (trie == null)
+						{
+						trie = new WordPrefixTrie(getTaxIdByName());
+						relaxedNameTrie = trie;
+						}
+					}
+				}
+			int taxid = trie.getLongestKnownPrefix(name);
+			return taxid == WordPrefixTrie.NOT_FOUND ? null : taxid;
+			}
+
+		void findTaxidsByName(List<String> names, int[] out)
+			{
+			if (nameDictionary != null)
+				{
+				TaxonomyBatchQueries.findTaxidsByName(nameDictionary, names, out);
+				}
+			else
+				{
+				TaxonomyBatchQueries.findTaxidsByName(getTaxIdByName(), names, out);
+				}
+			}
+
+		/**
+		 * @return the scientific name of the given taxid, or null
+		 */
+		String getScientificName(Integer taxid)
+			{
+			if (scientificNameDictionary != null)
+				{
+				Set<String> result = scientificNameDictionary.getNames(taxid);
+				return result.isEmpty() ? null : result.iterator().next();
+				}
+			return ((HashMap<Integer, String>) nameByTaxIdStub.get()).get(taxid);
+			}
+
+		/**
+		 * @return the scientific name and synonyms of the given taxid, including the taxid itself as a string
+		 */
+		Collection<String> getAllNames(Integer taxid)
+			{
+			if (synonymDictionary != null)
+				{
+				return synonymDictionary.getNames(taxid);
+				}
+			String[] result = ((HashMap<Integer, String[]>) allNamesByTaxIdStub.get()).get(taxid);
+			return result == null ? Collections.<String>emptySet() : Arrays.asList(result);
+			}
+
+		/**
+		 * Write the taxids by name, the scientific names and the synonyms as three MappedNameDictionaries.
+		 */
+		void write(BinarySnapshot.Writer out) throws IOException
+			{
+			if (nameDictionary != null)
+				{
+				nameDictionary.writeTo(out);
+				}
+			else
+				{
+				MappedNameDictionary.write(out, Multimaps.forMap(getTaxIdByName()));
+				}
+
+			if (scientificNameDictionary != null)
+				{
+				scientificNameDictionary.writeTo(out);
+				}
+			else
+				{
+				HashMap<Integer, String> nameByTaxId = (HashMap<Integer, String>) nameByTaxIdStub.get();
+				MappedNameDictionary.write(out, Multimaps.invertFrom(Multimaps.forMap(nameByTaxId),
+				                                                     HashMultimap.<String, Integer>create()));
+				}
+
+			if (synonymDictionary != null)
+				{
+				synonymDictionary.writeTo(out);
+				}
+			else
+				{
+				HashMap<Integer, String[]> allNamesByTaxId = (HashMap<Integer, String[]>) allNamesByTaxIdStub.get();
+				HashMultimap<String, Integer> synonyms = HashMultimap.create();
+				for (Map.Entry<Integer, String[]> entry : allNamesByTaxId.entrySet())
+					{
+					for (String synonym : entry.getValue())
+						{
+						synonyms.put(synonym, entry.getKey());
+						}
+					}
+				MappedNameDictionary.write(out, synonyms);
+				}
+			}
+
+		void writeNameDictionary(Path path) throws IOException
+			{
+			if (nameDictionary != null)
+				{
+				nameDictionary.write(path);
+				}
+			else
+				{
+				MappedNameDictionary.write(path, getTaxIdByName());
+				}
+			}
+		}
 	}
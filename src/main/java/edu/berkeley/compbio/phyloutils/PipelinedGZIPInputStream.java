@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+
+/**
+ * A GZIPInputStream replacement that inflates on a separate thread into a bounded queue of chunks, so that
+ * decompression overlaps with whatever the reading thread does with the data (e.g., parsing a tree).  At most
+ * QUEUE_DEPTH chunks are buffered ahead of the reader.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+class PipelinedGZIPInputStream extends InputStream
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	private static final Logger logger = Logger.getLogger(PipelinedGZIPInputStream.class);
+
+	private static final int CHUNK_SIZE = 1 << 16;
+	private static final int QUEUE_DEPTH = 16;
+
+	private static final Chunk END = new Chunk(0);
+
+	private final BlockingQueue<Chunk> filled = new ArrayBlockingQueue<Chunk>(QUEUE_DEPTH);
+	private final BlockingQueue<Chunk> recycled = new ArrayBlockingQueue<Chunk>(QUEUE_DEPTH + 2);
+
+	private final Thread inflater;
+	private volatile IOException failure;
+	private volatile boolean closed = false;
+
+	private Chunk current = null;
+	private int pos = 0;
+	private boolean eof = false;
+
+
+	// --------------------------- CONSTRUCTORS ---------------------------
+
+	public PipelinedGZIPInputStream(final InputStream compressed)
+		{
+		inflater = new Thread(new Runnable()
+		{
+		public void run()
+			{
+			inflate(compressed);
+			}
+		}, "gzip-inflater");
+		inflater.setDaemon(true);
+		inflater.start();
+		}
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	private void inflate(InputStream compressed)
+		{
+		try
+			{
+			InputStream gz = new GZIPInputStream(compressed, CHUNK_SIZE);
+			while (!closed)
+				{
+				Chunk chunk = recycled.poll();
+				if (chunk == null)
+					{
+					chunk = new Chunk(CHUNK_SIZE);
+					}
+
+				// fill the chunk completely, to minimize handoffs between the threads
+				int length = 0;
+				int n;
+				while (length < CHUNK_SIZE && (n = gz.read(chunk.data, length, CHUNK_SIZE - length)) >= 0)
+					{
+					length += n;
+					}
+				if (length == 0)
+					{
+					break;
+					}
+				chunk.length = length;
+				filled.put(chunk);
+				}
+			}
+		catch (IOException e)
+			{
+			failure = e;
+			}
+		catch (InterruptedException e)
+			{
+			// closed by the reader; just stop
+			return;
+			}
+		finally
+			{
+			try
+				{
+				compressed.close();
+				}
+			catch (IOException e)
+				{
+				logger.warn("Could not close compressed stream", e);
+				}
+			}
+
+		try
+			{
+			filled.put(END);
+			}
+		catch (InterruptedException e)
+			{
+			// closed by the reader; nobody is waiting for the end marker
+			}
+		}
+
+	private boolean ensureRemaining() throws IOException
+		{
+		while (current == null || pos == current.length)
+			{
+			if (eof)
+				{
+				return false;
+				}
+			if (current != null)
+				{
+				recycled.offer(current);
+				current = null;
+				}
+			Chunk next;
+			try
+				{
+				next = filled.take();
+				}
+			catch (InterruptedException e)
+				{
+				throw new InterruptedIOException("Interrupted while waiting for inflated data");
+				}
+			if (next == END)
+				{
+				eof = true;
+				if (failure != null)
+					{
+					throw failure;
+					}
+				return false;
+				}
+			current = next;
+			pos = 0;
+			}
+		return true;
+		}
+
+	@Override
+	public int read() throws IOException
+		{
+		return ensureRemaining() ? current.data[pos++] & 0xFF : -1;
+		}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+		{
+		if (len == 0)
+			{
+			return 0;
+			}
+		if (!ensureRemaining())
+			{
+			return -1;
+			}
+		int n = Math.min(len, current.length - pos);
+		System.arraycopy(current.data, pos, b, off, n);
+		pos += n;
+		return n;
+		}
+
+	@Override
+	public void close() throws IOException
+		{
+		if (!closed)
+			{
+			closed = true;
+			inflater.interrupt();
+			}
+		}
+
+	// -------------------------- INNER CLASSES --------------------------
+
+	private static class Chunk
+		{
+		final byte[] data;
+		int length;
+
+		Chunk(int size)
+			{
+			data = new byte[size];
+			}
+		}
+	}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import java.util.Random;
+
+
+/**
+ * Writes random binary trees in Newick format, for the tests and benchmarks that need trees of any size without tree
+ * files.
+ * <p/>
+ * The leaves are numbered from 1 to the number of leaves; if internal nodes are labeled too, their numbers follow in
+ * preorder, so a tree with n leaves has the numbers 1 to 2n-1 with the root at n+1.  Each label is the given prefix
+ * followed by the number, so an empty prefix gives integer ids.  Branch lengths are uniform on [0, 0.1), written with
+ * five decimal places.  The output depends only on the arguments and on the state of the Random.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+public final class RandomNewick
+	{
+	// --------------------------- CONSTRUCTORS ---------------------------
+
+	private RandomNewick()
+		{
+		}
+
+	// -------------------------- STATIC METHODS --------------------------
+
+	public static String generate(int leaves, String prefix, boolean labelInternalNodes, Random random)
+		{
+		StringBuilder sb = new StringBuilder(leaves * (32 + 2 * prefix.length()));
+		appendSubtree(sb, leaves, prefix, labelInternalNodes, random, new int[]{1, leaves + 1});
+		sb.append(";\n");
+		return sb.toString();
+		}
+
+	/**
+	 * @param nextIds the next leaf number and the next internal number, both advanced as nodes are written
+	 */
+	private static void appendSubtree(StringBuilder sb, int leaves, String prefix, boolean labelInternalNodes,
+	                                  Random random, int[] nextIds)
+		{
+		if (leaves == 1)
+			{
+			sb.append(prefix).append(nextIds[0]++);
+			}
+		else
+			{
+			int id = nextIds[1]++;
+			int left = 1 + random.nextInt(leaves - 1);
+			sb.append('(');
+			appendSubtree(sb, left, prefix, labelInternalNodes, random, nextIds);
+			sb.append(',');
+			appendSubtree(sb, leaves - left, prefix, labelInternalNodes, random, nextIds);
+			sb.append(')');
+			if (labelInternalNodes)
+				{
+				sb.append(prefix).append(id);
+				}
+			}
+
+		// five decimal places, without the cost of String.format on millions of nodes
+		int length = random.nextInt(10000);
+		sb.append(":0.");
+		for (int scale = 10000; scale > 1 && length < scale; scale /= 10)
+			{
+			sb.append('0');
+			}
+		sb.append(length);
+		}
+	}
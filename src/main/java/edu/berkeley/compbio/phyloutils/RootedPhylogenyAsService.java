@@ -15,9 +15,11 @@ import com.davidsoergel.trees.PhylogenyNode;
 import com.davidsoergel.trees.RootedPhylogeny;
 import com.davidsoergel.trees.TreeException;
 import org.apache.commons.lang.NotImplementedException;
+import org.apache.log4j.Logger;
 
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -29,7 +31,13 @@ import java.util.Set;
  */
 public class RootedPhylogenyAsService<T extends Serializable> implements TaxonomyService<T>
 	{
-	protected RootedPhylogeny<T> basePhylogeny;
+	private static final Logger logger = Logger.getLogger(RootedPhylogenyAsService.class);
+
+	// the object tree; null while only the compact tree is held, in which case it is rebuilt on first use
+	private volatile RootedPhylogeny<T> basePhylogeny;
+
+	// a frozen copy of basePhylogeny for the read paths, built on first use
+	private volatile CompactRootedPhylogeny<T> compactPhylogeny;
 
 	public RootedPhylogenyAsService(final RootedPhylogeny<T> basePhylogeny)
 		{
@@ -40,42 +48,150 @@ public class RootedPhylogenyAsService<T extends Serializable> implements Taxonom
 		{
 		}
 
+	/**
+	 * Provides an array-backed snapshot of the base phylogeny, on which the read-only queries (isDescendant, distances,
+	 * depths, subtree spans, ancestor paths) are answered.  Built on first use, and discarded along with everything
+	 * derived from it whenever the base phylogeny is replaced or may have been changed; see basePhylogenyChanged().
+	 */
+	public CompactRootedPhylogeny<T> getCompactPhylogeny()
+		{
+		CompactRootedPhylogeny<T> result = compactPhylogeny;
+		if (result == null)
+			{
+			synchronized (this)
+				{
+				result = compactPhylogeny;
+				if (result == null)
+					{
+					try
+						{
+						result = newCompactPhylogeny(basePhylogeny);
+						}
+					catch (PhyloUtilsException e)
+						{
+						logger.error("Error", e);
+						throw new PhyloUtilsRuntimeException(e);
+						}
+					result.getCommonAncestorIndex();
+					result.getSubtreeSpans();
+					compactPhylogeny = result;
+					}
+				}
+			}
+		return result;
+		}
+
+	protected CompactRootedPhylogeny<T> newCompactPhylogeny(RootedPhylogeny<T> basePhylogeny)
+			throws PhyloUtilsException
+		{
+		return new GenericCompactRootedPhylogeny<T>(basePhylogeny);
+		}
+
+	/**
+	 * Provides the object tree, for the queries that the compact phylogeny can't answer.  If only the compact phylogeny
+	 * is held (see setCompactPhylogeny()), the object tree is rebuilt from it on first use and kept from then on.
+	 */
+	protected RootedPhylogeny<T> getBasePhylogeny()
+		{
+		RootedPhylogeny<T> result = basePhylogeny;
+		if (result == null)
+			{
+			synchronized (this)
+				{
+				result = basePhylogeny;
+				if (result == null)
+					{
+					result = newBasePhylogeny(compactPhylogeny);
+					basePhylogeny = result;
+					}
+				}
+			}
+		return result;
+		}
+
+	/**
+	 * Rebuild the object tree from a compact phylogeny.  Subclasses that hold only the compact phylogeny must override
+	 * this.
+	 */
+	protected RootedPhylogeny<T> newBasePhylogeny(CompactRootedPhylogeny<T> compactPhylogeny)
+		{
+		throw new NotImplementedException("Can't rebuild the object tree from " + compactPhylogeny);
+		}
+
+	/**
+	 * Discard the compact snapshot of the base phylogeny, so that it is rebuilt on next use.  Anyone who changes the
+	 * topology or branch lengths of the base phylogeny (e.g. through getTree(), or through the tree given to the
+	 * constructor) must call this afterwards.
+	 */
+	public synchronized void basePhylogenyChanged()
+		{
+		// if the object tree was never built, nobody can have changed it
+		if (basePhylogeny != null)
+			{
+			compactPhylogeny = null;
+			}
+		}
+
+	/**
+	 * Replace the base phylogeny, discarding the compact snapshot of the old one.
+	 */
+	protected synchronized void setBasePhylogeny(RootedPhylogeny<T> basePhylogeny)
+		{
+		this.basePhylogeny = basePhylogeny;
+		compactPhylogeny = null;
+		}
+
+	/**
+	 * Replace the base phylogeny with a compact phylogeny alone, e.g. one read from a BinarySnapshot or one built from a
+	 * freshly parsed tree.  The object tree is not kept; it is rebuilt by newBasePhylogeny() if anyone asks for it.
+	 */
+	protected synchronized void setCompactPhylogeny(CompactRootedPhylogeny<T> compactPhylogeny)
+		{
+		compactPhylogeny.getCommonAncestorIndex();
+		compactPhylogeny.getSubtreeSpans();
+		this.basePhylogeny = null;
+		this.compactPhylogeny = compactPhylogeny;
+		}
+
 	public Set<T> getLeafIds()
 		{
-		return basePhylogeny.getLeafValues();
+		CompactRootedPhylogeny<T> compact = getCompactPhylogeny();
+		Set<T> result = new HashSet<T>();
+		for (int i = 0; i < compact.size(); i++)
+			{
+			if (compact.isLeafIndex(i))
+				{
+				result.add(compact.getPayload(i));
+				}
+			}
+		return result;
 		}
 
 
 	public double exactDistanceBetween(T a, T b) throws NoSuchNodeException
 		{
-		return basePhylogeny.distanceBetween(a, b);
+		return getCompactPhylogeny().distanceBetween(a, b);
 		}
 
 
 	public double exactDistanceBetween(PhylogenyNode<T> a, PhylogenyNode<T> b) throws NoSuchNodeException
 		{
-		return basePhylogeny.distanceBetween(a, b);
+		return getBasePhylogeny().distanceBetween(a, b);
 		}
 
 	public double getGreatestDepthBelow(T a) throws NoSuchNodeException
 		{
-		return basePhylogeny.getNode(a).getGreatestBranchLengthDepthBelow();
+		return getCompactPhylogeny().getGreatestDepthBelow(a);
 		}
 
 	public double getLargestLengthSpan(T a) throws NoSuchNodeException
 		{
-		return basePhylogeny.getNode(a).getLargestLengthSpan();
+		return getCompactPhylogeny().getLargestLengthSpan(a);
 		}
 
-	private Double maxDistance = null;
-
 	public double maxDistance()
 		{
-		if (maxDistance == null)
-			{
-			maxDistance = 2.0 * getRoot().getGreatestBranchLengthDepthBelow();
-			}
-		return maxDistance;
+		return getCompactPhylogeny().maxDistance();
 		}
 
 	public void printDepthsBelow()
@@ -84,35 +200,34 @@ public class RootedPhylogenyAsService<T extends Serializable> implements Taxonom
 /*
 	public RootedPhylogeny<String> extractTreeWithLeafIDs(Collection<String> ids) throws NoSuchNodeException
 		{
-		return basePhylogeny.extractTreeWithLeafIDs(ids);
+		return getBasePhylogeny().extractTreeWithLeafIDs(ids);
 		}*/
 
+	/**
+	 * @return the base phylogeny itself, not a copy; see getTree()
+	 */
 	public PhylogenyNode<T> getRoot()
 		{
-		return basePhylogeny;
+		return getBasePhylogeny();
 		}
 
 	public boolean isLeaf(T leafId) throws NoSuchNodeException
 		{
-		return basePhylogeny.getNode(leafId).isLeaf();
+		return getCompactPhylogeny().isLeaf(leafId);
 		}
 
-	public synchronized boolean isKnown(T leafId) //throws NoSuchNodeException
+	public boolean isKnown(T leafId) //throws NoSuchNodeException
 	{
-	try
-		{
-		basePhylogeny.getNode(leafId);
-		return true;
-		}
-	catch (NoSuchNodeException e)
-		{
-		return false;
-		}
+	return getCompactPhylogeny().isKnown(leafId);
 	}
 
+	/**
+	 * @return the base phylogeny itself, not a copy.  A caller that changes it must call basePhylogenyChanged()
+	 *         afterwards, or the queries answered on the compact phylogeny will go on seeing the old tree.
+	 */
 	public RootedPhylogeny<T> getTree()
 		{
-		return basePhylogeny;
+		return getBasePhylogeny();
 		}
 
 	public BasicRootedPhylogeny<T> getRandomSubtree(int numTaxa, Double mergeThreshold)
@@ -133,12 +248,12 @@ public class RootedPhylogenyAsService<T extends Serializable> implements Taxonom
 		Set<T> mergedIds;
 		if (mergeThreshold != null)
 			{
-			Map<T, Set<T>> mergeIdSets = TaxonMerger.merge(basePhylogeny.getLeafValues(), this, mergeThreshold);
+			Map<T, Set<T>> mergeIdSets = TaxonMerger.merge(getBasePhylogeny().getLeafValues(), this, mergeThreshold);
 			mergedIds = mergeIdSets.keySet();
 			}
 		else
 			{
-			mergedIds = basePhylogeny.getLeafValues();
+			mergedIds = getBasePhylogeny().getLeafValues();
 			}
 
 		if (exceptDescendantsOf != null)
@@ -154,24 +269,24 @@ public class RootedPhylogenyAsService<T extends Serializable> implements Taxonom
 			}
 
 		DSCollectionUtils.retainRandom(mergedIds, numTaxa);
-		return basePhylogeny.extractTreeWithLeafIDs(mergedIds, false, true);
+		return getBasePhylogeny().extractTreeWithLeafIDs(mergedIds, false, true);
 		}
 
 
 	public boolean isDescendant(T ancestor, T descendant) throws NoSuchNodeException
 		{
-		return basePhylogeny.isDescendant(ancestor, descendant);
+		return getCompactPhylogeny().isDescendant(ancestor, descendant);
 		}
 
 	public Set<T> selectAncestors(final Collection<T> labels, final T id)
 		{
-		return basePhylogeny.selectAncestors(labels, id);
+		return getCompactPhylogeny().selectAncestors(labels, id);
 		}
 
 	/*
 	 public void saveState()
 		 {
-		 basePhylogeny.saveState();
+		 getBasePhylogeny().saveState();
 		 }
  */
 	public double minDistanceBetween(T name1, T name2) throws NoSuchNodeException //throws PhyloUtilsException
@@ -181,43 +296,43 @@ public class RootedPhylogenyAsService<T extends Serializable> implements Taxonom
 
 	public double getDepthFromRoot(T b) throws NoSuchNodeException
 		{
-		return exactDistanceBetween(getRoot().getPayload(), b);
+		return getCompactPhylogeny().getDepthFromRoot(b);
 		//return stringTaxonomyService.minDistanceBetween(intToNodeMap.get(a), intToNodeMap.get(b));
 		//	return exactDistanceBetween(name1, name2);
 		}
 
 	public T nearestAncestorWithBranchLength(T id) throws NoSuchNodeException
 		{
-		return basePhylogeny.nearestAncestorWithBranchLength(id);
+		return getBasePhylogeny().nearestAncestorWithBranchLength(id);
 		}
 
 
 	public List<T> getAncestorPathIds(final T id) throws NoSuchNodeException
 		{
-		return basePhylogeny.getAncestorPathIds(id);
+		return getCompactPhylogeny().getAncestorPathIds(id);
 		}
 
 	/*	public List<PhylogenyNode<String>> getAncestorPath(final String id) throws NoSuchNodeException
 		 {
-		 return basePhylogeny.getAncestorPath(id);
+		 return getBasePhylogeny().getAncestorPath(id);
 		 }
  */
 	public List<BasicPhylogenyNode<T>> getAncestorPathAsBasic(final T id) throws NoSuchNodeException
 		{
-		return basePhylogeny.getAncestorPathAsBasic(id);
+		return getBasePhylogeny().getAncestorPathAsBasic(id);
 		}
 
 /*	public RootedPhylogeny<String> extractTreeWithLeaves(Collection<PhylogenyNode<String>> ids)
 			throws PhyloUtilsException
 		{
-		return basePhylogeny.extractTreeWithLeaves(ids);
+		return getBasePhylogeny().extractTreeWithLeaves(ids);
 		}*/
 
 	public BasicRootedPhylogeny<T> extractTreeWithLeafIDs(Set<T> ids, boolean ignoreAbsentNodes,
 	                                                      boolean includeInternalBranches)
 			throws NoSuchNodeException  //, NodeNamer<String> namer
 	{
-	return basePhylogeny.extractTreeWithLeafIDs(ids, ignoreAbsentNodes, includeInternalBranches); //, namer);
+	return getBasePhylogeny().extractTreeWithLeafIDs(ids, ignoreAbsentNodes, includeInternalBranches); //, namer);
 	}
 
 	public BasicRootedPhylogeny<T> extractTreeWithLeafIDs(Set<T> ids, boolean ignoreAbsentNodes,
@@ -225,12 +340,21 @@ public class RootedPhylogenyAsService<T extends Serializable> implements Taxonom
 	                                                      AbstractRootedPhylogeny.MutualExclusionResolutionMode mode)
 			throws NoSuchNodeException  //, NodeNamer<String> namer
 	{
-	return basePhylogeny.extractTreeWithLeafIDs(ids, ignoreAbsentNodes, includeInternalBranches, mode); //, namer);
+	return getBasePhylogeny().extractTreeWithLeafIDs(ids, ignoreAbsentNodes, includeInternalBranches, mode); //, namer);
 	}
 
+	/**
+	 * Extract the subtree spanning the given ids as a view over the compact phylogeny, without copying any nodes.
+	 */
+	public CompactSubtreeView<T> extractViewWithLeafIDs(Set<T> ids, boolean ignoreAbsentNodes,
+	                                                    boolean includeInternalBranches) throws NoSuchNodeException
+		{
+		return CompactSubtreeView.extract(getCompactPhylogeny(), ids, ignoreAbsentNodes, includeInternalBranches);
+		}
+
 	public boolean isDescendant(PhylogenyNode<T> ancestor, PhylogenyNode<T> descendant) throws PhyloUtilsException
 		{
-		return basePhylogeny.isDescendant(ancestor, descendant);
+		return getBasePhylogeny().isDescendant(ancestor, descendant);
 		}
 
 	public Double minDistanceBetween(PhylogenyNode<T> node1, PhylogenyNode<T> node2)
@@ -304,7 +428,7 @@ public class RootedPhylogenyAsService<T extends Serializable> implements Taxonom
 	public T getLeafAtApproximateDistance(final T aId, final double minDesiredTreeDistance,
 	                                      final double maxDesiredTreeDistance) throws NoSuchNodeException
 		{
-		return basePhylogeny.getLeafAtApproximateDistance(aId, minDesiredTreeDistance, maxDesiredTreeDistance);
+		return getBasePhylogeny().getLeafAtApproximateDistance(aId, minDesiredTreeDistance, maxDesiredTreeDistance);
 		}
 
 	public Map<T, String> getFriendlyLabelMap()
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * The fork-join pool shared by the parallel computations in this library, so that they don't each start their own set
+ * of threads.  Its parallelism is the number of available processors, and its threads are daemons.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+public final class SharedForkJoinPool
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	private static final ForkJoinPool pool = new ForkJoinPool();
+
+
+	// --------------------------- CONSTRUCTORS ---------------------------
+
+	private SharedForkJoinPool()
+		{
+		}
+
+	// -------------------------- STATIC METHODS --------------------------
+
+	public static ForkJoinPool get()
+		{
+		return pool;
+		}
+	}
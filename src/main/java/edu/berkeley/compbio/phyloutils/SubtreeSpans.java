@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Holds, for every node of a CompactRootedPhylogeny, the greatest branch-length depth below it and the largest
+ * branch-length span within its subtree (i.e., the greatest distance between two of its nodes), as PhylogenyNode's
+ * getGreatestBranchLengthDepthBelow() and getLargestLengthSpan() would compute for each node separately.
+ * <p/>
+ * Both values are computed bottom-up in a single post-order pass: the span of a node is the larger of its children's
+ * spans and the sum of the two greatest depths reached through its children.  The tree is cut into disjoint subtrees of
+ * at most a grain's size each, which are computed in parallel; the remaining nodes above them are computed afterwards.
+ * <p/>
+ * Instances are immutable, as is the tree, so a tree whose branch lengths change must be rebuilt along with these.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+public final class SubtreeSpans
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	private final CompactRootedPhylogeny<?> tree;
+	private final double[] depthBelow;
+	private final double[] span;
+
+
+	// --------------------------- CONSTRUCTORS ---------------------------
+
+	public SubtreeSpans(CompactRootedPhylogeny<?> tree)
+		{
+		this.tree = tree;
+		int n = tree.size();
+		depthBelow = new double[n];
+		span = new double[n];
+
+		int grain = Math.max(64, n / (8 * SharedForkJoinPool.get().getParallelism()));
+
+		// the largest subtrees of at most grain nodes are independent of one another
+		int[] cuts = new int[16];
+		int numCuts = 0;
+		for (int i = 0; i < n; )
+			{
+			int end = tree.getSubtreeEndIndex(i);
+			if (end - i < grain)
+				{
+				if (numCuts == cuts.length)
+					{
+					cuts = Arrays.copyOf(cuts, 2 * numCuts);
+					}
+				cuts[numCuts++] = i;
+				i = end + 1;
+				}
+			else
+				{
+				i++;
+				}
+			}
+		if (numCuts > 0)
+			{
+			int cutGrain = Math.max(1, numCuts / (8 * SharedForkJoinPool.get().getParallelism()));
+			SharedForkJoinPool.get().invoke(new SpanTask(0, numCuts, cutGrain, cuts));
+			}
+
+		// children have larger indexes than their parents, so this finishes each node after all of its descendants
+		for (int i = n - 1; i >= 0; i--)
+			{
+			if (tree.getSubtreeEndIndex(i) - i >= grain)
+				{
+				computeNode(i);
+				}
+			}
+		}
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	private void computeSubtree(int root)
+		{
+		for (int i = tree.getSubtreeEndIndex(root); i >= root; i--)
+			{
+			computeNode(i);
+			}
+		}
+
+	private void computeNode(int i)
+		{
+		double greatest = 0;
+		double second = 0;
+		double largestSpan = 0;
+		for (int c = tree.getFirstChildIndex(i); c != CompactRootedPhylogeny.NO_NODE; c = tree.getNextSiblingIndex(c))
+			{
+			double depth = tree.getLength(c) + depthBelow[c];
+			if (depth > greatest)
+				{
+				second = greatest;
+				greatest = depth;
+				}
+			else if (depth > second)
+				{
+				second = depth;
+				}
+			if (span[c] > largestSpan)
+				{
+				largestSpan = span[c];
+				}
+			}
+		depthBelow[i] = greatest;
+		span[i] = Math.max(largestSpan, greatest + second);
+		}
+
+	/**
+	 * @return the greatest distance from the given node down to any of its descendants
+	 */
+	public double getGreatestDepthBelow(int node)
+		{
+		return depthBelow[node];
+		}
+
+	/**
+	 * @return the greatest distance between any two nodes in the subtree rooted at the given node
+	 */
+	public double getLargestLengthSpan(int node)
+		{
+		return span[node];
+		}
+
+	// -------------------------- INNER CLASSES --------------------------
+
+	private class SpanTask extends RecursiveAction
+		{
+		private final int from;
+		private final int to;
+		private final int grain;
+		private final int[] roots;
+
+		SpanTask(int from, int to, int grain, int[] roots)
+			{
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+			this.roots = roots;
+			}
+
+		@Override
+		protected void compute()
+			{
+			if (to - from <= grain)
+				{
+				for (int k = from; k < to; k++)
+					{
+					computeSubtree(roots[k]);
+					}
+				}
+			else
+				{
+				int mid = (from + to) >>> 1;
+				invokeAll(new SpanTask(from, mid, grain, roots), new SpanTask(mid, to, grain, roots));
+				}
+			}
+		}
+	}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Finds and collects the subtrees that TaxonMerger merges, using the tree's memoized SubtreeSpans rather than
+ * recomputing the span of each subtree from scratch at each node.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+class TaxonMergeEngine<T extends Serializable>
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	private final CompactRootedPhylogeny<T> tree;
+	private final SubtreeSpans spans;
+
+
+	// --------------------------- CONSTRUCTORS ---------------------------
+
+	TaxonMergeEngine(CompactRootedPhylogeny<T> tree)
+		{
+		this.tree = tree;
+		spans = tree.getSubtreeSpans();
+		}
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	public double getLargestLengthSpan(int node)
+		{
+		return spans.getLargestLengthSpan(node);
+		}
+
+	/**
+	 * @return the nodes, in preorder, whose spans are at most the threshold but whose ancestors' spans are not; i.e.,
+	 *         the roots of the largest subtrees that may be merged
+	 */
+	public int[] selectMergeRoots(double branchSpanMergeThreshold)
+		{
+		int[] result = new int[16];
+		int count = 0;
+		int n = tree.size();
+		for (int i = 0; i < n; )
+			{
+			if (spans.getLargestLengthSpan(i) <= branchSpanMergeThreshold)
+				{
+				if (count == result.length)
+					{
+					result = Arrays.copyOf(result, 2 * count);
+					}
+				result[count++] = i;
+				i = tree.getSubtreeEndIndex(i) + 1;
+				}
+			else
+				{
+				i++;
+				}
+			}
+		return Arrays.copyOf(result, count);
+		}
+
+	/**
+	 * Collect, in parallel, the payloads of the subtree below each of the given roots, together with the taxa already
+	 * grouped at any of those nodes.  The given map is only read.
+	 *
+	 * @return the collected taxa, in the order of the roots
+	 */
+	public List<Set<T>> collectSubtrees(int[] roots, Map<T, Set<T>> taxonsetsById)
+		{
+		// each task sets only its own range of slots, so the list is never resized concurrently
+		List<Set<T>> result = new ArrayList<Set<T>>(Collections.<Set<T>>nCopies(roots.length, null));
+		if (roots.length > 0)
+			{
+			int grain = Math.max(1, roots.length / (8 * SharedForkJoinPool.get().getParallelism()));
+			SharedForkJoinPool.get().invoke(new CollectTask(0, roots.length, grain, roots, taxonsetsById, result));
+			}
+		return result;
+		}
+
+	private Set<T> collectSubtree(int root, Map<T, Set<T>> taxonsetsById)
+		{
+		int end = tree.getSubtreeEndIndex(root);
+		Set<T> result = new HashSet<T>(2 * (end - root + 1));
+		for (int i = root; i <= end; i++)
+			{
+			// we'll include intermediate nodes even if they aren't part of the query (i.e., not leaves)
+			T id = tree.getPayload(i);
+			result.add(id);
+			Set<T> subIds = taxonsetsById.get(id);
+			if (subIds != null)
+				{
+				result.addAll(subIds);
+				}
+			}
+		return result;
+		}
+
+	// -------------------------- INNER CLASSES --------------------------
+
+	private class CollectTask extends RecursiveAction
+		{
+		private final int from;
+		private final int to;
+		private final int grain;
+		private final int[] roots;
+		private final Map<T, Set<T>> taxonsetsById;
+		private final List<Set<T>> result;
+
+		CollectTask(int from, int to, int grain, int[] roots, Map<T, Set<T>> taxonsetsById, List<Set<T>> result)
+			{
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+			this.roots = roots;
+			this.taxonsetsById = taxonsetsById;
+			this.result = result;
+			}
+
+		@Override
+		protected void compute()
+			{
+			if (to - from <= grain)
+				{
+				for (int k = from; k < to; k++)
+					{
+					result.set(k, collectSubtree(roots[k], taxonsetsById));
+					}
+				}
+			else
+				{
+				int mid = (from + to) >>> 1;
+				invokeAll(new CollectTask(from, mid, grain, roots, taxonsetsById, result),
+				          new CollectTask(mid, to, grain, roots, taxonsetsById, result));
+				}
+			}
+		}
+	}
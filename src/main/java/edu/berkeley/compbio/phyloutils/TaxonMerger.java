@@ -9,7 +9,6 @@ package edu.berkeley.compbio.phyloutils;
 import com.davidsoergel.dsutils.collections.DSCollectionUtils;
 import com.davidsoergel.trees.AbstractRootedPhylogeny;
 import com.davidsoergel.trees.BasicRootedPhylogeny;
-import com.davidsoergel.trees.DepthFirstTreeIterator;
 import com.davidsoergel.trees.NoSuchNodeException;
 import com.davidsoergel.trees.PhylogenyNode;
 import com.davidsoergel.trees.TreeException;
@@ -128,47 +127,41 @@ public class TaxonMerger
 		assert thePrunedTree.getNodeValues().containsAll(theTaxonsetsByTaxid.keySet());
 
 
-		// now iterate over the tree, merging subtrees that meet the criterion
+		// now iterate over the tree, merging subtrees that meet the criterion.  The spans of all nodes are computed in
+		// one bottom-up pass, rather than from scratch at each node, and the merged subtrees are collected in parallel.
 
-
-		DepthFirstTreeIterator<T, PhylogenyNode<T>> it = thePrunedTree.depthFirstIterator();
+		CompactRootedPhylogeny<T> theCompactTree = new GenericCompactRootedPhylogeny<T>(thePrunedTree);
+		TaxonMergeEngine<T> engine = new TaxonMergeEngine<T>(theCompactTree);
+		int[] mergeRoots = engine.selectMergeRoots(branchSpanMergeThreshold);
+		List<Set<T>> mergeTaxaByRoot = engine.collectSubtrees(mergeRoots, theTaxonsetsByTaxid);
 
 		// for sanity checking only
 		List<T> allMergedTaxa = new ArrayList<T>();
 
 		int dropped = 0;
 
-		while (it.hasNext())
+		// visit the nodes in the order of the depth-first traversal, skipping the descendants of each merged subtree
+		int nextRoot = 0;
+		for (int i = 0; i < theCompactTree.size(); )
 			{
-			PhylogenyNode<T> node = it.next();
-
-			double span = node.getLargestLengthSpan();
-			if (span <= branchSpanMergeThreshold)
+			if (nextRoot < mergeRoots.length && mergeRoots[nextRoot] == i)
 				{
-				Set<T> mergeTaxa = new HashSet<T>();
-				for (PhylogenyNode<T> descendant : node)
+				Set<T> mergeTaxa = mergeTaxaByRoot.get(nextRoot);
+				int end = theCompactTree.getSubtreeEndIndex(i);
+				for (int j = i; j <= end; j++)
 					{
-					// we'll include intermediate nodes even if they aren't part of the query (i.e., not leaves)
-					T id = descendant.getPayload();
-					mergeTaxa.add(id);
-
-					Set<T> subIds = theTaxonsetsByTaxid.remove(id);
-					if (subIds != null)
-						{
-						mergeTaxa.addAll(subIds);
-						}
+					theTaxonsetsByTaxid.remove(theCompactTree.getPayload(j));
 					}
 
-				// we also need to advance the main iterator, so once we've merged this node,
-				// we'll move on to the next sibling (or uncle, etc.)
-				it.skipAllDescendants(node);
-
-				theMergedTaxa.put(node.getPayload(), mergeTaxa);
+				theMergedTaxa.put(theCompactTree.getPayload(i), mergeTaxa);
 				allMergedTaxa.addAll(mergeTaxa);
+				nextRoot++;
+				i = end + 1;
 				}
 			else
 				{
-				T id = node.getPayload();
+				double span = engine.getLargestLengthSpan(i);
+				T id = theCompactTree.getPayload(i);
 				Set<T> subIds = theTaxonsetsByTaxid.remove(id);
 				if (subIds != null)
 					{
@@ -184,6 +177,7 @@ public class TaxonMerger
 					logger.warn("Dropping " + subIds.size() + " taxa at node " + id + " with span " + span + " > "
 					            + branchSpanMergeThreshold + " (i.e., our base tree is not detailed enough)");
 					}
+				i++;
 				}
 			}
 
@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import com.davidsoergel.trees.NoSuchNodeException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * The implementations of the BatchTaxonomyService queries, against a given compact tree (which the caller reads once, so
+ * that the whole batch sees the same version) or name lookup.  Batches larger than PARALLEL_THRESHOLD are split across
+ * the shared fork-join pool.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+public final class TaxonomyBatchQueries
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	/**
+	 * Smaller batches are answered on the calling thread, since they take less time than handing them to the pool.
+	 */
+	public static final int PARALLEL_THRESHOLD = 4096;
+
+
+	// --------------------------- CONSTRUCTORS ---------------------------
+
+	private TaxonomyBatchQueries()
+		{
+		}
+
+	// -------------------------- STATIC METHODS --------------------------
+
+	public static void isKnown(final IntegerCompactRootedPhylogeny tree, final int[] ids, final boolean[] out)
+		{
+		checkLength(ids.length, out.length);
+		run(ids.length, new Range()
+		{
+		void run(int from, int to)
+			{
+			for (int i = from; i < to; i++)
+				{
+				out[i] = tree.isKnown(ids[i]);
+				}
+			}
+		});
+		}
+
+	public static void isDescendant(final IntegerCompactRootedPhylogeny tree, int ancestor, final int[] candidates,
+	                                final boolean[] out) throws NoSuchNodeException
+		{
+		checkLength(candidates.length, out.length);
+		final int ancestorNode = tree.indexOf(ancestor);
+		run(candidates.length, new Range()
+		{
+		void run(int from, int to)
+			{
+			for (int i = from; i < to; i++)
+				{
+				int node = tree.indexOfOrNone(candidates[i]);
+				out[i] = node != CompactRootedPhylogeny.NO_NODE && tree.isDescendantIndex(ancestorNode, node);
+				}
+			}
+		});
+		}
+
+	public static void minDistanceBetween(final IntegerCompactRootedPhylogeny tree, final int[] a, final int[] b,
+	                                      final double[] out)
+		{
+		if (a.length != b.length)
+			{
+			throw new PhyloUtilsRuntimeException("Distance batch has " + a.length + " ids on one side, " + b.length
+			                                     + " on the other");
+			}
+		checkLength(a.length, out.length);
+		final CommonAncestorIndex ancestors = tree.getCommonAncestorIndex();
+		run(a.length, new Range()
+		{
+		void run(int from, int to)
+			{
+			for (int i = from; i < to; i++)
+				{
+				int nodeA = tree.indexOfOrNone(a[i]);
+				int nodeB = tree.indexOfOrNone(b[i]);
+				out[i] = nodeA == CompactRootedPhylogeny.NO_NODE || nodeB == CompactRootedPhylogeny.NO_NODE
+				         ? Double.NaN : ancestors.distanceBetween(nodeA, nodeB);
+				}
+			}
+		});
+		}
+
+	public static void getDepthFromRoot(final IntegerCompactRootedPhylogeny tree, final int[] ids, final double[] out)
+		{
+		checkLength(ids.length, out.length);
+		final CommonAncestorIndex ancestors = tree.getCommonAncestorIndex();
+		run(ids.length, new Range()
+		{
+		void run(int from, int to)
+			{
+			for (int i = from; i < to; i++)
+				{
+				int node = tree.indexOfOrNone(ids[i]);
+				out[i] = node == CompactRootedPhylogeny.NO_NODE ? Double.NaN : ancestors.getDepth(node);
+				}
+			}
+		});
+		}
+
+	/**
+	 * Resolve names through the given mapper, which must be safe to call from several threads at once.
+	 */
+	public static void findTaxidsByName(final TaxonStringIdMapper<Integer> mapper, final boolean relaxed,
+	                                    final List<String> names, final int[] out)
+		{
+		checkLength(names.size(), out.length);
+		run(names.size(), new Range()
+		{
+		void run(int from, int to)
+			{
+			for (int i = from; i < to; i++)
+				{
+				try
+					{
+					String name = names.get(i);
+					out[i] = relaxed ? mapper.findTaxidByNameRelaxed(name) : mapper.findTaxidByName(name);
+					}
+				catch (NoSuchNodeException e)
+					{
+					out[i] = BatchTaxonomyService.NOT_FOUND;
+					}
+				}
+			}
+		});
+		}
+
+	/**
+	 * Resolve names exactly against the given map, which must not be modified meanwhile.
+	 */
+	public static void findTaxidsByName(final Map<String, Integer> nameToId, final List<String> names,
+	                                    final int[] out)
+		{
+		checkLength(names.size(), out.length);
+		run(names.size(), new Range()
+		{
+		void run(int from, int to)
+			{
+			for (int i = from; i < to; i++)
+				{
+				Integer id = nameToId.get(names.get(i));
+				out[i] = id == null ? BatchTaxonomyService.NOT_FOUND : id;
+				}
+			}
+		});
+		}
+
+	/**
+	 * Resolve names exactly against the given dictionary.
+	 */
+	public static void findTaxidsByName(final MappedNameDictionary dictionary, final List<String> names,
+	                                    final int[] out)
+		{
+		checkLength(names.size(), out.length);
+		run(names.size(), new Range()
+		{
+		void run(int from, int to)
+			{
+			for (int i = from; i < to; i++)
+				{
+				int id = dictionary.getUniqueId(names.get(i));
+				out[i] = id == MappedNameDictionary.NOT_FOUND ? BatchTaxonomyService.NOT_FOUND : id;
+				}
+			}
+		});
+		}
+
+	private static void checkLength(int inputLength, int outputLength)
+		{
+		if (outputLength < inputLength)
+			{
+			throw new PhyloUtilsRuntimeException(
+					"Output array of length " + outputLength + " can't hold " + inputLength + " results");
+			}
+		}
+
+	private static void run(int n, Range range)
+		{
+		if (n < PARALLEL_THRESHOLD)
+			{
+			range.run(0, n);
+			}
+		else
+			{
+			int grain = Math.max(PARALLEL_THRESHOLD / 4, n / (8 * SharedForkJoinPool.get().getParallelism()));
+			SharedForkJoinPool.get().invoke(new RangeTask(range, 0, n, grain));
+			}
+		}
+
+	// -------------------------- INNER CLASSES --------------------------
+
+	/**
+	 * Answers the queries in a range of a batch.
+	 */
+	private abstract static class Range
+		{
+		abstract void run(int from, int to);
+		}
+
+	private static class RangeTask extends RecursiveAction
+		{
+		private final Range range;
+		private final int from;
+		private final int to;
+		private final int grain;
+
+		RangeTask(Range range, int from, int to, int grain)
+			{
+			this.range = range;
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+			}
+
+		@Override
+		protected void compute()
+			{
+			if (to - from <= grain)
+				{
+				range.run(from, to);
+				}
+			else
+				{
+				int mid = (from + to) >>> 1;
+				invokeAll(new RangeTask(range, from, mid, grain), new RangeTask(range, mid, to, grain));
+				}
+			}
+		}
+	}
@@ -0,0 +1,418 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import java.util.Arrays;
+import java.util.Map;
+
+
+/**
+ * A trie over space-separated words, mapping names to integer values, that finds the longest prefix of a query (by
+ * whole words) that is a known name in a single pass over the query's characters, without allocating anything.  This
+ * replaces relaxing a name by repeatedly chopping off its last word and probing a map with each shorter string.
+ * <p/>
+ * Words are interned into a shared character pool, and the edges of the trie are kept in an open-addressed table keyed
+ * by (parent node, word), so the structure costs a few primitive arrays rather than an object per node.  Words are
+ * separated by single spaces exactly as name.lastIndexOf(" ") would find them, so two adjacent spaces delimit an empty
+ * word.
+ * <p/>
+ * The trie is filled by put() and may then be shared between threads for lookups, as long as it is not modified again.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+public class WordPrefixTrie
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	/**
+	 * Returned by get() for a name that is not in the trie; may not be used as a value.
+	 */
+	public static final int NOT_FOUND = Integer.MIN_VALUE;
+
+	private static final int ROOT = 0;
+	private static final int EMPTY = -1;
+
+	// the interned words: word w is wordChars[wordStart[w], wordStart[w + 1])
+	private char[] wordChars = new char[1024];
+	private int[] wordStart = new int[64];
+	private int words = 0;
+	// open-addressed word ids, or EMPTY
+	private int[] wordTable;
+
+	// the nodes, each the end of a sequence of words, with the value of the name ending there (or NOT_FOUND)
+	private int[] nodeValue = new int[64];
+	private int nodes = 1;
+	private int size = 0;
+
+	// open-addressed edges: (parent << 32 | word) -> child, where edgeChild is EMPTY for a free slot
+	private long[] edgeKey;
+	private int[] edgeChild;
+	private int edges = 0;
+
+
+	// --------------------------- CONSTRUCTORS ---------------------------
+
+	public WordPrefixTrie()
+		{
+		wordTable = newTable(64);
+		edgeKey = new long[64];
+		edgeChild = newTable(64);
+		nodeValue[ROOT] = NOT_FOUND;
+		}
+
+	public WordPrefixTrie(Map<String, Integer> nameToId)
+		{
+		this();
+		for (Map.Entry<String, Integer> entry : nameToId.entrySet())
+			{
+			put(entry.getKey(), entry.getValue());
+			}
+		}
+
+	// -------------------------- STATIC METHODS --------------------------
+
+	private static int[] newTable(int capacity)
+		{
+		int[] result = new int[capacity];
+		Arrays.fill(result, EMPTY);
+		return result;
+		}
+
+	private static int mix(long h)
+		{
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return (int) h;
+		}
+
+	private static int hashWord(CharSequence s, int from, int to)
+		{
+		int h = 0;
+		for (int i = from; i < to; i++)
+			{
+			h = 31 * h + s.charAt(i);
+			}
+		return mix(h);
+		}
+
+	private static int hashWord(char[] s, int from, int to)
+		{
+		int h = 0;
+		for (int i = from; i < to; i++)
+			{
+			h = 31 * h + s[i];
+			}
+		return mix(h);
+		}
+
+	private static int endOfWord(CharSequence s, int from, int length)
+		{
+		int i = from;
+		while (i < length && s.charAt(i) != ' ')
+			{
+			i++;
+			}
+		return i;
+		}
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	/**
+	 * @return the number of names in the trie
+	 */
+	public int size()
+		{
+		return size;
+		}
+
+	/**
+	 * Add a name, replacing any value it already had.
+	 */
+	public void put(String name, int value)
+		{
+		if (value == NOT_FOUND)
+			{
+			throw new PhyloUtilsRuntimeException("Can't store the NOT_FOUND value for " + name);
+			}
+		int node = ROOT;
+		int length = name.length();
+		int from = 0;
+		while (true)
+			{
+			int to = endOfWord(name, from, length);
+			int word = findWord(name, from, to);
+			if (word == EMPTY)
+				{
+				word = addWord(name, from, to);
+				}
+			int child = findChild(node, word);
+			if (child == EMPTY)
+				{
+				child = addChild(node, word);
+				}
+			node = child;
+			if (to == length)
+				{
+				break;
+				}
+			from = to + 1;
+			}
+		if (nodeValue[node] == NOT_FOUND)
+			{
+			size++;
+			}
+		nodeValue[node] = value;
+		}
+
+	/**
+	 * @return the value of the given name, or NOT_FOUND
+	 */
+	public int get(CharSequence name)
+		{
+		return get(name, name.length());
+		}
+
+	/**
+	 * @return the value of the first length characters of the given name, or NOT_FOUND
+	 */
+	public int get(CharSequence name, int length)
+		{
+		return get(name, 0, length);
+		}
+
+	/**
+	 * @return the value of the characters [from, to) of the given string, or NOT_FOUND
+	 */
+	public int get(CharSequence s, int from, int to)
+		{
+		int node = ROOT;
+		while (true)
+			{
+			int end = endOfWord(s, from, to);
+			node = step(node, s, from, end);
+			if (node == EMPTY)
+				{
+				return NOT_FOUND;
+				}
+			if (end == to)
+				{
+				return nodeValue[node];
+				}
+			from = end + 1;
+			}
+		}
+
+	/**
+	 * Find the longest prefix of the given name that ends at a word boundary (a space, or the end of the name) and is a
+	 * name in the trie.
+	 *
+	 * @return the length of that prefix, or -1 if there is none
+	 */
+	public int longestKnownPrefix(CharSequence name)
+		{
+		int result = -1;
+		int node = ROOT;
+		int length = name.length();
+		int from = 0;
+		while (true)
+			{
+			int to = endOfWord(name, from, length);
+			node = step(node, name, from, to);
+			if (node == EMPTY)
+				{
+				return result;
+				}
+			if (nodeValue[node] != NOT_FOUND)
+				{
+				result = to;
+				}
+			if (to == length)
+				{
+				return result;
+				}
+			from = to + 1;
+			}
+		}
+
+	/**
+	 * Find the longest prefix of the given name that ends at a word boundary and is a name in the trie, as
+	 * longestKnownPrefix() does, in the same pass.
+	 *
+	 * @return the value of that prefix, or NOT_FOUND if there is none
+	 */
+	public int getLongestKnownPrefix(CharSequence name)
+		{
+		int result = NOT_FOUND;
+		int node = ROOT;
+		int length = name.length();
+		int from = 0;
+		while (true)
+			{
+			int to = endOfWord(name, from, length);
+			node = step(node, name, from, to);
+			if (node == EMPTY)
+				{
+				return result;
+				}
+			if (nodeValue[node] != NOT_FOUND)
+				{
+				result = nodeValue[node];
+				}
+			if (to == length)
+				{
+				return result;
+				}
+			from = to + 1;
+			}
+		}
+
+	/**
+	 * @return the child of the given node along the word s[from, to), or EMPTY
+	 */
+	private int step(int node, CharSequence s, int from, int to)
+		{
+		int word = findWord(s, from, to);
+		return word == EMPTY ? EMPTY : findChild(node, word);
+		}
+
+	private int findWord(CharSequence s, int from, int to)
+		{
+		int mask = wordTable.length - 1;
+		int length = to - from;
+		for (int slot = hashWord(s, from, to) & mask; ; slot = (slot + 1) & mask)
+			{
+			int word = wordTable[slot];
+			if (word == EMPTY)
+				{
+				return EMPTY;
+				}
+			int start = wordStart[word];
+			if (wordStart[word + 1] - start == length && regionMatches(start, s, from, length))
+				{
+				return word;
+				}
+			}
+		}
+
+	private boolean regionMatches(int start, CharSequence s, int from, int length)
+		{
+		for (int i = 0; i < length; i++)
+			{
+			if (wordChars[start + i] != s.charAt(from + i))
+				{
+				return false;
+				}
+			}
+		return true;
+		}
+
+	private int addWord(CharSequence s, int from, int to)
+		{
+		if (3 * (words + 1) > 2 * wordTable.length)
+			{
+			int[] old = wordTable;
+			wordTable = newTable(old.length * 2);
+			for (int word : old)
+				{
+				if (word != EMPTY)
+					{
+					insertWord(word, hashWord(wordChars, wordStart[word], wordStart[word + 1]));
+					}
+				}
+			}
+
+		int start = wordStart[words];
+		int length = to - from;
+		if (start + length > wordChars.length)
+			{
+			wordChars = Arrays.copyOf(wordChars, Math.max(2 * wordChars.length, start + length));
+			}
+		for (int i = 0; i < length; i++)
+			{
+			wordChars[start + i] = s.charAt(from + i);
+			}
+		if (words + 2 > wordStart.length)
+			{
+			wordStart = Arrays.copyOf(wordStart, 2 * wordStart.length);
+			}
+		int word = words++;
+		wordStart[words] = start + length;
+		insertWord(word, hashWord(s, from, to));
+		return word;
+		}
+
+	private void insertWord(int word, int hash)
+		{
+		int mask = wordTable.length - 1;
+		int slot = hash & mask;
+		while (wordTable[slot] != EMPTY)
+			{
+			slot = (slot + 1) & mask;
+			}
+		wordTable[slot] = word;
+		}
+
+	private int findChild(int node, int word)
+		{
+		long key = ((long) node << 32) | word;
+		int mask = edgeChild.length - 1;
+		for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask)
+			{
+			int child = edgeChild[slot];
+			if (child == EMPTY)
+				{
+				return EMPTY;
+				}
+			if (edgeKey[slot] == key)
+				{
+				return child;
+				}
+			}
+		}
+
+	private int addChild(int node, int word)
+		{
+		if (3 * (edges + 1) > 2 * edgeChild.length)
+			{
+			long[] oldKey = edgeKey;
+			int[] oldChild = edgeChild;
+			edgeKey = new long[oldKey.length * 2];
+			edgeChild = newTable(oldChild.length * 2);
+			for (int i = 0; i < oldChild.length; i++)
+				{
+				if (oldChild[i] != EMPTY)
+					{
+					insertEdge(oldKey[i], oldChild[i]);
+					}
+				}
+			}
+
+		if (nodes == nodeValue.length)
+			{
+			nodeValue = Arrays.copyOf(nodeValue, 2 * nodeValue.length);
+			}
+		int child = nodes++;
+		nodeValue[child] = NOT_FOUND;
+		insertEdge(((long) node << 32) | word, child);
+		edges++;
+		return child;
+		}
+
+	private void insertEdge(long key, int child)
+		{
+		int mask = edgeChild.length - 1;
+		int slot = mix(key) & mask;
+		while (edgeChild[slot] != EMPTY)
+			{
+			slot = (slot + 1) & mask;
+			}
+		edgeKey[slot] = key;
+		edgeChild[slot] = child;
+		}
+	}
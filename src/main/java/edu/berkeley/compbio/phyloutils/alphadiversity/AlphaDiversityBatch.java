@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils.alphadiversity;
+
+import com.davidsoergel.dsutils.math.MathUtils;
+import com.davidsoergel.trees.NoSuchNodeException;
+import com.davidsoergel.trees.RootedPhylogeny;
+import edu.berkeley.compbio.phyloutils.CompactRootedPhylogeny;
+import edu.berkeley.compbio.phyloutils.GenericCompactRootedPhylogeny;
+import edu.berkeley.compbio.phyloutils.PhyloUtilsException;
+import edu.berkeley.compbio.phyloutils.PhyloUtilsRuntimeException;
+import edu.berkeley.compbio.phyloutils.SharedForkJoinPool;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Computes Shannon entropy, phylogenetic Shannon information, and Faith's PD for many samples at once, over a single
+ * base phylogeny, without extracting a weighted tree per sample.  The results are those of Shannon, PhylogeneticShannon
+ * and FaithPD applied to the tree extracted for each sample (spanning its leaves, rooted at their common ancestor, with
+ * chains of single-child nodes collapsed into single branches).
+ * <p/>
+ * The samples are processed in blocks, in parallel.  For each block, one reverse-preorder sweep over the tree carries,
+ * for each branch with something below it, a vector of per-sample accumulators up to its parent: the weight below, and
+ * the partial sums from which each node's conditional entropy and information are computed once all of its children
+ * are done.  As in UniFracMatrix, only the vectors of branches whose subtrees are partially processed are held at any
+ * time.
+ * <p/>
+ * Sample weights are normalized to sum to one.  A sample "leaf" may be any node in the tree.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+public class AlphaDiversityBatch<T extends Serializable>
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	// the number of samples that share a sweep over the tree
+	private static final int BLOCK_SIZE = 128;
+
+	// the accumulators in each per-node vector, each a run of one value per sample in the block:
+	// the weight below the node, and the weight of the node itself
+	private static final int WEIGHT = 0;
+	private static final int OWN_WEIGHT = 1;
+	// over the child branches with weight: their number, the sums of chain * w * ln(w), chain * w, and w * information,
+	// and the chain length and information of the last one
+	private static final int CHILDREN = 2;
+	private static final int CHAIN_W_LOG_W = 3;
+	private static final int CHAIN_W = 4;
+	private static final int W_INFORMATION = 5;
+	private static final int LAST_CHAIN = 6;
+	private static final int LAST_INFORMATION = 7;
+	private static final int ACCUMULATORS = 8;
+
+	private final CompactRootedPhylogeny<T> tree;
+
+
+	// --------------------------- CONSTRUCTORS ---------------------------
+
+	public AlphaDiversityBatch(CompactRootedPhylogeny<T> tree)
+		{
+		this.tree = tree;
+		}
+
+	public AlphaDiversityBatch(RootedPhylogeny<T> basePhylogeny)
+		{
+		this(new GenericCompactRootedPhylogeny<T>(basePhylogeny));
+		}
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	/**
+	 * Compute the measures for samples given as maps from node ids to abundances.
+	 *
+	 * @throws NoSuchNodeException if a sample refers to a node that is not in the tree
+	 */
+	public Result compute(List<? extends Map<T, Double>> samples) throws NoSuchNodeException
+		{
+		int[] sampleOffsets = new int[samples.size() + 1];
+		for (int s = 0; s < samples.size(); s++)
+			{
+			sampleOffsets[s + 1] = sampleOffsets[s] + samples.get(s).size();
+			}
+		int[] nodes = new int[sampleOffsets[samples.size()]];
+		double[] counts = new double[nodes.length];
+		int e = 0;
+		for (Map<T, Double> sample : samples)
+			{
+			for (Map.Entry<T, Double> entry : sample.entrySet())
+				{
+				nodes[e] = tree.indexOf(entry.getKey());
+				counts[e] = entry.getValue();
+				e++;
+				}
+			}
+		return computeAll(sampleOffsets, nodes, counts);
+		}
+
+	/**
+	 * Compute the measures for samples given as a sparse sample-by-node matrix: the entries of sample s are
+	 * nodes/counts[sampleOffsets[s], sampleOffsets[s + 1]), where the nodes are preorder indexes in the tree.
+	 *
+	 * @throws PhyloUtilsException if the offsets don't delimit runs of the entries, or a node is not a preorder index in
+	 *                             the tree
+	 */
+	public Result compute(int[] sampleOffsets, int[] nodes, double[] counts) throws PhyloUtilsException
+		{
+		if (sampleOffsets.length == 0 || sampleOffsets[0] != 0
+		    || sampleOffsets[sampleOffsets.length - 1] != nodes.length || counts.length != nodes.length)
+			{
+			throw new PhyloUtilsException(
+					"Sample offsets must run from 0 to the number of entries, and there must be a count for each node");
+			}
+		for (int s = 1; s < sampleOffsets.length; s++)
+			{
+			if (sampleOffsets[s] < sampleOffsets[s - 1])
+				{
+				throw new PhyloUtilsException("Sample offsets decrease at sample " + (s - 1));
+				}
+			}
+		int size = tree.size();
+		for (int e = 0; e < nodes.length; e++)
+			{
+			if (nodes[e] < 0 || nodes[e] >= size)
+				{
+				throw new PhyloUtilsException(
+						"Node " + nodes[e] + " of entry " + e + " is not a preorder index in a tree of " + size + " nodes");
+				}
+			}
+		return computeAll(sampleOffsets, nodes, counts);
+		}
+
+	private Result computeAll(int[] sampleOffsets, int[] nodes, double[] counts)
+		{
+		int numSamples = sampleOffsets.length - 1;
+		Result result = new Result(numSamples);
+		int numBlocks = (numSamples + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		if (numBlocks > 0)
+			{
+			SharedForkJoinPool.get().invoke(new BlockTask(0, numBlocks, sampleOffsets, nodes, counts, result));
+			}
+		return result;
+		}
+
+	/**
+	 * Sweep the tree once for the samples [from, to), which number at most BLOCK_SIZE.
+	 */
+	private void computeBlock(int from, int to, int[] sampleOffsets, int[] nodes, double[] counts, Result result)
+		{
+		int b = to - from;
+
+		// the normalized entries of the block, ordered by node
+		int numEntries = sampleOffsets[to] - sampleOffsets[from];
+		long[] order = new long[numEntries];
+		double[] weights = new double[numEntries];
+		int[] entrySample = new int[numEntries];
+		int x = 0;
+		for (int s = from; s < to; s++)
+			{
+			double total = 0;
+			for (int e = sampleOffsets[s]; e < sampleOffsets[s + 1]; e++)
+				{
+				total += counts[e];
+				}
+			if (!(total > 0))
+				{
+				throw new PhyloUtilsRuntimeException("Sample " + s + " has no weight");
+				}
+			for (int e = sampleOffsets[s]; e < sampleOffsets[s + 1]; e++)
+				{
+				order[x] = ((long) nodes[e] << 32) | x;
+				weights[x] = counts[e] / total;
+				entrySample[x] = s - from;
+				x++;
+				}
+			}
+		Arrays.sort(order);
+
+		double[] pdTotal = new double[b];
+		double[][] open = new double[tree.size()][];
+		Deque<double[]> spares = new ArrayDeque<double[]>();
+
+		// children have larger indexes than their parents, so this visits every subtree before its root
+		int next = numEntries - 1;
+		for (int i = tree.size() - 1; i >= 0; i--)
+			{
+			double[] v = open[i];
+			for (; next >= 0 && (int) (order[next] >>> 32) == i; next--)
+				{
+				int entry = (int) order[next];
+				if (v == null)
+					{
+					v = take(spares, b);
+					open[i] = v;
+					}
+				v[WEIGHT * b + entrySample[entry]] += weights[entry];
+				v[OWN_WEIGHT * b + entrySample[entry]] += weights[entry];
+				}
+			if (v == null)
+				{
+				// no sample in the block has anything below this branch
+				continue;
+				}
+			open[i] = null;
+
+			double length = i == 0 ? 0 : tree.getLength(i);
+			int p = tree.getParentIndex(i);
+			double[] parentVector = null;
+			if (p != CompactRootedPhylogeny.NO_NODE)
+				{
+				parentVector = open[p];
+				if (parentVector == null)
+					{
+					parentVector = take(spares, b);
+					open[p] = parentVector;
+					}
+				}
+
+			for (int s = 0; s < b; s++)
+				{
+				double w = v[WEIGHT * b + s];
+				if (w == 0)
+					{
+					continue;
+					}
+				double own = v[OWN_WEIGHT * b + s];
+				if (own > 0)
+					{
+					result.shannon[from + s] -= own * MathUtils.approximateLog(own) / MathUtils.LOGTWO;
+					}
+				pdTotal[s] += length;
+
+				// a node of the extracted tree is a sample leaf or a branch point; others lie within a collapsed chain
+				double chain;
+				double information;
+				if (own > 0 || v[CHILDREN * b + s] > 1)
+					{
+					double entropy =
+							-(v[CHAIN_W_LOG_W * b + s] - MathUtils.approximateLog(w) * v[CHAIN_W * b + s]) / w
+							/ MathUtils.LOGTWO;
+					information = 2 - entropy + v[W_INFORMATION * b + s];
+					chain = length;
+					if (p == CompactRootedPhylogeny.NO_NODE)
+						{
+						result.faithPD[from + s] = pdTotal[s];
+						}
+					}
+				else
+					{
+					information = v[LAST_INFORMATION * b + s];
+					chain = length + v[LAST_CHAIN * b + s];
+					if (p == CompactRootedPhylogeny.NO_NODE)
+						{
+						// the chain from the root down to the samples' common ancestor isn't part of the extracted tree
+						result.faithPD[from + s] = pdTotal[s] - chain;
+						}
+					}
+
+				if (p == CompactRootedPhylogeny.NO_NODE)
+					{
+					result.phylogeneticShannon[from + s] = information;
+					}
+				else
+					{
+					parentVector[WEIGHT * b + s] += w;
+					parentVector[CHILDREN * b + s] += 1;
+					parentVector[CHAIN_W_LOG_W * b + s] += chain * w * MathUtils.approximateLog(w);
+					parentVector[CHAIN_W * b + s] += chain * w;
+					parentVector[W_INFORMATION * b + s] += w * information;
+					parentVector[LAST_CHAIN * b + s] = chain;
+					parentVector[LAST_INFORMATION * b + s] = information;
+					}
+				}
+			release(spares, v);
+			}
+		}
+
+	private static double[] take(Deque<double[]> spares, int blockSize)
+		{
+		double[] result = spares.poll();
+		return result == null ? new double[ACCUMULATORS * blockSize] : result;
+		}
+
+	private static void release(Deque<double[]> spares, double[] v)
+		{
+		Arrays.fill(v, 0);
+		spares.push(v);
+		}
+
+	// -------------------------- INNER CLASSES --------------------------
+
+	private class BlockTask extends RecursiveAction
+		{
+		private final int fromBlock;
+		private final int toBlock;
+		private final int[] sampleOffsets;
+		private final int[] nodes;
+		private final double[] counts;
+		private final Result result;
+
+		BlockTask(int fromBlock, int toBlock, int[] sampleOffsets, int[] nodes, double[] counts, Result result)
+			{
+			this.fromBlock = fromBlock;
+			this.toBlock = toBlock;
+			this.sampleOffsets = sampleOffsets;
+			this.nodes = nodes;
+			this.counts = counts;
+			this.result = result;
+			}
+
+		@Override
+		protected void compute()
+			{
+			if (toBlock - fromBlock == 1)
+				{
+				int from = fromBlock * BLOCK_SIZE;
+				int to = Math.min(from + BLOCK_SIZE, sampleOffsets.length - 1);
+				computeBlock(from, to, sampleOffsets, nodes, counts, result);
+				}
+			else
+				{
+				int mid = (fromBlock + toBlock) >>> 1;
+				invokeAll(new BlockTask(fromBlock, mid, sampleOffsets, nodes, counts, result),
+				          new BlockTask(mid, toBlock, sampleOffsets, nodes, counts, result));
+				}
+			}
+		}
+
+	/**
+	 * The three measures, indexed in the order the samples were given.
+	 */
+	public static class Result
+		{
+		private final double[] shannon;
+		private final double[] phylogeneticShannon;
+		private final double[] faithPD;
+
+		Result(int numSamples)
+			{
+			shannon = new double[numSamples];
+			phylogeneticShannon = new double[numSamples];
+			faithPD = new double[numSamples];
+			}
+
+		public double[] getShannon()
+			{
+			return shannon;
+			}
+
+		public double[] getPhylogeneticShannon()
+			{
+			return phylogeneticShannon;
+			}
+
+		public double[] getFaithPD()
+			{
+			return faithPD;
+			}
+		}
+	}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils.betadiversity;
+
+import com.davidsoergel.dsutils.math.MathUtils;
+import com.davidsoergel.trees.NoSuchNodeException;
+import com.davidsoergel.trees.PhylogenyNode;
+import com.davidsoergel.trees.RootedPhylogeny;
+import edu.berkeley.compbio.phyloutils.PhyloUtilsException;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Computes the phylogenetic Kullback-Leibler divergences in both directions, and the J-divergence, between two trees
+ * extracted from the same base phylogeny, in a single iterative pass.  The results are those of
+ * PhylogeneticKullbackLeibler and PhylogeneticJDivergence, but no union tree is extracted or cloned: the weights of
+ * the union leaves are smoothed and normalized directly, the union topology is assembled from their paths to the root
+ * of the base tree, and chains of single-child nodes are collapsed into single branches as the extraction would.
+ * <p/>
+ * The recursive definition weights the divergence at each branch by the probability of reaching its parent, which
+ * telescopes into the absolute weight below the branch, so each branch contributes independently:
+ * length * p(branch) * log2(p(branch | parent) / q(branch | parent)).  Hence there is no recursion, and the stack depth
+ * doesn't grow with the depth of the tree.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+public class FusedPhylogeneticDivergence<T extends Serializable>
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	/**
+	 * The weight added to every union leaf of each tree before normalizing, as by smoothWeightsFrom().
+	 */
+	public static final double SMOOTHING = .000001;
+
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	public Result evaluate(RootedPhylogeny<T> a, RootedPhylogeny<T> b) throws PhyloUtilsException, NoSuchNodeException
+		{
+		RootedPhylogeny<T> theBasePhylogeny = a.getBasePhylogeny();
+		if (theBasePhylogeny != b.getBasePhylogeny())
+			{
+			throw new PhyloUtilsException(
+					"Phylogenetic K-L can be computed only between trees extracted from the same underlying tree");
+			}
+
+		// the smoothed leaf weights
+		Set<T> aLeaves = a.getLeafValues();
+		Set<T> bLeaves = b.getLeafValues();
+		Map<T, double[]> leafWeights = new HashMap<T, double[]>();
+		for (T id : aLeaves)
+			{
+			leafWeights.put(id, new double[]{a.getNode(id).getWeight() + SMOOTHING, SMOOTHING});
+			}
+		for (T id : bLeaves)
+			{
+			double[] w = leafWeights.get(id);
+			if (w == null)
+				{
+				leafWeights.put(id, new double[]{SMOOTHING, b.getNode(id).getWeight() + SMOOTHING});
+				}
+			else
+				{
+				w[1] = b.getNode(id).getWeight() + SMOOTHING;
+				}
+			}
+
+		// the union of the leaves' paths to the root, numbered so that parents precede their children
+		Map<T, Integer> indexById = new HashMap<T, Integer>();
+		List<PhylogenyNode<T>> nodes = new ArrayList<PhylogenyNode<T>>();
+		int[] parent = new int[16];
+		List<PhylogenyNode<T>> path = new ArrayList<PhylogenyNode<T>>();
+		for (T id : leafWeights.keySet())
+			{
+			path.clear();
+			int attachment = -1;
+			for (PhylogenyNode<T> node = theBasePhylogeny.getNode(id); node != null; node = node.getParent())
+				{
+				Integer index = indexById.get(node.getPayload());
+				if (index != null)
+					{
+					attachment = index;
+					break;
+					}
+				path.add(node);
+				}
+			for (int k = path.size() - 1; k >= 0; k--)
+				{
+				PhylogenyNode<T> node = path.get(k);
+				int index = nodes.size();
+				if (index == parent.length)
+					{
+					parent = Arrays.copyOf(parent, 2 * index);
+					}
+				parent[index] = attachment;
+				indexById.put(node.getPayload(), index);
+				nodes.add(node);
+				attachment = index;
+				}
+			}
+
+		int n = nodes.size();
+		double[] aWeight = new double[n];
+		double[] bWeight = new double[n];
+		double aTotal = 0;
+		double bTotal = 0;
+		boolean[] isUnionLeaf = new boolean[n];
+		for (Map.Entry<T, double[]> entry : leafWeights.entrySet())
+			{
+			int i = indexById.get(entry.getKey());
+			aWeight[i] = entry.getValue()[0];
+			bWeight[i] = entry.getValue()[1];
+			aTotal += aWeight[i];
+			bTotal += bWeight[i];
+			isUnionLeaf[i] = true;
+			}
+
+		// accumulate the weights, count the children, and measure the collapsed chains, all from the bottom up
+		int[] childCount = new int[n];
+		int[] someChild = new int[n];
+		double[] chainLength = new double[n];
+		for (int i = n - 1; i >= 0; i--)
+			{
+			// the root of the base tree may have no length, but it is never a branch of the union tree anyway
+			Double length = nodes.get(i).getLength();
+			chainLength[i] = length == null ? 0 : length;
+			if (childCount[i] == 1 && !isUnionLeaf[i])
+				{
+				chainLength[i] += chainLength[someChild[i]];
+				}
+			int p = parent[i];
+			if (p >= 0)
+				{
+				aWeight[p] += aWeight[i];
+				bWeight[p] += bWeight[i];
+				childCount[p]++;
+				someChild[p] = i;
+				}
+			}
+
+		// each branch of the union tree leads from a node that branches (or is itself a union leaf) to the top of a chain
+		double klAB = 0;
+		double klBA = 0;
+		for (int i = 1; i < n; i++)
+			{
+			int p = parent[i];
+			if (childCount[p] > 1 || isUnionLeaf[p])
+				{
+				double aConditional = aWeight[i] / aWeight[p];
+				double bConditional = bWeight[i] / bWeight[p];
+				klAB += chainLength[i] * (aWeight[i] / aTotal) * MathUtils.approximateLog2(aConditional / bConditional);
+				klBA += chainLength[i] * (bWeight[i] / bTotal) * MathUtils.approximateLog2(bConditional / aConditional);
+				}
+			}
+
+		return new Result(klAB, klBA);
+		}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString()
+		{
+		String shortname = getClass().getName();
+		shortname = shortname.substring(shortname.lastIndexOf(".") + 1);
+		return shortname;
+		}
+
+	// -------------------------- INNER CLASSES --------------------------
+
+	public static class Result
+		{
+		private final double klAB;
+		private final double klBA;
+
+		Result(double klAB, double klBA)
+			{
+			this.klAB = klAB;
+			this.klBA = klBA;
+			}
+
+		/**
+		 * @return KL(a || b), as computed by PhylogeneticKullbackLeibler.distanceFromTo(a, b)
+		 */
+		public double getKullbackLeibler()
+			{
+			return klAB;
+			}
+
+		/**
+		 * @return KL(b || a)
+		 */
+		public double getReverseKullbackLeibler()
+			{
+			return klBA;
+			}
+
+		/**
+		 * @return the mean of the two divergences, as computed by PhylogeneticJDivergence
+		 */
+		public double getJDivergence()
+			{
+			return 0.5 * (klAB + klBA);
+			}
+		}
+	}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils.betadiversity;
+
+import com.davidsoergel.trees.NoSuchNodeException;
+import com.davidsoergel.trees.RootedPhylogeny;
+import edu.berkeley.compbio.phyloutils.CompactRootedPhylogeny;
+import edu.berkeley.compbio.phyloutils.GenericCompactRootedPhylogeny;
+import edu.berkeley.compbio.phyloutils.PhyloUtilsRuntimeException;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Maintains the weighted UniFrac distances from a sample that is still being accumulated (e.g., while its reads are
+ * being classified) to a fixed set of reference samples, all over one base phylogeny.  Adding a count to a node updates
+ * the abundances along its path to the root, in time proportional to its depth; the distances can then be read at any
+ * point without extracting or walking any tree.
+ * <p/>
+ * The proportion of each reference below each branch is precomputed, sparsely, for the branches on the reference's
+ * paths.  Since adding a count rescales the proportions of the running sample everywhere, the distances are not kept
+ * up to date on every add; reading them visits only the branches on the running sample's paths (and the reference
+ * entries on those branches), and the result is cached until the next add.  The branches that only the references
+ * reach contribute a precomputed total.
+ * <p/>
+ * As in UniFracMatrix, weights are normalized to sum to one, and the distances agree with WeightedUniFrac.  A sample
+ * "leaf" may be any node in the tree.  Instances are not thread-safe.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+public class IncrementalWeightedUniFrac<T extends Serializable>
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	private final CompactRootedPhylogeny<T> tree;
+	private final int numReferences;
+
+	// the references with weight below branch i, and their proportions there, are
+	// referenceIds/referenceProportions[referenceOffsets[i], referenceOffsets[i + 1])
+	private final int[] referenceOffsets;
+	private final int[] referenceIds;
+	private final double[] referenceProportions;
+
+	// the sum over all branches of length * proportion, for each reference
+	private final double[] referenceTotals;
+
+	// the running sample: the count below each branch, and the branches with a nonzero count
+	private final double[] counts;
+	private int[] touched = new int[64];
+	private int numTouched = 0;
+	private double total = 0;
+
+	// the sum over the touched branches of length * proportion, for each reference
+	private final double[] touchedReferenceTotals;
+
+	// the distances as of the last add, or null
+	private double[] distances;
+
+
+	// --------------------------- CONSTRUCTORS ---------------------------
+
+	/**
+	 * @param references maps from node ids to abundances
+	 * @throws NoSuchNodeException if a reference refers to a node that is not in the tree
+	 */
+	public IncrementalWeightedUniFrac(CompactRootedPhylogeny<T> tree, List<? extends Map<T, Double>> references)
+			throws NoSuchNodeException
+		{
+		this.tree = tree;
+		numReferences = references.size();
+		int n = tree.size();
+
+		// the proportion of one reference below each branch, and the branches with a nonzero proportion
+		double[] proportions = new double[n];
+		int[][] branches = new int[numReferences][];
+		double[][] branchProportions = new double[numReferences][];
+		int[] rowSizes = new int[n + 1];
+		referenceTotals = new double[numReferences];
+
+		int[] reached = new int[64];
+		for (int r = 0; r < numReferences; r++)
+			{
+			Map<T, Double> reference = references.get(r);
+			double referenceTotal = 0;
+			for (Double w : reference.values())
+				{
+				referenceTotal += w;
+				}
+			if (!(referenceTotal > 0))
+				{
+				throw new PhyloUtilsRuntimeException("Reference " + r + " has no weight");
+				}
+
+			int numReached = 0;
+			for (Map.Entry<T, Double> entry : reference.entrySet())
+				{
+				double w = entry.getValue() / referenceTotal;
+				for (int i = tree.indexOf(entry.getKey()); i > 0; i = tree.getParentIndex(i))
+					{
+					if (proportions[i] == 0)
+						{
+						if (numReached == reached.length)
+							{
+							reached = Arrays.copyOf(reached, 2 * numReached);
+							}
+						reached[numReached++] = i;
+						}
+					proportions[i] += w;
+					}
+				}
+
+			branches[r] = Arrays.copyOf(reached, numReached);
+			branchProportions[r] = new double[numReached];
+			for (int j = 0; j < numReached; j++)
+				{
+				int i = reached[j];
+				branchProportions[r][j] = proportions[i];
+				referenceTotals[r] += tree.getLength(i) * proportions[i];
+				rowSizes[i + 1]++;
+				proportions[i] = 0;
+				}
+			}
+
+		// regroup the entries by branch
+		referenceOffsets = rowSizes;
+		for (int i = 0; i < n; i++)
+			{
+			referenceOffsets[i + 1] += referenceOffsets[i];
+			}
+		referenceIds = new int[referenceOffsets[n]];
+		referenceProportions = new double[referenceOffsets[n]];
+		int[] next = Arrays.copyOf(referenceOffsets, n);
+		for (int r = 0; r < numReferences; r++)
+			{
+			for (int j = 0; j < branches[r].length; j++)
+				{
+				int e = next[branches[r][j]]++;
+				referenceIds[e] = r;
+				referenceProportions[e] = branchProportions[r][j];
+				}
+			}
+
+		counts = new double[n];
+		touchedReferenceTotals = new double[numReferences];
+		}
+
+	/**
+	 * @throws NoSuchNodeException if a reference refers to a node that is not in the tree
+	 */
+	public IncrementalWeightedUniFrac(RootedPhylogeny<T> basePhylogeny, List<? extends Map<T, Double>> references)
+			throws NoSuchNodeException
+		{
+		this(new GenericCompactRootedPhylogeny<T>(basePhylogeny), references);
+		}
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	/**
+	 * Add the given count (e.g., of reads) to the given node of the running sample.
+	 *
+	 * @throws NoSuchNodeException if the node is not in the tree
+	 */
+	public void add(T id, double count) throws NoSuchNodeException
+		{
+		if (!(count > 0))
+			{
+			throw new PhyloUtilsRuntimeException("Counts must be positive: " + count);
+			}
+		for (int i = tree.indexOf(id); i > 0; i = tree.getParentIndex(i))
+			{
+			if (counts[i] == 0)
+				{
+				touch(i);
+				}
+			counts[i] += count;
+			}
+		total += count;
+		distances = null;
+		}
+
+	private void touch(int i)
+		{
+		if (numTouched == touched.length)
+			{
+			touched = Arrays.copyOf(touched, 2 * numTouched);
+			}
+		touched[numTouched++] = i;
+
+		double length = tree.getLength(i);
+		for (int e = referenceOffsets[i]; e < referenceOffsets[i + 1]; e++)
+			{
+			touchedReferenceTotals[referenceIds[e]] += length * referenceProportions[e];
+			}
+		}
+
+	/**
+	 * @return the total count added to the running sample
+	 */
+	public double getTotal()
+		{
+		return total;
+		}
+
+	/**
+	 * @return the weighted UniFrac distance from the running sample to each reference, in the order the references were
+	 *         given; NaN if nothing has been added yet
+	 */
+	public double[] getDistances()
+		{
+		if (distances == null)
+			{
+			distances = computeDistances();
+			}
+		return distances.clone();
+		}
+
+	public double getDistance(int reference)
+		{
+		if (distances == null)
+			{
+			distances = computeDistances();
+			}
+		return distances[reference];
+		}
+
+	private double[] computeDistances()
+		{
+		double[] result = new double[numReferences];
+		if (total == 0)
+			{
+			Arrays.fill(result, Double.NaN);
+			return result;
+			}
+
+		// branches that only the reference reaches contribute length * proportion, already summed
+		for (int r = 0; r < numReferences; r++)
+			{
+			result[r] = referenceTotals[r] - touchedReferenceTotals[r];
+			}
+
+		// on the running sample's branches, charge its own proportion to every reference, then correct that for the
+		// references that are there too
+		double sampleOnly = 0;
+		for (int t = 0; t < numTouched; t++)
+			{
+			int i = touched[t];
+			double length = tree.getLength(i);
+			double p = counts[i] / total;
+			sampleOnly += length * p;
+			for (int e = referenceOffsets[i]; e < referenceOffsets[i + 1]; e++)
+				{
+				result[referenceIds[e]] += length * (Math.abs(p - referenceProportions[e]) - p);
+				}
+			}
+		for (int r = 0; r < numReferences; r++)
+			{
+			result[r] += sampleOnly;
+			}
+		return result;
+		}
+
+	/**
+	 * Empty the running sample, to start accumulating another one against the same references.
+	 */
+	public void clear()
+		{
+		for (int t = 0; t < numTouched; t++)
+			{
+			counts[touched[t]] = 0;
+			}
+		numTouched = 0;
+		total = 0;
+		Arrays.fill(touchedReferenceTotals, 0);
+		distances = null;
+		}
+	}
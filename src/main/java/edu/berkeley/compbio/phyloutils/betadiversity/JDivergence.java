@@ -10,7 +10,6 @@ import com.davidsoergel.stats.DissimilarityMeasure;
 import com.davidsoergel.trees.AbstractRootedPhylogeny;
 import com.davidsoergel.trees.NoSuchNodeException;
 import com.davidsoergel.trees.RootedPhylogeny;
-import com.davidsoergel.trees.TreeException;
 import edu.berkeley.compbio.phyloutils.PhyloUtilsException;
 import org.apache.log4j.Logger;
 
@@ -53,24 +52,13 @@ public class JDivergence<T extends Serializable> implements DissimilarityMeasure
 			RootedPhylogeny<T> unionTree = theBasePhylogeny.extractTreeWithLeafIDs(unionLeaves, false, false,
 			                                                                       AbstractRootedPhylogeny.MutualExclusionResolutionMode.EXCEPTION);
 
-			RootedPhylogeny<T> aTreeSmoothed = unionTree.clone();
-			aTreeSmoothed.smoothWeightsFrom(a, .000001);
-
-			RootedPhylogeny<T> bTreeSmoothed = unionTree.clone();
-			bTreeSmoothed.smoothWeightsFrom(b, .000001);
-
-			return kl.klDivergence(unionTree, a, b) + kl.klDivergence(unionTree, b, a);
+			return kl.symmetricKlDivergence(unionTree, a, b);
 			}
 		catch (PhyloUtilsException e)
 			{
 			logger.error("Error", e);
 			throw new Error(e);
 			}
-		catch (TreeException e)
-			{
-			logger.error("Error", e);
-			throw new Error(e);
-			}
 		catch (NoSuchNodeException e)
 			{
 			logger.error("Error", e);
@@ -12,7 +12,6 @@ import com.davidsoergel.trees.AbstractRootedPhylogeny;
 import com.davidsoergel.trees.NoSuchNodeException;
 import com.davidsoergel.trees.PhylogenyNode;
 import com.davidsoergel.trees.RootedPhylogeny;
-import com.davidsoergel.trees.TreeException;
 import edu.berkeley.compbio.phyloutils.PhyloUtilsException;
 import org.apache.log4j.Logger;
 
@@ -51,12 +50,6 @@ public class KullbackLeibler<T extends Serializable> implements DissimilarityMea
 			RootedPhylogeny<T> unionTree = theBasePhylogeny.extractTreeWithLeafIDs(unionLeaves, false, false,
 			                                                                       AbstractRootedPhylogeny.MutualExclusionResolutionMode.EXCEPTION);
 
-			RootedPhylogeny<T> aTreeSmoothed = unionTree.clone();
-			aTreeSmoothed.smoothWeightsFrom(a, .000001);
-
-			RootedPhylogeny<T> bTreeSmoothed = unionTree.clone();
-			bTreeSmoothed.smoothWeightsFrom(b, .000001);
-
 			return klDivergence(unionTree, a, b);
 			}
 		catch (PhyloUtilsException e)
@@ -64,11 +57,6 @@ public class KullbackLeibler<T extends Serializable> implements DissimilarityMea
 			logger.error("Error", e);
 			throw new Error(e);
 			}
-		catch (TreeException e)
-			{
-			logger.error("Error", e);
-			throw new Error(e);
-			}
 		catch (NoSuchNodeException e)
 			{
 			logger.error("Error", e);
@@ -97,6 +85,28 @@ public class KullbackLeibler<T extends Serializable> implements DissimilarityMea
 		return divergence;
 		}
 
+	/**
+	 * Compute KL(a || b) + KL(b || a) in one pass over the leaves.
+	 */
+	protected double symmetricKlDivergence(RootedPhylogeny<T> unionTree, RootedPhylogeny<T> a, RootedPhylogeny<T> b)
+			throws NoSuchNodeException, PhyloUtilsException
+		{
+		double divergence = 0;
+
+		for (PhylogenyNode<T> node : unionTree.getLeaves())
+			{
+			T id = node.getPayload();
+			PhylogenyNode<T> aNode = a.getChildWithPayload(id);
+			PhylogenyNode<T> bNode = b.getChildWithPayload(id);
+			double p = aNode == null ? 0 : aNode.getWeight();
+			double q = bNode == null ? 0 : bNode.getWeight();
+
+			divergence += p * MathUtils.approximateLog2(p / q) + q * MathUtils.approximateLog2(q / p);
+			}
+
+		return divergence;
+		}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -7,16 +7,12 @@
 package edu.berkeley.compbio.phyloutils.betadiversity;
 
 import com.davidsoergel.stats.DissimilarityMeasure;
-import com.davidsoergel.trees.AbstractRootedPhylogeny;
 import com.davidsoergel.trees.NoSuchNodeException;
 import com.davidsoergel.trees.RootedPhylogeny;
-import com.davidsoergel.trees.TreeException;
 import edu.berkeley.compbio.phyloutils.PhyloUtilsException;
 import org.apache.log4j.Logger;
 
 import java.io.Serializable;
-import java.util.HashSet;
-import java.util.Set;
 
 
 /**
@@ -29,9 +25,17 @@ public class PhylogeneticJDivergence<T extends Serializable> implements Dissimil
 	{
 	private static final Logger logger = Logger.getLogger(WeightedUniFrac.class);
 
+	/**
+	 * No longer used: both directions of the K-L divergence are now computed in one pass by FusedPhylogeneticDivergence.
+	 *
+	 * @deprecated kept only so that code setting or reading this field still compiles
+	 */
 	//@Property(defaultvalue = "edu.berkeley.compbio.phyloutils.betadiversity.PhylogeneticKullbackLeibler")
+	@Deprecated
 	public PhylogeneticKullbackLeibler<T> kl = new PhylogeneticKullbackLeibler<T>();
 
+	private final FusedPhylogeneticDivergence<T> evaluator = new FusedPhylogeneticDivergence<T>();
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -39,39 +43,13 @@ public class PhylogeneticJDivergence<T extends Serializable> implements Dissimil
 		{
 		try
 			{
-			RootedPhylogeny<T> theBasePhylogeny = a.getBasePhylogeny();
-			if (theBasePhylogeny != b.getBasePhylogeny())
-				{
-				throw new PhyloUtilsException(
-						"Phylogenetic K-L can be computed only between trees extracted from the same underlying tree");
-				}
-
-			Set<T> unionLeaves = new HashSet<T>();
-			unionLeaves.addAll(a.getLeafValues());
-			unionLeaves.addAll(b.getLeafValues());
-
-			RootedPhylogeny<T> unionTree = theBasePhylogeny.extractTreeWithLeafIDs(unionLeaves, false, false,
-			                                                                       AbstractRootedPhylogeny.MutualExclusionResolutionMode.EXCEPTION);
-
-			RootedPhylogeny<T> aTreeSmoothed = unionTree.clone();
-			aTreeSmoothed.smoothWeightsFrom(a, .000001);
-
-			RootedPhylogeny<T> bTreeSmoothed = unionTree.clone();
-			bTreeSmoothed.smoothWeightsFrom(b, .000001);
-
-			return 0.5 * (kl.klDivergenceBelow(unionTree, aTreeSmoothed, bTreeSmoothed) + kl
-					.klDivergenceBelow(unionTree, bTreeSmoothed, aTreeSmoothed));
+			return evaluator.evaluate(a, b).getJDivergence();
 			}
 		catch (PhyloUtilsException e)
 			{
 			logger.error("Error", e);
 			throw new Error(e);
 			}
-		catch (TreeException e)
-			{
-			logger.error("Error", e);
-			throw new Error(e);
-			}
 		catch (NoSuchNodeException e)
 			{
 			logger.error("Error", e);
@@ -8,17 +8,13 @@ package edu.berkeley.compbio.phyloutils.betadiversity;
 
 import com.davidsoergel.dsutils.math.MathUtils;
 import com.davidsoergel.stats.DissimilarityMeasure;
-import com.davidsoergel.trees.AbstractRootedPhylogeny;
 import com.davidsoergel.trees.NoSuchNodeException;
 import com.davidsoergel.trees.PhylogenyNode;
 import com.davidsoergel.trees.RootedPhylogeny;
-import com.davidsoergel.trees.TreeException;
 import edu.berkeley.compbio.phyloutils.PhyloUtilsException;
 import org.apache.log4j.Logger;
 
 import java.io.Serializable;
-import java.util.HashSet;
-import java.util.Set;
 
 
 /**
@@ -30,6 +26,8 @@ public class PhylogeneticKullbackLeibler<T extends Serializable> implements Diss
 	{
 	private static final Logger logger = Logger.getLogger(WeightedUniFrac.class);
 
+	private final FusedPhylogeneticDivergence<T> evaluator = new FusedPhylogeneticDivergence<T>();
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -37,38 +35,13 @@ public class PhylogeneticKullbackLeibler<T extends Serializable> implements Diss
 		{
 		try
 			{
-			RootedPhylogeny<T> theBasePhylogeny = a.getBasePhylogeny();
-			if (theBasePhylogeny != b.getBasePhylogeny())
-				{
-				throw new PhyloUtilsException(
-						"Phylogenetic K-L can be computed only between trees extracted from the same underlying tree");
-				}
-
-			Set<T> unionLeaves = new HashSet<T>();
-			unionLeaves.addAll(a.getLeafValues());
-			unionLeaves.addAll(b.getLeafValues());
-
-			RootedPhylogeny<T> unionTree = theBasePhylogeny.extractTreeWithLeafIDs(unionLeaves, false, false,
-			                                                                       AbstractRootedPhylogeny.MutualExclusionResolutionMode.EXCEPTION);
-
-			RootedPhylogeny<T> aTreeSmoothed = unionTree.clone();
-			aTreeSmoothed.smoothWeightsFrom(a, .000001);
-
-			RootedPhylogeny<T> bTreeSmoothed = unionTree.clone();
-			bTreeSmoothed.smoothWeightsFrom(b, .000001);
-
-			return klDivergenceBelow(unionTree, aTreeSmoothed, bTreeSmoothed);
+			return evaluator.evaluate(a, b).getKullbackLeibler();
 			}
 		catch (PhyloUtilsException e)
 			{
 			logger.error("Error", e);
 			throw new Error(e);
 			}
-		catch (TreeException e)
-			{
-			logger.error("Error", e);
-			throw new Error(e);
-			}
 		catch (NoSuchNodeException e)
 			{
 			logger.error("Error", e);
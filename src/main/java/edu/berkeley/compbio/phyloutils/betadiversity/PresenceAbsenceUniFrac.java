@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils.betadiversity;
+
+import com.davidsoergel.trees.NoSuchNodeException;
+import com.davidsoergel.trees.RootedPhylogeny;
+import edu.berkeley.compbio.phyloutils.CommonAncestorIndex;
+import edu.berkeley.compbio.phyloutils.CompactRootedPhylogeny;
+import edu.berkeley.compbio.phyloutils.GenericCompactRootedPhylogeny;
+import edu.berkeley.compbio.phyloutils.PhyloUtilsRuntimeException;
+import edu.berkeley.compbio.phyloutils.SharedForkJoinPool;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Unweighted UniFrac for presence/absence data, computed over bitsets of tree nodes instead of extracted trees.
+ * <p/>
+ * Each sample is represented by a bitset over the preorder node indexes of a compact base phylogeny, in which a node is
+ * set if any of the sample's leaves lies below it.  The shared branch length of two samples is then the sum of the
+ * lengths of the set bits of the AND of their bitsets, and the union length follows from the total length of each
+ * sample, so a distance costs one pass over the words both samples touch and allocates nothing.
+ * <p/>
+ * As in {@link UnweightedUniFrac}, each distance is taken over the tree spanning the two samples, i.e. rooted at the
+ * common ancestor of their leaves.  A sample "leaf" may be any node in the tree.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+public class PresenceAbsenceUniFrac<T extends Serializable>
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	private final CompactRootedPhylogeny<T> tree;
+	private final CommonAncestorIndex ancestors;
+
+
+	// --------------------------- CONSTRUCTORS ---------------------------
+
+	public PresenceAbsenceUniFrac(CompactRootedPhylogeny<T> tree)
+		{
+		this.tree = tree;
+		ancestors = tree.getCommonAncestorIndex();
+		}
+
+	public PresenceAbsenceUniFrac(RootedPhylogeny<T> basePhylogeny)
+		{
+		this(new GenericCompactRootedPhylogeny<T>(basePhylogeny));
+		}
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	/**
+	 * Represent the set of nodes present in a sample.
+	 *
+	 * @throws NoSuchNodeException if a leaf is not in the tree
+	 */
+	public Sample sampleOf(Collection<T> leafIds) throws NoSuchNodeException
+		{
+		long[] bits = new long[(tree.size() + 63) >>> 6];
+		double totalLength = 0;
+		int ancestor = CompactRootedPhylogeny.NO_NODE;
+		int maxNode = 0;
+
+		for (T id : leafIds)
+			{
+			int leaf = tree.indexOf(id);
+			ancestor = ancestor == CompactRootedPhylogeny.NO_NODE ? leaf : ancestors.commonAncestor(ancestor, leaf);
+			maxNode = Math.max(maxNode, leaf);
+
+			// climb until reaching a branch that is already present; the root's own length is not part of any path
+			for (int node = leaf; node != 0 && (bits[node >>> 6] & (1L << node)) == 0; node = tree.getParentIndex(node))
+				{
+				bits[node >>> 6] |= 1L << node;
+				totalLength += tree.getLength(node);
+				}
+			}
+		if (ancestor == CompactRootedPhylogeny.NO_NODE)
+			{
+			throw new PhyloUtilsRuntimeException("Sample has no leaves");
+			}
+
+		// ancestors precede descendants, so no bit beyond the largest leaf index is set
+		return new Sample(bits, (maxNode >>> 6) + 1, totalLength, ancestor);
+		}
+
+	public List<Sample> samplesOf(List<? extends Collection<T>> leafIdSets) throws NoSuchNodeException
+		{
+		List<Sample> result = new ArrayList<Sample>(leafIdSets.size());
+		for (Collection<T> leafIds : leafIdSets)
+			{
+			result.add(sampleOf(leafIds));
+			}
+		return result;
+		}
+
+	/**
+	 * @return the unweighted UniFrac distance between two samples, i.e. the fraction of the branch length of the tree
+	 *         spanning both of them that leads to only one of them
+	 */
+	public double distanceBetween(Sample a, Sample b)
+		{
+		int words = Math.min(a.words, b.words);
+		long[] x = a.bits;
+		long[] y = b.bits;
+		double intersection = 0;
+		for (int k = 0; k < words; k++)
+			{
+			long both = x[k] & y[k];
+			int base = k << 6;
+			while (both != 0)
+				{
+				intersection += tree.getLength(base + Long.numberOfTrailingZeros(both));
+				both &= both - 1;
+				}
+			}
+		double union = a.totalLength + b.totalLength - intersection;
+
+		// the path from the root to the common ancestor of both samples lies outside the tree spanning them
+		double stem = ancestors.getDepth(ancestors.commonAncestor(a.ancestor, b.ancestor));
+
+		return UnweightedUniFrac.unsharedFraction(intersection - stem, union - stem);
+		}
+
+	/**
+	 * Compute the symmetric matrix of distances among the given samples, filling rows in parallel.
+	 */
+	public double[][] distanceMatrix(List<Sample> samples)
+		{
+		Sample[] s = samples.toArray(new Sample[samples.size()]);
+		double[][] result = new double[s.length][s.length];
+		if (s.length > 1)
+			{
+			int grain = Math.max(1, s.length / (4 * SharedForkJoinPool.get().getParallelism()));
+			SharedForkJoinPool.get().invoke(new RowTask(0, (s.length + 1) / 2, grain, s, result));
+			}
+		return result;
+		}
+
+	public double[][] distanceMatrixOf(List<? extends Collection<T>> leafIdSets) throws NoSuchNodeException
+		{
+		return distanceMatrix(samplesOf(leafIdSets));
+		}
+
+	// -------------------------- INNER CLASSES --------------------------
+
+	/**
+	 * The nodes present in one sample, as a bitset over preorder node indexes.
+	 */
+	public static class Sample
+		{
+		private final long[] bits;
+
+		// the number of leading words that may be nonzero
+		private final int words;
+		private final double totalLength;
+		private final int ancestor;
+
+		Sample(long[] bits, int words, double totalLength, int ancestor)
+			{
+			this.bits = bits;
+			this.words = words;
+			this.totalLength = totalLength;
+			this.ancestor = ancestor;
+			}
+
+		/**
+		 * @return the total length of the branches leading from the root to the sample's leaves
+		 */
+		public double getTotalLength()
+			{
+			return totalLength;
+			}
+		}
+
+	/**
+	 * Fills rows [from, to) of the upper triangle, and mirrors them into the lower.  Since row s holds N - s - 1
+	 * distances, each row s < N/2 is paired with row N - s - 1 so that splitting the range splits the work evenly.
+	 */
+	private class RowTask extends RecursiveAction
+		{
+		private final int from;
+		private final int to;
+		private final int grain;
+		private final Sample[] samples;
+		private final double[][] result;
+
+		RowTask(int from, int to, int grain, Sample[] samples, double[][] result)
+			{
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+			this.samples = samples;
+			this.result = result;
+			}
+
+		@Override
+		protected void compute()
+			{
+			if (to - from <= grain)
+				{
+				for (int s = from; s < to; s++)
+					{
+					fillRow(s);
+					int mirror = samples.length - s - 1;
+					if (mirror != s)
+						{
+						fillRow(mirror);
+						}
+					}
+				}
+			else
+				{
+				int mid = (from + to) >>> 1;
+				invokeAll(new RowTask(from, mid, grain, samples, result), new RowTask(mid, to, grain, samples, result));
+				}
+			}
+
+		private void fillRow(int s)
+			{
+			for (int t = s + 1; t < samples.length; t++)
+				{
+				result[s][t] = result[t][s] = distanceBetween(samples[s], samples[t]);
+				}
+			}
+		}
+	}
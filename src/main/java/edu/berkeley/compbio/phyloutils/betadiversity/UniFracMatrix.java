@@ -0,0 +1,420 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils.betadiversity;
+
+import com.davidsoergel.trees.NoSuchNodeException;
+import com.davidsoergel.trees.RootedPhylogeny;
+import edu.berkeley.compbio.phyloutils.CommonAncestorIndex;
+import edu.berkeley.compbio.phyloutils.CompactRootedPhylogeny;
+import edu.berkeley.compbio.phyloutils.GenericCompactRootedPhylogeny;
+import edu.berkeley.compbio.phyloutils.PhyloUtilsRuntimeException;
+import edu.berkeley.compbio.phyloutils.SharedForkJoinPool;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Computes weighted, normalized weighted, and unweighted UniFrac among many samples at once, over a single base
+ * phylogeny, without extracting any trees.
+ * <p/>
+ * One reverse-preorder sweep over the tree accumulates, for each branch, the vector of sample abundances below it.
+ * Only the vectors of branches whose subtrees are partially processed are held at any time, so memory for them is
+ * bounded by the depth of the tree rather than its size.  Completed branches are buffered in batches, and each batch is
+ * applied to the distance matrix in parallel in the manner of Striped UniFrac: stripe k holds the partial sums for the
+ * sample pairs (s, s + k mod N), so every stripe can be updated independently with sequential memory access.
+ * <p/>
+ * Sample weights are normalized to sum to one.  As with the pairwise measures, each distance is taken over the tree
+ * spanning the two samples, i.e. rooted at the common ancestor of their leaves; the branches above that make no
+ * difference to the weighted sums, and are subtracted from the unweighted ones.  A sample "leaf" may be any node in the
+ * tree.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+public class UniFracMatrix<T extends Serializable>
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	// the number of branches to buffer before applying them to the stripes
+	private static final int BATCH_SIZE = 64;
+
+	private final CompactRootedPhylogeny<T> tree;
+
+
+	// --------------------------- CONSTRUCTORS ---------------------------
+
+	public UniFracMatrix(CompactRootedPhylogeny<T> tree)
+		{
+		this.tree = tree;
+		}
+
+	public UniFracMatrix(RootedPhylogeny<T> basePhylogeny)
+		{
+		this(new GenericCompactRootedPhylogeny<T>(basePhylogeny));
+		}
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	/**
+	 * Compute the matrices among samples given as trees extracted from the base phylogeny, using the weights of their
+	 * leaves.
+	 */
+	public Result computeFromTrees(List<? extends RootedPhylogeny<T>> samples) throws NoSuchNodeException
+		{
+		List<Map<T, Double>> weights = new ArrayList<Map<T, Double>>(samples.size());
+		for (RootedPhylogeny<T> sample : samples)
+			{
+			Map<T, Double> sampleWeights = new HashMap<T, Double>();
+			for (T id : sample.getLeafValues())
+				{
+				sampleWeights.put(id, sample.getNode(id).getWeight());
+				}
+			weights.add(sampleWeights);
+			}
+		return compute(weights);
+		}
+
+	/**
+	 * Compute the matrices among samples given as maps from node ids to abundances.
+	 *
+	 * @throws NoSuchNodeException if a sample refers to a node that is not in the tree
+	 */
+	public Result compute(List<? extends Map<T, Double>> samples) throws NoSuchNodeException
+		{
+		int n = tree.size();
+		int numSamples = samples.size();
+		CommonAncestorIndex ancestors = tree.getCommonAncestorIndex();
+
+		// the (sample, normalized weight) entries at each node, as linked lists threaded through parallel arrays
+		int numEntries = 0;
+		for (Map<T, Double> sample : samples)
+			{
+			numEntries += sample.size();
+			}
+		int[] entryHead = new int[n];
+		Arrays.fill(entryHead, -1);
+		int[] entryNext = new int[numEntries];
+		int[] entrySample = new int[numEntries];
+		double[] entryWeight = new double[numEntries];
+
+		// for the normalization and the rooting of each pair
+		int[] sampleAncestor = new int[numSamples];
+		double[] sampleMeanDepth = new double[numSamples];
+
+		int e = 0;
+		for (int s = 0; s < numSamples; s++)
+			{
+			Map<T, Double> sample = samples.get(s);
+			double total = 0;
+			for (Double w : sample.values())
+				{
+				total += w;
+				}
+			if (!(total > 0))
+				{
+				throw new PhyloUtilsRuntimeException("Sample " + s + " has no weight");
+				}
+
+			int ancestor = CompactRootedPhylogeny.NO_NODE;
+			for (Map.Entry<T, Double> entry : sample.entrySet())
+				{
+				int node = tree.indexOf(entry.getKey());
+				double w = entry.getValue() / total;
+
+				entrySample[e] = s;
+				entryWeight[e] = w;
+				entryNext[e] = entryHead[node];
+				entryHead[node] = e;
+				e++;
+
+				ancestor = ancestor == CompactRootedPhylogeny.NO_NODE ? node : ancestors.commonAncestor(ancestor, node);
+				sampleMeanDepth[s] += w * ancestors.getDepth(node);
+				}
+			sampleAncestor[s] = ancestor;
+			}
+
+		Stripes stripes = new Stripes(numSamples);
+
+		double[] batchLengths = new double[BATCH_SIZE];
+		double[] batchWeights = new double[BATCH_SIZE * numSamples];
+		double[] batchPresence = new double[BATCH_SIZE * numSamples];
+		int batched = 0;
+
+		// per-sample weights and leaf counts below each node whose subtree is partially processed
+		double[][] openWeights = new double[n][];
+		double[][] openCounts = new double[n][];
+		Deque<double[]> spares = new ArrayDeque<double[]>();
+
+		// children have larger indexes than their parents, so this visits every subtree before its root
+		for (int i = n - 1; i > 0; i--)
+			{
+			double[] weights = openWeights[i];
+			double[] counts = openCounts[i];
+			for (int x = entryHead[i]; x != -1; x = entryNext[x])
+				{
+				if (weights == null)
+					{
+					weights = take(spares, numSamples);
+					counts = take(spares, numSamples);
+					}
+				weights[entrySample[x]] += entryWeight[x];
+				counts[entrySample[x]] += 1;
+				}
+			if (weights == null)
+				{
+				// no sample has anything below this branch
+				continue;
+				}
+			openWeights[i] = null;
+			openCounts[i] = null;
+
+			double length = tree.getLength(i);
+			if (length != 0)
+				{
+				int offset = batched * numSamples;
+				System.arraycopy(weights, 0, batchWeights, offset, numSamples);
+				for (int s = 0; s < numSamples; s++)
+					{
+					batchPresence[offset + s] = counts[s] > 0 ? 1 : 0;
+					}
+				batchLengths[batched] = length;
+				batched++;
+				if (batched == BATCH_SIZE)
+					{
+					stripes.apply(batchLengths, batchWeights, batchPresence, batched);
+					batched = 0;
+					}
+				}
+
+			int p = tree.getParentIndex(i);
+			if (openWeights[p] == null)
+				{
+				openWeights[p] = weights;
+				openCounts[p] = counts;
+				}
+			else
+				{
+				double[] parentWeights = openWeights[p];
+				double[] parentCounts = openCounts[p];
+				for (int s = 0; s < numSamples; s++)
+					{
+					parentWeights[s] += weights[s];
+					parentCounts[s] += counts[s];
+					}
+				release(spares, weights);
+				release(spares, counts);
+				}
+			}
+		if (batched > 0)
+			{
+			stripes.apply(batchLengths, batchWeights, batchPresence, batched);
+			}
+
+		return stripes.toResult(ancestors, sampleAncestor, sampleMeanDepth);
+		}
+
+	private static double[] take(Deque<double[]> spares, int size)
+		{
+		double[] result = spares.poll();
+		return result == null ? new double[size] : result;
+		}
+
+	private static void release(Deque<double[]> spares, double[] v)
+		{
+		Arrays.fill(v, 0);
+		spares.push(v);
+		}
+
+	// -------------------------- INNER CLASSES --------------------------
+
+	/**
+	 * The partial sums for all sample pairs, organized by stripe.  Stripe k (1 <= k <= N/2) holds the sums for the pairs
+	 * (s, s + k mod N) at index s, which covers every unordered pair (twice, for k = N/2 with N even).
+	 */
+	private static class Stripes
+		{
+		private final int numSamples;
+		private final int numStripes;
+		private final double[][] weighted;
+		private final double[][] union;
+		private final double[][] intersection;
+
+		Stripes(int numSamples)
+			{
+			this.numSamples = numSamples;
+			numStripes = numSamples / 2;
+			weighted = new double[numStripes][numSamples];
+			union = new double[numStripes][numSamples];
+			intersection = new double[numStripes][numSamples];
+			}
+
+		void apply(double[] lengths, double[] weights, double[] presence, int count)
+			{
+			if (numStripes > 0)
+				{
+				int grain = Math.max(1, numStripes / (4 * SharedForkJoinPool.get().getParallelism()));
+				SharedForkJoinPool.get().invoke(new StripeTask(0, numStripes, grain, lengths, weights, presence, count));
+				}
+			}
+
+		private void applyToStripe(int stripe, double[] lengths, double[] weights, double[] presence, int count)
+			{
+			int k = stripe + 1;
+			double[] w = weighted[stripe];
+			double[] u = union[stripe];
+			double[] x = intersection[stripe];
+			for (int b = 0; b < count; b++)
+				{
+				double length = lengths[b];
+				int offset = b * numSamples;
+
+				// split where the partner index wraps around, to keep the inner loops free of branches
+				applyToRange(0, numSamples - k, k, length, offset, weights, presence, w, u, x);
+				applyToRange(numSamples - k, numSamples, k - numSamples, length, offset, weights, presence, w, u, x);
+				}
+			}
+
+		private static void applyToRange(int from, int to, int delta, double length, int offset, double[] weights,
+		                                 double[] presence, double[] w, double[] u, double[] x)
+			{
+			for (int s = from; s < to; s++)
+				{
+				int t = offset + s + delta;
+				w[s] += length * Math.abs(weights[offset + s] - weights[t]);
+
+				double ps = presence[offset + s];
+				double pt = presence[t];
+				double both = ps * pt;
+				x[s] += length * both;
+				u[s] += length * (ps + pt - both);
+				}
+			}
+
+		Result toResult(CommonAncestorIndex ancestors, int[] sampleAncestor, double[] sampleMeanDepth)
+			{
+			double[][] weightedMatrix = new double[numSamples][numSamples];
+			double[][] normalizedMatrix = new double[numSamples][numSamples];
+			double[][] unweightedMatrix = new double[numSamples][numSamples];
+
+			for (int s = 0; s < numSamples; s++)
+				{
+				for (int t = s + 1; t < numSamples; t++)
+					{
+					int k = t - s;
+					int stripe;
+					int index;
+					if (k <= numStripes)
+						{
+						stripe = k - 1;
+						index = s;
+						}
+					else
+						{
+						// (t, t + (N - k)) wraps around to (t, s)
+						stripe = numSamples - k - 1;
+						index = t;
+						}
+
+					// the length of the path from the root to the common ancestor of both samples, which lies in both
+					// samples' subtrees but outside the tree spanning them
+					double stem = ancestors.getDepth(ancestors.commonAncestor(sampleAncestor[s], sampleAncestor[t]));
+
+					double w = weighted[stripe][index];
+					double normalizingFactor = sampleMeanDepth[s] + sampleMeanDepth[t] - 2 * stem;
+					double normalized = normalizingFactor <= 0 ? 0 : w / normalizingFactor;
+					double unweighted = UnweightedUniFrac.unsharedFraction(intersection[stripe][index] - stem,
+					                                                       union[stripe][index] - stem);
+
+					weightedMatrix[s][t] = weightedMatrix[t][s] = w;
+					normalizedMatrix[s][t] = normalizedMatrix[t][s] = normalized;
+					unweightedMatrix[s][t] = unweightedMatrix[t][s] = unweighted;
+					}
+				}
+			return new Result(weightedMatrix, normalizedMatrix, unweightedMatrix);
+			}
+
+		private class StripeTask extends RecursiveAction
+			{
+			private final int from;
+			private final int to;
+			private final int grain;
+			private final double[] lengths;
+			private final double[] weights;
+			private final double[] presence;
+			private final int count;
+
+			StripeTask(int from, int to, int grain, double[] lengths, double[] weights, double[] presence, int count)
+				{
+				this.from = from;
+				this.to = to;
+				this.grain = grain;
+				this.lengths = lengths;
+				this.weights = weights;
+				this.presence = presence;
+				this.count = count;
+				}
+
+			@Override
+			protected void compute()
+				{
+				if (to - from <= grain)
+					{
+					for (int stripe = from; stripe < to; stripe++)
+						{
+						applyToStripe(stripe, lengths, weights, presence, count);
+						}
+					}
+				else
+					{
+					int mid = (from + to) >>> 1;
+					invokeAll(new StripeTask(from, mid, grain, lengths, weights, presence, count),
+					          new StripeTask(mid, to, grain, lengths, weights, presence, count));
+					}
+				}
+			}
+		}
+
+	/**
+	 * The three symmetric distance matrices, indexed in the order the samples were given.
+	 */
+	public static class Result
+		{
+		private final double[][] weighted;
+		private final double[][] normalizedWeighted;
+		private final double[][] unweighted;
+
+		Result(double[][] weighted, double[][] normalizedWeighted, double[][] unweighted)
+			{
+			this.weighted = weighted;
+			this.normalizedWeighted = normalizedWeighted;
+			this.unweighted = unweighted;
+			}
+
+		public double[][] getWeighted()
+			{
+			return weighted;
+			}
+
+		public double[][] getNormalizedWeighted()
+			{
+			return normalizedWeighted;
+			}
+
+		public double[][] getUnweighted()
+			{
+			return unweighted;
+			}
+		}
+	}
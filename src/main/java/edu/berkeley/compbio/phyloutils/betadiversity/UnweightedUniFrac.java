@@ -85,6 +85,15 @@ public class UnweightedUniFrac<T extends Serializable> implements DissimilarityM
 			}
 		}
 
+	/**
+	 * @return the fraction of the union's branch length that is not shared by both samples.  Samples that lie on a
+	 *         single common node span no branches at all; they are identical, so their distance is 0 rather than 0/0.
+	 */
+	static double unsharedFraction(double intersectionLength, double unionLength)
+		{
+		return unionLength <= 0 ? 0 : 1. - intersectionLength / unionLength;
+		}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -11,6 +11,8 @@ import com.davidsoergel.trees.AbstractRootedPhylogeny;
 import com.davidsoergel.trees.NoSuchNodeException;
 import com.davidsoergel.trees.PhylogenyNode;
 import com.davidsoergel.trees.RootedPhylogeny;
+import edu.berkeley.compbio.phyloutils.CompactRootedPhylogeny;
+import edu.berkeley.compbio.phyloutils.CompactSubtreeView;
 import edu.berkeley.compbio.phyloutils.PhyloUtilsException;
 import org.apache.log4j.Logger;
 
@@ -28,6 +30,22 @@ public class WeightedUniFrac<T extends Serializable> implements DissimilarityMea
 	{
 	private static final Logger logger = Logger.getLogger(WeightedUniFrac.class);
 
+	// if given, the union trees are built as virtual trees over this, rather than extracted from the base phylogeny
+	private final CompactRootedPhylogeny<T> compactBasePhylogeny;
+
+	public WeightedUniFrac()
+		{
+		compactBasePhylogeny = null;
+		}
+
+	/**
+	 * @param compactBasePhylogeny a compact copy of the base phylogeny from which the compared trees are extracted
+	 */
+	public WeightedUniFrac(CompactRootedPhylogeny<T> compactBasePhylogeny)
+		{
+		this.compactBasePhylogeny = compactBasePhylogeny;
+		}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -46,6 +64,11 @@ public class WeightedUniFrac<T extends Serializable> implements DissimilarityMea
 			unionLeaves.addAll(a.getLeafValues());
 			unionLeaves.addAll(b.getLeafValues());
 
+			if (compactBasePhylogeny != null)
+				{
+				return distanceOverVirtualTree(theBasePhylogeny, a, b, unionLeaves);
+				}
+
 			RootedPhylogeny<T> unionTree = theBasePhylogeny.extractTreeWithLeafIDs(unionLeaves, false, false,
 			                                                                       AbstractRootedPhylogeny.MutualExclusionResolutionMode.EXCEPTION);
 
@@ -74,6 +97,48 @@ public class WeightedUniFrac<T extends Serializable> implements DissimilarityMea
 			}
 		}
 
+	/**
+	 * Compute the distance over the virtual tree of the union leaves, whose size depends only on the number of leaves.
+	 *
+	 * @throws PhyloUtilsException if the compact base phylogeny is evidently not a copy of the trees' base phylogeny
+	 */
+	private double distanceOverVirtualTree(RootedPhylogeny<T> theBasePhylogeny, RootedPhylogeny<T> a,
+	                                       RootedPhylogeny<T> b, Set<T> unionLeaves)
+			throws NoSuchNodeException, PhyloUtilsException
+		{
+		// a full comparison would cost as much as extracting the union tree, so just check the size and the root
+		if (compactBasePhylogeny.size() != theBasePhylogeny.getUniqueIdToNodeMap().size()
+		    || !compactBasePhylogeny.getRootPayload().equals(theBasePhylogeny.getPayload()))
+			{
+			throw new PhyloUtilsException(
+					"UniFrac over virtual trees requires a compact copy of the trees' underlying tree");
+			}
+
+		CompactSubtreeView<T> unionTree = CompactSubtreeView.virtualTree(compactBasePhylogeny, unionLeaves, false);
+		int n = unionTree.size();
+		double[] aWeight = new double[n];
+		double[] bWeight = new double[n];
+		for (T id : a.getLeafValues())
+			{
+			aWeight[unionTree.indexOf(id)] += a.getNode(id).getWeight();
+			}
+		for (T id : b.getLeafValues())
+			{
+			bWeight[unionTree.indexOf(id)] += b.getNode(id).getWeight();
+			}
+
+		// children follow their parents, so each node's weights are complete by the time it is reached
+		double u = 0;
+		for (int v = n - 1; v > 0; v--)
+			{
+			int p = unionTree.getParentIndex(v);
+			aWeight[p] += aWeight[v];
+			bWeight[p] += bWeight[v];
+			u += unionTree.getLength(v) * Math.abs(aWeight[v] - bWeight[v]);
+			}
+		return u;
+		}
+
 	/**
 	 * {@inheritDoc}
 	 */
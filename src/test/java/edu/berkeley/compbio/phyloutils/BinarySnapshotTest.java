@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import com.davidsoergel.trees.NoSuchNodeException;
+import com.google.common.collect.HashMultimap;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+
+public class BinarySnapshotTest
+	{
+	// -------------------------- OTHER METHODS --------------------------
+
+	private Path writeSample(IntegerCompactRootedPhylogeny tree, HashMultimap<String, Integer> multimap,
+	                         Map<String, Integer> map) throws IOException
+		{
+		Path path = Files.createTempFile("snapshot", ".bin");
+		path.toFile().deleteOnExit();
+		BinarySnapshot.Writer out = new BinarySnapshot.Writer(path, "Test", 1);
+		out.writeIntegerTree(tree);
+		out.writeStringIntMultimap(multimap);
+		out.writeStringIntMap(map);
+		out.close();
+		return path;
+		}
+
+	private IntegerCompactRootedPhylogeny sampleTree()
+		{
+		return new IntegerCompactRootedPhylogeny(new int[]{CompactRootedPhylogeny.NO_NODE, 0, 1, 1, 0},
+		                                         new double[]{0, 1.5, 2, 3, 4.25}, new int[]{10, 11, 12, 13, 14});
+		}
+
+	@Test
+	public void snapshotRoundTripsTreesAndNames() throws IOException, PhyloUtilsException, NoSuchNodeException
+		{
+		HashMultimap<String, Integer> multimap = HashMultimap.create();
+		multimap.put("Bacteria", 10);
+		multimap.put("Escherichia coli", 12);
+		multimap.put("Escherichia coli", 13);
+		multimap.put("Salmonella enterica subsp. \u00e9", 14);
+		Map<String, Integer> map = new HashMap<String, Integer>();
+		map.put("E. coli", 12);
+		map.put("unknown", -1);
+
+		IntegerCompactRootedPhylogeny tree = sampleTree();
+		Path path = writeSample(tree, multimap, map);
+
+		BinarySnapshot.Reader in = new BinarySnapshot.Reader(path, "Test", 1);
+		IntegerCompactRootedPhylogeny readTree = in.readIntegerTree();
+		HashMultimap<String, Integer> readMultimap = in.readStringIntMultimap();
+		Map<String, Integer> readMap = new HashMap<String, Integer>();
+		in.readStringIntMap(readMap);
+		in.finish();
+
+		assert Arrays.equals(readTree.getIds(), tree.getIds());
+		assert readTree.indexOf(13) == 3;
+		assert readTree.isDescendant(11, 13);
+		assert readTree.distanceBetween(13, 14) == 3 + 1.5 + 4.25;
+		assert readMultimap.equals(multimap);
+		assert readMap.equals(map);
+		}
+
+	@Test(expectedExceptions = PhyloUtilsException.class)
+	public void snapshotOfAnotherKindIsRejected() throws IOException, PhyloUtilsException
+		{
+		Path path = writeSample(sampleTree(), HashMultimap.<String, Integer>create(), new HashMap<String, Integer>());
+		new BinarySnapshot.Reader(path, "Other", 1);
+		}
+
+	@Test(expectedExceptions = PhyloUtilsException.class)
+	public void corruptSnapshotIsRejected() throws IOException, PhyloUtilsException
+		{
+		Path path = writeSample(sampleTree(), HashMultimap.<String, Integer>create(), new HashMap<String, Integer>());
+		RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw");
+		file.seek(file.length() - 1);
+		int b = file.read();
+		file.seek(file.length() - 1);
+		file.write(b ^ 1);
+		file.close();
+		new BinarySnapshot.Reader(path, "Test", 1);
+		}
+	}
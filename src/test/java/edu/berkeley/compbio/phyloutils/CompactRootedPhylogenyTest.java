@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import com.davidsoergel.dsutils.math.MathUtils;
+import com.davidsoergel.trees.BasicPhylogenyNode;
+import com.davidsoergel.trees.NoSuchNodeException;
+import com.davidsoergel.trees.RootedPhylogeny;
+import com.davidsoergel.trees.TreeException;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+
+/**
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+
+public class CompactRootedPhylogenyTest
+	{
+	// -------------------------- OTHER METHODS --------------------------
+
+	@Test
+	public void compactTreeHasAllNodes() throws TreeException, IOException
+		{
+		RootedPhylogeny<String> p = TestPhylogenies.readGoodTree();
+		CompactRootedPhylogeny<String> c = new GenericCompactRootedPhylogeny<String>(p);
+
+		assert c.size() == 14;
+		assert c.getRootPayload().equals(p.getPayload());
+		assert c.getLeafValues().equals(p.getLeafValues());
+		assert c.isKnown("seal");
+		assert !c.isKnown("platypus");
+		}
+
+	@Test
+	public void compactTreeDistancesMatchObjectTree() throws TreeException, IOException, NoSuchNodeException
+		{
+		RootedPhylogeny<String> p = TestPhylogenies.readGoodTree();
+		CompactRootedPhylogeny<String> c = new GenericCompactRootedPhylogeny<String>(p);
+
+		assert MathUtils.equalWithinFPError(c.distanceBetween("raccoon", "bear"), 26.0);
+		assert MathUtils.equalWithinFPError(c.distanceBetween("raccoon", "dog"), 19.19959 + 0.84600 + 25.46154);
+
+		for (String a : p.getLeafValues())
+			{
+			for (String b : p.getLeafValues())
+				{
+				assert MathUtils.equalWithinFPError(c.distanceBetween(a, b), p.distanceBetween(a, b));
+				}
+			}
+		}
+
+	@Test
+	public void compactTreeAncestorPathsAreRootFirst() throws TreeException, IOException, NoSuchNodeException
+		{
+		RootedPhylogeny<String> p = TestPhylogenies.readGoodTree();
+		CompactRootedPhylogeny<String> c = new GenericCompactRootedPhylogeny<String>(p);
+
+		List<String> path = c.getAncestorPathIds("monkey");
+		assert path.size() == 5;
+		assert path.get(0).equals(c.getRootPayload());
+		assert path.get(4).equals("monkey");
+
+		for (String ancestor : path)
+			{
+			assert c.isDescendant(ancestor, "monkey");
+			}
+		assert !c.isDescendant("monkey", "cat");
+		assert !c.isDescendant("seal", c.getRootPayload());
+		assert !c.isLeaf(path.get(3));
+		assert c.isLeaf("cat");
+		}
+
+	@Test
+	public void commonAncestorIndexFindsLowestCommonAncestor() throws TreeException, IOException, NoSuchNodeException
+		{
+		CompactRootedPhylogeny<String> c = new GenericCompactRootedPhylogeny<String>(TestPhylogenies.readGoodTree());
+		List<String> monkeyPath = c.getAncestorPathIds("monkey");
+
+		int monkey = c.indexOf("monkey");
+		assert c.commonAncestorIndex(monkey, c.indexOf("cat")) == c.indexOf(monkeyPath.get(3));
+		assert c.commonAncestorIndex(c.indexOf("weasel"), monkey) == c.indexOf(monkeyPath.get(2));
+		assert c.commonAncestorIndex(c.indexOf("dog"), monkey) == 0;
+		assert c.commonAncestorIndex(monkey, monkey) == monkey;
+		assert c.commonAncestorIndex(c.indexOf(monkeyPath.get(2)), monkey) == c.indexOf(monkeyPath.get(2));
+
+		assert MathUtils.equalWithinFPError(c.getDepthFromRoot("monkey"), 3.87382 + 2.09460 + 20.59201 + 100.85930);
+		}
+
+	@Test
+	public void selectAncestorsKeepsOnlyAncestors() throws TreeException, IOException, NoSuchNodeException
+		{
+		CompactRootedPhylogeny<String> c = new GenericCompactRootedPhylogeny<String>(TestPhylogenies.readGoodTree());
+		List<String> monkeyPath = c.getAncestorPathIds("monkey");
+
+		Set<String> labels = new HashSet<String>(monkeyPath);
+		labels.add("cat");
+		labels.add("seal");
+		labels.add("platypus");
+
+		assert c.selectAncestors(labels, "monkey").equals(new HashSet<String>(monkeyPath));
+		assert c.selectAncestors(labels, "platypus").isEmpty();
+		}
+
+	@Test(expectedExceptions = {NoSuchNodeException.class})
+	public void compactTreeThrowsOnUnknownNode() throws TreeException, IOException, NoSuchNodeException
+		{
+		new GenericCompactRootedPhylogeny<String>(TestPhylogenies.readGoodTree()).distanceBetween("platypus", "seal");
+		}
+
+	@Test(expectedExceptions = {PhyloUtilsException.class})
+	public void integerCompactTreeRejectsNodesWithoutIds() throws PhyloUtilsException
+		{
+		BasicPhylogenyNode<Integer> root = new BasicPhylogenyNode<Integer>();
+		new BasicPhylogenyNode<Integer>(root, 1, 1.0);
+		new IntegerCompactRootedPhylogeny(root);
+		}
+
+	/**
+	 * A random tree in preorder: each node hangs from the previous node or from one of its ancestors.
+	 */
+	static IntegerCompactRootedPhylogeny randomTree(int n, Random random)
+		{
+		int[] parent = new int[n];
+		double[] length = new double[n];
+		int[] payloads = new int[n];
+		List<Integer> path = new ArrayList<Integer>();
+		parent[0] = CompactRootedPhylogeny.NO_NODE;
+		path.add(0);
+		for (int i = 1; i < n; i++)
+			{
+			int keep = 1 + random.nextInt(path.size());
+			while (path.size() > keep)
+				{
+				path.remove(path.size() - 1);
+				}
+			parent[i] = path.get(path.size() - 1);
+			length[i] = random.nextInt(10) / 4.0;
+			payloads[i] = i;
+			path.add(i);
+			}
+		return new IntegerCompactRootedPhylogeny(parent, length, payloads);
+		}
+
+	@Test
+	public void subtreeSpansMatchPairwiseDistances()
+		{
+		IntegerCompactRootedPhylogeny tree = randomTree(1000, new Random(1));
+		SubtreeSpans spans = tree.getSubtreeSpans();
+
+		for (int i = 0; i < tree.size(); i++)
+			{
+			int end = tree.getSubtreeEndIndex(i);
+			double span = 0;
+			double depth = 0;
+			for (int j = i; j <= end; j++)
+				{
+				depth = Math.max(depth, tree.distanceBetweenIndexes(i, j));
+				for (int k = j + 1; k <= end; k++)
+					{
+					span = Math.max(span, tree.distanceBetweenIndexes(j, k));
+					}
+				}
+			assert MathUtils.equalWithinFPError(spans.getGreatestDepthBelow(i), depth);
+			assert MathUtils.equalWithinFPError(spans.getLargestLengthSpan(i), span);
+			}
+		assert tree.maxDistance() == 2 * spans.getGreatestDepthBelow(0);
+		}
+	}
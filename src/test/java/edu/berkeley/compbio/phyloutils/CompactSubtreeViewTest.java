@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import com.davidsoergel.trees.NoSuchNodeException;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+
+public class CompactSubtreeViewTest
+	{
+	// -------------------------- OTHER METHODS --------------------------
+
+	/**
+	 * 100 -> 101 -> 102 -> {103, 104}
+	 *            -> 105
+	 *     -> 106
+	 */
+	private static IntegerCompactRootedPhylogeny smallTree()
+		{
+		return new IntegerCompactRootedPhylogeny(new int[]{CompactRootedPhylogeny.NO_NODE, 0, 1, 2, 2, 1, 0},
+		                                         new double[]{0, 1, 2, 1, 3, 1, 4},
+		                                         new int[]{100, 101, 102, 103, 104, 105, 106});
+		}
+
+	@Test
+	public void viewIsRootedAtCommonAncestor() throws NoSuchNodeException
+		{
+		CompactSubtreeView<Integer> view =
+				CompactSubtreeView.extract(smallTree(), Arrays.asList(103, 104), false, false);
+		assert view.size() == 3;
+		assert view.getRootPayload() == 102;
+		assert view.getLeafValues().equals(new HashSet<Integer>(Arrays.asList(103, 104)));
+		assert view.getLength(view.indexOf(104)) == 3;
+		assert view.getTotalBranchLength() == 4;
+		assert !view.isKnown(101);
+		}
+
+	@Test
+	public void chainsAreCollapsedUnlessInternalBranchesAreIncluded() throws NoSuchNodeException
+		{
+		IntegerCompactRootedPhylogeny tree = smallTree();
+
+		CompactSubtreeView<Integer> collapsed = CompactSubtreeView.extract(tree, Arrays.asList(103, 105), false, false);
+		assert collapsed.getNodeValues().equals(new HashSet<Integer>(Arrays.asList(101, 103, 105)));
+		assert collapsed.getLength(collapsed.indexOf(103)) == 3;
+		assert collapsed.getParentIndex(collapsed.indexOf(103)) == 0;
+		assert collapsed.distanceBetween(103, 105) == 4;
+
+		CompactSubtreeView<Integer> internal = CompactSubtreeView.extract(tree, Arrays.asList(103, 105), false, true);
+		assert internal.getNodeValues().equals(new HashSet<Integer>(Arrays.asList(101, 102, 103, 105)));
+		assert internal.getLength(internal.indexOf(103)) == 1;
+		assert !internal.isLeaf(102);
+		assert internal.isDescendant(102, 103);
+		assert !internal.isDescendant(102, 105);
+
+		CompactSubtreeView<Integer> wide = CompactSubtreeView.extract(tree, Arrays.asList(103, 106), false, false);
+		assert wide.size() == 3;
+		assert wide.getLength(wide.indexOf(103)) == 4;
+		assert wide.getTotalBranchLength() == 8;
+		}
+
+	@Test
+	public void uncollapsedBranchesKeepTheirExactLengths() throws NoSuchNodeException
+		{
+		// 100 -> 101 -> 102
+		//     -> 103
+		IntegerCompactRootedPhylogeny tree =
+				new IntegerCompactRootedPhylogeny(new int[]{CompactRootedPhylogeny.NO_NODE, 0, 1, 0},
+				                                  new double[]{0, 0.1, 0.2, 1}, new int[]{100, 101, 102, 103});
+
+		// 0.1 + 0.2 - 0.1 != 0.2 in floating point, so this length must not come from the depths
+		CompactSubtreeView<Integer> internal = CompactSubtreeView.extract(tree, Arrays.asList(102, 103), false, true);
+		assert internal.getLength(internal.indexOf(102)) == 0.2;
+
+		CompactSubtreeView<Integer> collapsed = CompactSubtreeView.extract(tree, Arrays.asList(102, 103), false, false);
+		assert Math.abs(collapsed.getLength(collapsed.indexOf(102)) - 0.3) < 1e-12;
+		}
+
+	@Test
+	public void requestedAncestorStaysInternal() throws NoSuchNodeException
+		{
+		CompactSubtreeView<Integer> view =
+				CompactSubtreeView.extract(smallTree(), Arrays.asList(102, 103, 999), true, false);
+		assert view.getRootPayload() == 102;
+		assert view.size() == 2;
+		assert view.isLeaf(103);
+		assert !view.isLeaf(102);
+		}
+
+	@Test(expectedExceptions = NoSuchNodeException.class)
+	public void absentNodeIsRejected() throws NoSuchNodeException
+		{
+		CompactSubtreeView.extract(smallTree(), Arrays.asList(103, 999), false, false);
+		}
+
+	@Test
+	public void virtualTreeMatchesExtraction() throws NoSuchNodeException
+		{
+		Random random = new Random(2);
+		IntegerCompactRootedPhylogeny tree = CompactRootedPhylogenyTest.randomTree(2000, random);
+		for (int trial = 0; trial < 50; trial++)
+			{
+			List<Integer> ids = new ArrayList<Integer>();
+			int k = 1 + random.nextInt(20);
+			for (int i = 0; i < k; i++)
+				{
+				ids.add(random.nextInt(tree.size()));
+				}
+
+			CompactSubtreeView<Integer> extracted = CompactSubtreeView.extract(tree, ids, false, false);
+			CompactSubtreeView<Integer> virtual = CompactSubtreeView.virtualTree(tree, ids, false);
+			assert virtual.size() == extracted.size();
+			for (int v = 0; v < virtual.size(); v++)
+				{
+				assert virtual.getBaseIndex(v) == extracted.getBaseIndex(v);
+				assert virtual.getParentIndex(v) == extracted.getParentIndex(v);
+				assert virtual.getLength(v) == extracted.getLength(v);
+				}
+			}
+		}
+	
+
+	@Test
+	public void spansAreTheLargestDistancesWithinEachSubtree() throws NoSuchNodeException
+		{
+		CompactSubtreeView<Integer> internal =
+				CompactSubtreeView.extract(smallTree(), Arrays.asList(103, 105), false, true);
+		assert internal.getLargestLengthSpan(0) == 4;
+		assert internal.getLargestLengthSpan(internal.indexOf(102)) == 1;
+		assert internal.getLargestLengthSpan(internal.indexOf(105)) == 0;
+
+		Random random = new Random(3);
+		IntegerCompactRootedPhylogeny tree = CompactRootedPhylogenyTest.randomTree(500, random);
+		for (int trial = 0; trial < 20; trial++)
+			{
+			List<Integer> ids = new ArrayList<Integer>();
+			int k = 1 + random.nextInt(15);
+			for (int i = 0; i < k; i++)
+				{
+				ids.add(random.nextInt(tree.size()));
+				}
+
+			CompactSubtreeView<Integer> view = CompactSubtreeView.extract(tree, ids, false, random.nextBoolean());
+			for (int v = 0; v < view.size(); v++)
+				{
+				double expected = 0;
+				for (int a = v; a < view.size(); a++)
+					{
+					for (int b = a; b < view.size(); b++)
+						{
+						if (view.isDescendant(view.getPayload(v), view.getPayload(a))
+						    && view.isDescendant(view.getPayload(v), view.getPayload(b)))
+							{
+							expected = Math.max(expected, view.distanceBetween(view.getPayload(a), view.getPayload(b)));
+							}
+						}
+					}
+				assert Math.abs(view.getLargestLengthSpan(v) - expected) < 1e-9;
+				}
+			}
+		}
+	}
@@ -6,12 +6,26 @@
 
 package edu.berkeley.compbio.phyloutils;
 
+import com.davidsoergel.dsutils.math.MathUtils;
+import com.davidsoergel.trees.AbstractRootedPhylogeny;
 import com.davidsoergel.trees.BasicRootedPhylogeny;
 import com.davidsoergel.trees.NoSuchNodeException;
+import com.davidsoergel.trees.PhylogenyNode;
+import com.davidsoergel.trees.RootedPhylogeny;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.SetMultimap;
 import org.apache.log4j.Logger;
 import org.testng.annotations.BeforeTest;
 import org.testng.annotations.Test;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -71,4 +85,227 @@ public class HugenholtzTaxonomyServiceTest
 		logger.info(name + " shallowest leaf -> " + idB);
 		}
 		*/
+
+	// these run on a small hand-made snapshot instead
+
+	private static HashMultimap<String, Integer> smallNameToIdsMap()
+		{
+		HashMultimap<String, Integer> result = HashMultimap.create();
+		result.put("Bacteria", 10);
+		result.put("Proteobacteria", 11);
+		result.put("Escherichia coli", 12);
+		result.put("Escherichia coli", 13);
+		result.put("Salmonella enterica", 14);
+		return result;
+		}
+
+	private static Map<String, Integer> smallOverrides()
+		{
+		Map<String, Integer> result = new HashMap<String, Integer>();
+		result.put("E. coli", 12);
+		result.put("Shigella", 12);
+		return result;
+		}
+
+	/**
+	 * Write a snapshot of a five-node tree (ids 10 to 14) with a few names, overrides and memoized lookups.
+	 */
+	static Path writeSmallSnapshot() throws IOException
+		{
+		HashMultimap<String, Integer> extraNameToIdsMap = HashMultimap.create();
+		extraNameToIdsMap.put("Gammaproteobacteria", 11);
+		Map<String, Integer> memos = new HashMap<String, Integer>();
+		memos.put("Escherichia coli K-12", 13);
+		memos.put("Salmonella", 14);
+		memos.put("Nonexistent", HugenholtzTaxonomyService.NO_VALID_ID);
+
+		Path path = Files.createTempFile("hugenholtz", ".bin");
+		path.toFile().deleteOnExit();
+		BinarySnapshot.Writer out = new BinarySnapshot.Writer(path, HugenholtzTaxonomyService.SNAPSHOT_KIND,
+		                                                      HugenholtzTaxonomyService.SNAPSHOT_VERSION);
+		out.writeIntegerTree(new IntegerCompactRootedPhylogeny(new int[]{CompactRootedPhylogeny.NO_NODE, 0, 1, 1, 0},
+		                                                       new double[]{0, 1.5, 2, 3, 4.25},
+		                                                       new int[]{10, 11, 12, 13, 14}));
+		MappedNameDictionary.write(out, smallNameToIdsMap());
+		out.writeStringIntMultimap(extraNameToIdsMap);
+		out.writeStringIntMap(smallOverrides());
+		out.writeStringIntMap(memos);
+		out.close();
+		return path;
+		}
+
+	/**
+	 * The names for an id as getCachedNamesForId used to find them, by scanning the primary names, the overrides and
+	 * the memoized lookups.
+	 */
+	private Set<String> scanNamesForId(Integer id, SetMultimap<String, Integer> nameToIdsMap,
+	                                   Map<String, Integer> overrides, Map<String, Integer> memos)
+		{
+		Set<String> result = new HashSet<String>();
+		for (Map.Entry<String, Integer> entry : overrides.entrySet())
+			{
+			if (entry.getValue().equals(id))
+				{
+				result.add(entry.getKey());
+				}
+			}
+		for (Map.Entry<String, Integer> entry : memos.entrySet())
+			{
+			if (entry.getValue().equals(id))
+				{
+				result.add(entry.getKey());
+				}
+			}
+		for (Map.Entry<String, Integer> entry : nameToIdsMap.entries())
+			{
+			if (entry.getValue().equals(id))
+				{
+				result.add(entry.getKey());
+				}
+			}
+		return result;
+		}
+
+	private void assertCachedNamesMatchScan(HugenholtzTaxonomyService service, SetMultimap<String, Integer> nameToIdsMap,
+	                                        Map<String, Integer> overrides)
+		{
+		Map<String, Integer> memos = service.getNameCache().getFoundAsMap();
+		for (int id = 10; id <= 14; id++)
+			{
+			assert service.getCachedNamesForId(id).equals(scanNamesForId(id, nameToIdsMap, overrides, memos));
+			}
+		}
+
+	@Test
+	public void cachedNamesForIdMatchScanThroughMemosAndEvictions()
+			throws IOException, PhyloUtilsException, NoSuchNodeException
+		{
+		HashMultimap<String, Integer> nameToIdsMap = smallNameToIdsMap();
+		Map<String, Integer> overrides = smallOverrides();
+
+		HugenholtzTaxonomyService service = new HugenholtzTaxonomyService();
+		service.loadSnapshot(writeSmallSnapshot());
+
+		// primary names, overrides and memos loaded from the snapshot
+		assertCachedNamesMatchScan(service, nameToIdsMap, overrides);
+		assert service.getCachedNamesForId(12).equals(
+				new HashSet<String>(Arrays.asList("Escherichia coli", "E. coli", "Shigella")));
+		assert service.getCachedNamesForId(13).contains("Escherichia coli K-12");
+
+		// a name memoized by a lookup
+		assert service.findTaxidByName("11") == 11;
+		assert service.getCachedNamesForId(11).contains("11");
+		assertCachedNamesMatchScan(service, nameToIdsMap, overrides);
+
+		// a memo replaced by another id is un-indexed from the old one
+		service.getNameCache().putFound("Salmonella", 13);
+		assert !service.getCachedNamesForId(14).contains("Salmonella");
+
+		// evicting the memos un-indexes them, but leaves the overrides
+		service.getNameCache().invalidateAll();
+		assert !service.getCachedNamesForId(11).contains("11");
+		assert !service.getCachedNamesForId(13).contains("Escherichia coli K-12");
+		assert service.getCachedNamesForId(12).contains("Shigella");
+		assertCachedNamesMatchScan(service, nameToIdsMap, overrides);
+		}
+
+	@Test
+	public void snapshotRoundTripsNamesAndMemos() throws IOException, PhyloUtilsException, NoSuchNodeException
+		{
+		HugenholtzTaxonomyService loaded = new HugenholtzTaxonomyService();
+		loaded.loadSnapshot(writeSmallSnapshot());
+		assert loaded.findTaxidByName("12") == 12;
+
+		Path path = Files.createTempFile("hugenholtz", ".bin");
+		path.toFile().deleteOnExit();
+		loaded.saveSnapshot(path);
+		HugenholtzTaxonomyService reloaded = new HugenholtzTaxonomyService();
+		reloaded.loadSnapshot(path);
+
+		for (String name : new String[]{"E. coli", "Shigella", "Escherichia coli K-12", "Salmonella", "12"})
+			{
+			assert reloaded.findTaxidByName(name).equals(loaded.findTaxidByName(name));
+			}
+		assert reloaded.findTaxidByName("Salmonella") == 14;
+		for (int id = 10; id <= 14; id++)
+			{
+			assert reloaded.getCachedNamesForId(id).equals(loaded.getCachedNamesForId(id));
+			}
+		assert reloaded.getCachedNamesForId(12).equals(
+				new HashSet<String>(Arrays.asList("Escherichia coli", "E. coli", "Shigella", "12")));
+		assert reloaded.getAllNamesForIds(new HashSet<Integer>(Arrays.asList(12, 14))).equals(
+				loaded.getAllNamesForIds(new HashSet<Integer>(Arrays.asList(12, 14))));
+		Set<String> expected = new HashSet<String>(reloaded.getCachedNamesForId(12));
+		expected.addAll(reloaded.getCachedNamesForId(14));
+		assert reloaded.getAllNamesForIds(new HashSet<Integer>(Arrays.asList(12, 14))).equals(expected);
+		assert expected.contains("Salmonella");
+		assert reloaded.findMatchingIds("Escherichia coli").equals(new HashSet<Integer>(Arrays.asList(12, 13)));
+		assert reloaded.getCompactTree().distanceBetween(13, 14) == 3 + 1.5 + 4.25;
+		}
+	
+
+	/**
+	 * The subtree as findTreeForIds used to find it, by extracting the object tree and re-rooting it at its first
+	 * branching node.
+	 */
+	private static BasicRootedPhylogeny<Integer> extractFirstBranchingSubtree(HugenholtzTaxonomyService service,
+	                                                                          Set<Integer> ids)
+			throws NoSuchNodeException
+		{
+		BasicRootedPhylogeny<Integer> tree = service.extractTreeWithLeafIDs(ids, true, true,
+		                                                                    AbstractRootedPhylogeny.MutualExclusionResolutionMode.BOTH);
+		return tree.getFirstBranchingNode().asRootedPhylogeny();
+		}
+
+	private static void assertSameTree(RootedPhylogeny<Integer> expected, RootedPhylogeny<Integer> actual)
+			throws NoSuchNodeException
+		{
+		assert actual.getPayload().equals(expected.getPayload());
+		assert actual.getNodeValues().equals(expected.getNodeValues());
+		assert actual.getLeafValues().equals(expected.getLeafValues());
+		for (Integer id : expected.getNodeValues())
+			{
+			if (!id.equals(expected.getPayload()))
+				{
+				PhylogenyNode<Integer> node = actual.getNode(id);
+				assert node.getParent().getPayload().equals(expected.getNode(id).getParent().getPayload());
+				assert MathUtils.equalWithinFPError(node.getLength(), expected.getNode(id).getLength());
+				}
+			}
+		}
+
+	private static void assertSameTree(RootedPhylogeny<Integer> expected, CompactSubtreeView<Integer> actual)
+			throws NoSuchNodeException
+		{
+		assert actual.getRootPayload().equals(expected.getPayload());
+		assert actual.getNodeValues().equals(expected.getNodeValues());
+		assert actual.getLeafValues().equals(expected.getLeafValues());
+		for (int v = 1; v < actual.size(); v++)
+			{
+			PhylogenyNode<Integer> node = expected.getNode(actual.getPayload(v));
+			assert actual.getPayload(actual.getParentIndex(v)).equals(node.getParent().getPayload());
+			assert MathUtils.equalWithinFPError(actual.getLength(v), node.getLength());
+			}
+		}
+
+	@Test
+	public void viewsMatchTheFirstBranchingSubtreeOfTheExtractedTree()
+			throws IOException, PhyloUtilsException, NoSuchNodeException
+		{
+		HugenholtzTaxonomyService service = new HugenholtzTaxonomyService();
+		service.loadSnapshot(writeSmallSnapshot());
+
+		// no id is an ancestor of another, since the old extraction re-rooted below a requested ancestor
+		List<Set<Integer>> idSets = Arrays.<Set<Integer>>asList(new HashSet<Integer>(Arrays.asList(12, 13)),
+		                                                        new HashSet<Integer>(Arrays.asList(12, 14)),
+		                                                        new HashSet<Integer>(Arrays.asList(12, 13, 14)),
+		                                                        new HashSet<Integer>(Arrays.asList(13)),
+		                                                        new HashSet<Integer>(Arrays.asList(12, 999)));
+		for (Set<Integer> ids : idSets)
+			{
+			BasicRootedPhylogeny<Integer> expected = extractFirstBranchingSubtree(service, ids);
+			assertSameTree(expected, service.extractViewWithLeafIDs(ids, true, true));
+			assertSameTree(expected, service.findTreeForIds(ids));
+			}
+		}
 	}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+
+/**
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+
+public class IntHashSetTest
+	{
+	// -------------------------- OTHER METHODS --------------------------
+
+	@Test
+	public void setHoldsEachValueOnceThroughRehashing()
+		{
+		IntHashSet set = new IntHashSet(2);
+		for (int i = -500; i < 500; i++)
+			{
+			assert set.add(i * 7);
+			}
+		assert !set.add(0);
+		assert set.size() == 1000;
+		assert set.contains(-3500);
+		assert set.contains(3493);
+		assert !set.contains(1);
+
+		int[] values = set.toArray();
+		Arrays.sort(values);
+		assert values[0] == -3500;
+		assert values[999] == 3493;
+		}
+
+	@Test
+	public void boxedViewMatchesSet()
+		{
+		IntHashSet set = IntHashSet.of(3, 1, 4, 1, 5);
+		Set<Integer> view = set.asSet();
+		assert view.size() == 4;
+		assert view.contains(4);
+		assert !view.contains(2);
+		assert !view.contains("4");
+		assert view.equals(new HashSet<Integer>(Arrays.asList(1, 3, 4, 5)));
+		assert IntHashSet.copyOf(view).size() == 4;
+		}
+
+	@Test
+	public void setsWithTheSameValuesAreEqual()
+		{
+		IntHashSet set = IntHashSet.of(3, 1, 4, 1, 5);
+		IntHashSet grown = new IntHashSet(1000);
+		for (int value : new int[]{5, 4, 3, 1})
+			{
+			grown.add(value);
+			}
+		assert set.equals(grown);
+		assert grown.equals(set);
+		assert set.hashCode() == grown.hashCode();
+		assert set.hashCode() == new HashSet<Integer>(Arrays.asList(1, 3, 4, 5)).hashCode();
+		assert !set.equals(IntHashSet.of(1, 3, 4));
+		assert !set.equals(IntHashSet.of(1, 3, 4, 6));
+		assert !set.equals(set.asSet());
+		assert new IntHashSet().equals(IntHashSet.of());
+		}
+
+	@Test(expectedExceptions = UnsupportedOperationException.class)
+	public void boxedViewIsReadOnly()
+		{
+		IntHashSet.of(1).asSet().add(2);
+		}
+
+	@Test
+	public void compactTreeAnswersUnboxedQueries()
+		{
+		// 1 -> 2 -> {3, 4}
+		//   -> 5
+		IntegerCompactRootedPhylogeny tree =
+				new IntegerCompactRootedPhylogeny(new int[]{CompactRootedPhylogeny.NO_NODE, 0, 1, 1, 0},
+				                                  new double[]{0, 1, 1, 1, 1}, new int[]{1, 2, 3, 4, 5});
+		assert tree.getLeafIdSet().asSet().equals(new HashSet<Integer>(Arrays.asList(3, 4, 5)));
+		assert tree.selectAncestors(new int[]{1, 2, 5, 99}, 4).asSet()
+				.equals(new HashSet<Integer>(Arrays.asList(1, 2)));
+		assert tree.selectAncestors(new int[]{1, 2}, 99).isEmpty();
+		}
+	}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import com.davidsoergel.trees.NoSuchNodeException;
+import com.google.common.base.Joiner;
+import com.google.common.collect.HashMultimap;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+
+/**
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+
+public class LineageResolverTest
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	private IntegerCompactRootedPhylogeny tree;
+	private HashMultimap<String, Integer> nameToIds;
+	private HashMultimap<String, Integer> extraNameToIds;
+	private LineageResolver resolver;
+
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	@BeforeClass
+	public void setUp()
+		{
+		// Bacteria(1) -> Proteobacteria(2) -> Gammaproteobacteria(3) -> {Escherichia(4), Salmonella(5)}
+		//             -> Firmicutes(6) -> Bacilli(7) -> Escherichia(8), a homonym
+		tree = new IntegerCompactRootedPhylogeny(
+				new int[]{CompactRootedPhylogeny.NO_NODE, 0, 1, 2, 2, 0, 5, 6}, new double[]{0, 1, 1, 1, 1, 1, 1, 1},
+				new int[]{1, 2, 3, 4, 5, 6, 7, 8});
+
+		nameToIds = HashMultimap.create();
+		nameToIds.put("Bacteria", 1);
+		nameToIds.put("Proteobacteria", 2);
+		nameToIds.put("Gammaproteobacteria", 3);
+		nameToIds.put("Escherichia", 4);
+		nameToIds.put("Escherichia", 8);
+		nameToIds.put("Salmonella", 5);
+		nameToIds.put("Firmicutes", 6);
+		nameToIds.put("Bacilli", 7);
+		nameToIds.put("Escherichia coli", 4);
+		nameToIds.put("Unplaced", 99);
+
+		extraNameToIds = HashMultimap.create();
+		extraNameToIds.put("Enterobacteriaceae", 3);
+		extraNameToIds.put("Salmonella", 6);
+
+		resolver = new LineageResolver(tree, nameToIds, extraNameToIds);
+		}
+
+	@Test
+	public void homonymsAreResolvedByTheirAncestors() throws NoSuchNodeException
+		{
+		assert resolver.resolve("Bacteria; Proteobacteria; Gammaproteobacteria; Escherichia") == 4;
+		assert resolver.resolve("Bacteria; Firmicutes; Bacilli; Escherichia") == 8;
+		assert resolver.resolve("Bacteria;Firmicutes;;Escherichia coli") == 8;
+		assert resolver.resolve("Enterobacteriaceae; Escherichia") == 4;
+		}
+
+	@Test
+	public void uniqueLowestLevelNeedNotMatchAbove() throws NoSuchNodeException
+		{
+		assert resolver.resolve("Salmonella") == 5;
+		assert resolver.resolve("Firmicutes; Salmonella") == 5;
+		assert resolver.resolve("Bacteria; Unplaced; Nonexistent; Salmonella") == 5;
+		}
+
+	@Test
+	public void pathsThatStayAmbiguousMeetAtTheirConsensus() throws NoSuchNodeException
+		{
+		assert resolver.resolve("Bacteria; Escherichia") == 1;
+		}
+
+	@Test(expectedExceptions = NoSuchNodeException.class)
+	public void inconsistentPathIsRejected() throws NoSuchNodeException
+		{
+		resolver.resolve("Salmonella; Escherichia");
+		}
+
+	@Test(expectedExceptions = NoSuchNodeException.class)
+	public void unresolvedPathIsRejected() throws NoSuchNodeException
+		{
+		resolver.resolve("Escherichia; Unplaced");
+		}
+
+	@Test
+	public void batchResolvesInOrder()
+		{
+		int[] ids = resolver.resolveAll(Arrays.asList("Bacteria; Proteobacteria; Gammaproteobacteria; Escherichia",
+		                                              "Salmonella; Escherichia", "Bacilli; Escherichia", ""));
+		assert Arrays.equals(ids, new int[]{4, LineageResolver.NOT_RESOLVED, 8, LineageResolver.NOT_RESOLVED});
+		}
+	
+	@Test
+	public void resolverOverMappedDictionaryMatches() throws IOException, PhyloUtilsException
+		{
+		Path path = Files.createTempFile("names", ".bin");
+		path.toFile().deleteOnExit();
+		MappedNameDictionary.write(path, nameToIds);
+		LineageResolver mapped = new LineageResolver(tree, new MappedNameDictionary(path), extraNameToIds);
+
+		List<String> lineages = Arrays.asList("Bacteria; Proteobacteria; Gammaproteobacteria; Escherichia",
+		                                      "Bacteria; Firmicutes; Bacilli; Escherichia", "Enterobacteriaceae; Escherichia",
+		                                      "Firmicutes; Salmonella", "Bacteria; Escherichia", "Salmonella; Escherichia",
+		                                      "Escherichia; Unplaced", "Bacteria;Firmicutes;;Escherichia coli", "");
+		assert Arrays.equals(mapped.resolveAll(lineages), resolver.resolveAll(lineages));
+		}
+
+	/**
+	 * The bottom-up search that LineageResolver replaced, over the given parent array, with the candidates for each name
+	 * given as node indexes: the paths are extended at each level by their ancestors with that level's name, until a
+	 * level has a single match, and the answer is the deepest node containing at least 75% of the paths' bottoms.
+	 */
+	private static int resolveBottomUp(int[] parent, HashMultimap<String, Integer> nameToNodes, String lineage)
+			throws NoSuchNodeException
+		{
+		String[] taxa = lineage.split("[; ]+");
+		List<int[]> paths = null;
+		for (int level = taxa.length - 1; level >= 0; level--)
+			{
+			Set<Integer> matchingNodes = nameToNodes.get(taxa[level]);
+			if (matchingNodes.isEmpty())
+				{
+				continue;
+				}
+			if (paths == null)
+				{
+				paths = new ArrayList<int[]>();
+				for (Integer node : matchingNodes)
+					{
+					paths.add(new int[]{node, node});
+					}
+				}
+			else
+				{
+				List<int[]> okPaths = new ArrayList<int[]>();
+				for (int[] path : paths)
+					{
+					for (Integer ancestor : matchingNodes)
+						{
+						if (isAncestorOrSelf(parent, ancestor, path[1]))
+							{
+							path[1] = ancestor;
+							okPaths.add(path);
+							}
+						}
+					}
+				paths = okPaths;
+				}
+
+			if (paths.isEmpty())
+				{
+				throw new NoSuchNodeException("Requested classification path does not match tree: " + lineage);
+				}
+			if (matchingNodes.size() == 1)
+				{
+				int threshold = (int) Math.ceil(paths.size() * 0.75);
+				int result = -1;
+				for (int node = 0; node < parent.length; node++)
+					{
+					int count = 0;
+					for (int[] path : paths)
+						{
+						if (isAncestorOrSelf(parent, node, path[0]))
+							{
+							count++;
+							}
+						}
+					if (count >= threshold && (result < 0 || depth(parent, node) > depth(parent, result)))
+						{
+						result = node;
+						}
+					}
+				return result;
+				}
+			}
+		throw new NoSuchNodeException("Multiple distinct matching paths: " + lineage);
+		}
+
+	private static boolean isAncestorOrSelf(int[] parent, int ancestor, int node)
+		{
+		for (int n = node; n != CompactRootedPhylogeny.NO_NODE; n = parent[n])
+			{
+			if (n == ancestor)
+				{
+				return true;
+				}
+			}
+		return false;
+		}
+
+	private static int depth(int[] parent, int node)
+		{
+		int result = 0;
+		for (int n = parent[node]; n != CompactRootedPhylogeny.NO_NODE; n = parent[n])
+			{
+			result++;
+			}
+		return result;
+		}
+
+	@Test
+	public void resolverMatchesBottomUpSearchOnAmbiguousLineages()
+		{
+		// a random tree in preorder with few distinct names, so most of them are homonyms; a name is never reused along a
+		// path from the root, so each node has at most one ancestor with a given name
+		Random random = new Random(1234);
+		int size = 400;
+		int[] parent = new int[size];
+		int[] ids = new int[size];
+		String[] nodeNames = new String[size];
+		HashMultimap<String, Integer> nameToNodes = HashMultimap.create();
+		HashMultimap<String, Integer> randomNameToIds = HashMultimap.create();
+		parent[0] = CompactRootedPhylogeny.NO_NODE;
+		for (int i = 0; i < size; i++)
+			{
+			if (i > 0)
+				{
+				// any ancestor of the previous node (or that node itself) may be the parent of the next, in preorder; the
+				// depth is kept well below the number of names
+				int p = i - 1;
+				while (parent[p] != CompactRootedPhylogeny.NO_NODE && (random.nextInt(3) == 0 || depth(parent, p) >= 12))
+					{
+					p = parent[p];
+					}
+				parent[i] = p;
+				}
+			ids[i] = 1000 + i;
+			String name;
+			do
+				{
+				name = "taxon" + random.nextInt(30);
+				}
+			while (hasAncestorNamed(parent, nodeNames, i, name));
+			nodeNames[i] = name;
+			nameToNodes.put(name, i);
+			randomNameToIds.put(name, ids[i]);
+			}
+		double[] lengths = new double[size];
+		Arrays.fill(lengths, 1);
+		LineageResolver randomResolver =
+				new LineageResolver(new IntegerCompactRootedPhylogeny(parent, lengths, ids), randomNameToIds,
+				                    HashMultimap.<String, Integer>create());
+
+		int resolved = 0;
+		for (int q = 0; q < 2000; q++)
+			{
+			// the names from the root down to a random node, with some levels dropped or replaced
+			List<String> levels = new ArrayList<String>();
+			for (int n = random.nextInt(size); n != CompactRootedPhylogeny.NO_NODE; n = parent[n])
+				{
+				int r = random.nextInt(20);
+				if (r < 14)
+					{
+					levels.add(0, nodeNames[n]);
+					}
+				else if (r < 16)
+					{
+					levels.add(0, "unknown" + r);
+					}
+				else if (r < 17)
+					{
+					levels.add(0, "taxon" + random.nextInt(30));
+					}
+				}
+			String lineage = Joiner.on("; ").join(levels);
+
+			Integer expected;
+			try
+				{
+				int node = resolveBottomUp(parent, nameToNodes, lineage);
+				expected = ids[node];
+				resolved++;
+				}
+			catch (NoSuchNodeException e)
+				{
+				expected = null;
+				}
+			try
+				{
+				int actual = randomResolver.resolve(lineage);
+				assert expected != null && actual == expected : lineage;
+				}
+			catch (NoSuchNodeException e)
+				{
+				assert expected == null : lineage;
+				}
+			}
+		// make sure both outcomes were exercised
+		assert resolved > 100 && resolved < 2000;
+		}
+
+	private static boolean hasAncestorNamed(int[] parent, String[] nodeNames, int node, String name)
+		{
+		for (int n = parent[node]; n != CompactRootedPhylogeny.NO_NODE; n = parent[n])
+			{
+			if (nodeNames[n].equals(name))
+				{
+				return true;
+				}
+			}
+		return false;
+		}
+	}
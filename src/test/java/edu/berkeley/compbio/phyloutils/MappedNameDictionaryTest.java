@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Ordering;
+import com.google.common.primitives.Ints;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+
+public class MappedNameDictionaryTest
+	{
+	// -------------------------- OTHER METHODS --------------------------
+
+	private Path tempFile() throws IOException
+		{
+		Path path = Files.createTempFile("names", ".bin");
+		path.toFile().deleteOnExit();
+		return path;
+		}
+
+	@Test
+	public void dictionaryFindsIdsAndNames() throws IOException, PhyloUtilsException
+		{
+		HashMultimap<String, Integer> nameToIds = HashMultimap.create();
+		nameToIds.put("Bacteria", 2);
+		nameToIds.put("Escherichia coli", 562);
+		nameToIds.put("Escherichia coli", 83333);
+		nameToIds.put("E. coli", 562);
+		nameToIds.put("Salmonella enterica subsp. \u00e9", 28901);
+		nameToIds.put("", 1);
+
+		Path path = tempFile();
+		MappedNameDictionary.write(path, nameToIds);
+		MappedNameDictionary dictionary = new MappedNameDictionary(path);
+
+		assert dictionary.size() == 5;
+		for (String name : nameToIds.keySet())
+			{
+			assert dictionary.getIds(name).equals(nameToIds.get(name));
+			}
+		assert dictionary.getIds("Escherichia").isEmpty();
+		assert dictionary.getIds("Escherichia coli K-12").isEmpty();
+		assert dictionary.getUniqueId("Bacteria") == 2;
+		assert dictionary.getUniqueId("Archaea") == MappedNameDictionary.NOT_FOUND;
+		assert dictionary.containsName("E. coli");
+		assert dictionary.getNames(562).size() == 2;
+		assert dictionary.getNames(562).contains("E. coli");
+		assert dictionary.getNames(28901).contains("Salmonella enterica subsp. \u00e9");
+		assert dictionary.getNames(3).isEmpty();
+		assert dictionary.toMultimap().equals(nameToIds);
+		for (int i = 0; i < dictionary.size(); i++)
+			{
+			assert Ints.asList(dictionary.getIdsAt(i)).equals(Ordering.natural().sortedCopy(
+					nameToIds.get(dictionary.getNameAt(i))));
+			}
+		assert dictionary.getNameAt(0).isEmpty();
+
+		assert dictionary.longestKnownPrefix("Escherichia coli K-12") == "Escherichia coli".length();
+		assert dictionary.longestKnownPrefix("Salmonella enterica subsp. \u00e9 serovar") == 28;
+		assert dictionary.longestKnownPrefix("Bacteria2") == -1;
+		assert dictionary.longestKnownPrefix(" leading space") == 0;
+		assert dictionary.getUniqueIdOfLongestKnownPrefix("Escherichia coli K-12") == 562;
+		assert dictionary.getUniqueIdOfLongestKnownPrefix("Salmonella enterica subsp. \u00e9 serovar") == 28901;
+		assert dictionary.getUniqueIdOfLongestKnownPrefix("Bacteria2") == MappedNameDictionary.NOT_FOUND;
+		assert dictionary.getUniqueIdOfLongestKnownPrefix(" leading space") == 1;
+		}
+
+	@Test
+	public void dictionaryOfUniqueNamesRoundTrips() throws IOException, PhyloUtilsException
+		{
+		Map<String, Integer> nameToId = new HashMap<String, Integer>();
+		for (int i = 0; i < 1000; i++)
+			{
+			nameToId.put("taxon " + i, i);
+			}
+
+		Path path = tempFile();
+		MappedNameDictionary.write(path, nameToId);
+		MappedNameDictionary dictionary = new MappedNameDictionary(path);
+
+		for (Map.Entry<String, Integer> entry : nameToId.entrySet())
+			{
+			assert dictionary.getUniqueId(entry.getKey()) == entry.getValue();
+			}
+		assert dictionary.getUniqueId("taxon 1000") == MappedNameDictionary.NOT_FOUND;
+		}
+
+	@Test(expectedExceptions = PhyloUtilsException.class)
+	public void snapshotOfAnotherKindIsRejected() throws IOException, PhyloUtilsException
+		{
+		Path path = tempFile();
+		new BinarySnapshot.Writer(path, "Other", 1).close();
+		new MappedNameDictionary(path);
+		}
+	
+
+	@Test(expectedExceptions = UnsupportedOperationException.class)
+	public void namesOfAnIdAreUnmodifiable() throws IOException, PhyloUtilsException
+		{
+		HashMultimap<String, Integer> nameToIds = HashMultimap.create();
+		nameToIds.put("Escherichia coli", 562);
+		nameToIds.put("E. coli", 562);
+		Path path = tempFile();
+		MappedNameDictionary.write(path, nameToIds);
+
+		new MappedNameDictionary(path).getNames(562).add("Shigella");
+		}
+	}
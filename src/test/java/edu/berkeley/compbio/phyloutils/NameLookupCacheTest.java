@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+
+public class NameLookupCacheTest
+	{
+	// -------------------------- OTHER METHODS --------------------------
+
+	@Test
+	public void foundAndNotFoundNamesAreCachedSeparately()
+		{
+		NameLookupCache cache = new NameLookupCache();
+		Map<String, Integer> memos = new HashMap<String, Integer>();
+		memos.put("Escherichia coli", 562);
+		memos.put("no such taxon", Integer.MIN_VALUE);
+		cache.putAll(memos, Integer.MIN_VALUE);
+
+		assert cache.getFound("Escherichia coli") == 562;
+		assert cache.getFound("no such taxon") == null;
+		assert cache.isNotFound("no such taxon");
+		assert !cache.isNotFound("Escherichia coli");
+		assert cache.getFoundAsMap().size() == 1;
+
+		cache.putFound("no such taxon", 7);
+		assert !cache.isNotFound("no such taxon");
+		assert cache.getFoundStats().hitCount() == 1;
+		assert cache.getFoundStats().missCount() == 1;
+		}
+
+	@Test
+	public void cacheIsBoundedByTheLengthOfItsNames()
+		{
+		NameLookupCache cache = new NameLookupCache(10000, 10, 1, TimeUnit.HOURS);
+		for (int i = 0; i < 10000; i++)
+			{
+			cache.putFound("a rather long and noisy read label number " + i, i);
+			cache.putNotFound("unknown " + i);
+			}
+		assert cache.getFoundAsMap().size() < 10000 / 32;
+		assert cache.getFoundStats().evictionCount() > 0;
+		assert cache.getFound("a rather long and noisy read label number 9999") == 9999;
+		assert cache.isNotFound("unknown 9999");
+		assert !cache.isNotFound("unknown 0");
+		}
+
+	@Test
+	public void notFoundNamesExpire() throws InterruptedException
+		{
+		NameLookupCache cache = new NameLookupCache(10000, 10, 20, TimeUnit.MILLISECONDS);
+		cache.putNotFound("unknown");
+		cache.putFound("known", 1);
+		assert cache.isNotFound("unknown");
+		Thread.sleep(100);
+		assert !cache.isNotFound("unknown");
+		assert cache.getFound("known") == 1;
+		}
+	}
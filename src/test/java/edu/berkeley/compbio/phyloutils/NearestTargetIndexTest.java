@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import com.davidsoergel.dsutils.math.MathUtils;
+import com.davidsoergel.trees.NoSuchNodeException;
+import com.davidsoergel.trees.TreeException;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+
+/**
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+
+public class NearestTargetIndexTest
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	private NearestTargetIndex<String> index;
+
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	@BeforeClass
+	public void setUp() throws IOException, TreeException, NoSuchNodeException
+		{
+		CompactRootedPhylogeny<String> tree =
+				new GenericCompactRootedPhylogeny<String>(TestPhylogenies.readGoodTree());
+		index = new NearestTargetIndex<String>(tree, Arrays.asList("raccoon", "cat"));
+		}
+
+	@Test
+	public void nearestTargetIsFoundInsideAndOutsideSubtrees() throws NoSuchNodeException
+		{
+		assert index.nearest("bear").equals("raccoon");
+		assert MathUtils.equalWithinFPError(index.distanceToNearest("bear"), 26.0);
+
+		assert index.nearest("seal").equals("raccoon");
+		assert MathUtils.equalWithinFPError(index.distanceToNearest("seal"),
+		                                    12.00300 + 7.573 + 3.87382 + 0.84600 + 19.19959);
+
+		assert index.nearest("raccoon").equals("raccoon");
+		assert index.distanceToNearest("raccoon") == 0;
+		}
+
+	@Test
+	public void minDistanceExcludesCloserTargets() throws NoSuchNodeException
+		{
+		assert index.nearest("bear", 50).equals("cat");
+		assert MathUtils.equalWithinFPError(index.distanceToNearest("bear", 50),
+		                                    6.80041 + 0.84600 + 3.87382 + 2.09460 + 20.59201 + 47.14069);
+
+		assert index.nearest("raccoon", 1).equals("cat");
+		assert index.nearest("raccoon", 1000) == null;
+		assert index.distanceToNearest("raccoon", 1000) == Double.MAX_VALUE;
+
+		double[] distances = index.distancesToNearest(Arrays.asList("bear", "raccoon", "dog"), 50);
+		assert MathUtils.equalWithinFPError(distances[0], index.distanceToNearest("bear", 50));
+		assert MathUtils.equalWithinFPError(distances[1], index.distanceToNearest("raccoon", 50));
+		assert MathUtils.equalWithinFPError(distances[2], index.distanceToNearest("dog", 50));
+		}
+	}
@@ -7,15 +7,25 @@
 package edu.berkeley.compbio.phyloutils;
 
 import com.davidsoergel.dsutils.math.MathUtils;
+import com.davidsoergel.trees.BasicRootedPhylogeny;
 import com.davidsoergel.trees.NoSuchNodeException;
+import com.davidsoergel.trees.PhylogenyNode;
 import com.davidsoergel.trees.RootedPhylogeny;
 import com.davidsoergel.trees.StringNodeNamer;
 import com.davidsoergel.trees.TreeException;
 import org.apache.log4j.Logger;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
 
 
 /**
@@ -84,4 +94,85 @@ public class NewickParserTest
 		d = p.distanceBetween("raccoon", "seal");
 		assert MathUtils.equalWithinFPError(d, 43.49541);
 		}
+	
+	@Test
+	public void newickParserReadsScientificNotationBranchLengths()
+			throws TreeException, IOException, NoSuchNodeException
+		{
+		byte[] tree = "((a:1.5e-2,b:2E1),c:3e+0);".getBytes();
+		RootedPhylogeny p =
+				new NewickParser<String>().read(new ByteArrayInputStream(tree), new StringNodeNamer("NONAME_", false, false));
+
+		assert MathUtils.equalWithinFPError(p.distanceBetween("a", "b"), 20.015);
+		assert MathUtils.equalWithinFPError(p.distanceBetween("a", "c"), 3.015);
+		}
+
+	@Test
+	public void newickParserMatchesStreamTokenizerImplementation() throws TreeException, IOException
+		{
+		String[] trees = new String[]{
+				"goodNewickTree.nh", "goodNewickTreeWithComments.nh"
+		};
+		for (String tree : trees)
+			{
+			URL url = ClassLoader.getSystemResource(tree);
+			BasicRootedPhylogeny<String> expected = new StreamTokenizerNewickParser<String>()
+					.read(url.openStream(), new StringNodeNamer("NONAME_", false, false));
+			BasicRootedPhylogeny<String> actual =
+					new NewickParser<String>().read(url.openStream(), new StringNodeNamer("NONAME_", false, false));
+			assertSameTree(expected.getRoot(), actual.getRoot());
+			}
+
+		byte[] random = RandomNewick.generate(1000, "taxon_", false, new Random(1)).getBytes();
+		BasicRootedPhylogeny<String> expected = new StreamTokenizerNewickParser<String>()
+				.read(new ByteArrayInputStream(random), new StringNodeNamer("NONAME_", false, false));
+		BasicRootedPhylogeny<String> actual = new NewickParser<String>()
+				.read(new ByteArrayInputStream(random), new StringNodeNamer("NONAME_", false, false));
+		assertSameTree(expected.getRoot(), actual.getRoot());
+		}
+
+	@Test
+	public void newickParserReadsMappedAndGzippedFiles() throws TreeException, IOException
+		{
+		byte[] random = RandomNewick.generate(100000, "taxon_", false, new Random(1)).getBytes();
+		BasicRootedPhylogeny<String> expected = new NewickParser<String>()
+				.read(new ByteArrayInputStream(random), new StringNodeNamer("NONAME_", false, false));
+
+		Path plain = File.createTempFile("newickParserTest", ".nh").toPath();
+		Path gzipped = File.createTempFile("newickParserTest", ".nh.gz").toPath();
+		try
+			{
+			Files.write(plain, random);
+			OutputStream os = new GZIPOutputStream(Files.newOutputStream(gzipped));
+			os.write(random);
+			os.close();
+
+			assertSameTree(expected.getRoot(),
+			               new NewickParser<String>().read(plain, new StringNodeNamer("NONAME_", false, false))
+					               .getRoot());
+			assertSameTree(expected.getRoot(),
+			               new NewickParser<String>().read(gzipped, new StringNodeNamer("NONAME_", false, false))
+					               .getRoot());
+			}
+		finally
+			{
+			Files.delete(plain);
+			Files.delete(gzipped);
+			}
+		}
+
+	private static void assertSameTree(PhylogenyNode<String> expected, PhylogenyNode<String> actual)
+		{
+		assert expected.getPayload().equals(actual.getPayload());
+		assert expected.getLength() == null ? actual.getLength() == null
+		                                    : expected.getLength().equals(actual.getLength());
+		assert expected.getChildren().size() == actual.getChildren().size();
+
+		Iterator<? extends PhylogenyNode<String>> e = expected.getChildren().iterator();
+		Iterator<? extends PhylogenyNode<String>> a = actual.getChildren().iterator();
+		while (e.hasNext())
+			{
+			assertSameTree(e.next(), a.next());
+			}
+		}
 	}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import com.davidsoergel.trees.NoSuchNodeException;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimaps;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+
+/**
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+
+public class NewickWithSynonymsAndRanksTaxonomyServiceTest
+	{
+	// -------------------------- OTHER METHODS --------------------------
+
+	/**
+	 * Write a snapshot of a five-node tree (ids 10 to 14) with scientific names and synonyms, as loaded from a synonyms
+	 * file in which "coli" is ambiguous.
+	 */
+	private static Path writeSmallSnapshot() throws IOException
+		{
+		Map<String, Integer> taxIdByName = new HashMap<String, Integer>();
+		taxIdByName.put("10", 10);
+		taxIdByName.put("Bacteria", 10);
+		taxIdByName.put("12", 12);
+		taxIdByName.put("Escherichia", 12);
+		taxIdByName.put("Escherichia coli", 12);
+		taxIdByName.put("13", 13);
+		taxIdByName.put("Shigella", 13);
+
+		HashMultimap<String, Integer> scientificNames = HashMultimap.create();
+		scientificNames.put("Bacteria", 10);
+		scientificNames.put("Escherichia", 12);
+		scientificNames.put("Shigella", 13);
+
+		HashMultimap<String, Integer> synonyms = HashMultimap.create();
+		synonyms.put("10", 10);
+		synonyms.put("Bacteria", 10);
+		synonyms.put("12", 12);
+		synonyms.put("Escherichia", 12);
+		synonyms.put("Escherichia coli", 12);
+		synonyms.put("coli", 12);
+		synonyms.put("13", 13);
+		synonyms.put("Shigella", 13);
+		synonyms.put("coli", 13);
+
+		Path path = Files.createTempFile("newick", ".bin");
+		path.toFile().deleteOnExit();
+		BinarySnapshot.Writer out = new BinarySnapshot.Writer(path,
+		                                                      NewickWithSynonymsAndRanksTaxonomyService.SNAPSHOT_KIND,
+		                                                      NewickWithSynonymsAndRanksTaxonomyService.SNAPSHOT_VERSION);
+		out.writeIntegerTree(new IntegerCompactRootedPhylogeny(new int[]{CompactRootedPhylogeny.NO_NODE, 0, 1, 1, 0},
+		                                                       new double[]{0, 1.5, 2, 3, 4.25},
+		                                                       new int[]{10, 11, 12, 13, 14}));
+		MappedNameDictionary.write(out, Multimaps.forMap(taxIdByName));
+		MappedNameDictionary.write(out, scientificNames);
+		MappedNameDictionary.write(out, synonyms);
+		out.close();
+		return path;
+		}
+
+	private void assertSmallNames(NewickWithSynonymsAndRanksTaxonomyService service) throws NoSuchNodeException
+		{
+		assert service.findTaxidByName("Bacteria") == 10;
+		assert service.findTaxidByName("Escherichia coli") == 12;
+		assert service.findTaxidByName("13") == 13;
+		assert service.findTaxidByNameRelaxed("Escherichia coli K-12") == 12;
+		assert service.getScientificName(12).equals("Escherichia");
+		assert service.getAllNamesForIds(new HashSet<Integer>(Arrays.asList(12))).equals(
+				new HashSet<String>(Arrays.asList("12", "Escherichia", "Escherichia coli", "coli")));
+		assert service.getAllNamesForIds(new HashSet<Integer>(Arrays.asList(10, 13))).equals(
+				new HashSet<String>(Arrays.asList("10", "Bacteria", "13", "Shigella", "coli")));
+		}
+
+	@Test
+	public void snapshotRoundTripsNames() throws IOException, PhyloUtilsException, NoSuchNodeException
+		{
+		NewickWithSynonymsAndRanksTaxonomyService loaded = new NewickWithSynonymsAndRanksTaxonomyService();
+		loaded.loadSnapshot(writeSmallSnapshot());
+		assertSmallNames(loaded);
+
+		Path path = Files.createTempFile("newick", ".bin");
+		path.toFile().deleteOnExit();
+		loaded.saveSnapshot(path);
+		NewickWithSynonymsAndRanksTaxonomyService reloaded = new NewickWithSynonymsAndRanksTaxonomyService();
+		reloaded.loadSnapshot(path);
+		assertSmallNames(reloaded);
+		assert reloaded.getCompactPhylogeny().distanceBetween(13, 14) == 3 + 1.5 + 4.25;
+		}
+
+	@Test(expectedExceptions = NoSuchNodeException.class)
+	public void snapshotLeavesAmbiguousNamesOut() throws IOException, PhyloUtilsException, NoSuchNodeException
+		{
+		NewickWithSynonymsAndRanksTaxonomyService service = new NewickWithSynonymsAndRanksTaxonomyService();
+		service.loadSnapshot(writeSmallSnapshot());
+		service.findTaxidByName("coli");
+		}
+	}
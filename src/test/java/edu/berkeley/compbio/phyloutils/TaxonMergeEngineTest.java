@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+
+public class TaxonMergeEngineTest
+	{
+	// -------------------------- OTHER METHODS --------------------------
+
+	@Test
+	public void mergeRootsAreTheTopmostNodesWithinTheThreshold()
+		{
+		// 0 -> 1 -> {2, 3}
+		//   -> 4 -> 5
+		IntegerCompactRootedPhylogeny tree =
+				new IntegerCompactRootedPhylogeny(new int[]{CompactRootedPhylogeny.NO_NODE, 0, 1, 1, 0, 4},
+				                                  new double[]{0, 5, 1, 2, 1, 4}, new int[]{0, 1, 2, 3, 4, 5});
+		TaxonMergeEngine<Integer> engine = new TaxonMergeEngine<Integer>(tree);
+		assert engine.getLargestLengthSpan(1) == 3;
+		assert engine.getLargestLengthSpan(4) == 4;
+		assert engine.getLargestLengthSpan(0) == 12;
+
+		int[] roots = engine.selectMergeRoots(4);
+		assert Arrays.equals(roots, new int[]{1, 4});
+		assert Arrays.equals(engine.selectMergeRoots(3), new int[]{1, 5});
+
+		Map<Integer, Set<Integer>> taxonsets = new HashMap<Integer, Set<Integer>>();
+		taxonsets.put(2, new HashSet<Integer>(Arrays.asList(20, 21)));
+		taxonsets.put(5, new HashSet<Integer>(Arrays.asList(50)));
+		List<Set<Integer>> merged = engine.collectSubtrees(roots, taxonsets);
+		assert merged.get(0).equals(new HashSet<Integer>(Arrays.asList(1, 2, 3, 20, 21)));
+		assert merged.get(1).equals(new HashSet<Integer>(Arrays.asList(4, 5, 50)));
+		}
+	}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import com.davidsoergel.trees.AbstractRootedPhylogeny;
+import com.davidsoergel.trees.BasicRootedPhylogeny;
+import com.davidsoergel.trees.DepthFirstTreeIterator;
+import com.davidsoergel.trees.NoSuchNodeException;
+import com.davidsoergel.trees.PhylogenyNode;
+import com.davidsoergel.trees.RootedPhylogeny;
+import com.davidsoergel.trees.TreeException;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+
+public class TaxonMergerTest
+	{
+	// -------------------------- STATIC METHODS --------------------------
+
+	/**
+	 * The merge as it was done before TaxonMergeEngine: a depth-first walk over the pruned tree, computing the span of
+	 * each node from scratch and merging the first subtree found within the threshold on each path.
+	 */
+	private static <T extends Serializable> Map<T, Set<T>> mergeDepthFirst(Set<T> requestedLeafIds,
+	                                                                       TaxonomyService<T> basePhylogeny,
+	                                                                       double branchSpanMergeThreshold)
+			throws TreeException, NoSuchNodeException
+		{
+		BasicRootedPhylogeny<T> theCompleteTree = basePhylogeny.extractTreeWithLeafIDs(requestedLeafIds, false, true,
+		                                                                               AbstractRootedPhylogeny.MutualExclusionResolutionMode.BOTH);
+
+		Map<T, Set<T>> theTaxonsetsByTaxid = new HashMap<T, Set<T>>();
+		for (T id : requestedLeafIds)
+			{
+			T knownId = theCompleteTree.nearestAncestorWithBranchLength(id);
+			Set<T> currentTaxonset = theTaxonsetsByTaxid.get(knownId);
+			if (currentTaxonset == null)
+				{
+				currentTaxonset = new HashSet<T>();
+				theTaxonsetsByTaxid.put(knownId, currentTaxonset);
+				}
+			currentTaxonset.add(id);
+			}
+
+		BasicRootedPhylogeny<T> thePrunedTree = theCompleteTree
+				.extractTreeWithLeafIDs(theTaxonsetsByTaxid.keySet(), true, true,
+				                        AbstractRootedPhylogeny.MutualExclusionResolutionMode.ANCESTOR);
+
+		for (T ancestorId : thePrunedTree.getLeafValues())
+			{
+			PhylogenyNode<T> ancestor = theCompleteTree.getNode(ancestorId);
+			if (!ancestor.isLeaf())
+				{
+				Set<T> currentTaxonset = theTaxonsetsByTaxid.get(ancestorId);
+				Iterator<PhylogenyNode<T>> iter = ancestor.iterator();
+				iter.next();
+				while (iter.hasNext())
+					{
+					T descendantId = iter.next().getPayload();
+					Set<T> alreadyMergedAtDescendant = theTaxonsetsByTaxid.remove(descendantId);
+					if (alreadyMergedAtDescendant != null)
+						{
+						currentTaxonset.addAll(alreadyMergedAtDescendant);
+						}
+					}
+				}
+			}
+
+		Map<T, Set<T>> theMergedTaxa = new HashMap<T, Set<T>>();
+		DepthFirstTreeIterator<T, PhylogenyNode<T>> it = thePrunedTree.depthFirstIterator();
+		while (it.hasNext())
+			{
+			PhylogenyNode<T> node = it.next();
+			if (node.getLargestLengthSpan() <= branchSpanMergeThreshold)
+				{
+				Set<T> mergeTaxa = new HashSet<T>();
+				for (PhylogenyNode<T> descendant : node)
+					{
+					T id = descendant.getPayload();
+					mergeTaxa.add(id);
+					Set<T> subIds = theTaxonsetsByTaxid.remove(id);
+					if (subIds != null)
+						{
+						mergeTaxa.addAll(subIds);
+						}
+					}
+				it.skipAllDescendants(node);
+				theMergedTaxa.put(node.getPayload(), mergeTaxa);
+				}
+			else
+				{
+				// taxa hooked up at a node whose span is too large are dropped
+				theTaxonsetsByTaxid.remove(node.getPayload());
+				}
+			}
+		return theMergedTaxa;
+		}
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	@Test
+	public void mergeMatchesDepthFirstMerge() throws TreeException, IOException, NoSuchNodeException
+		{
+		RootedPhylogeny<String> tree = TestPhylogenies.readGoodTree();
+		RootedPhylogenyAsService<String> service = new RootedPhylogenyAsService<String>(tree);
+
+		Set<String> allLeaves = new HashSet<String>(tree.getLeafValues());
+		Set<String> someLeaves = new HashSet<String>(Arrays.asList("raccoon", "bear", "seal", "cat", "weasel"));
+		for (Set<String> leaves : Arrays.asList(allLeaves, someLeaves))
+			{
+			for (double threshold : new double[]{0, 10, 20, 26, 40, 80, 150, 1000})
+				{
+				Map<String, Set<String>> expected = mergeDepthFirst(leaves, service, threshold);
+				Map<String, Set<String>> merged = TaxonMerger.merge(leaves, service, threshold);
+				assert merged.equals(expected) : "threshold " + threshold + ": " + merged + " != " + expected;
+				}
+			}
+		}
+	}
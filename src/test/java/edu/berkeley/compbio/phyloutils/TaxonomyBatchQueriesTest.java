@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import com.davidsoergel.trees.NoSuchNodeException;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+
+/**
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+
+public class TaxonomyBatchQueriesTest
+	{
+	// ------------------------------ FIELDS ------------------------------
+
+	private IntegerCompactRootedPhylogeny tree;
+
+
+	// -------------------------- OTHER METHODS --------------------------
+
+	@BeforeClass
+	public void setUp()
+		{
+		// 1 -> 2 -> {3, 4}
+		//   -> 5 -> 6
+		tree = new IntegerCompactRootedPhylogeny(new int[]{CompactRootedPhylogeny.NO_NODE, 0, 1, 1, 0, 4},
+		                                         new double[]{0, 1, 2, 3, 4, 5}, new int[]{1, 2, 3, 4, 5, 6});
+		}
+
+	@Test
+	public void unknownIdsGiveSentinelsInsteadOfFailing() throws NoSuchNodeException
+		{
+		boolean[] known = new boolean[3];
+		TaxonomyBatchQueries.isKnown(tree, new int[]{3, 99, 6}, known);
+		assert Arrays.equals(known, new boolean[]{true, false, true});
+
+		boolean[] descendant = new boolean[4];
+		TaxonomyBatchQueries.isDescendant(tree, 2, new int[]{3, 6, 99, 2}, descendant);
+		assert Arrays.equals(descendant, new boolean[]{true, false, false, true});
+
+		double[] distances = new double[3];
+		TaxonomyBatchQueries.minDistanceBetween(tree, new int[]{3, 3, 99}, new int[]{4, 6, 1}, distances);
+		assert distances[0] == 5;
+		assert distances[1] == 12;
+		assert Double.isNaN(distances[2]);
+
+		double[] depths = new double[2];
+		TaxonomyBatchQueries.getDepthFromRoot(tree, new int[]{6, 99}, depths);
+		assert depths[0] == 9;
+		assert Double.isNaN(depths[1]);
+		}
+
+	@Test(expectedExceptions = NoSuchNodeException.class)
+	public void unknownAncestorFails() throws NoSuchNodeException
+		{
+		TaxonomyBatchQueries.isDescendant(tree, 99, new int[]{3}, new boolean[1]);
+		}
+
+	@Test(expectedExceptions = PhyloUtilsRuntimeException.class)
+	public void shortOutputFails()
+		{
+		TaxonomyBatchQueries.isKnown(tree, new int[]{1, 2}, new boolean[1]);
+		}
+
+	@Test
+	public void largeBatchesMatchSingleQueries() throws NoSuchNodeException
+		{
+		int n = 3 * TaxonomyBatchQueries.PARALLEL_THRESHOLD;
+		Random random = new Random(1);
+		int[] a = new int[n];
+		int[] b = new int[n];
+		for (int i = 0; i < n; i++)
+			{
+			a[i] = 1 + random.nextInt(6);
+			b[i] = 1 + random.nextInt(6);
+			}
+
+		double[] distances = new double[n];
+		TaxonomyBatchQueries.minDistanceBetween(tree, a, b, distances);
+		boolean[] descendant = new boolean[n];
+		TaxonomyBatchQueries.isDescendant(tree, 5, a, descendant);
+		for (int i = 0; i < n; i++)
+			{
+			assert distances[i] == tree.distanceBetween(a[i], b[i]);
+			assert descendant[i] == tree.isDescendant(5, a[i]);
+			}
+		}
+
+	@Test
+	public void namesAreLookedUpInTheGivenMap()
+		{
+		Map<String, Integer> nameToId = new HashMap<String, Integer>();
+		nameToId.put("Bacteria", 1);
+		nameToId.put("Proteobacteria", 2);
+
+		int[] ids = new int[3];
+		TaxonomyBatchQueries.findTaxidsByName(nameToId, Arrays.asList("Proteobacteria", "Nonexistent", "Bacteria"), ids);
+		assert Arrays.equals(ids, new int[]{2, BatchTaxonomyService.NOT_FOUND, 1});
+		}
+	}
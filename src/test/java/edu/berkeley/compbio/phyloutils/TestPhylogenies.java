@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import com.davidsoergel.trees.RootedPhylogeny;
+import com.davidsoergel.trees.StringNodeNamer;
+import com.davidsoergel.trees.TreeException;
+
+import java.io.IOException;
+import java.net.URL;
+
+
+/**
+ * Trees shared by the tests.
+ *
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+public final class TestPhylogenies
+	{
+	// --------------------------- CONSTRUCTORS ---------------------------
+
+	private TestPhylogenies()
+		{
+		}
+
+	// -------------------------- STATIC METHODS --------------------------
+
+	/**
+	 * @return a new copy of the eight-leaf tree in goodNewickTree.nh, whose unnamed internal nodes are given names
+	 *         starting with NONAME_
+	 */
+	public static RootedPhylogeny<String> readGoodTree() throws TreeException, IOException
+		{
+		URL url = ClassLoader.getSystemResource("goodNewickTree.nh");
+		return new NewickParser<String>().read(url.openStream(), new StringNodeNamer("NONAME_", false, false));
+		}
+	}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils;
+
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+
+/**
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+
+public class WordPrefixTrieTest
+	{
+	// -------------------------- OTHER METHODS --------------------------
+
+	/**
+	 * The relaxation that the trie replaces: chop off the last word until the name is known.
+	 */
+	private int relaxByChopping(Map<String, Integer> nameToId, String name)
+		{
+		while (true)
+			{
+			if (nameToId.containsKey(name))
+				{
+				return name.length();
+				}
+			int space = name.lastIndexOf(" ");
+			if (space < 0)
+				{
+				return -1;
+				}
+			name = name.substring(0, space);
+			}
+		}
+
+	private String randomName(Random random)
+		{
+		String[] words = {"Escherichia", "coli", "K-12", "str.", "", "sp.", "MG1655", "Bacillus"};
+		StringBuilder sb = new StringBuilder(words[random.nextInt(words.length)]);
+		int extra = random.nextInt(5);
+		for (int i = 0; i < extra; i++)
+			{
+			sb.append(' ').append(words[random.nextInt(words.length)]);
+			}
+		return sb.toString();
+		}
+
+	@Test
+	public void longestKnownPrefixMatchesRelaxationByWords()
+		{
+		Map<String, Integer> nameToId = new HashMap<String, Integer>();
+		nameToId.put("Escherichia", 561);
+		nameToId.put("Escherichia coli", 562);
+		nameToId.put("Escherichia coli K-12 str. MG1655", 511145);
+		WordPrefixTrie trie = new WordPrefixTrie(nameToId);
+
+		assert trie.size() == 3;
+		assert trie.longestKnownPrefix("Escherichia coli K-12") == "Escherichia coli".length();
+		assert trie.longestKnownPrefix("Escherichia coli K-12 str. MG1655") == "Escherichia coli K-12 str. MG1655".length();
+		assert trie.longestKnownPrefix("Escherichia colin") == "Escherichia".length();
+		assert trie.longestKnownPrefix("Bacillus subtilis") == -1;
+		assert trie.getLongestKnownPrefix("Escherichia coli K-12") == 562;
+		assert trie.getLongestKnownPrefix("Escherichia colin") == 561;
+		assert trie.getLongestKnownPrefix("Bacillus subtilis") == WordPrefixTrie.NOT_FOUND;
+		assert trie.get("Escherichia coli") == 562;
+		assert trie.get("Escherichia coli K-12") == WordPrefixTrie.NOT_FOUND;
+		assert trie.get("Escherichia coli K-12", "Escherichia coli".length()) == 562;
+		}
+
+	@Test
+	public void randomNamesRelaxAsByChopping()
+		{
+		Random random = new Random(1234);
+		Map<String, Integer> nameToId = new HashMap<String, Integer>();
+		WordPrefixTrie trie = new WordPrefixTrie();
+		for (int i = 0; i < 500; i++)
+			{
+			String name = randomName(random);
+			nameToId.put(name, i);
+			trie.put(name, i);
+			}
+		assert trie.size() == nameToId.size();
+
+		for (int i = 0; i < 2000; i++)
+			{
+			String name = randomName(random);
+			int expected = relaxByChopping(nameToId, name);
+			assert trie.longestKnownPrefix(name) == expected;
+			if (expected >= 0)
+				{
+				assert trie.get(name, expected) == nameToId.get(name.substring(0, expected));
+				assert trie.getLongestKnownPrefix(name) == nameToId.get(name.substring(0, expected));
+				}
+			else
+				{
+				assert trie.getLongestKnownPrefix(name) == WordPrefixTrie.NOT_FOUND;
+				}
+			}
+		}
+	}
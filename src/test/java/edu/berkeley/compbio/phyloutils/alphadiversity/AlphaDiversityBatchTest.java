@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils.alphadiversity;
+
+import com.davidsoergel.dsutils.math.MathUtils;
+import com.davidsoergel.trees.AbstractRootedPhylogeny;
+import com.davidsoergel.trees.NoSuchNodeException;
+import com.davidsoergel.trees.RootedPhylogeny;
+import com.davidsoergel.trees.TreeException;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import edu.berkeley.compbio.phyloutils.PhyloUtilsException;
+import edu.berkeley.compbio.phyloutils.TestPhylogenies;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+
+/**
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+
+public class AlphaDiversityBatchTest
+	{
+	// -------------------------- OTHER METHODS --------------------------
+
+	@Test
+	public void batchMatchesMeasuresOfExtractedTrees() throws TreeException, IOException, NoSuchNodeException
+		{
+		RootedPhylogeny<String> tree = TestPhylogenies.readGoodTree();
+		String[][] groups = {
+				{"raccoon", "bear", "bear"},
+				{"monkey", "weasel", "cat"},
+				{"cat", "dog", "sea_lion", "dog", "seal"},
+				{"raccoon"}
+		};
+
+		List<Map<String, Double>> samples = new ArrayList<Map<String, Double>>();
+		List<RootedPhylogeny<String>> extracted = new ArrayList<RootedPhylogeny<String>>();
+		for (String[] group : groups)
+			{
+			Multiset<String> counts = HashMultiset.create(Arrays.asList(group));
+			Map<String, Double> sample = new HashMap<String, Double>();
+			for (String leaf : counts.elementSet())
+				{
+				sample.put(leaf, (double) counts.count(leaf));
+				}
+			samples.add(sample);
+
+			RootedPhylogeny<String> subtree = tree.extractTreeWithLeafIDs(counts.elementSet(), false, false,
+			                                                              AbstractRootedPhylogeny.MutualExclusionResolutionMode.EXCEPTION);
+			subtree.setLeafWeights(counts);
+			extracted.add(subtree);
+			}
+
+		AlphaDiversityBatch.Result result = new AlphaDiversityBatch<String>(tree).compute(samples);
+		for (int s = 0; s < groups.length; s++)
+			{
+			RootedPhylogeny<String> subtree = extracted.get(s);
+			assert MathUtils.equalWithinFPError(result.getShannon()[s], new Shannon<String>().measure(subtree));
+			assert MathUtils.equalWithinFPError(result.getPhylogeneticShannon()[s],
+			                                    new PhylogeneticShannon<String>().measure(subtree));
+			assert MathUtils.equalWithinFPError(result.getFaithPD()[s], new FaithPD<String>().measure(subtree));
+			}
+		}
+
+	@Test
+	public void batchOfSeveralBlocksMatchesMeasuresOfExtractedTrees()
+			throws TreeException, IOException, NoSuchNodeException
+		{
+		RootedPhylogeny<String> tree = TestPhylogenies.readGoodTree();
+		List<String> leaves = new ArrayList<String>(tree.getLeafValues());
+		Random random = new Random(2468);
+
+		// more samples than fit in one block, so that the blocks are swept in parallel and the last one is partial
+		List<Map<String, Double>> samples = new ArrayList<Map<String, Double>>();
+		List<RootedPhylogeny<String>> extracted = new ArrayList<RootedPhylogeny<String>>();
+		for (int s = 0; s < 300; s++)
+			{
+			Multiset<String> counts = HashMultiset.create();
+			int reads = 1 + random.nextInt(8);
+			for (int r = 0; r < reads; r++)
+				{
+				counts.add(leaves.get(random.nextInt(leaves.size())));
+				}
+			Map<String, Double> sample = new HashMap<String, Double>();
+			for (String leaf : counts.elementSet())
+				{
+				sample.put(leaf, (double) counts.count(leaf));
+				}
+			samples.add(sample);
+
+			RootedPhylogeny<String> subtree = tree.extractTreeWithLeafIDs(counts.elementSet(), false, false,
+			                                                              AbstractRootedPhylogeny.MutualExclusionResolutionMode.EXCEPTION);
+			subtree.setLeafWeights(counts);
+			extracted.add(subtree);
+			}
+
+		AlphaDiversityBatch.Result result = new AlphaDiversityBatch<String>(tree).compute(samples);
+		for (int s = 0; s < samples.size(); s++)
+			{
+			RootedPhylogeny<String> subtree = extracted.get(s);
+			assert MathUtils.equalWithinFPError(result.getShannon()[s], new Shannon<String>().measure(subtree));
+			assert MathUtils.equalWithinFPError(result.getPhylogeneticShannon()[s],
+			                                    new PhylogeneticShannon<String>().measure(subtree));
+			assert MathUtils.equalWithinFPError(result.getFaithPD()[s], new FaithPD<String>().measure(subtree));
+			}
+		}
+
+	@Test(expectedExceptions = PhyloUtilsException.class)
+	public void nodeBeyondTheTreeIsRejected() throws TreeException, IOException, PhyloUtilsException
+		{
+		RootedPhylogeny<String> tree = TestPhylogenies.readGoodTree();
+		AlphaDiversityBatch<String> batch = new AlphaDiversityBatch<String>(tree);
+		batch.compute(new int[]{0, 1, 2}, new int[]{1, 100000}, new double[]{1, 1});
+		}
+
+	@Test(expectedExceptions = PhyloUtilsException.class)
+	public void offsetsBeyondTheEntriesAreRejected() throws TreeException, IOException, PhyloUtilsException
+		{
+		RootedPhylogeny<String> tree = TestPhylogenies.readGoodTree();
+		new AlphaDiversityBatch<String>(tree).compute(new int[]{0, 1, 3}, new int[]{1, 2}, new double[]{1, 1});
+		}
+	}
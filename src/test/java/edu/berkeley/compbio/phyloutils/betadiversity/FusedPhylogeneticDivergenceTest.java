@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils.betadiversity;
+
+import com.davidsoergel.dsutils.math.MathUtils;
+import com.davidsoergel.trees.AbstractRootedPhylogeny;
+import com.davidsoergel.trees.NoSuchNodeException;
+import com.davidsoergel.trees.RootedPhylogeny;
+import com.davidsoergel.trees.TreeException;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import edu.berkeley.compbio.phyloutils.PhyloUtilsException;
+import edu.berkeley.compbio.phyloutils.TestPhylogenies;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+
+/**
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+
+public class FusedPhylogeneticDivergenceTest
+	{
+	// -------------------------- OTHER METHODS --------------------------
+
+	private static RootedPhylogeny<String> extract(RootedPhylogeny<String> tree, String... leaves)
+			throws NoSuchNodeException, TreeException
+		{
+		Multiset<String> counts = HashMultiset.create(Arrays.asList(leaves));
+		RootedPhylogeny<String> result = tree.extractTreeWithLeafIDs(counts.elementSet(), false, false,
+		                                                             AbstractRootedPhylogeny.MutualExclusionResolutionMode.EXCEPTION);
+		result.setLeafWeights(counts);
+		return result;
+		}
+
+	/**
+	 * The divergence as computed before, over smoothed clones of the extracted union tree.
+	 */
+	private static double klByCloning(RootedPhylogeny<String> a, RootedPhylogeny<String> b)
+			throws NoSuchNodeException, TreeException, PhyloUtilsException
+		{
+		Set<String> unionLeaves = new HashSet<String>(a.getLeafValues());
+		unionLeaves.addAll(b.getLeafValues());
+		RootedPhylogeny<String> unionTree = a.getBasePhylogeny().extractTreeWithLeafIDs(unionLeaves, false, false,
+		                                                                                 AbstractRootedPhylogeny.MutualExclusionResolutionMode.EXCEPTION);
+
+		RootedPhylogeny<String> aTreeSmoothed = unionTree.clone();
+		aTreeSmoothed.smoothWeightsFrom(a, FusedPhylogeneticDivergence.SMOOTHING);
+		RootedPhylogeny<String> bTreeSmoothed = unionTree.clone();
+		bTreeSmoothed.smoothWeightsFrom(b, FusedPhylogeneticDivergence.SMOOTHING);
+
+		return new PhylogeneticKullbackLeibler<String>().klDivergenceBelow(unionTree, aTreeSmoothed, bTreeSmoothed);
+		}
+
+	@Test
+	public void fusedDivergencesMatchSmoothedClones()
+			throws TreeException, IOException, NoSuchNodeException, PhyloUtilsException
+		{
+		RootedPhylogeny<String> tree = TestPhylogenies.readGoodTree();
+		String[][] groups = {
+				{"raccoon", "bear", "bear"},
+				{"monkey", "weasel", "cat"},
+				{"cat", "dog", "sea_lion", "dog"},
+				{"raccoon"}
+		};
+
+		FusedPhylogeneticDivergence<String> fused = new FusedPhylogeneticDivergence<String>();
+		for (String[] aLeaves : groups)
+			{
+			for (String[] bLeaves : groups)
+				{
+				RootedPhylogeny<String> a = extract(tree, aLeaves);
+				RootedPhylogeny<String> b = extract(tree, bLeaves);
+				FusedPhylogeneticDivergence.Result result = fused.evaluate(a, b);
+
+				double klAB = klByCloning(a, b);
+				double klBA = klByCloning(b, a);
+				assert MathUtils.equalWithinFPError(result.getKullbackLeibler(), klAB);
+				assert MathUtils.equalWithinFPError(result.getReverseKullbackLeibler(), klBA);
+				assert MathUtils.equalWithinFPError(result.getJDivergence(), 0.5 * (klAB + klBA));
+				}
+			}
+		}
+	}
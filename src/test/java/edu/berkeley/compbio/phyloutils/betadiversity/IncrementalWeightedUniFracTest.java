@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils.betadiversity;
+
+import com.davidsoergel.dsutils.math.MathUtils;
+import com.davidsoergel.trees.AbstractRootedPhylogeny;
+import com.davidsoergel.trees.NoSuchNodeException;
+import com.davidsoergel.trees.RootedPhylogeny;
+import com.davidsoergel.trees.StringNodeNamer;
+import com.davidsoergel.trees.TreeException;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import edu.berkeley.compbio.phyloutils.CompactRootedPhylogeny;
+import edu.berkeley.compbio.phyloutils.GenericCompactRootedPhylogeny;
+import edu.berkeley.compbio.phyloutils.NewickParser;
+import edu.berkeley.compbio.phyloutils.TestPhylogenies;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+
+/**
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+
+public class IncrementalWeightedUniFracTest
+	{
+	// -------------------------- OTHER METHODS --------------------------
+
+	private static Map<String, Double> sample(String... leaves)
+		{
+		Map<String, Double> result = new HashMap<String, Double>();
+		for (String leaf : leaves)
+			{
+			Double w = result.get(leaf);
+			result.put(leaf, w == null ? 1.0 : w + 1.0);
+			}
+		return result;
+		}
+
+	@Test
+	public void runningDistancesMatchUniFracMatrix() throws TreeException, IOException, NoSuchNodeException
+		{
+		RootedPhylogeny<String> tree = TestPhylogenies.readGoodTree();
+
+		List<Map<String, Double>> references = new ArrayList<Map<String, Double>>();
+		references.add(sample("raccoon"));
+		references.add(sample("bear"));
+		references.add(sample("raccoon", "bear", "bear"));
+
+		IncrementalWeightedUniFrac<String> running = new IncrementalWeightedUniFrac<String>(tree, references);
+		assert Double.isNaN(running.getDistance(0));
+
+		String[] reads = {"bear", "raccoon", "bear", "bear", "raccoon"};
+		for (int k = 0; k < reads.length; k++)
+			{
+			running.add(reads[k], 1.0);
+
+			List<Map<String, Double>> samples = new ArrayList<Map<String, Double>>(references);
+			String[] soFar = new String[k + 1];
+			System.arraycopy(reads, 0, soFar, 0, k + 1);
+			samples.add(sample(soFar));
+			double[][] expected = new UniFracMatrix<String>(tree).compute(samples).getWeighted();
+
+			double[] distances = running.getDistances();
+			for (int r = 0; r < references.size(); r++)
+				{
+				assert MathUtils.equalWithinFPError(distances[r], expected[r][references.size()]);
+				}
+			}
+
+		running.clear();
+		running.add("raccoon", 2.0);
+		assert MathUtils.equalWithinFPError(running.getDistance(0), 0);
+		assert MathUtils.equalWithinFPError(running.getDistance(1), 26.0);
+		}
+
+	/**
+	 * @return the given tree restricted to the leaves of the given reads, weighted by their counts, as WeightedUniFrac
+	 *         takes samples
+	 */
+	private static <T extends Serializable> RootedPhylogeny<T> extractSample(RootedPhylogeny<T> tree, List<T> reads)
+			throws NoSuchNodeException, TreeException
+		{
+		Multiset<T> counts = HashMultiset.create(reads);
+		RootedPhylogeny<T> result = tree.extractTreeWithLeafIDs(counts.elementSet(), false, false,
+		                                                        AbstractRootedPhylogeny.MutualExclusionResolutionMode.EXCEPTION);
+		result.setLeafWeights(counts);
+		return result;
+		}
+
+	private static <T> Map<T, Double> countsOf(List<T> reads)
+		{
+		Map<T, Double> result = new HashMap<T, Double>();
+		for (T read : reads)
+			{
+			Double w = result.get(read);
+			result.put(read, w == null ? 1.0 : w + 1.0);
+			}
+		return result;
+		}
+
+	/**
+	 * Add the reads one at a time, and after each add from the second distinct read on, check the running distance to
+	 * each reference against WeightedUniFrac between the extracted samples.
+	 */
+	private static <T extends Serializable> void assertRunningMatchesWeightedUniFrac(RootedPhylogeny<T> tree,
+	                                                                                CompactRootedPhylogeny<T> compactTree,
+	                                                                                List<List<T>> references,
+	                                                                                List<T> reads)
+			throws NoSuchNodeException, TreeException
+		{
+		List<Map<T, Double>> referenceCounts = new ArrayList<Map<T, Double>>();
+		List<RootedPhylogeny<T>> referenceSamples = new ArrayList<RootedPhylogeny<T>>();
+		for (List<T> reference : references)
+			{
+			referenceCounts.add(countsOf(reference));
+			referenceSamples.add(extractSample(tree, reference));
+			}
+
+		IncrementalWeightedUniFrac<T> running = new IncrementalWeightedUniFrac<T>(compactTree, referenceCounts);
+		WeightedUniFrac<T> weightedUniFrac = new WeightedUniFrac<T>();
+		for (int k = 0; k < reads.size(); k++)
+			{
+			running.add(reads.get(k), 1.0);
+			List<T> soFar = reads.subList(0, k + 1);
+			if (new HashSet<T>(soFar).size() < 2)
+				{
+				continue;
+				}
+			RootedPhylogeny<T> sample = extractSample(tree, soFar);
+			for (int r = 0; r < references.size(); r++)
+				{
+				assert MathUtils.equalWithinFPError(running.getDistance(r),
+				                                    weightedUniFrac.distanceFromTo(referenceSamples.get(r), sample));
+				}
+			}
+		}
+
+	@Test
+	public void runningDistancesMatchWeightedUniFrac() throws TreeException, IOException, NoSuchNodeException
+		{
+		RootedPhylogeny<String> tree = TestPhylogenies.readGoodTree();
+		List<List<String>> references = new ArrayList<List<String>>();
+		references.add(Arrays.asList("raccoon", "bear", "bear"));
+		references.add(Arrays.asList("monkey", "weasel", "cat"));
+		references.add(Arrays.asList("cat", "dog", "sea_lion"));
+
+		assertRunningMatchesWeightedUniFrac(tree, new GenericCompactRootedPhylogeny<String>(tree), references,
+		                                    Arrays.asList("seal", "bear", "cat", "seal", "dog", "raccoon", "raccoon"));
+		}
+
+	@Test
+	public void runningDistancesMatchWeightedUniFracOnRandomTrees() throws TreeException, IOException, NoSuchNodeException
+		{
+		Random random = new Random(4321);
+		for (int trial = 0; trial < 5; trial++)
+			{
+			List<String> leaves = new ArrayList<String>();
+			String newick = randomNewick(random, 0, leaves) + ";";
+			RootedPhylogeny<String> tree = new NewickParser<String>()
+					.read(new ByteArrayInputStream(newick.getBytes("UTF-8")), new StringNodeNamer("NONAME_", false, false));
+
+			List<List<String>> references = new ArrayList<List<String>>();
+			for (int r = 0; r < 3; r++)
+				{
+				references.add(randomReads(random, leaves, 2 + random.nextInt(6)));
+				}
+			assertRunningMatchesWeightedUniFrac(tree, new GenericCompactRootedPhylogeny<String>(tree), references,
+			                                    randomReads(random, leaves, 12));
+			}
+		}
+
+	/**
+	 * @return a random subtree in Newick format, with two or three children per internal node and random branch lengths,
+	 *         adding the names of its leaves to the given list
+	 */
+	private static String randomNewick(Random random, int depth, List<String> leaves)
+		{
+		String result;
+		if (depth > 0 && (depth >= 6 || random.nextInt(3) == 0))
+			{
+			result = "leaf" + leaves.size();
+			leaves.add(result);
+			}
+		else
+			{
+			StringBuilder sb = new StringBuilder("(");
+			int children = 2 + random.nextInt(2);
+			for (int i = 0; i < children; i++)
+				{
+				if (i > 0)
+					{
+					sb.append(',');
+					}
+				sb.append(randomNewick(random, depth + 1, leaves));
+				}
+			result = sb.append(')').toString();
+			}
+		return depth == 0 ? result : String.format(Locale.US, "%s:%.5f", result, 0.5 + 10 * random.nextDouble());
+		}
+
+	/**
+	 * @return the given number of reads drawn from the given leaves, at least two of them distinct
+	 */
+	private static List<String> randomReads(Random random, List<String> leaves, int count)
+		{
+		List<String> result = new ArrayList<String>();
+		while (new HashSet<String>(result).size() < 2)
+			{
+			result.clear();
+			for (int i = 0; i < count; i++)
+				{
+				result.add(leaves.get(random.nextInt(leaves.size())));
+				}
+			}
+		return result;
+		}
+	}
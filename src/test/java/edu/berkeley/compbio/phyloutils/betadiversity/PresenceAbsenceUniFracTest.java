@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils.betadiversity;
+
+import com.davidsoergel.dsutils.math.MathUtils;
+import com.davidsoergel.trees.NoSuchNodeException;
+import com.davidsoergel.trees.RootedPhylogeny;
+import com.davidsoergel.trees.TreeException;
+import edu.berkeley.compbio.phyloutils.TestPhylogenies;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+
+public class PresenceAbsenceUniFracTest
+	{
+	// -------------------------- OTHER METHODS --------------------------
+
+	@Test
+	public void presenceAbsenceUniFracMatchesHandComputedDistances()
+			throws TreeException, IOException, NoSuchNodeException
+		{
+		PresenceAbsenceUniFrac<String> uniFrac = new PresenceAbsenceUniFrac<String>(TestPhylogenies.readGoodTree());
+
+		PresenceAbsenceUniFrac.Sample raccoon = uniFrac.sampleOf(Arrays.asList("raccoon"));
+		PresenceAbsenceUniFrac.Sample bear = uniFrac.sampleOf(Arrays.asList("bear"));
+		PresenceAbsenceUniFrac.Sample both = uniFrac.sampleOf(Arrays.asList("raccoon", "bear"));
+
+		assert MathUtils.equalWithinFPError(uniFrac.distanceBetween(raccoon, bear), 1.0);
+		assert MathUtils.equalWithinFPError(uniFrac.distanceBetween(raccoon, both), 1.0 - 19.19959 / 26.0);
+		assert MathUtils.equalWithinFPError(uniFrac.distanceBetween(both, both), 0);
+		assert uniFrac.distanceBetween(raccoon, raccoon) == 0;
+		assert uniFrac.distanceBetween(raccoon, uniFrac.sampleOf(Arrays.asList("raccoon"))) == 0;
+
+		// the spanning tree is the ((monkey,cat),weasel) clade, in which only the (monkey,cat) branch is shared
+		double unionLength = 100.85930 + 47.14069 + 20.59201 + 18.87953;
+		assert MathUtils.equalWithinFPError(
+				uniFrac.distanceBetween(uniFrac.sampleOf(Arrays.asList("monkey", "weasel")),
+				                        uniFrac.sampleOf(Arrays.asList("cat"))), 1.0 - 20.59201 / unionLength);
+		}
+
+	@Test
+	public void presenceAbsenceMatrixAgreesWithUniFracMatrix() throws TreeException, IOException, NoSuchNodeException
+		{
+		RootedPhylogeny<String> tree = TestPhylogenies.readGoodTree();
+
+		List<Set<String>> leafSets = new ArrayList<Set<String>>();
+		List<Map<String, Double>> samples = new ArrayList<Map<String, Double>>();
+		String[][] groups = {
+				{"raccoon"},
+				{"raccoon", "bear"},
+				{"monkey", "weasel"},
+				{"cat", "dog", "sea_lion"},
+				{"seal", "monkey"},
+				{"bear", "weasel", "dog"},
+				{"raccoon"}
+		};
+		for (String[] group : groups)
+			{
+			Map<String, Double> sample = new HashMap<String, Double>();
+			for (String leaf : group)
+				{
+				sample.put(leaf, 1.0);
+				}
+			samples.add(sample);
+			leafSets.add(sample.keySet());
+			}
+
+		double[][] expected = new UniFracMatrix<String>(tree).compute(samples).getUnweighted();
+		double[][] result = new PresenceAbsenceUniFrac<String>(tree).distanceMatrixOf(leafSets);
+
+		for (int i = 0; i < groups.length; i++)
+			{
+			assert result[i][i] == 0;
+			for (int j = 0; j < groups.length; j++)
+				{
+				assert result[i][j] == result[j][i];
+				assert MathUtils.equalWithinFPError(result[i][j], expected[i][j]);
+				}
+			}
+		}
+	}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils.betadiversity;
+
+import com.davidsoergel.dsutils.math.MathUtils;
+import com.davidsoergel.trees.AbstractRootedPhylogeny;
+import com.davidsoergel.trees.NoSuchNodeException;
+import com.davidsoergel.trees.RootedPhylogeny;
+import com.davidsoergel.trees.TreeException;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import edu.berkeley.compbio.phyloutils.TestPhylogenies;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+
+public class UniFracMatrixTest
+	{
+	// -------------------------- OTHER METHODS --------------------------
+
+	private static Map<String, Double> sample(String... leaves)
+		{
+		Map<String, Double> result = new HashMap<String, Double>();
+		for (String leaf : leaves)
+			{
+			result.put(leaf, 1.0);
+			}
+		return result;
+		}
+
+	private UniFracMatrix.Result computeForGoodTree(List<Map<String, Double>> samples)
+			throws TreeException, IOException, NoSuchNodeException
+		{
+		return new UniFracMatrix<String>(TestPhylogenies.readGoodTree()).compute(samples);
+		}
+
+	@Test
+	public void uniFracMatrixMatchesHandComputedDistances() throws TreeException, IOException, NoSuchNodeException
+		{
+		List<Map<String, Double>> samples = new ArrayList<Map<String, Double>>();
+		samples.add(sample("raccoon"));
+		samples.add(sample("bear"));
+		samples.add(sample("raccoon", "bear"));
+		samples.add(sample("raccoon"));
+
+		UniFracMatrix.Result result = computeForGoodTree(samples);
+
+		// disjoint single leaves: the whole spanning tree is unshared
+		assert MathUtils.equalWithinFPError(result.getWeighted()[0][1], 26.0);
+		assert MathUtils.equalWithinFPError(result.getNormalizedWeighted()[0][1], 1.0);
+		assert MathUtils.equalWithinFPError(result.getUnweighted()[0][1], 1.0);
+
+		// half of the second sample's weight is on each leaf
+		assert MathUtils.equalWithinFPError(result.getWeighted()[0][2], 13.0);
+		assert MathUtils.equalWithinFPError(result.getNormalizedWeighted()[0][2], 13.0 / (19.19959 + 13.0));
+		assert MathUtils.equalWithinFPError(result.getUnweighted()[0][2], 1.0 - 19.19959 / 26.0);
+
+		// identical samples, which span no branches at all
+		assert result.getWeighted()[0][3] == 0;
+		assert result.getNormalizedWeighted()[0][3] == 0;
+		assert result.getUnweighted()[0][3] == 0;
+
+		for (int i = 0; i < samples.size(); i++)
+			{
+			assert result.getWeighted()[i][i] == 0;
+			for (int j = 0; j < samples.size(); j++)
+				{
+				assert result.getWeighted()[i][j] == result.getWeighted()[j][i];
+				assert result.getUnweighted()[i][j] == result.getUnweighted()[j][i];
+				}
+			}
+		}
+
+	@Test
+	public void uniFracMatrixIgnoresBranchesAboveSampledClades()
+			throws TreeException, IOException, NoSuchNodeException
+		{
+		List<Map<String, Double>> samples = new ArrayList<Map<String, Double>>();
+		samples.add(sample("monkey", "weasel"));
+		samples.add(sample("cat"));
+		samples.add(sample("dog"));
+
+		UniFracMatrix.Result result = computeForGoodTree(samples);
+
+		// the spanning tree is the ((monkey,cat),weasel) clade, in which only the (monkey,cat) branch is shared
+		double unionLength = 100.85930 + 47.14069 + 20.59201 + 18.87953;
+		assert MathUtils.equalWithinFPError(result.getUnweighted()[0][1], 1.0 - 20.59201 / unionLength);
+		assert MathUtils.equalWithinFPError(result.getWeighted()[0][1],
+		                                    0.5 * 100.85930 + 47.14069 + 0.5 * 20.59201 + 0.5 * 18.87953);
+		assert MathUtils.equalWithinFPError(result.getWeighted()[0][1] / result.getNormalizedWeighted()[0][1],
+		                                    0.5 * (100.85930 + 20.59201) + 0.5 * 18.87953 + 47.14069 + 20.59201);
+
+		// dog is across the root from everything else
+		assert MathUtils.equalWithinFPError(result.getUnweighted()[1][2], 1.0);
+		assert MathUtils.equalWithinFPError(result.getWeighted()[1][2],
+		                                    47.14069 + 20.59201 + 2.09460 + 3.87382 + 25.46154);
+		}
+
+	@Test
+	public void uniFracMatrixMatchesPairwiseUniFrac() throws TreeException, IOException, NoSuchNodeException
+		{
+		RootedPhylogeny<String> tree = TestPhylogenies.readGoodTree();
+		String[][] groups = {{"raccoon", "bear", "bear"}, {"monkey", "weasel", "cat"}, {"cat", "dog", "sea_lion"},
+		                     {"raccoon", "seal", "seal", "seal"}};
+
+		List<RootedPhylogeny<String>> trees = new ArrayList<RootedPhylogeny<String>>();
+		List<Map<String, Double>> samples = new ArrayList<Map<String, Double>>();
+		for (String[] leaves : groups)
+			{
+			Multiset<String> counts = HashMultiset.create(Arrays.asList(leaves));
+			RootedPhylogeny<String> sample = tree.extractTreeWithLeafIDs(counts.elementSet(), false, false,
+			                                                             AbstractRootedPhylogeny.MutualExclusionResolutionMode.EXCEPTION);
+			sample.setLeafWeights(counts);
+			trees.add(sample);
+
+			Map<String, Double> countMap = new HashMap<String, Double>();
+			for (Multiset.Entry<String> entry : counts.entrySet())
+				{
+				countMap.put(entry.getElement(), (double) entry.getCount());
+				}
+			samples.add(countMap);
+			}
+
+		UniFracMatrix.Result result = new UniFracMatrix<String>(tree).compute(samples);
+		WeightedUniFrac<String> weighted = new WeightedUniFrac<String>();
+		NormalizedWeightedUniFrac<String> normalized = new NormalizedWeightedUniFrac<String>();
+		UnweightedUniFrac<String> unweighted = new UnweightedUniFrac<String>();
+		for (int s = 0; s < groups.length; s++)
+			{
+			for (int t = 0; t < groups.length; t++)
+				{
+				if (s != t)
+					{
+					RootedPhylogeny<String> a = trees.get(s);
+					RootedPhylogeny<String> b = trees.get(t);
+					assert MathUtils.equalWithinFPError(result.getWeighted()[s][t], weighted.distanceFromTo(a, b));
+					assert MathUtils.equalWithinFPError(result.getNormalizedWeighted()[s][t],
+					                                    normalized.distanceFromTo(a, b));
+					assert MathUtils.equalWithinFPError(result.getUnweighted()[s][t], unweighted.distanceFromTo(a, b));
+					}
+				}
+			}
+		}
+	}
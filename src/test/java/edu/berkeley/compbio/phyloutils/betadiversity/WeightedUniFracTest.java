@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2006-2013  David Soergel  <dev@davidsoergel.com>
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+package edu.berkeley.compbio.phyloutils.betadiversity;
+
+import com.davidsoergel.dsutils.math.MathUtils;
+import com.davidsoergel.trees.AbstractRootedPhylogeny;
+import com.davidsoergel.trees.NoSuchNodeException;
+import com.davidsoergel.trees.RootedPhylogeny;
+import com.davidsoergel.trees.TreeException;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import edu.berkeley.compbio.phyloutils.GenericCompactRootedPhylogeny;
+import edu.berkeley.compbio.phyloutils.TestPhylogenies;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+
+/**
+ * @author <a href="mailto:dev@davidsoergel.com">David Soergel</a>
+ * @version $Id$
+ */
+
+public class WeightedUniFracTest
+	{
+	// -------------------------- OTHER METHODS --------------------------
+
+	@Test
+	public void distancesOverVirtualTreesMatchExtraction()
+			throws TreeException, IOException, NoSuchNodeException
+		{
+		RootedPhylogeny<String> tree = TestPhylogenies.readGoodTree();
+		// the last two share their single leaf, so their union tree is that one node
+		String[][] groups = {{"raccoon", "bear", "bear"}, {"monkey", "weasel", "cat"}, {"cat", "dog", "sea_lion"},
+		                     {"seal"}, {"seal", "seal"}};
+
+		List<RootedPhylogeny<String>> samples = new ArrayList<RootedPhylogeny<String>>();
+		for (String[] leaves : groups)
+			{
+			Multiset<String> counts = HashMultiset.create(Arrays.asList(leaves));
+			RootedPhylogeny<String> sample = tree.extractTreeWithLeafIDs(counts.elementSet(), false, false,
+			                                                             AbstractRootedPhylogeny.MutualExclusionResolutionMode.EXCEPTION);
+			sample.setLeafWeights(counts);
+			samples.add(sample);
+			}
+
+		WeightedUniFrac<String> extracting = new WeightedUniFrac<String>();
+		WeightedUniFrac<String> virtual = new WeightedUniFrac<String>(new GenericCompactRootedPhylogeny<String>(tree));
+		for (RootedPhylogeny<String> a : samples)
+			{
+			for (RootedPhylogeny<String> b : samples)
+				{
+				assert MathUtils.equalWithinFPError(virtual.distanceFromTo(a, b), extracting.distanceFromTo(a, b));
+				}
+			}
+		}
+
+	@Test(expectedExceptions = Error.class)
+	public void virtualTreesOverAnotherBaseTreeAreRejected()
+			throws TreeException, IOException, NoSuchNodeException
+		{
+		RootedPhylogeny<String> tree = TestPhylogenies.readGoodTree();
+		RootedPhylogeny<String> a = tree.extractTreeWithLeafIDs(new HashSet<String>(Arrays.asList("raccoon", "bear")),
+		                                                        false, false,
+		                                                        AbstractRootedPhylogeny.MutualExclusionResolutionMode.EXCEPTION);
+		RootedPhylogeny<String> b = tree.extractTreeWithLeafIDs(new HashSet<String>(Arrays.asList("seal", "dog")),
+		                                                        false, false,
+		                                                        AbstractRootedPhylogeny.MutualExclusionResolutionMode.EXCEPTION);
+
+		// a compact copy of one of the samples, rather than of the tree they were extracted from
+		new WeightedUniFrac<String>(new GenericCompactRootedPhylogeny<String>(a)).distanceFromTo(a, b);
+		}
+	}